@@ -49,16 +49,40 @@ import com.amazonaws.services.lambda.model.ListEventSourceMappingsResult;
 import com.amazonaws.services.lambda.model.UpdateEventSourceMappingRequest;
 import com.amazonaws.services.lambda.model.UpdateEventSourceMappingResult;
 
+/**
+ * A subscription from a Lambda function to the stream of a DynamoDB table.
+ * 
+ * The following optional configuration is supported:
+ * <ul>
+ * <li>batchSize - the maximum number of records per invocation, 1 to 10000, default 5.</li>
+ * <li>concurrency - the number of batches from each shard processed concurrently, 1 to 10, default 1.
+ * Records with the same partition key are always processed in order.</li>
+ * <li>batchWindowSeconds - the time to wait to fill a batch, 0 to 300, default 0.</li>
+ * <li>bisectOnError - if true then a failed batch is split in two before being retried, default false.</li>
+ * <li>maxRetries - the number of times a failed batch is retried, default -1 which means until the records expire.</li>
+ * </ul>
+ * 
+ * @author Bruce Skingle
+ *
+ */
 class AwsDbSubscription extends DbSubscription
 {
+  private static final int            MAX_BATCH_SIZE     = 10000;
+  private static final int            MAX_CONCURRENCY    = 10;
+  private static final int            MAX_BATCH_WINDOW   = 300;
+  
+
   private static final Logger         log_ = LoggerFactory.getLogger(AwsDbSubscription.class);
 
   private final AWSLambda             lambdaClient_;
   private final AmazonDynamoDBStreams dynamoStreamsClient_;
   private final AmazonDynamoDB        amazonDynamoDB_;
 
-  private final int batchSize_;
-  private final int concurrency_;
+  private final int                   batchSize_;
+  private final int                   concurrency_;
+  private final int                   batchWindowSeconds_;
+  private final boolean               bisectOnError_;
+  private final int                   maxRetries_;
   
   AwsDbSubscription(JsonObject<?> json, INameFactory nameFactory, AWSLambda lambdaClient, AmazonDynamoDBStreams dynamoStreamsClient,
       AmazonDynamoDB amazonDynamoDB)
@@ -69,8 +93,25 @@ class AwsDbSubscription extends DbSubscription
     dynamoStreamsClient_ = dynamoStreamsClient;
     amazonDynamoDB_ = amazonDynamoDB;
 
-    batchSize_ = json.getInteger("batchSize", 5);
-    concurrency_ = json.getInteger("concurrency", 1);
+    batchSize_ = limit("batchSize", json.getInteger("batchSize", 5), 1, MAX_BATCH_SIZE);
+    concurrency_ = limit("concurrency", json.getInteger("concurrency", 1), 1, MAX_CONCURRENCY);
+    batchWindowSeconds_ = limit("batchWindowSeconds", json.getInteger("batchWindowSeconds", 0), 0, MAX_BATCH_WINDOW);
+    bisectOnError_ = json.getBoolean("bisectOnError", false);
+    maxRetries_ = json.getInteger("maxRetries", -1);
+  }
+
+  private int limit(String name, int value, int min, int max)
+  {
+    if(value < min || value > max)
+    {
+      int limited = Math.min(max, Math.max(min, value));
+      
+      log_.warn("DbSubscription " + name + " of " + value + " is out of range, using " + limited);
+      
+      return limited;
+    }
+    
+    return value;
   }
 
   @Override
@@ -152,7 +193,10 @@ class AwsDbSubscription extends DbSubscription
       {
         if("Enabled".equals(mapping.getState()) && 
             intEquals(mapping.getBatchSize(), batchSize_) && 
-            intEquals(mapping.getParallelizationFactor(), concurrency_))
+            intEquals(mapping.getParallelizationFactor(), concurrency_) && 
+            intEquals(mapping.getMaximumBatchingWindowInSeconds(), batchWindowSeconds_) && 
+            intEquals(mapping.getMaximumRetryAttempts(), maxRetries_) && 
+            Boolean.valueOf(bisectOnError_).equals(mapping.getBisectBatchOnFunctionError()))
         {
           log_.info("Event source mapping to " + functionName + " exists.");
           return;
@@ -163,6 +207,9 @@ class AwsDbSubscription extends DbSubscription
             .withUUID(mapping.getUUID())
             .withBatchSize(batchSize_)
             .withParallelizationFactor(concurrency_)
+            .withMaximumBatchingWindowInSeconds(batchWindowSeconds_)
+            .withBisectBatchOnFunctionError(bisectOnError_)
+            .withMaximumRetryAttempts(maxRetries_)
             .withEnabled(true)
             );
         
@@ -180,6 +227,9 @@ class AwsDbSubscription extends DbSubscription
         .withStartingPosition(EventSourcePosition.LATEST)
         .withBatchSize(batchSize_)
         .withParallelizationFactor(concurrency_)
+        .withMaximumBatchingWindowInSeconds(batchWindowSeconds_)
+        .withBisectBatchOnFunctionError(bisectOnError_)
+        .withMaximumRetryAttempts(maxRetries_)
         );
     
     log_.info("Event source mapping to " + functionName + " created");
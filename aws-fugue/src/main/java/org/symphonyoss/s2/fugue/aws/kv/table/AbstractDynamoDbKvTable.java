@@ -23,8 +23,11 @@
 
 package org.symphonyoss.s2.fugue.aws.kv.table;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -32,13 +35,24 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.symphonyoss.s2.common.concurrent.NamedThreadFactory;
 import org.symphonyoss.s2.common.exception.NoSuchObjectException;
 import org.symphonyoss.s2.common.fault.FaultAccumulator;
 import org.symphonyoss.s2.common.fault.ProgramFault;
@@ -47,21 +61,31 @@ import org.symphonyoss.s2.common.fault.TransientTransactionFault;
 import org.symphonyoss.s2.common.hash.Hash;
 import org.symphonyoss.s2.fugue.Fugue;
 import org.symphonyoss.s2.fugue.aws.AwsTags;
+import org.symphonyoss.s2.fugue.concurrent.AsyncOperationLimiter;
 import org.symphonyoss.s2.fugue.core.trace.ITraceContext;
 import org.symphonyoss.s2.fugue.core.trace.NoOpTraceContext;
+import org.symphonyoss.s2.fugue.kv.IKvFetchAllResult;
 import org.symphonyoss.s2.fugue.kv.IKvItem;
 import org.symphonyoss.s2.fugue.kv.IKvPagination;
 import org.symphonyoss.s2.fugue.kv.IKvPartitionKeyProvider;
 import org.symphonyoss.s2.fugue.kv.IKvPartitionSortKeyProvider;
 import org.symphonyoss.s2.fugue.kv.KvCondition;
+import org.symphonyoss.s2.fugue.kv.KvFetchAllResult;
 import org.symphonyoss.s2.fugue.kv.KvPagination;
 import org.symphonyoss.s2.fugue.kv.table.AbstractKvTable;
+import org.symphonyoss.s2.fugue.kv.table.AsyncKvTableMetrics;
+import org.symphonyoss.s2.fugue.kv.table.IAsyncKvTable;
+import org.symphonyoss.s2.fugue.kv.table.KvPartitionIterator;
 import org.symphonyoss.s2.fugue.store.ObjectExistsException;
 
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.handlers.AsyncHandler;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsyncClientBuilder;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import com.amazonaws.services.dynamodbv2.document.BatchGetItemOutcome;
 import com.amazonaws.services.dynamodbv2.document.BatchWriteItemOutcome;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Item;
@@ -72,9 +96,11 @@ import com.amazonaws.services.dynamodbv2.document.Page;
 import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
 import com.amazonaws.services.dynamodbv2.document.QueryOutcome;
 import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
 import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
 import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
+import com.amazonaws.services.dynamodbv2.document.spec.ScanSpec;
 import com.amazonaws.services.dynamodbv2.document.utils.ValueMap;
 import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
@@ -87,7 +113,10 @@ import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
 import com.amazonaws.services.dynamodbv2.model.DeleteTableRequest;
 import com.amazonaws.services.dynamodbv2.model.DescribeTimeToLiveRequest;
 import com.amazonaws.services.dynamodbv2.model.DescribeTimeToLiveResult;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
 import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
 import com.amazonaws.services.dynamodbv2.model.KeyType;
 import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
 import com.amazonaws.services.dynamodbv2.model.Put;
@@ -101,6 +130,7 @@ import com.amazonaws.services.dynamodbv2.model.TimeToLiveDescription;
 import com.amazonaws.services.dynamodbv2.model.TimeToLiveSpecification;
 import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
 import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsResult;
 import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
 import com.amazonaws.services.dynamodbv2.model.Update;
 import com.amazonaws.services.dynamodbv2.model.UpdateTableRequest;
@@ -115,7 +145,7 @@ import com.amazonaws.services.dynamodbv2.model.WriteRequest;
  *
  * @param <T> Concrete type for fluent methods.
  */
-public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<T>> extends AbstractKvTable<T>
+public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<T>> extends AbstractKvTable<T> implements IAsyncKvTable
 {
   private static final Logger         log_                   = LoggerFactory.getLogger(AbstractDynamoDbKvTable.class);
 
@@ -127,8 +157,12 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
   public static final String       ColumnNameTTL          = "t";
   public static final String       ColumnNameCreatedDate  = "c";
   public static final String       ColumnNameAbsoluteHash = "h";
+  public static final String       ColumnNameCompressedDocument = "z";
 
   protected static final int          MAX_RECORD_SIZE        = 400 * 1024;
+  protected static final int          MAX_BATCH_WRITE_ITEMS  = 25;
+  protected static final int          MAX_BATCH_GET_ITEMS    = 100;
+  protected static final int          SCAN_PAGE_SIZE         = 250;
 
   private static final String KEY_EXISTS = "An object with given partition and sort key already exists.";
 
@@ -143,6 +177,23 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
   protected final boolean             validate_;
   protected final boolean             enableSecondaryStorage_;
   protected final StreamSpecification streamSpecification_;
+  protected final boolean             bulkStore_;
+  protected final PayloadCompression  payloadCompression_;
+  protected final int                 prefetchDepth_;
+  protected final ThreadPoolExecutor  bulkWriteExecutor_;
+  protected final AsyncOperationLimiter asyncLimiter_;
+  protected final AsyncKvTableMetrics   asyncMetrics_ = new AsyncKvTableMetrics();
+  
+  /*
+   * The async client and executors are only needed by the IAsyncKvTable methods and partition scans, so they are
+   * created on first use, guarded by asyncLock_.
+   */
+  private final Object                            asyncLock_ = new Object();
+  private final AmazonDynamoDBAsyncClientBuilder  amazonDynamoDBAsyncClientBuilder_;
+  private final int                               maxAsyncConcurrency_;
+  private volatile AmazonDynamoDBAsync            amazonDynamoDBAsync_;
+  private volatile ThreadPoolExecutor             asyncExecutor_;
+  private volatile ScheduledExecutorService       retryScheduler_;
   
   protected AbstractDynamoDbKvTable(AbstractBuilder<?,?> builder)
   {
@@ -153,6 +204,17 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
     validate_ = builder.validate_;
     enableSecondaryStorage_ = builder.enableSecondaryStorage_;
     streamSpecification_ = builder.streamSpecification_;
+    bulkStore_ = builder.bulkStore_;
+    payloadCompression_ = builder.payloadCompression_;
+    prefetchDepth_ = builder.prefetchDepth_;
+    
+    bulkWriteExecutor_ = new ThreadPoolExecutor(builder.maxBulkWriteConcurrency_, builder.maxBulkWriteConcurrency_,
+        60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new NamedThreadFactory("DynamoDB-bulk-write", true));
+    bulkWriteExecutor_.allowCoreThreadTimeOut(true);
+    
+    asyncLimiter_ = new AsyncOperationLimiter(builder.maxAsyncConcurrency_);
+    maxAsyncConcurrency_ = builder.maxAsyncConcurrency_;
+    amazonDynamoDBAsyncClientBuilder_ = builder.amazonDynamoDBAsyncClientBuilder_;
   
     log_.info("Starting storage...");
     
@@ -170,6 +232,85 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
     log_.info("storage started.");
   }
   
+  /**
+   * Create the asynchronous DynamoDB client, this is called at most once, on first use.
+   * 
+   * @return A new asynchronous DynamoDB client.
+   */
+  protected AmazonDynamoDBAsync createAmazonDynamoDBAsync()
+  {
+    return amazonDynamoDBAsyncClientBuilder_.build();
+  }
+  
+  protected AmazonDynamoDBAsync getAmazonDynamoDBAsync()
+  {
+    AmazonDynamoDBAsync client = amazonDynamoDBAsync_;
+    
+    if(client == null)
+    {
+      synchronized(asyncLock_)
+      {
+        if(amazonDynamoDBAsync_ == null)
+          amazonDynamoDBAsync_ = createAmazonDynamoDBAsync();
+        
+        client = amazonDynamoDBAsync_;
+      }
+    }
+    
+    return client;
+  }
+  
+  protected ThreadPoolExecutor getAsyncExecutor()
+  {
+    ThreadPoolExecutor executor = asyncExecutor_;
+    
+    if(executor == null)
+    {
+      synchronized(asyncLock_)
+      {
+        if(asyncExecutor_ == null)
+        {
+          ThreadPoolExecutor newExecutor = new ThreadPoolExecutor(maxAsyncConcurrency_, maxAsyncConcurrency_,
+              60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new NamedThreadFactory("DynamoDB-async", true));
+          
+          newExecutor.allowCoreThreadTimeOut(true);
+          asyncExecutor_ = newExecutor;
+        }
+        
+        executor = asyncExecutor_;
+      }
+    }
+    
+    return executor;
+  }
+  
+  /*
+   * Delayed retries are scheduled here rather than sleeping on an executor thread. The tasks only start another
+   * asynchronous request so a single thread is enough.
+   */
+  private ScheduledExecutorService getRetryScheduler()
+  {
+    ScheduledExecutorService scheduler = retryScheduler_;
+    
+    if(scheduler == null)
+    {
+      synchronized(asyncLock_)
+      {
+        if(retryScheduler_ == null)
+        {
+          ScheduledThreadPoolExecutor newScheduler = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("DynamoDB-retry", true));
+          
+          newScheduler.setRemoveOnCancelPolicy(true);
+          retryScheduler_ = newScheduler;
+        }
+        
+        scheduler = retryScheduler_;
+      }
+    }
+    
+    return scheduler;
+  }
+  
   protected void validate()
   {
     if(validate_)
@@ -200,7 +341,7 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
       if(item == null)
         throw new NoSuchObjectException("Item (" + getPartitionKey(partitionSortKey) + ", " + partitionSortKey.getSortKey() + ") not found.");
       
-      String payloadString = item.getString(ColumnNameDocument);
+      String payloadString = getDocument(item);
       
       if(payloadString == null)
       {
@@ -213,6 +354,178 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
     });
   }
 
+  @Override
+  public IKvFetchAllResult fetchAll(Collection<? extends IKvPartitionSortKeyProvider> partitionSortKeys, ITraceContext trace)
+  {
+    Map<IKvPartitionSortKeyProvider, String>          results     = new HashMap<>();
+    List<IKvPartitionSortKeyProvider>                 missing     = new ArrayList<>();
+    Map<String, List<IKvPartitionSortKeyProvider>>    requestMap  = new HashMap<>();
+    List<PrimaryKey>                                  primaryKeys = new ArrayList<>(partitionSortKeys.size());
+    
+    // BatchGetItem rejects duplicate keys so each distinct key is requested once.
+    for(IKvPartitionSortKeyProvider partitionSortKey : partitionSortKeys)
+    {
+      String partitionKey = getPartitionKey(partitionSortKey);
+      String sortKey      = partitionSortKey.getSortKey().asString();
+      String key          = itemKey(partitionKey, sortKey);
+      
+      List<IKvPartitionSortKeyProvider> requests = requestMap.get(key);
+      
+      if(requests == null)
+      {
+        requests = new ArrayList<>(1);
+        requestMap.put(key, requests);
+        primaryKeys.add(new PrimaryKey(ColumnNamePartitionKey, partitionKey, ColumnNameSortKey, sortKey));
+      }
+      
+      requests.add(partitionSortKey);
+    }
+    
+    if(primaryKeys.isEmpty())
+      return new KvFetchAllResult(results, missing);
+    
+    trace.trace("ABOUT_TO_FETCH_ALL");
+    
+    List<Future<List<Item>>> futures  = new ArrayList<>(primaryKeys.size() / MAX_BATCH_GET_ITEMS);
+    int                      start    = 0;
+    
+    while(primaryKeys.size() - start > MAX_BATCH_GET_ITEMS)
+    {
+      List<PrimaryKey> chunk = primaryKeys.subList(start, start + MAX_BATCH_GET_ITEMS);
+      
+      futures.add(bulkWriteExecutor_.submit(() -> bulkGet(chunk, trace)));
+      
+      start += MAX_BATCH_GET_ITEMS;
+    }
+    
+    List<PrimaryKey>  lastChunk = primaryKeys.subList(start, primaryKeys.size());
+    List<List<Item>>  chunks    = waitForAll(futures, () -> bulkGet(lastChunk, trace));
+    
+    Map<String, Future<String>> secondaryFetches = new HashMap<>();
+    
+    for(List<Item> items : chunks)
+    {
+      for(Item item : items)
+      {
+        String key            = itemKey(item.getString(ColumnNamePartitionKey), item.getString(ColumnNameSortKey));
+        String payloadString  = getDocument(item);
+        
+        if(payloadString == null)
+        {
+          Hash absoluteHash = Hash.ofBase64String(item.getString(ColumnNameAbsoluteHash));
+          
+          secondaryFetches.put(key, bulkWriteExecutor_.submit(() -> fetchFromSecondaryStorage(absoluteHash, trace)));
+        }
+        else
+        {
+          for(IKvPartitionSortKeyProvider request : requestMap.remove(key))
+            results.put(request, payloadString);
+        }
+      }
+    }
+    
+    RuntimeException failure = null;
+    
+    for(Entry<String, Future<String>> entry : secondaryFetches.entrySet())
+    {
+      try
+      {
+        String payloadString = entry.getValue().get();
+        
+        for(IKvPartitionSortKeyProvider request : requestMap.remove(entry.getKey()))
+          results.put(request, payloadString);
+      }
+      catch (ExecutionException e)
+      {
+        // A row whose payload is missing from secondary storage is reported as missing, just as fetch() would throw.
+        if(!(e.getCause() instanceof NoSuchObjectException) && failure == null)
+          failure = e.getCause() instanceof RuntimeException ? (RuntimeException)e.getCause() : new TransactionFault(e.getCause());
+      }
+      catch (InterruptedException e)
+      {
+        if(failure == null)
+          failure = new TransientTransactionFault("Interrupted waiting for secondary storage", e);
+      }
+    }
+    
+    if(failure != null)
+    {
+      trace.trace("FAILED_FETCH_ALL");
+      throw failure;
+    }
+    
+    for(List<IKvPartitionSortKeyProvider> requests : requestMap.values())
+      missing.addAll(requests);
+    
+    trace.trace("DONE_FETCH_ALL");
+    
+    return new KvFetchAllResult(results, missing);
+  }
+  
+  private String itemKey(String partitionKey, String sortKey)
+  {
+    return partitionKey + "\u0000" + sortKey;
+  }
+  
+  private List<Item> bulkGet(List<PrimaryKey> chunk, ITraceContext trace)
+  {
+    return doDynamoQueryTask(() -> batchGet(new TableKeysAndAttributes(objectTable_.getTableName())
+        .withPrimaryKeys(chunk.toArray(new PrimaryKey[chunk.size()])), chunk.size()));
+  }
+  
+  /**
+   * Execute the given batch get, retrying any unprocessed keys with an exponential backoff.
+   * 
+   * @param tableKeysAndAttributes  The keys to be fetched, which must not exceed MAX_BATCH_GET_ITEMS.
+   * @param totalRequestKeys        The number of keys in the request, for logging.
+   * 
+   * @return The items which exist.
+   */
+  protected List<Item> batchGet(TableKeysAndAttributes tableKeysAndAttributes, int totalRequestKeys)
+  {
+    List<Item>          items   = new ArrayList<>(totalRequestKeys);
+    BatchGetItemOutcome outcome = dynamoDB_.batchGetItem(tableKeysAndAttributes);
+    long                delay   = 4;
+    
+    while(true)
+    {
+      List<Item> tableItems = outcome.getTableItems().get(objectTable_.getTableName());
+      
+      if(tableItems != null)
+        items.addAll(tableItems);
+      
+      Map<String, KeysAndAttributes> unprocessedKeys = outcome.getUnprocessedKeys();
+      
+      if(unprocessedKeys == null || unprocessedKeys.isEmpty())
+        return items;
+      
+      int requestKeys = 0;
+      
+      for(KeysAndAttributes keys : unprocessedKeys.values())
+      {
+        requestKeys += keys.getKeys().size();
+      }
+      
+      log_.info("Retry " + requestKeys + " of " + totalRequestKeys + " keys after " + delay + "ms.");
+      
+      totalRequestKeys = requestKeys;
+      
+      try
+      {
+        Thread.sleep(delay);
+        
+        if(delay < 1000)
+          delay *= 1.2;
+      }
+      catch (InterruptedException e)
+      {
+        log_.warn("Sleep interrupted", e);
+      }
+      
+      outcome = dynamoDB_.batchGetItemUnprocessed(unprocessedKeys);
+    }
+  }
+
   @Override
   public String fetchFirst(IKvPartitionKeyProvider partitionKey, ITraceContext trace) throws NoSuchObjectException
   {
@@ -246,7 +559,7 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
       {
         Item item = it.next();
         
-        String payloadString = item.getString(ColumnNameDocument);
+        String payloadString = getDocument(item);
             
         if(payloadString == null)
         {
@@ -289,6 +602,18 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
   @Override
   public void store(Collection<IKvItem> kvItems, ITraceContext trace)
   {
+    store(kvItems, !bulkStore_, trace);
+  }
+
+  @Override
+  public void store(Collection<IKvItem> kvItems, boolean transactional, ITraceContext trace)
+  {
+    if(!transactional)
+    {
+      bulkStore(kvItems, trace);
+      return;
+    }
+    
     try
     {
       store(null, kvItems, trace);
@@ -298,6 +623,185 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
       throw new TransactionFault(e);
     }
   }
+  
+  /**
+   * Store the given items using BatchWriteItem rather than a transaction.
+   * 
+   * The items are written in chunks of MAX_BATCH_WRITE_ITEMS which are issued concurrently, the number of requests
+   * in flight at any one time is limited by the size of the bulk write thread pool. If this method throws an exception
+   * then some chunks may have been written.
+   * 
+   * @param kvItems Items to be stored.
+   * @param trace   Trace context.
+   */
+  protected void bulkStore(Collection<IKvItem> kvItems, ITraceContext trace)
+  {
+    if(kvItems.isEmpty())
+      return;
+    
+    List<Item>    items     = new ArrayList<>(kvItems.size());
+    List<IKvItem> deferred  = new ArrayList<>(kvItems.size());
+    
+    for(IKvItem kvItem : kvItems)
+    {
+      UpdateOrPut updateOrPut = new UpdateOrPut(kvItem, getPartitionKey(kvItem), kvItem.getSortKey().asString(), payloadLimit_);
+      
+      if(kvItem.isSaveToSecondaryStorage() && !storeToSecondaryStorage(kvItem, updateOrPut.payloadNotStored_, trace))
+        deferred.add(kvItem);
+      else
+        deferred.add(null);
+      
+      items.add(ItemUtils.toItem(ItemUtils.fromSimpleMap(updateOrPut.putItem_)));
+    }
+    
+    trace.trace("ABOUT_TO_STORE_BULK");
+    
+    List<Future<Void>> futures  = new ArrayList<>(items.size() / MAX_BATCH_WRITE_ITEMS);
+    int                start    = 0;
+    
+    // Everything but the last chunk goes to the executor, the last one is written by the calling thread.
+    while(items.size() - start > MAX_BATCH_WRITE_ITEMS)
+    {
+      List<Item>    chunk         = items.subList(start, start + MAX_BATCH_WRITE_ITEMS);
+      List<IKvItem> deferredChunk = deferred.subList(start, start + MAX_BATCH_WRITE_ITEMS);
+      
+      futures.add(bulkWriteExecutor_.submit(() -> bulkWrite(chunk, deferredChunk, trace)));
+      
+      start += MAX_BATCH_WRITE_ITEMS;
+    }
+    
+    List<Item>    lastChunk         = items.subList(start, items.size());
+    List<IKvItem> lastDeferredChunk = deferred.subList(start, items.size());
+    
+    try
+    {
+      waitForAll(futures, () -> bulkWrite(lastChunk, lastDeferredChunk, trace));
+    }
+    catch(RuntimeException e)
+    {
+      trace.trace("FAILED_STORE_BULK");
+      throw e;
+    }
+    
+    trace.trace("STORED_BULK");
+  }
+  
+  /**
+   * Run the given task in the calling thread and then wait for all of the given futures, even if some of them fail,
+   * so that nothing is still in flight when this method returns.
+   * 
+   * @param futures   Tasks submitted to the bulk write executor.
+   * @param localTask A task to be executed by the calling thread.
+   * 
+   * @return The results of the futures followed by the result of the local task.
+   */
+  private <R> List<R> waitForAll(List<Future<R>> futures, Callable<R> localTask)
+  {
+    List<R>           results     = new ArrayList<>(futures.size() + 1);
+    R                 localResult = null;
+    RuntimeException  failure     = null;
+    
+    try
+    {
+      localResult = localTask.call();
+    }
+    catch(RuntimeException e)
+    {
+      failure = e;
+    }
+    catch(Exception e)
+    {
+      failure = new TransactionFault(e);
+    }
+    
+    for(Future<R> future : futures)
+    {
+      try
+      {
+        results.add(future.get());
+      }
+      catch (ExecutionException e)
+      {
+        if(failure == null)
+          failure = e.getCause() instanceof RuntimeException ? (RuntimeException)e.getCause() : new TransactionFault(e.getCause());
+      }
+      catch (InterruptedException e)
+      {
+        if(failure == null)
+          failure = new TransientTransactionFault("Interrupted waiting for batch request", e);
+      }
+    }
+    
+    if(failure != null)
+      throw failure;
+    
+    results.add(localResult);
+    
+    return results;
+  }
+  
+  private Void bulkWrite(List<Item> chunk, List<IKvItem> deferredChunk, ITraceContext trace)
+  {
+    doDynamoWriteTask(() ->
+    {
+      batchWrite(new TableWriteItems(objectTable_.getTableName()).withItemsToPut(chunk), chunk.size());
+      
+      return null;
+    }, trace);
+    
+    // Each chunk is written independently so secondary copies are started as soon as their chunk is written.
+    for(IKvItem kvItem : deferredChunk)
+    {
+      if(kvItem != null)
+        storeToSecondaryStorageAfterWrite(kvItem, trace);
+    }
+    
+    return null;
+  }
+  
+  /**
+   * Execute the given batch write, retrying any unprocessed items with an exponential backoff.
+   * 
+   * @param tableWriteItems   The items to be written, which must not exceed MAX_BATCH_WRITE_ITEMS.
+   * @param totalRequestItems The number of items in the request, for logging.
+   */
+  protected void batchWrite(TableWriteItems tableWriteItems, int totalRequestItems)
+  {
+    BatchWriteItemOutcome outcome = dynamoDB_.batchWriteItem(tableWriteItems);
+    long  delay = 4;
+    do
+    {
+        Map<String, List<WriteRequest>> unprocessedItems = outcome.getUnprocessedItems();
+
+        if (outcome.getUnprocessedItems().size() > 0)
+        {
+          int requestItems = 0;
+          
+          for(List<WriteRequest> ui : unprocessedItems.values())
+          {
+            requestItems += ui.size();
+          }
+    
+          log_.info("Retry " + requestItems + " of " + totalRequestItems + " items after " + delay + "ms.");
+          
+          totalRequestItems = requestItems;
+          
+          try
+          {
+            Thread.sleep(delay);
+            
+            if(delay < 1000)
+              delay *= 1.2;
+          }
+          catch (InterruptedException e)
+          {
+            log_.warn("Sleep interrupted", e);
+          }
+          
+          outcome = dynamoDB_.batchWriteItemUnprocessed(unprocessedItems);
+        }
+    } while (outcome.getUnprocessedItems().size() > 0);
+  }
 
   @Override
   public void store(@Nullable IKvPartitionSortKeyProvider partitionSortKeyProvider, Collection<IKvItem> kvItems, ITraceContext trace) throws ObjectExistsException
@@ -305,13 +809,27 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
     if(kvItems.isEmpty())
       return;
 
-    Hash        absoluteHash = null;
-    List<TransactWriteItem> actions = new ArrayList<>(kvItems.size());
+    PreparedWrite prepared = prepareStore(partitionSortKeyProvider, kvItems, trace);
+    
+    try
+    {
+      write(prepared.actions_, prepared.absoluteHash_, prepared.errorMessage_, trace);
+    }
+    catch (NoSuchObjectException e)
+    {
+      log_.error("Failed to wite objects", e);
+      deleteSecondaryCopy(prepared.secondaryStoredHash_, trace);
+      throw new ObjectExistsException(KEY_EXISTS, e);
+    }
+    
+    storeToSecondaryStorageAfterWrite(prepared.deferredSecondaryItems_, trace);
+  }
+  
+  private PreparedWrite prepareStore(@Nullable IKvPartitionSortKeyProvider partitionSortKeyProvider, Collection<IKvItem> kvItems, ITraceContext trace)
+  {
+    PreparedWrite prepared = new PreparedWrite(kvItems.size(), KEY_EXISTS);
     String    existingPartitionKey = partitionSortKeyProvider==null ? null : getPartitionKey(partitionSortKeyProvider);
     String    existingSortKey = partitionSortKeyProvider==null ? null : partitionSortKeyProvider.getSortKey().asString();
-      
-    
-    Hash secondaryStoredHash = null;
     
     for(IKvItem kvItem : kvItems)
     {
@@ -320,12 +838,14 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
       
       UpdateOrPut updateOrPut = new UpdateOrPut(kvItem, partitionKey, sortKey, payloadLimit_);
       
-      absoluteHash = kvItem.getAbsoluteHash();
+      prepared.absoluteHash_ = kvItem.getAbsoluteHash();
       
       if(kvItem.isSaveToSecondaryStorage())
       {
         if(storeToSecondaryStorage(kvItem, updateOrPut.payloadNotStored_, trace))
-          secondaryStoredHash = kvItem.getAbsoluteHash();
+          prepared.secondaryStoredHash_ = kvItem.getAbsoluteHash();
+        else
+          prepared.deferredSecondaryItems_.add(kvItem);
       }
       
       Put put = updateOrPut.createPut();
@@ -336,28 +856,49 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
         put.withConditionExpression("attribute_not_exists(" + ColumnNamePartitionKey + ") and attribute_not_exists(" + ColumnNameSortKey + ")");
       }
       
-      actions.add(new TransactWriteItem().withPut(put));
+      prepared.actions_.add(new TransactWriteItem().withPut(put));
     }
     
-    try
+    return prepared;
+  }
+  
+  /**
+   * The actions for a transactional write, together with the hash of any copy written to secondary storage
+   * which must be removed if the write fails, and the items whose secondary copy is only to be written if it succeeds.
+   */
+  class PreparedWrite
+  {
+    final List<TransactWriteItem> actions_;
+    final List<IKvItem>           deferredSecondaryItems_ = new ArrayList<>();
+    Hash                          absoluteHash_;
+    Hash                          secondaryStoredHash_;
+    String                        errorMessage_;
+    
+    PreparedWrite(int size, String errorMessage)
     {
-      write(actions, absoluteHash, KEY_EXISTS, trace);
+      actions_ = new ArrayList<>(size);
+      errorMessage_ = errorMessage;
     }
-    catch (NoSuchObjectException e)
+  }
+  
+  private void storeToSecondaryStorageAfterWrite(List<IKvItem> deferredSecondaryItems, ITraceContext trace)
+  {
+    for(IKvItem kvItem : deferredSecondaryItems)
+      storeToSecondaryStorageAfterWrite(kvItem, trace);
+  }
+  
+  private void deleteSecondaryCopy(@Nullable Hash secondaryStoredHash, ITraceContext trace)
+  {
+    if(secondaryStoredHash != null)
     {
-      log_.error("Failed to wite objects", e);
-      if(secondaryStoredHash != null)
+      try
       {
-        try
-        {
-          deleteFromSecondaryStorage(secondaryStoredHash, trace);
-        }
-        catch(RuntimeException e2)
-        {
-          log_.error("Failed to delete secondary copy of " + secondaryStoredHash, e2);
-        }
+        deleteFromSecondaryStorage(secondaryStoredHash, trace);
+      }
+      catch(RuntimeException e)
+      {
+        log_.error("Failed to delete secondary copy of " + secondaryStoredHash, e);
       }
-      throw new ObjectExistsException(KEY_EXISTS, e);
     }
   }
   
@@ -367,6 +908,7 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
     Hash        absoluteHash = kvItem.getAbsoluteHash();
     List<TransactWriteItem> actions = new ArrayList<>(1);
     Hash secondaryStoredHash = null;
+    boolean deferredSecondary = false;
     
     String partitionKey = getPartitionKey(kvItem);
     String sortKey = kvItem.getSortKey().asString();
@@ -379,6 +921,8 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
     {
       if(storeToSecondaryStorage(kvItem, updateOrPut.payloadNotStored_, trace))
         secondaryStoredHash = kvItem.getAbsoluteHash();
+      else
+        deferredSecondary = true;
     }
     
     Condition condition = new Condition(
@@ -402,18 +946,12 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
     catch (NoSuchObjectException e)
     {
       trace.trace("FAILED_TO_STORE_CONDITIONAL", kvItem);
-      if(secondaryStoredHash != null)
-      {
-        try
-        {
-          deleteFromSecondaryStorage(secondaryStoredHash, trace);
-        }
-        catch(RuntimeException e2)
-        {
-          log_.error("Failed to delete secondary copy of " + secondaryStoredHash, e2);
-        }
-      }
+      deleteSecondaryCopy(secondaryStoredHash, trace);
+      return;
     }
+    
+    if(deferredSecondary)
+      storeToSecondaryStorageAfterWrite(kvItem, trace);
   }
 
   class Condition
@@ -472,41 +1010,7 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
       TableWriteItems tableWriteItems = new TableWriteItems(objectTable_.getTableName())
           .withPrimaryKeysToDelete(primaryKeysToDelete_.toArray(new PrimaryKey[primaryKeysToDelete_.size()]));
       
-      BatchWriteItemOutcome outcome = dynamoDB_.batchWriteItem(tableWriteItems);
-      int totalRequestItems = primaryKeysToDelete_.size();
-      long  delay = 4;
-      do
-      {
-          Map<String, List<WriteRequest>> unprocessedItems = outcome.getUnprocessedItems();
-
-          if (outcome.getUnprocessedItems().size() > 0)
-          {
-            int requestItems = 0;
-            
-            for(List<WriteRequest> ui : unprocessedItems.values())
-            {
-              requestItems += ui.size();
-            }
-      
-            log_.info("Retry " + requestItems + " of " + totalRequestItems + " items after " + delay + "ms.");
-            
-            totalRequestItems = requestItems;
-            
-            try
-            {
-              Thread.sleep(delay);
-              
-              if(delay < 1000)
-                delay *= 1.2;
-            }
-            catch (InterruptedException e)
-            {
-              log_.warn("Sleep interrupted", e);
-            }
-            
-            outcome = dynamoDB_.batchWriteItemUnprocessed(unprocessedItems);
-          }
-      } while (outcome.getUnprocessedItems().size() > 0);
+      batchWrite(tableWriteItems, primaryKeysToDelete_.size());
     }
   }
   
@@ -570,14 +1074,33 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
   public void update(IKvPartitionSortKeyProvider partitionSortKeyProvider, Hash absoluteHash, Set<IKvItem> kvItems,
       ITraceContext trace) throws NoSuchObjectException
   {
-    List<TransactWriteItem> actions = new ArrayList<>(kvItems.size() + 2);
+    PreparedWrite prepared = prepareUpdate(partitionSortKeyProvider, absoluteHash, kvItems, trace);
+    
+    try
+    {
+      write(prepared.actions_, absoluteHash, prepared.errorMessage_, trace);
+    }
+    catch (NoSuchObjectException e)
+    {
+      deleteSecondaryCopy(prepared.secondaryStoredHash_, trace);
+      throw e;
+    }
+    
+    storeToSecondaryStorageAfterWrite(prepared.deferredSecondaryItems_, trace);
+  }
+  
+  private PreparedWrite prepareUpdate(IKvPartitionSortKeyProvider partitionSortKeyProvider, Hash absoluteHash, Set<IKvItem> kvItems,
+      ITraceContext trace)
+  {
+    PreparedWrite prepared = new PreparedWrite(kvItems.size() + 2, "Object to be updated (" + absoluteHash + ") has changed.");
+    List<TransactWriteItem> actions = prepared.actions_;
+    
+    prepared.absoluteHash_ = absoluteHash;
     
     String    existingPartitionKey = getPartitionKey(partitionSortKeyProvider);
     String    existingSortKey = partitionSortKeyProvider.getSortKey().asString();
     Condition condition = new Condition(ColumnNameAbsoluteHash + " = :ah").withString(":ah", absoluteHash.toStringBase64());
     
-    Hash secondaryStoredHash = null;
-    
     for(IKvItem kvItem : kvItems)
     {
       String partitionKey = getPartitionKey(kvItem);
@@ -613,12 +1136,12 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
       if(kvItem.isSaveToSecondaryStorage())
       {
         if(storeToSecondaryStorage(kvItem, updateOrPut.payloadNotStored_, trace))
-          secondaryStoredHash = kvItem.getAbsoluteHash();
+          prepared.secondaryStoredHash_ = kvItem.getAbsoluteHash();
+        else
+          prepared.deferredSecondaryItems_.add(kvItem);
       }
     }
     
-    String error = "Object to be updated (" + absoluteHash + ") has changed.";
-    
     if(condition != null)
     {
       // The prev version has a different sort key
@@ -637,100 +1160,406 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
       
       actions.add(new TransactWriteItem().withDelete(delete));
       
-      error = "Object to be updated (" + absoluteHash + ") has changed or an object already exists with the new sort key.";
+      prepared.errorMessage_ = "Object to be updated (" + absoluteHash + ") has changed or an object already exists with the new sort key.";
     }
     
-    try
+    return prepared;
+  }
+  
+  protected void write(Collection<TransactWriteItem> actions, Hash absoluteHash, String errorMessage, ITraceContext trace) throws NoSuchObjectException
+  {
+    TransactWriteItemsRequest request = new TransactWriteItemsRequest()
+        .withTransactItems(actions);
+     
+    doDynamoConditionalWriteTask(() -> 
     {
-      write(actions, absoluteHash, error, trace);
+      int                           retryCnt = 0;
+      long                          delay = 4;
+      TransactionCanceledException  lastException = null;
+      
+      while(retryCnt++ < 11)
+      {
+        try
+        {
+          trace.trace("ABOUT_TO_STORE_TRANSACTIONAL", "OBJECT", absoluteHash.toStringBase64());
+          amazonDynamoDB_.transactWriteItems(request);
+          trace.trace("STORED_TRANSACTIONAL", "OBJECT", absoluteHash.toStringBase64());
+          return null;
+        }
+        catch (TransactionCanceledException tce)
+        {
+          lastException = tce;
+          
+          for(CancellationReason reason : tce.getCancellationReasons())
+          {
+            switch(reason.getCode())
+            {
+              case "ConditionalCheckFailed":
+                trace.trace("FAILED_FATAL_STORE_TRANSACTIONAL", "OBJECT", absoluteHash.toStringBase64());
+                throw new NoSuchObjectException(errorMessage);
+                
+              case "None":
+                // there is an entry for each item in the transaction, this means nothing and should be ignored.
+                break;
+                
+              case "TransactionConflict":
+                log_.info("Retry transaction after " + delay + "ms.");
+
+                trace.trace("WAIT_RETRY_TO_STORE_TRANSACTIONAL", "OBJECT", absoluteHash.toStringBase64());
+                try
+                {
+                  Thread.sleep(delay);
+                  
+                  if(delay < 1000)
+                    delay *= 1.2;
+                }
+                catch (InterruptedException e)
+                {
+                  log_.warn("Sleep interrupted", e);
+                }
+                break;
+                
+              default:
+                trace.trace("FAILED_TRANSIENT_STORE_TRANSACTIONAL", "OBJECT", absoluteHash.toStringBase64());
+                throw new TransientTransactionFault("Transient failure to store object " + absoluteHash, tce);
+            }
+          }
+        }
+        catch(RuntimeException e)
+        {
+          trace.trace("FAILED_TRANSIENT_STORE_TRANSACTIONAL", "OBJECT", absoluteHash.toStringBase64());
+          throw e;
+        }
+      }
+      trace.trace("FAILED_TRANSIENT_STORE_TRANSACTIONAL", "OBJECT", absoluteHash.toStringBase64());
+      throw new TransientTransactionFault("Transient failure to update (after " + retryCnt + " retries) object " + absoluteHash, lastException);
     }
-    catch (NoSuchObjectException e)
+    , trace);  
+    
+  }
+
+  @Override
+  public CompletableFuture<Void> storeAsync(Collection<IKvItem> kvItems, ITraceContext trace)
+  {
+    return asyncLimiter_.submit(asyncMetrics_.getStoreLatency(), () ->
     {
-      if(secondaryStoredHash != null)
+      if(kvItems.isEmpty())
+        return CompletableFuture.completedFuture(null);
+      
+      // Bulk stores are made up of many requests which are already dispatched concurrently.
+      if(bulkStore_)
+        return CompletableFuture.runAsync(() -> bulkStore(kvItems, trace), getAsyncExecutor());
+      
+      return prepareAsync(kvItems, () -> prepareStore(null, kvItems, trace))
+          .thenCompose(prepared -> writeAsync(prepared, trace));
+    });
+  }
+
+  @Override
+  public CompletableFuture<Void> updateAsync(IKvPartitionSortKeyProvider partitionSortKeyProvider, Hash absoluteHash,
+      Set<IKvItem> kvItems, ITraceContext trace)
+  {
+    return asyncLimiter_.submit(asyncMetrics_.getUpdateLatency(), () ->
+        prepareAsync(kvItems, () -> prepareUpdate(partitionSortKeyProvider, absoluteHash, kvItems, trace))
+          .thenCompose(prepared -> writeAsync(prepared, trace))
+        );
+  }
+
+  @Override
+  public CompletableFuture<String> fetchAsync(IKvPartitionSortKeyProvider partitionSortKey, ITraceContext trace)
+  {
+    return asyncLimiter_.submit(asyncMetrics_.getFetchLatency(), () ->
+    {
+      CompletableFuture<String>   future        = new CompletableFuture<>();
+      String                      partitionKey  = getPartitionKey(partitionSortKey);
+      String                      sortKey       = partitionSortKey.getSortKey().asString();
+      Map<String, AttributeValue> itemKey       = new HashMap<>();
+      
+      itemKey.put(ColumnNamePartitionKey, new AttributeValue(partitionKey));
+      itemKey.put(ColumnNameSortKey, new AttributeValue(sortKey));
+      
+      getAmazonDynamoDBAsync().getItemAsync(new GetItemRequest(objectTableName_, itemKey), new AsyncHandler<GetItemRequest, GetItemResult>()
       {
-        try
+        @Override
+        public void onError(Exception exception)
         {
-          deleteFromSecondaryStorage(secondaryStoredHash, trace);
+          future.completeExceptionally(dynamoFault(exception, "read", trace));
         }
-        catch(RuntimeException e2)
+
+        @Override
+        public void onSuccess(GetItemRequest request, GetItemResult result)
         {
-          log_.error("Failed to delete secondary copy of " + secondaryStoredHash, e2);
+          Map<String, AttributeValue> item = result.getItem();
+          
+          if(item == null)
+          {
+            future.completeExceptionally(new NoSuchObjectException("Item (" + partitionKey + ", " + sortKey + ") not found."));
+            return;
+          }
+          
+          String document;
+          
+          try
+          {
+            document = getDocument(item);
+          }
+          catch(RuntimeException e)
+          {
+            future.completeExceptionally(e);
+            return;
+          }
+          
+          if(document != null)
+          {
+            future.complete(document);
+            return;
+          }
+          
+          Hash absoluteHash = Hash.ofBase64String(item.get(ColumnNameAbsoluteHash).getS());
+          
+          // Secondary storage is synchronous so don't block the SDK callback thread.
+          getAsyncExecutor().execute(() ->
+          {
+            try
+            {
+              future.complete(fetchFromSecondaryStorage(absoluteHash, trace));
+            }
+            catch(NoSuchObjectException | RuntimeException e)
+            {
+              future.completeExceptionally(e);
+            }
+          });
         }
+      });
+      
+      return future;
+    });
+  }
+
+  @Override
+  public CompletableFuture<IKvPagination> fetchPartitionObjectsAsync(IKvPartitionKeyProvider partitionKey,
+      boolean scanForwards, Integer limit, @Nullable String after, @Nullable String sortKeyPrefix,
+      @Nullable Map<String, Object> filterAttributes, Consumer<String> consumer, ITraceContext trace)
+  {
+    // The document API query paging and result size handling is reused, so this runs on the async executor.
+    return asyncLimiter_.submit(asyncMetrics_.getFetchPartitionObjectsLatency(), () ->
+        CompletableFuture.supplyAsync(() -> fetchPartitionObjects(partitionKey, scanForwards, limit, after, sortKeyPrefix,
+            filterAttributes, consumer, trace), getAsyncExecutor())
+        );
+  }
+
+  @Override
+  public AsyncKvTableMetrics getAsyncMetrics()
+  {
+    return asyncMetrics_;
+  }
+  
+  private CompletableFuture<PreparedWrite> prepareAsync(Collection<IKvItem> kvItems, Supplier<PreparedWrite> prepare)
+  {
+    for(IKvItem kvItem : kvItems)
+    {
+      if(kvItem.isSaveToSecondaryStorage())
+      {
+        // Preparation includes synchronous writes to secondary storage.
+        return CompletableFuture.supplyAsync(prepare, getAsyncExecutor());
       }
-      throw e;
+    }
+    
+    try
+    {
+      return CompletableFuture.completedFuture(prepare.get());
+    }
+    catch(RuntimeException e)
+    {
+      return AsyncOperationLimiter.failedFuture(e);
     }
   }
   
-  protected void write(Collection<TransactWriteItem> actions, Hash absoluteHash, String errorMessage, ITraceContext trace) throws NoSuchObjectException
+  private CompletableFuture<Void> writeAsync(PreparedWrite prepared, ITraceContext trace)
   {
-    TransactWriteItemsRequest request = new TransactWriteItemsRequest()
-        .withTransactItems(actions);
-     
-    doDynamoConditionalWriteTask(() -> 
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    
+    writeAsync(new TransactWriteItemsRequest().withTransactItems(prepared.actions_), prepared, trace, future, 1, 4);
+    
+    return future;
+  }
+  
+  private void writeAsync(TransactWriteItemsRequest request, PreparedWrite prepared, ITraceContext trace,
+      CompletableFuture<Void> future, int retryCnt, long delay)
+  {
+    String hashString = prepared.absoluteHash_.toStringBase64();
+    
+    trace.trace("ABOUT_TO_STORE_TRANSACTIONAL", "OBJECT", hashString);
+    
+    getAmazonDynamoDBAsync().transactWriteItemsAsync(request, new AsyncHandler<TransactWriteItemsRequest, TransactWriteItemsResult>()
     {
-      int                           retryCnt = 0;
-      long                          delay = 4;
-      TransactionCanceledException  lastException = null;
+      @Override
+      public void onSuccess(TransactWriteItemsRequest req, TransactWriteItemsResult result)
+      {
+        trace.trace("STORED_TRANSACTIONAL", "OBJECT", hashString);
+        
+        if(prepared.deferredSecondaryItems_.isEmpty())
+        {
+          future.complete(null);
+          return;
+        }
+        
+        // Writing the secondary copies may block so don't block the SDK callback thread.
+        getAsyncExecutor().execute(() ->
+        {
+          try
+          {
+            storeToSecondaryStorageAfterWrite(prepared.deferredSecondaryItems_, trace);
+            future.complete(null);
+          }
+          catch(RuntimeException e)
+          {
+            future.completeExceptionally(e);
+          }
+        });
+      }
       
-      while(retryCnt++ < 11)
+      @Override
+      public void onError(Exception exception)
       {
-        try
+        if(!(exception instanceof TransactionCanceledException))
         {
-          trace.trace("ABOUT_TO_STORE_TRANSACTIONAL", "OBJECT", absoluteHash.toStringBase64());
-          amazonDynamoDB_.transactWriteItems(request);
-          trace.trace("STORED_TRANSACTIONAL", "OBJECT", absoluteHash.toStringBase64());
-          return null;
+          trace.trace("FAILED_TRANSIENT_STORE_TRANSACTIONAL", "OBJECT", hashString);
+          future.completeExceptionally(dynamoFault(exception, "write", trace));
+          return;
         }
-        catch (TransactionCanceledException tce)
+        
+        boolean conflict = false;
+        
+        for(CancellationReason reason : ((TransactionCanceledException)exception).getCancellationReasons())
         {
-          lastException = tce;
-          
-          for(CancellationReason reason : tce.getCancellationReasons())
+          switch(reason.getCode())
           {
-            switch(reason.getCode())
-            {
-              case "ConditionalCheckFailed":
-                trace.trace("FAILED_FATAL_STORE_TRANSACTIONAL", "OBJECT", absoluteHash.toStringBase64());
-                throw new NoSuchObjectException(errorMessage);
-                
-              case "None":
-                // there is an entry for each item in the transaction, this means nothing and should be ignored.
-                break;
-                
-              case "TransactionConflict":
-                log_.info("Retry transaction after " + delay + "ms.");
-
-                trace.trace("WAIT_RETRY_TO_STORE_TRANSACTIONAL", "OBJECT", absoluteHash.toStringBase64());
-                try
-                {
-                  Thread.sleep(delay);
-                  
-                  if(delay < 1000)
-                    delay *= 1.2;
-                }
-                catch (InterruptedException e)
-                {
-                  log_.warn("Sleep interrupted", e);
-                }
-                break;
-                
-              default:
-                trace.trace("FAILED_TRANSIENT_STORE_TRANSACTIONAL", "OBJECT", absoluteHash.toStringBase64());
-                throw new TransientTransactionFault("Transient failure to store object " + absoluteHash, tce);
-            }
+            case "ConditionalCheckFailed":
+              trace.trace("FAILED_FATAL_STORE_TRANSACTIONAL", "OBJECT", hashString);
+              
+              // Removing the secondary copy is synchronous so don't block the SDK callback thread.
+              getAsyncExecutor().execute(() ->
+              {
+                deleteSecondaryCopy(prepared.secondaryStoredHash_, trace);
+                future.completeExceptionally(new NoSuchObjectException(prepared.errorMessage_));
+              });
+              return;
+              
+            case "None":
+              // there is an entry for each item in the transaction, this means nothing and should be ignored.
+              break;
+              
+            case "TransactionConflict":
+              conflict = true;
+              break;
+              
+            default:
+              trace.trace("FAILED_TRANSIENT_STORE_TRANSACTIONAL", "OBJECT", hashString);
+              future.completeExceptionally(new TransientTransactionFault("Transient failure to store object " + prepared.absoluteHash_, exception));
+              return;
           }
         }
-        catch(RuntimeException e)
+        
+        if(conflict && retryCnt < 11)
         {
-          trace.trace("FAILED_TRANSIENT_STORE_TRANSACTIONAL", "OBJECT", absoluteHash.toStringBase64());
-          throw e;
+          log_.info("Retry transaction after " + delay + "ms.");
+          trace.trace("WAIT_RETRY_TO_STORE_TRANSACTIONAL", "OBJECT", hashString);
+          
+          try
+          {
+            getRetryScheduler().schedule(() ->
+                writeAsync(request, prepared, trace, future, retryCnt + 1, delay < 1000 ? delay + Math.max(1, delay / 5) : delay),
+                delay, TimeUnit.MILLISECONDS);
+          }
+          catch(RejectedExecutionException e)
+          {
+            trace.trace("FAILED_TRANSIENT_STORE_TRANSACTIONAL", "OBJECT", hashString);
+            future.completeExceptionally(new TransientTransactionFault("Table stopped while retrying store of object " + prepared.absoluteHash_, e));
+          }
+          return;
         }
+        
+        trace.trace("FAILED_TRANSIENT_STORE_TRANSACTIONAL", "OBJECT", hashString);
+        future.completeExceptionally(new TransientTransactionFault("Transient failure to update (after " + retryCnt + " retries) object " + prepared.absoluteHash_, exception));
       }
-      trace.trace("FAILED_TRANSIENT_STORE_TRANSACTIONAL", "OBJECT", absoluteHash.toStringBase64());
-      throw new TransientTransactionFault("Transient failure to update (after " + retryCnt + " retries) object " + absoluteHash, lastException);
+    });
+  }
+  
+  /**
+   * Map an exception from an asynchronous DynamoDB call in the same way as doDynamoTask().
+   */
+  private RuntimeException dynamoFault(Exception e, String accessMode, ITraceContext trace)
+  {
+    String message = "Failed to " + accessMode + " object";
+    
+    if(e instanceof ProvisionedThroughputExceededException)
+    {
+      log_.warn(message + " - Provisioned Throughput Exceeded", e);
+      trace.trace("FAILED-THROUGHPUT-DYNAMODB");
+      
+      return new TransientTransactionFault(message, e);
     }
-    , trace);  
     
+    if(e instanceof AmazonServiceException)
+    {
+      trace.trace("FAILED-AWSEXCEPTION-DYNAMODB");
+      log_.error(message, e);
+      
+      return new TransactionFault(message, e);
+    }
+    
+    if(e instanceof TransactionFault)
+      return (TransactionFault)e;
+    
+    trace.trace("FAILED-UNEXPECTED-DYNAMODB");
+    log_.error("UNEXPECTED EXCEPTION", e);
+    
+    return new TransactionFault(message, e);
+  }
+
+  /**
+   * Return the document stored in the given item, which may be held in plain or compressed form.
+   * 
+   * @param item  An item from the object table.
+   * 
+   * @return The document or null if it is held in secondary storage.
+   */
+  protected @Nullable String getDocument(Item item)
+  {
+    String payloadString = item.getString(ColumnNameDocument);
+    
+    if(payloadString == null)
+    {
+      byte[] compressed = item.getBinary(ColumnNameCompressedDocument);
+      
+      if(compressed != null)
+        return PayloadCompression.decompress(compressed);
+    }
+    
+    return payloadString;
+  }
+  
+  /**
+   * Return the document stored in the given low level item, which may be held in plain or compressed form.
+   * 
+   * @param item  An item from the object table.
+   * 
+   * @return The document or null if it is held in secondary storage.
+   */
+  protected @Nullable String getDocument(Map<String, AttributeValue> item)
+  {
+    AttributeValue document = item.get(ColumnNameDocument);
+    
+    if(document != null && document.getS() != null)
+      return document.getS();
+    
+    document = item.get(ColumnNameCompressedDocument);
+    
+    if(document != null && document.getB() != null)
+      return PayloadCompression.decompress(document.getB());
+    
+    return null;
   }
 
   /**
@@ -754,6 +1583,19 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
    * @return true if the object was stored
    */
   protected abstract boolean storeToSecondaryStorage(IKvItem kvItem, boolean payloadNotStored, ITraceContext trace);
+  
+  /**
+   * Called once the given item has been written to primary storage, if storeToSecondaryStorage did not store it.
+   * 
+   * This allows the secondary copy of an object to be written later without leaving an orphan copy if the write
+   * to primary storage fails. The default implementation does nothing.
+   * 
+   * @param kvItem            An item which has been stored.
+   * @param trace             A trace context.
+   */
+  protected void storeToSecondaryStorageAfterWrite(IKvItem kvItem, ITraceContext trace)
+  {
+  }
 
   /**
    * Delete the given object from secondary storage.
@@ -902,6 +1744,7 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
     ValueMap                    putItem_          = new ValueMap();
     Map<String, AttributeValue> updateItem_       = new HashMap<>();
     StringBuilder               updateExpression_ = new StringBuilder("SET ");
+    List<String>                removeAttributes_ = new ArrayList<>();
     int                         baseLength_;
     boolean                     payloadNotStored_;
     boolean                     first_            = true;
@@ -946,16 +1789,41 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
         withNumber( ColumnNameTTL,          ttl);
       }
       
-      int length = baseLength_ + ColumnNameDocument.length() + kvItem.getJson().length();
-      
-      if(length < payloadLimit)
+      // An update must remove whichever form of the document it does not write, or a stale copy would be read.
+      if(payloadCompression_ == PayloadCompression.NONE)
       {
-        payloadNotStored_ = false;
-        withString(ColumnNameDocument, kvItem.getJson());
+        int length = baseLength_ + ColumnNameDocument.length() + kvItem.getJson().length();
+        
+        if(length < payloadLimit)
+        {
+          payloadNotStored_ = false;
+          withString(ColumnNameDocument, kvItem.getJson());
+        }
+        else
+        {
+          payloadNotStored_ = true;
+          removeAttributes_.add(ColumnNameDocument);
+        }
+        
+        removeAttributes_.add(ColumnNameCompressedDocument);
       }
       else
       {
-        payloadNotStored_ = true;
+        byte[] compressed = payloadCompression_.compress(kvItem.getJson());
+        int length = baseLength_ + ColumnNameCompressedDocument.length() + compressed.length;
+        
+        if(length < payloadLimit)
+        {
+          payloadNotStored_ = false;
+          withBinary(ColumnNameCompressedDocument, compressed);
+        }
+        else
+        {
+          payloadNotStored_ = true;
+          removeAttributes_.add(ColumnNameCompressedDocument);
+        }
+        
+        removeAttributes_.add(ColumnNameDocument);
       }
     }
     
@@ -975,7 +1843,8 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
         .withConditionExpression(condition.expression_)
         .withExpressionAttributeValues(updateItem_)
         .withKey(key_)
-        .withUpdateExpression(updateExpression_.toString())
+        .withUpdateExpression(removeAttributes_.isEmpty() ? updateExpression_.toString() :
+          updateExpression_ + " REMOVE " + String.join(", ", removeAttributes_))
       ;
     }
 
@@ -1012,6 +1881,16 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
       withString(name, value == null ? null : value.toStringBase64());
     }
 
+    private void withBinary(String name, byte[] value)
+    {
+      separator();
+      updateExpression_.append(name + " = :" + name);
+      
+      baseLength_ += name.length() + value.length;
+      putItem_.withBinary(name, value);
+      updateItem_.put(":" + name, new AttributeValue().withB(ByteBuffer.wrap(value)));
+    }
+
     private void withString(String name, String value)
     {
       separator();
@@ -1258,8 +2137,22 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
   @Override
   public void stop()
   {
+    bulkWriteExecutor_.shutdown();
+    
     if(amazonDynamoDB_ != null)
       amazonDynamoDB_.shutdown();
+    
+    synchronized(asyncLock_)
+    {
+      if(retryScheduler_ != null)
+        retryScheduler_.shutdown();
+      
+      if(asyncExecutor_ != null)
+        asyncExecutor_.shutdown();
+      
+      if(amazonDynamoDBAsync_ != null)
+        amazonDynamoDBAsync_.shutdown();
+    }
   }
 
 //  private DynamoDbTableAdmin createTableAdmin()
@@ -1561,6 +2454,67 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
     return doFetchPartitionObjects(partitionKey, scanForwards, limit, after, sortKeyPrefix, filterAttributes, new PartitionConsumer(consumer), trace);
   }
 
+  @Override
+  public Iterator<String> scanPartition(IKvPartitionKeyProvider partitionKey, boolean scanForwards,
+      @Nullable String sortKeyPrefix, @Nullable Map<String, Object> filterAttributes, ITraceContext trace)
+  {
+    // Pages are prefetched on the async executor because page fetches use the bulk write executor for secondary
+    // storage.
+    return new KvPartitionIterator((after, consumer) -> fetchPartitionObjects(partitionKey, scanForwards, SCAN_PAGE_SIZE,
+        after, sortKeyPrefix, filterAttributes, consumer, trace), getAsyncExecutor());
+  }
+
+  @Override
+  public void scanAll(int totalSegments, Consumer<String> consumer, ITraceContext trace)
+  {
+    int segments = Math.max(1, totalSegments);
+    
+    trace.trace("ABOUT_TO_SCAN", "SEGMENTS", String.valueOf(segments));
+    
+    // Segments run on the async executor for the same reason as scanPartition, segment zero runs on this thread.
+    List<Future<Void>> futures = new ArrayList<>(segments - 1);
+    
+    for(int i=1 ; i<segments ; i++)
+    {
+      int segment = i;
+      
+      futures.add(getAsyncExecutor().submit(() -> scanSegment(segment, segments, consumer, trace)));
+    }
+    
+    waitForAll(futures, () -> scanSegment(0, segments, consumer, trace));
+    
+    trace.trace("SCANNED");
+  }
+  
+  private Void scanSegment(int segment, int totalSegments, Consumer<String> consumer, ITraceContext trace)
+  {
+    return doDynamoQueryTask(() ->
+    {
+      ScanSpec spec = new ScanSpec()
+          .withSegment(segment)
+          .withTotalSegments(totalSegments)
+          .withFilterExpression("begins_with(" + ColumnNamePartitionKey + ", :v_service)")
+          .withValueMap(new ValueMap().withString(":v_service", serviceId_ + Separator))
+          ;
+      
+      PartitionConsumer itemConsumer = new PartitionConsumer(consumer);
+      
+      try
+      {
+        for(Item item : objectTable_.scan(spec))
+          itemConsumer.consume(item, trace);
+        
+        itemConsumer.flush();
+      }
+      finally
+      {
+        itemConsumer.abandon();
+      }
+      
+      return null;
+    });
+  }
+
   private IKvPagination doFetchPartitionObjects(IKvPartitionKeyProvider partitionKey, boolean scanForwards, Integer limit, 
       @Nullable String after,
       @Nullable String sortKeyPrefix,
@@ -1626,21 +2580,31 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
       Map<String, AttributeValue> lastEvaluatedKey = null;
       ItemCollection<QueryOutcome> items = objectTable_.query(spec);
       String before = null;
-      for(Page<Item, QueryOutcome> page : items.pages())
+      
+      try
       {
-        Iterator<Item> it = page.iterator();
-        
-        while(it.hasNext())
+        for(Page<Item, QueryOutcome> page : items.pages())
         {
-          Item item = it.next();
+          Iterator<Item> it = page.iterator();
           
-          consumer.consume(item, trace);
-          
-          if(before == null && after != null)
+          while(it.hasNext())
           {
-            before = item.getString(ColumnNameSortKey);
+            Item item = it.next();
+            
+            consumer.consume(item, trace);
+            
+            if(before == null && after != null)
+            {
+              before = item.getString(ColumnNameSortKey);
+            }
           }
         }
+        
+        consumer.flush();
+      }
+      finally
+      {
+        consumer.abandon();
       }
       
       if(before == null && after != null)
@@ -1664,11 +2628,32 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
   abstract class AbstractItemConsumer
   {
     abstract void consume(Item item, ITraceContext trace);
+    
+    /**
+     * Called after the last item has been consumed.
+     */
+    void flush()
+    {
+    }
+    
+    /**
+     * Called when the query completes, successfully or not.
+     */
+    void abandon()
+    {
+    }
   }
   
+  /**
+   * Delivers payloads to the caller's consumer in query order.
+   * 
+   * Payloads held in secondary storage are fetched in parallel, up to prefetchDepth_ items are held back so
+   * that their fetches can overlap while earlier items are waiting to be delivered.
+   */
   class PartitionConsumer extends AbstractItemConsumer
   {
-    Consumer<String> consumer_;
+    Consumer<String>        consumer_;
+    Deque<Future<String>>   pending_ = new ArrayDeque<>();
     
     PartitionConsumer(Consumer<String> consumer)
     {
@@ -1678,35 +2663,101 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
     @Override
     void consume(Item item, ITraceContext trace)
     {
-      String payloadString = item.getString(ColumnNameDocument);
+      String payloadString = getDocument(item);
       
       if(payloadString == null)
       {
         String hashString = item.getString(ColumnNameAbsoluteHash);
         Hash absoluteHash = Hash.newInstance(hashString);
         
-        try
+        if(prefetchDepth_ > 0)
         {
-          payloadString = fetchFromSecondaryStorage(absoluteHash, trace);
+          pending_.add(bulkWriteExecutor_.submit(() -> fetchFromSecondaryStorage(absoluteHash, trace)));
+        }
+        else
+        {
+          try
+          {
+            payloadString = fetchFromSecondaryStorage(absoluteHash, trace);
+          }
+          catch (NoSuchObjectException e)
+          {
+            throw new IllegalStateException("Unable to read known object from S3", e);
+          }
         }
-        catch (NoSuchObjectException e)
+      }
+      
+      if(payloadString != null)
+      {
+        if(pending_.isEmpty())
         {
-          throw new IllegalStateException("Unable to read known object from S3", e);
+          consumer_.accept(payloadString);
+          return;
         }
+        
+        pending_.add(CompletableFuture.completedFuture(payloadString));
       }
       
-      consumer_.accept(payloadString);
+      // Deliver whatever is ready, and block on the oldest item if we are too far ahead.
+      while(!pending_.isEmpty() && (pending_.size() > prefetchDepth_ || pending_.peek().isDone()))
+        deliver();
+    }
+
+    @Override
+    void flush()
+    {
+      while(!pending_.isEmpty())
+        deliver();
+    }
+
+    @Override
+    void abandon()
+    {
+      for(Future<String> future : pending_)
+        future.cancel(true);
+      
+      pending_.clear();
+    }
+
+    private void deliver()
+    {
+      Future<String> future = pending_.remove();
+      
+      try
+      {
+        consumer_.accept(future.get());
+      }
+      catch (ExecutionException e)
+      {
+        if(e.getCause() instanceof NoSuchObjectException)
+          throw new IllegalStateException("Unable to read known object from S3", e.getCause());
+        
+        if(e.getCause() instanceof RuntimeException)
+          throw (RuntimeException)e.getCause();
+        
+        throw new TransactionFault(e.getCause());
+      }
+      catch (InterruptedException e)
+      {
+        throw new TransientTransactionFault("Interrupted waiting for secondary storage fetch", e);
+      }
     }
   }
 
   protected static abstract class AbstractBuilder<T extends AbstractBuilder<T,B>, B extends AbstractDynamoDbKvTable<B>> extends AbstractKvTable.AbstractBuilder<T,B>
   {
-    protected final AmazonDynamoDBClientBuilder amazonDynamoDBClientBuilder_;
+    protected final AmazonDynamoDBClientBuilder       amazonDynamoDBClientBuilder_;
+    protected final AmazonDynamoDBAsyncClientBuilder  amazonDynamoDBAsyncClientBuilder_;
 
     protected String              region_;
     protected int                 payloadLimit_           = MAX_RECORD_SIZE;
     protected boolean             validate_               = true;
     protected boolean             enableSecondaryStorage_ = false;
+    protected boolean             bulkStore_              = false;
+    protected int                 maxBulkWriteConcurrency_ = 8;
+    protected int                 maxAsyncConcurrency_    = 50;
+    protected int                 prefetchDepth_          = 16;
+    protected PayloadCompression  payloadCompression_     = PayloadCompression.NONE;
 
     protected StreamSpecification streamSpecification_    = new StreamSpecification().withStreamEnabled(false);
     
@@ -1715,6 +2766,7 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
       super(type);
       
       amazonDynamoDBClientBuilder_ = AmazonDynamoDBClientBuilder.standard();
+      amazonDynamoDBAsyncClientBuilder_ = AmazonDynamoDBAsyncClientBuilder.standard();
     }
     
     @Override
@@ -1723,6 +2775,7 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
       super.validate(faultAccumulator);
       
       faultAccumulator.checkNotNull(region_,      "region");
+      faultAccumulator.checkNotNull(payloadCompression_, "payloadCompression");
     }
 
     public T withValidate(boolean validate)
@@ -1746,6 +2799,84 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
       return self();
     }
 
+    /**
+     * Set the default mode for store(Collection, ITraceContext).
+     * 
+     * @param bulkStore If true then unconditional collection stores use BatchWriteItem rather than a transaction.
+     * 
+     * @return This (fluent method).
+     */
+    public T withBulkStore(boolean bulkStore)
+    {
+      bulkStore_ = bulkStore;
+      
+      return self();
+    }
+
+    /**
+     * Set the maximum number of concurrent BatchWriteItem requests for bulk stores.
+     * 
+     * The same executor runs the BatchGetItem requests made by fetchAll and fetches of payloads from secondary
+     * storage, so this also bounds those.
+     * 
+     * @param maxBulkWriteConcurrency The maximum number of bulk write requests in flight.
+     * 
+     * @return This (fluent method).
+     */
+    public T withMaxBulkWriteConcurrency(int maxBulkWriteConcurrency)
+    {
+      maxBulkWriteConcurrency_ = Math.max(1, maxBulkWriteConcurrency);
+      
+      return self();
+    }
+
+    /**
+     * Set the maximum number of IAsyncKvTable operations in flight, callers block when this limit is reached.
+     * 
+     * @param maxAsyncConcurrency The maximum number of asynchronous operations in flight.
+     * 
+     * @return This (fluent method).
+     */
+    public T withMaxAsyncConcurrency(int maxAsyncConcurrency)
+    {
+      maxAsyncConcurrency_ = Math.max(1, maxAsyncConcurrency);
+      
+      return self();
+    }
+
+    /**
+     * Set the number of items which partition scans may read ahead of the consumer, so that payloads held in
+     * secondary storage can be fetched in parallel. Fetches run on the bulk write executor, so at most
+     * maxBulkWriteConcurrency fetches are actually in flight.
+     * 
+     * @param prefetchDepth The maximum number of items read ahead, zero disables parallel fetches.
+     * 
+     * @return This (fluent method).
+     */
+    public T withPrefetchDepth(int prefetchDepth)
+    {
+      prefetchDepth_ = Math.max(0, prefetchDepth);
+      
+      return self();
+    }
+
+    /**
+     * Set the compression applied to stored payloads.
+     * 
+     * When compression is enabled the decision to store a payload in secondary storage is made on its compressed
+     * size. Payloads are readable whatever setting was in force when they were written.
+     * 
+     * @param payloadCompression The compression codec for new payloads.
+     * 
+     * @return This (fluent method).
+     */
+    public T withPayloadCompression(PayloadCompression payloadCompression)
+    {
+      payloadCompression_ = payloadCompression;
+      
+      return self();
+    }
+
     public T withRegion(String region)
     {
       region_ = region;
@@ -1763,6 +2894,7 @@ public abstract class AbstractDynamoDbKvTable<T extends AbstractDynamoDbKvTable<
     public T withCredentials(AWSCredentialsProvider credentials)
     {
       amazonDynamoDBClientBuilder_.withCredentials(credentials);
+      amazonDynamoDBAsyncClientBuilder_.withCredentials(credentials);
       
       return self();
     }
@@ -0,0 +1,46 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.aws.kv.table;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A supplier of a payload to be written as a stream.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+@FunctionalInterface
+public interface IPayloadStreamSupplier
+{
+  /**
+   * Open the payload, the stream is closed by the caller when it has been read.
+   * 
+   * @return A stream of the uncompressed payload.
+   * 
+   * @throws IOException If the payload cannot be opened.
+   */
+  InputStream get() throws IOException;
+}
@@ -0,0 +1,236 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.aws.kv.table;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nullable;
+
+import org.symphonyoss.s2.common.fault.CodingFault;
+
+/**
+ * Compression codecs for stored payloads.
+ * 
+ * Compressed documents in DynamoDB are prefixed with a single marker byte identifying the codec, so that
+ * rows written with different settings can always be read. Objects in S3 are identified by their
+ * Content-Encoding.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+public enum PayloadCompression
+{
+  /** Payloads are stored as plain UTF-8 text. */
+  NONE((byte)0, null),
+  
+  /** Payloads are stored GZIP compressed. */
+  GZIP((byte)1, "gzip");
+  
+  private final byte    marker_;
+  private final String  contentEncoding_;
+  
+  private PayloadCompression(byte marker, String contentEncoding)
+  {
+    marker_ = marker;
+    contentEncoding_ = contentEncoding;
+  }
+
+  /**
+   * 
+   * @return The HTTP Content-Encoding for data compressed with this codec, or null if it is not compressed.
+   */
+  public @Nullable String getContentEncoding()
+  {
+    return contentEncoding_;
+  }
+
+  /**
+   * Compress the given payload, without a marker byte.
+   * 
+   * @param payload The payload to be compressed.
+   * 
+   * @return The compressed UTF-8 encoding of the payload.
+   */
+  public byte[] encode(String payload)
+  {
+    byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+    
+    if(this == NONE)
+      return bytes;
+    
+    ByteArrayOutputStream bout = new ByteArrayOutputStream(bytes.length / 4 + 64);
+    
+    try(OutputStream out = new GZIPOutputStream(bout))
+    {
+      out.write(bytes);
+    }
+    catch (IOException e)
+    {
+      throw new CodingFault("In memory I/O - can't happen", e);
+    }
+    
+    return bout.toByteArray();
+  }
+
+  /**
+   * Wrap the given stream so that data written to it is compressed with this codec.
+   * 
+   * @param out A stream to receive compressed data.
+   * 
+   * @return A stream to which uncompressed data can be written.
+   * 
+   * @throws IOException If the stream cannot be written.
+   */
+  public OutputStream encode(OutputStream out) throws IOException
+  {
+    if(this == NONE)
+      return out;
+    
+    return new GZIPOutputStream(out, 8192);
+  }
+
+  /**
+   * Wrap the given stream of data compressed with this codec.
+   * 
+   * @param in  A stream of compressed data.
+   * 
+   * @return A stream of uncompressed data.
+   * 
+   * @throws IOException If the stream cannot be read.
+   */
+  public InputStream decode(InputStream in) throws IOException
+  {
+    if(this == NONE)
+      return in;
+    
+    return new GZIPInputStream(in);
+  }
+  
+  /**
+   * Compress the given payload, prefixed with the marker byte for this codec.
+   * 
+   * @param payload The payload to be compressed.
+   * 
+   * @return The marked, compressed UTF-8 encoding of the payload.
+   */
+  public byte[] compress(String payload)
+  {
+    byte[] encoded  = encode(payload);
+    byte[] result   = new byte[encoded.length + 1];
+    
+    result[0] = marker_;
+    System.arraycopy(encoded, 0, result, 1, encoded.length);
+    
+    return result;
+  }
+  
+  /**
+   * Decompress a payload produced by compress(), whichever codec was used.
+   * 
+   * @param data  The marked, compressed data.
+   * 
+   * @return The original payload.
+   */
+  public static String decompress(ByteBuffer data)
+  {
+    ByteBuffer  buf   = data.duplicate();
+    byte[]      bytes = new byte[buf.remaining()];
+    
+    buf.get(bytes);
+    
+    return decompress(bytes);
+  }
+  
+  /**
+   * Decompress a payload produced by compress(), whichever codec was used.
+   * 
+   * @param data  The marked, compressed data.
+   * 
+   * @return The original payload.
+   */
+  public static String decompress(byte[] data)
+  {
+    if(data.length == 0)
+      throw new IllegalArgumentException("Compressed payload has no codec marker");
+    
+    PayloadCompression codec = forMarker(data[0]);
+    
+    try(Reader in = new InputStreamReader(codec.decode(new ByteArrayInputStream(data, 1, data.length - 1)), StandardCharsets.UTF_8))
+    {
+      StringBuilder buf   = new StringBuilder(data.length * 4);
+      char[]        cbuf  = new char[4096];
+      int           nchars;
+      
+      while((nchars = in.read(cbuf)) > 0)
+      {
+        buf.append(cbuf, 0, nchars);
+      }
+      
+      return buf.toString();
+    }
+    catch (IOException e)
+    {
+      throw new IllegalStateException("Invalid compressed payload", e);
+    }
+  }
+  
+  private static PayloadCompression forMarker(byte marker)
+  {
+    for(PayloadCompression codec : values())
+    {
+      if(codec.marker_ == marker)
+        return codec;
+    }
+    
+    throw new IllegalArgumentException("Unknown payload compression marker " + marker);
+  }
+  
+  /**
+   * Return the codec for the given HTTP Content-Encoding.
+   * 
+   * @param contentEncoding A Content-Encoding, which may be null.
+   * 
+   * @return The codec for the given encoding.
+   */
+  public static PayloadCompression forContentEncoding(@Nullable String contentEncoding)
+  {
+    for(PayloadCompression codec : values())
+    {
+      if(codec.contentEncoding_ != null && codec.contentEncoding_.equalsIgnoreCase(contentEncoding))
+        return codec;
+    }
+    
+    return NONE;
+  }
+}
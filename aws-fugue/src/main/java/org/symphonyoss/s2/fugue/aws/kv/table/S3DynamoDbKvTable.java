@@ -23,21 +23,29 @@
 
 package org.symphonyoss.s2.fugue.aws.kv.table;
 
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
 import org.symphonyoss.s2.common.exception.NoSuchObjectException;
 import org.symphonyoss.s2.common.fault.CodingFault;
 import org.symphonyoss.s2.common.fault.FaultAccumulator;
+import org.symphonyoss.s2.common.fault.TransactionFault;
 import org.symphonyoss.s2.common.hash.Hash;
 import org.symphonyoss.s2.fugue.Fugue;
 import org.symphonyoss.s2.fugue.aws.config.S3Helper;
 import org.symphonyoss.s2.fugue.core.trace.ITraceContext;
+import org.symphonyoss.s2.fugue.core.trace.NoOpTraceContext;
 import org.symphonyoss.s2.fugue.kv.IKvItem;
 
 import com.amazonaws.auth.AWSCredentialsProvider;
@@ -46,7 +54,6 @@ import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
-import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
 
 /**
@@ -58,10 +65,14 @@ import com.amazonaws.services.s3.model.S3Object;
 public class S3DynamoDbKvTable extends AbstractDynamoDbKvTable<S3DynamoDbKvTable>
 {
   private static final char SEPARATOR = '/';
+  private static final int  MIN_MULTIPART_THRESHOLD     = 5 * 1024 * 1024;
+  private static final int  DEFAULT_MULTIPART_THRESHOLD = 16 * 1024 * 1024;
   
   protected final String   objectBucketName_;
   protected final AmazonS3 s3Client_;
   private final boolean deferSecondaryStorage_;
+  private final int     multipartThreshold_;
+  private final S3WriteBehindQueue writeBehindQueue_;
   
   protected S3DynamoDbKvTable(S3DynamoDbKvTable.AbstractBuilder<?,?> builder)
   {
@@ -73,64 +84,190 @@ public class S3DynamoDbKvTable extends AbstractDynamoDbKvTable<S3DynamoDbKvTable
         .withPathStyleAccessEnabled(true)
       .build();
     deferSecondaryStorage_ = builder.deferSecondaryStorage_;
+    multipartThreshold_ = builder.multipartThreshold_;
+    
+    if(builder.writeBehind_)
+      writeBehindQueue_ = new S3WriteBehindQueue((absoluteHash, payload) -> storeToSecondaryStorage(absoluteHash, payload, NoOpTraceContext.INSTANCE),
+          (absoluteHash) -> s3Client_.deleteObject(objectBucketName_, s3Key(absoluteHash)),
+          builder.writeBehindCapacity_, builder.writeBehindThreads_, builder.writeBehindSpoolDirectory_, builder.writeBehindDrainTimeoutMillis_);
+    else
+      writeBehindQueue_ = null;
+  }
+  
+  /**
+   * 
+   * @return The write behind queue, which provides queue depth and latency metrics, or null if write behind is not enabled.
+   */
+  public @Nullable S3WriteBehindQueue getWriteBehindQueue()
+  {
+    return writeBehindQueue_;
+  }
+
+  @Override
+  public void stop()
+  {
+    if(writeBehindQueue_ != null)
+      writeBehindQueue_.stop();
+    
+    super.stop();
   }
 
   @Override
   protected String fetchFromSecondaryStorage(Hash absoluteHash, ITraceContext trace)
       throws NoSuchObjectException
   {
-    try
+    ByteBuffer bytes = fetchBytesFromSecondaryStorage(absoluteHash, trace);
+    
+    return new String(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining(), StandardCharsets.UTF_8);
+  }
+  
+  /**
+   * Fetch the payload of the given object from secondary storage as a single buffer.
+   * 
+   * @param absoluteHash  The absolute hash of the required object.
+   * @param trace         Trace context.
+   * 
+   * @return A buffer containing the UTF-8 encoded payload.
+   * 
+   * @throws NoSuchObjectException If the object cannot be read.
+   */
+  public ByteBuffer fetchBytesFromSecondaryStorage(Hash absoluteHash, ITraceContext trace) throws NoSuchObjectException
+  {
+    ByteBuffer[] result = new ByteBuffer[1];
+    
+    fetchFromSecondaryStorage(absoluteHash, (in, contentLength) ->
     {
-      trace.trace("ABOUT-TO-READ-S3", "OBJECT", absoluteHash.toStringBase64());
-      S3Object object = s3Client_.getObject(new GetObjectRequest(objectBucketName_, s3Key(absoluteHash)));
-      
-      if(object.getObjectMetadata().getContentLength() > Integer.MAX_VALUE)
-        throw new IllegalStateException("Blob is too big");
+      result[0] = readFully(in, contentLength);
+    }, trace);
+    
+    return result[0];
+  }
+  
+  /**
+   * Fetch the payload of the given object from secondary storage as a stream.
+   * 
+   * @param absoluteHash  The absolute hash of the required object.
+   * @param consumer      A consumer which is passed a stream of the uncompressed payload.
+   * @param trace         Trace context.
+   * 
+   * @throws NoSuchObjectException If the object cannot be read.
+   */
+  public void fetchFromSecondaryStorage(Hash absoluteHash, IPayloadStreamConsumer consumer, ITraceContext trace)
+      throws NoSuchObjectException
+  {
+    trace.trace("ABOUT-TO-READ-S3", "OBJECT", absoluteHash.toStringBase64());
+    
+    try(S3Object object = s3Client_.getObject(new GetObjectRequest(objectBucketName_, s3Key(absoluteHash))))
+    {
+      ObjectMetadata      metaData    = object.getObjectMetadata();
+      PayloadCompression  compression = PayloadCompression.forContentEncoding(metaData.getContentEncoding());
       
-      try(
-          InputStream is = object.getObjectContent();
-          InputStreamReader in = new InputStreamReader(is, StandardCharsets.UTF_8);
-        )
+      try(InputStream in = compression.decode(object.getObjectContent()))
       {
-        int contentLength = (int)object.getObjectMetadata().getContentLength();
-        StringBuilder buf = new StringBuilder(contentLength);
-        
-        char[] cbuf = new char[1024];
-        int nbytes;
-        
-        while((nbytes = in.read(cbuf)) > 0)
-        {
-          buf.append(cbuf, 0, nbytes);
-        }
-
-        trace.trace("READ-S3", "OBJECT", absoluteHash.toStringBase64());
-        return buf.toString();
+        consumer.accept(in, compression == PayloadCompression.NONE ? metaData.getContentLength() : -1);
       }
+      
+      trace.trace("READ-S3", "OBJECT", absoluteHash.toStringBase64());
     }
     catch(AmazonS3Exception | IOException e)
     {
-
       trace.trace("FAILED-TO-READ-S3", "OBJECT", absoluteHash.toStringBase64());
       throw new NoSuchObjectException("Failed to read object from S3", e);
     }
     // we only call for objects which we know exist and are not in dynamo
   }
   
+  private static ByteBuffer readFully(InputStream in, long contentLength) throws IOException
+  {
+    if(contentLength > Integer.MAX_VALUE)
+      throw new IllegalStateException("Blob is too big");
+    
+    if(contentLength >= 0)
+    {
+      byte[]  bytes   = new byte[(int)contentLength];
+      int     offset  = 0;
+      int     nbytes;
+      
+      while(offset < bytes.length && (nbytes = in.read(bytes, offset, bytes.length - offset)) > 0)
+        offset += nbytes;
+      
+      if(offset < bytes.length)
+        throw new IOException("Object truncated after " + offset + " of " + contentLength + " bytes");
+      
+      return ByteBuffer.wrap(bytes);
+    }
+    
+    ContentBuffer buf   = new ContentBuffer();
+    byte[]        bytes = new byte[8192];
+    int           nbytes;
+    
+    while((nbytes = in.read(bytes)) > 0)
+      buf.write(bytes, 0, nbytes);
+    
+    return buf.toByteBuffer();
+  }
+  
+  /**
+   * A ByteArrayOutputStream whose content can be wrapped without copying.
+   */
+  private static class ContentBuffer extends ByteArrayOutputStream
+  {
+    ByteBuffer toByteBuffer()
+    {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+  }
+  
   public void storeToSecondaryStorage(Hash absoluteHash, String payload, ITraceContext trace)
   {
-    byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+    S3UploadOutputStream upload = createUpload(absoluteHash);
     
-    try(InputStream in = new ByteArrayInputStream(bytes))
+    try
     {
-      s3Client_.putObject(new PutObjectRequest(objectBucketName_, s3Key(absoluteHash), in, getS3MetaData(absoluteHash, bytes.length)));
+      write(upload, payload);
       trace.trace("WRITTEN-S3");
     }
-    catch (IOException e)
+    catch(RuntimeException e)
     {
-      throw new CodingFault("In memory I/O - can't happen", e);
+      trace.trace("FAILED-TO-WRITE-S3");
+      throw e;
+    }
+  }
+  
+  /**
+   * Store the given payload in secondary storage, streaming it from the given supplier.
+   * 
+   * Payloads larger than the multipart threshold are uploaded in parts so the whole payload is never held in memory.
+   * 
+   * @param absoluteHash  The absolute hash of the object.
+   * @param payload       A supplier of the UTF-8 encoded payload.
+   * @param trace         Trace context.
+   */
+  public void storeToSecondaryStorage(Hash absoluteHash, IPayloadStreamSupplier payload, ITraceContext trace)
+  {
+    S3UploadOutputStream upload = createUpload(absoluteHash);
+    
+    try(InputStream in = payload.get())
+    {
+      OutputStream  out   = payloadCompression_.encode(upload);
+      byte[]        bytes = new byte[8192];
+      int           nbytes;
+      
+      while((nbytes = in.read(bytes)) > 0)
+        out.write(bytes, 0, nbytes);
+      
+      out.close();
+      trace.trace("WRITTEN-S3");
+    }
+    catch(IOException e)
+    {
+      upload.abort();
+      trace.trace("FAILED-TO-WRITE-S3");
+      throw new TransactionFault("Failed to read payload", e);
     }
     catch(RuntimeException e)
     {
+      upload.abort();
       trace.trace("FAILED-TO-WRITE-S3");
       throw e;
     }
@@ -145,21 +282,58 @@ public class S3DynamoDbKvTable extends AbstractDynamoDbKvTable<S3DynamoDbKvTable
       return false;
     }
     
-    byte[] bytes = kvItem.getJson().getBytes(StandardCharsets.UTF_8);
+    // Payloads which are held in DynamoDB are archived once the DynamoDB write succeeds, anything else must be written first.
+    if(writeBehindQueue_ != null && !payloadNotStored)
+      return false;
+    
+    S3UploadOutputStream upload = createUpload(kvItem.getAbsoluteHash());
     
-    try(InputStream in = new ByteArrayInputStream(bytes))
+    try
     {
-      s3Client_.putObject(new PutObjectRequest(objectBucketName_, s3Key(kvItem.getAbsoluteHash()), in, getS3MetaData(kvItem.getAbsoluteHash(), bytes.length)));
+      write(upload, kvItem.getJson());
       trace.trace("WRITTEN-S3", kvItem);
       return true;
     }
+    catch(RuntimeException e)
+    {
+      trace.trace("FAILED-TO-WRITE-S3", kvItem);
+      throw e;
+    }
+  }
+  
+  @Override
+  protected void storeToSecondaryStorageAfterWrite(IKvItem kvItem, ITraceContext trace)
+  {
+    if(writeBehindQueue_ != null && !deferSecondaryStorage_)
+    {
+      writeBehindQueue_.enqueue(kvItem.getAbsoluteHash(), kvItem.getJson());
+      trace.trace("QUEUED-S3", kvItem);
+    }
+  }
+  
+  private S3UploadOutputStream createUpload(Hash absoluteHash)
+  {
+    return new S3UploadOutputStream(s3Client_, objectBucketName_, s3Key(absoluteHash), getS3MetaData(absoluteHash), multipartThreshold_);
+  }
+  
+  private void write(S3UploadOutputStream upload, String payload)
+  {
+    // Encode the payload as it is written rather than materialising the whole byte array.
+    try
+    {
+      Writer out = new OutputStreamWriter(payloadCompression_.encode(upload), StandardCharsets.UTF_8);
+      
+      out.write(payload);
+      out.close();
+    }
     catch (IOException e)
     {
+      upload.abort();
       throw new CodingFault("In memory I/O - can't happen", e);
     }
     catch(RuntimeException e)
     {
-      trace.trace("FAILED-TO-WRITE-S3", kvItem);
+      upload.abort();
       throw e;
     }
   }
@@ -167,21 +341,25 @@ public class S3DynamoDbKvTable extends AbstractDynamoDbKvTable<S3DynamoDbKvTable
   @Override
   protected void deleteFromSecondaryStorage(Hash absoluteHash, ITraceContext trace)
   {
+    // Cancel first, so that a queued write cannot recreate the object after we delete it.
+    if(writeBehindQueue_ != null)
+      writeBehindQueue_.cancel(absoluteHash);
+    
     s3Client_.deleteObject(objectBucketName_, s3Key(absoluteHash));
     
     trace.trace("DELETED-S3", "OBJECT", absoluteHash.toStringBase64());
   }
   
-  private ObjectMetadata getS3MetaData(
-      Hash absoluteHash, 
-      long contentLength)
+  private ObjectMetadata getS3MetaData(Hash absoluteHash)
   {
     ObjectMetadata metaData = new ObjectMetadata();
-        
-    metaData.setContentLength(contentLength);
+    
     metaData.setContentDisposition("attachment; filename=" + absoluteHash.toStringUrlSafeBase64() + ".json");
     metaData.setContentType("application/json");
     
+    if(payloadCompression_.getContentEncoding() != null)
+      metaData.setContentEncoding(payloadCompression_.getContentEncoding());
+    
     return metaData;
   }
   
@@ -209,6 +387,12 @@ public class S3DynamoDbKvTable extends AbstractDynamoDbKvTable<S3DynamoDbKvTable
   {
     protected final AmazonS3ClientBuilder       s3ClientBuilder_;
     protected boolean deferSecondaryStorage_;
+    protected int     multipartThreshold_ = DEFAULT_MULTIPART_THRESHOLD;
+    protected boolean writeBehind_;
+    protected int     writeBehindCapacity_ = 1000;
+    protected int     writeBehindThreads_ = 4;
+    protected File    writeBehindSpoolDirectory_;
+    protected long    writeBehindDrainTimeoutMillis_ = 30000;
     
     protected AbstractBuilder(Class<T> type)
     {
@@ -247,6 +431,93 @@ public class S3DynamoDbKvTable extends AbstractDynamoDbKvTable<S3DynamoDbKvTable
       return self();
     }
 
+    /**
+     * Set the size above which objects are written to S3 by a multipart upload, this is also the part size.
+     * 
+     * @param multipartThreshold The threshold in bytes, which may not be less than the S3 minimum part size of 5MB.
+     * 
+     * @return This (fluent method).
+     */
+    public T withMultipartThreshold(int multipartThreshold)
+    {
+      multipartThreshold_ = Math.max(MIN_MULTIPART_THRESHOLD, multipartThreshold);
+      
+      return self();
+    }
+
+    /**
+     * Enable write behind of archive copies to secondary storage.
+     * 
+     * When enabled, payloads which fit in DynamoDB are written to S3 by a background queue rather than before the
+     * DynamoDB transaction. Payloads which do not fit are still written synchronously.
+     * 
+     * @param writeBehind If true then archive copies are written in the background.
+     * 
+     * @return This (fluent method).
+     */
+    public T withWriteBehind(boolean writeBehind)
+    {
+      writeBehind_ = writeBehind;
+      
+      return self();
+    }
+
+    /**
+     * Set the maximum number of payloads waiting to be written behind, callers block when this limit is reached.
+     * 
+     * @param writeBehindCapacity The capacity of the write behind queue.
+     * 
+     * @return This (fluent method).
+     */
+    public T withWriteBehindCapacity(int writeBehindCapacity)
+    {
+      writeBehindCapacity_ = Math.max(1, writeBehindCapacity);
+      
+      return self();
+    }
+
+    /**
+     * Set the number of threads writing payloads from the write behind queue.
+     * 
+     * @param writeBehindThreads The number of uploader threads.
+     * 
+     * @return This (fluent method).
+     */
+    public T withWriteBehindThreads(int writeBehindThreads)
+    {
+      writeBehindThreads_ = Math.max(1, writeBehindThreads);
+      
+      return self();
+    }
+
+    /**
+     * Set a directory in which payloads which have not been written at shutdown are saved, to be written on restart.
+     * 
+     * @param writeBehindSpoolDirectory The spool directory.
+     * 
+     * @return This (fluent method).
+     */
+    public T withWriteBehindSpoolDirectory(File writeBehindSpoolDirectory)
+    {
+      writeBehindSpoolDirectory_ = writeBehindSpoolDirectory;
+      
+      return self();
+    }
+
+    /**
+     * Set the time for which stop() waits for the write behind queue to drain.
+     * 
+     * @param writeBehindDrainTimeoutMillis The drain timeout in milliseconds.
+     * 
+     * @return This (fluent method).
+     */
+    public T withWriteBehindDrainTimeoutMillis(long writeBehindDrainTimeoutMillis)
+    {
+      writeBehindDrainTimeoutMillis_ = writeBehindDrainTimeoutMillis;
+      
+      return self();
+    }
+
     @Override
     public T withCredentials(AWSCredentialsProvider credentials)
     {
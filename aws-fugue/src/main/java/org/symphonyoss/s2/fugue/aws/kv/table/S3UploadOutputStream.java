@@ -0,0 +1,200 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.aws.kv.table;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+/**
+ * An OutputStream which writes an S3 object.
+ * 
+ * Data is buffered until partSize bytes have been written, objects no larger than this are written with a single
+ * PutObject call and larger objects are written by a multipart upload, so that at most one part is held in memory.
+ * 
+ * Closing the stream completes the upload, callers must call abort() instead if the content could not be
+ * written in full.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+class S3UploadOutputStream extends OutputStream
+{
+  private static final Logger log_ = LoggerFactory.getLogger(S3UploadOutputStream.class);
+  
+  private final AmazonS3        s3Client_;
+  private final String          bucketName_;
+  private final String          key_;
+  private final ObjectMetadata  metaData_;
+  private final int             partSize_;
+  private final PartBuffer      buffer_     = new PartBuffer();
+  private final List<PartETag>  partETags_  = new ArrayList<>();
+  
+  private String                uploadId_;
+  private boolean               closed_;
+  
+  S3UploadOutputStream(AmazonS3 s3Client, String bucketName, String key, ObjectMetadata metaData, int partSize)
+  {
+    s3Client_   = s3Client;
+    bucketName_ = bucketName;
+    key_        = key;
+    metaData_   = metaData;
+    partSize_   = partSize;
+  }
+
+  @Override
+  public void write(int b)
+  {
+    buffer_.write(b);
+    
+    if(buffer_.size() >= partSize_)
+      uploadPart();
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len)
+  {
+    while(len > 0)
+    {
+      int n = Math.min(len, partSize_ - buffer_.size());
+      
+      buffer_.write(b, off, n);
+      off += n;
+      len -= n;
+      
+      if(buffer_.size() >= partSize_)
+        uploadPart();
+    }
+  }
+
+  @Override
+  public void close()
+  {
+    if(closed_)
+      return;
+    
+    try
+    {
+      if(uploadId_ == null)
+      {
+        metaData_.setContentLength(buffer_.size());
+        
+        s3Client_.putObject(new PutObjectRequest(bucketName_, key_, buffer_.toInputStream(), metaData_));
+      }
+      else
+      {
+        if(buffer_.size() > 0)
+          uploadPart();
+        
+        s3Client_.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName_, key_, uploadId_, partETags_));
+        uploadId_ = null;
+      }
+      
+      closed_ = true;
+    }
+    catch(RuntimeException e)
+    {
+      abort();
+      throw e;
+    }
+  }
+  
+  /**
+   * Abandon the upload, nothing is written and any parts already uploaded are discarded.
+   */
+  void abort()
+  {
+    closed_ = true;
+    
+    if(uploadId_ != null)
+    {
+      try
+      {
+        s3Client_.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName_, key_, uploadId_));
+      }
+      catch(RuntimeException e)
+      {
+        log_.warn("Failed to abort multipart upload of " + key_, e);
+      }
+      
+      uploadId_ = null;
+    }
+  }
+
+  private void uploadPart()
+  {
+    try
+    {
+      if(uploadId_ == null)
+        uploadId_ = s3Client_.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName_, key_, metaData_)).getUploadId();
+      
+      partETags_.add(s3Client_.uploadPart(new UploadPartRequest()
+          .withBucketName(bucketName_)
+          .withKey(key_)
+          .withUploadId(uploadId_)
+          .withPartNumber(partETags_.size() + 1)
+          .withPartSize(buffer_.size())
+          .withInputStream(buffer_.toInputStream())
+          ).getPartETag());
+      
+      buffer_.reset();
+    }
+    catch(RuntimeException e)
+    {
+      abort();
+      throw e;
+    }
+  }
+  
+  /**
+   * A ByteArrayOutputStream whose content can be read without copying.
+   */
+  private static class PartBuffer extends ByteArrayOutputStream
+  {
+    PartBuffer()
+    {
+      super(8192);
+    }
+    
+    InputStream toInputStream()
+    {
+      return new ByteArrayInputStream(buf, 0, count);
+    }
+  }
+}
@@ -0,0 +1,421 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.aws.kv.table;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.symphonyoss.s2.common.concurrent.NamedThreadFactory;
+import org.symphonyoss.s2.common.fault.TransientTransactionFault;
+import org.symphonyoss.s2.common.hash.Hash;
+import org.symphonyoss.s2.fugue.metrics.LatencyMetric;
+
+/**
+ * A bounded queue of payloads to be written to secondary storage in the background.
+ * 
+ * Callers block when the queue is full. Failed writes are retried with an exponential backoff. On shutdown the queue
+ * is drained for up to the drain timeout, after which any payloads not yet written are saved to the spool directory,
+ * if one is configured, and reloaded the next time a queue is created with the same directory.
+ * 
+ * Deleting an object cancels any pending write of it, including writes waiting to be retried and writes reloaded
+ * from the spool. A write which is already in progress when the object is deleted is undone once it completes.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+public class S3WriteBehindQueue
+{
+  private static final Logger log_               = LoggerFactory.getLogger(S3WriteBehindQueue.class);
+  
+  private static final int    MAX_ATTEMPTS        = 5;
+  private static final long   INITIAL_RETRY_DELAY = 200;
+  private static final long   MAX_RETRY_DELAY     = 10000;
+  private static final String SPOOL_SUFFIX        = ".spool";
+  
+  private final BiConsumer<Hash, String>  uploader_;
+  private final Consumer<Hash>            deleter_;
+  private final BlockingQueue<Upload>     queue_;
+  private final Queue<Upload>             abandoned_      = new ConcurrentLinkedQueue<>();
+  private final Object                    lock_           = new Object();
+  private final Set<Upload>               inProgress_     = new HashSet<>(); // guarded by lock_
+  private final ExecutorService           workers_;
+  private final @Nullable File            spoolDirectory_;
+  private final long                      drainTimeoutMillis_;
+  private final LatencyMetric             uploadLatency_  = new LatencyMetric();
+  private final AtomicLong                failedCount_    = new AtomicLong();
+  
+  private volatile boolean                running_        = true;
+  
+  S3WriteBehindQueue(BiConsumer<Hash, String> uploader, Consumer<Hash> deleter, int capacity, int threads,
+      @Nullable File spoolDirectory, long drainTimeoutMillis)
+  {
+    uploader_           = uploader;
+    deleter_            = deleter;
+    queue_              = new ArrayBlockingQueue<>(capacity);
+    spoolDirectory_     = spoolDirectory;
+    drainTimeoutMillis_ = drainTimeoutMillis;
+    workers_            = Executors.newFixedThreadPool(threads, new NamedThreadFactory("S3-write-behind", true));
+    
+    for(int i=0 ; i<threads ; i++)
+      workers_.execute(() -> work());
+    
+    loadSpool();
+  }
+  
+  /**
+   * 
+   * @return The number of payloads waiting to be written.
+   */
+  public int getQueueDepth()
+  {
+    return queue_.size();
+  }
+
+  /**
+   * 
+   * @return The latency of individual secondary storage writes.
+   */
+  public LatencyMetric getUploadLatency()
+  {
+    return uploadLatency_;
+  }
+
+  /**
+   * 
+   * @return The number of payloads which could not be written after all retries.
+   */
+  public long getFailedCount()
+  {
+    return failedCount_.get();
+  }
+  
+  /**
+   * Queue the given payload to be written, blocking if the queue is full.
+   * 
+   * @param absoluteHash  The absolute hash of the object.
+   * @param payload       The payload.
+   */
+  void enqueue(Hash absoluteHash, String payload)
+  {
+    enqueue(new Upload(absoluteHash, payload, null));
+  }
+  
+  private void enqueue(Upload upload)
+  {
+    if(!running_)
+      throw new IllegalStateException("Write behind queue has been stopped.");
+    
+    try
+    {
+      queue_.put(upload);
+    }
+    catch (InterruptedException e)
+    {
+      throw new TransientTransactionFault("Interrupted waiting for write behind queue", e);
+    }
+    
+    synchronized(lock_)
+    {
+      lock_.notify();
+    }
+  }
+  
+  /**
+   * Cancel any pending write of the given object, which is about to be deleted from secondary storage.
+   * 
+   * Queued, abandoned and spooled writes are discarded, a write which is in progress, or waiting to be retried,
+   * is abandoned at the next attempt or deleted again once it completes.
+   * 
+   * @param absoluteHash  The absolute hash of the object.
+   */
+  void cancel(Hash absoluteHash)
+  {
+    // Workers take uploads from the queue while holding the lock, so every upload is either queued or in progress here.
+    synchronized(lock_)
+    {
+      queue_.removeIf((upload) -> upload.absoluteHash_.equals(absoluteHash));
+      
+      for(Upload upload : inProgress_)
+      {
+        if(upload.absoluteHash_.equals(absoluteHash))
+          upload.cancelled_ = true;
+      }
+    }
+    
+    abandoned_.removeIf((upload) -> upload.absoluteHash_.equals(absoluteHash));
+    
+    if(spoolDirectory_ != null)
+    {
+      File file = spoolFile(absoluteHash);
+      
+      if(file.exists() && !file.delete())
+        log_.warn("Failed to delete spool file " + file);
+    }
+  }
+  
+  /**
+   * Stop accepting new payloads and drain the queue, spooling anything which could not be written in time.
+   */
+  void stop()
+  {
+    running_ = false;
+    workers_.shutdown();
+    
+    try
+    {
+      if(!workers_.awaitTermination(drainTimeoutMillis_, TimeUnit.MILLISECONDS))
+      {
+        workers_.shutdownNow();
+        workers_.awaitTermination(drainTimeoutMillis_, TimeUnit.MILLISECONDS);
+      }
+    }
+    catch (InterruptedException e)
+    {
+      workers_.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+    
+    List<Upload> remaining = new ArrayList<>(abandoned_);
+    
+    queue_.drainTo(remaining);
+    
+    if(!remaining.isEmpty())
+      spool(remaining);
+  }
+  
+  /*
+   * Each worker writes one payload at a time, the writes are concurrent across the worker threads.
+   */
+  private void work()
+  {
+    while(true)
+    {
+      Upload upload;
+      
+      synchronized(lock_)
+      {
+        try
+        {
+          while((upload = queue_.poll()) == null)
+          {
+            if(!running_)
+              return;
+            
+            lock_.wait(100);
+          }
+        }
+        catch (InterruptedException e)
+        {
+          return;
+        }
+        
+        inProgress_.add(upload);
+      }
+      
+      try
+      {
+        upload(upload);
+      }
+      catch (InterruptedException e)
+      {
+        if(!upload.cancelled_)
+          abandoned_.add(upload);
+        
+        return;
+      }
+      finally
+      {
+        synchronized(lock_)
+        {
+          inProgress_.remove(upload);
+        }
+      }
+    }
+  }
+  
+  private void upload(Upload upload) throws InterruptedException
+  {
+    long delay = INITIAL_RETRY_DELAY;
+    
+    for(int attempt = 1 ;; attempt++)
+    {
+      if(upload.cancelled_)
+      {
+        deleteSpoolFile(upload);
+        return;
+      }
+      
+      long start = System.nanoTime();
+      
+      try
+      {
+        uploader_.accept(upload.absoluteHash_, upload.payload_);
+        uploadLatency_.record(start, true);
+        
+        // The object was deleted while we were writing it, the delete may have happened before our write landed.
+        if(upload.cancelled_)
+          deleter_.accept(upload.absoluteHash_);
+        
+        deleteSpoolFile(upload);
+        
+        return;
+      }
+      catch(RuntimeException e)
+      {
+        uploadLatency_.record(start, false);
+        
+        if(attempt >= MAX_ATTEMPTS)
+        {
+          failedCount_.incrementAndGet();
+          log_.error("Failed to write " + upload.absoluteHash_ + " to secondary storage after " + attempt + " attempts", e);
+          abandoned_.add(upload);
+          
+          return;
+        }
+        
+        log_.warn("Failed to write " + upload.absoluteHash_ + " to secondary storage, will retry in " + delay + "ms", e);
+        
+        Thread.sleep(delay);
+        delay = Math.min(delay * 2, MAX_RETRY_DELAY);
+      }
+    }
+  }
+  
+  private void deleteSpoolFile(Upload upload)
+  {
+    if(upload.spoolFile_ != null && upload.spoolFile_.exists() && !upload.spoolFile_.delete())
+      log_.warn("Failed to delete spool file " + upload.spoolFile_);
+  }
+  
+  private File spoolFile(Hash absoluteHash)
+  {
+    return new File(spoolDirectory_, absoluteHash.toStringUrlSafeBase64() + SPOOL_SUFFIX);
+  }
+  
+  private void spool(List<Upload> uploads)
+  {
+    if(spoolDirectory_ == null)
+    {
+      log_.error(uploads.size() + " payloads were not written to secondary storage and no spool directory is configured.");
+      
+      for(Upload upload : uploads)
+        log_.error("Lost secondary storage write of " + upload.absoluteHash_);
+      
+      return;
+    }
+    
+    spoolDirectory_.mkdirs();
+    
+    for(Upload upload : uploads)
+    {
+      File file = spoolFile(upload.absoluteHash_);
+      
+      try(Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))
+      {
+        out.write(upload.absoluteHash_.toStringBase64());
+        out.write('\n');
+        out.write(upload.payload_);
+      }
+      catch(IOException e)
+      {
+        log_.error("Failed to spool secondary storage write of " + upload.absoluteHash_, e);
+      }
+    }
+    
+    log_.info("Spooled " + uploads.size() + " secondary storage writes to " + spoolDirectory_);
+  }
+  
+  private void loadSpool()
+  {
+    if(spoolDirectory_ == null)
+      return;
+    
+    File[] files = spoolDirectory_.listFiles((dir, name) -> name.endsWith(SPOOL_SUFFIX));
+    
+    if(files == null || files.length == 0)
+      return;
+    
+    log_.info("Reloading " + files.length + " spooled secondary storage writes from " + spoolDirectory_);
+    
+    for(File file : files)
+    {
+      try(BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)))
+      {
+        Hash          absoluteHash  = Hash.ofBase64String(in.readLine());
+        StringBuilder payload       = new StringBuilder((int)file.length());
+        char[]        cbuf          = new char[8192];
+        int           nchars;
+        
+        while((nchars = in.read(cbuf)) > 0)
+          payload.append(cbuf, 0, nchars);
+        
+        enqueue(new Upload(absoluteHash, payload.toString(), file));
+      }
+      catch(IOException | RuntimeException e)
+      {
+        log_.error("Failed to reload spool file " + file, e);
+      }
+    }
+  }
+  
+  private static class Upload
+  {
+    final Hash            absoluteHash_;
+    final String          payload_;
+    final @Nullable File  spoolFile_;
+    volatile boolean      cancelled_;
+    
+    Upload(Hash absoluteHash, String payload, @Nullable File spoolFile)
+    {
+      absoluteHash_ = absoluteHash;
+      payload_ = payload;
+      spoolFile_ = spoolFile;
+    }
+  }
+}
@@ -0,0 +1,219 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.aws.lambda;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.annotation.Nullable;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Streaming parser for API Gateway proxy events.
+ * 
+ * The body and the header, parameter and stage variable maps are extracted directly from the token stream,
+ * all other fields, including requestContext, are read into a JSON tree. The body is kept as the text in
+ * the event, decoding is left to the caller so that it only happens if the body is actually used.
+ * 
+ * The extracted fields are only added back to the JSON tree if getFullJson() is called.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+/* package */ class ApiGatewayProxyEventParser
+{
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final ObjectNode          json_ = MAPPER.createObjectNode();
+  private Map<String, String>       queryParams_    = Collections.emptyMap();
+  private Map<String, String>       pathParams_     = Collections.emptyMap();
+  private Map<String, String>       requestHeaders_ = Collections.emptyMap();
+  private Map<String, String>       stageVariables_ = Collections.emptyMap();
+  private String                    body_;
+  private boolean                   hasBody_;
+  private boolean                   complete_;
+  
+  /* The extracted maps in the order they appeared, so that they can be added back to the tree. */
+  private final Map<String, Map<String, String>> extractedMaps_ = new LinkedHashMap<>();
+
+  /* package */ ApiGatewayProxyEventParser(InputStream inputStream)
+  {
+    try(JsonParser parser = MAPPER.getFactory().createParser(inputStream))
+    {
+      if(parser.nextToken() != JsonToken.START_OBJECT)
+        throw new IllegalArgumentException("JSON object expected");
+      
+      while(parser.nextToken() == JsonToken.FIELD_NAME)
+      {
+        String name = parser.getCurrentName();
+        
+        parser.nextToken();
+        
+        switch(name)
+        {
+          case "body":
+            body_ = readString(parser);
+            hasBody_ = true;
+            break;
+            
+          case "queryStringParameters":
+            queryParams_ = readMap(name, parser);
+            break;
+            
+          case "pathParameters":
+            pathParams_ = readMap(name, parser);
+            break;
+            
+          case "headers":
+            requestHeaders_ = readMap(name, parser);
+            break;
+            
+          case "stageVariables":
+            stageVariables_ = readMap(name, parser);
+            break;
+            
+          default:
+            JsonNode node = parser.readValueAsTree();
+            
+            if(node != null)
+              json_.set(name, node);
+        }
+      }
+    }
+    catch (IOException e)
+    {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  private @Nullable String readString(JsonParser parser) throws IOException
+  {
+    JsonToken token = parser.getCurrentToken();
+    
+    if(token == JsonToken.VALUE_NULL)
+      return null;
+    
+    if(token.isScalarValue())
+      return parser.getText();
+    
+    return MAPPER.writeValueAsString(parser.readValueAsTree());
+  }
+
+  private Map<String, String> readMap(String fieldName, JsonParser parser) throws IOException
+  {
+    if(parser.getCurrentToken() != JsonToken.START_OBJECT)
+    {
+      // API Gateway sends null when there are no values, which we keep in the tree.
+      json_.set(fieldName, parser.readValueAsTree());
+      
+      return Collections.emptyMap();
+    }
+    
+    Map<String, String> map = new HashMap<>();
+    
+    while(parser.nextToken() == JsonToken.FIELD_NAME)
+    {
+      String name = parser.getCurrentName();
+      
+      parser.nextToken();
+      
+      map.put(name, readString(parser));
+    }
+    
+    map = Collections.unmodifiableMap(map);
+    
+    extractedMaps_.put(fieldName, map);
+    
+    return map;
+  }
+
+  /**
+   * @return All fields of the event other than the body, headers, parameters and stage variables.
+   */
+  /* package */ ObjectNode getJson()
+  {
+    return json_;
+  }
+
+  /**
+   * Add the body, headers, parameters and stage variables back to the JSON tree, which is done on the first call.
+   * 
+   * @return All fields of the event.
+   */
+  /* package */ synchronized ObjectNode getFullJson()
+  {
+    if(!complete_)
+    {
+      if(hasBody_)
+        json_.put("body", body_);
+      
+      for(Entry<String, Map<String, String>> entry : extractedMaps_.entrySet())
+      {
+        ObjectNode map = json_.putObject(entry.getKey());
+        
+        for(Entry<String, String> value : entry.getValue().entrySet())
+          map.put(value.getKey(), value.getValue());
+      }
+      
+      complete_ = true;
+    }
+    
+    return json_;
+  }
+
+  /* package */ Map<String, String> getQueryParams()
+  {
+    return queryParams_;
+  }
+
+  /* package */ Map<String, String> getPathParams()
+  {
+    return pathParams_;
+  }
+
+  /* package */ Map<String, String> getRequestHeaders()
+  {
+    return requestHeaders_;
+  }
+
+  /* package */ Map<String, String> getStageVariables()
+  {
+    return stageVariables_;
+  }
+
+  /* package */ @Nullable String getBody()
+  {
+    return body_;
+  }
+}
@@ -9,10 +9,12 @@ package org.symphonyoss.s2.fugue.aws.lambda;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.symphonyoss.s2.fugue.FugueComponentContainer;
+import org.symphonyoss.s2.fugue.FugueLifecycleState;
 import org.symphonyoss.s2.fugue.IFugueAssemblyBuilder;
 import org.symphonyoss.s2.fugue.config.IConfiguration;
 import org.symphonyoss.s2.fugue.counter.BusyCounter;
@@ -25,31 +27,58 @@ import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
 /**
  * A lambda function implementation based on a Fugue Assembly.
  * 
+ * The Lambda runtime reuses the handler instance for every invocation in an execution environment, so the
+ * assembly is built and started on the first (cold) invocation and then kept. Each invocation runs the main
+ * loop and then quiesces the container, the next (warm) invocation resumes it. The time taken to start or
+ * resume is logged so that cold and warm starts can be compared. If the container cannot be resumed, for example
+ * because one of its components does not support resume, it is discarded and the invocation makes a cold start.
+ * 
  * @author Bruce Skingle
  *
  */
 public abstract class AwsAssemblyLambda implements RequestStreamHandler
 {
-  private static final Logger log_ = LoggerFactory.getLogger(AwsAssemblyLambda.class);
+  private static final Logger     log_ = LoggerFactory.getLogger(AwsAssemblyLambda.class);
+
+  private FugueComponentContainer container_;
 
   protected abstract IFugueAssemblyBuilder<?,?> createBuilder();
 
   @Override
-  public void handleRequest(InputStream inputStream, OutputStream outputStream, Context context)
+  public synchronized void handleRequest(InputStream inputStream, OutputStream outputStream, Context context)
   {
     try
     {
-      FugueComponentContainer container = new FugueComponentContainer();
+      long startTime = System.nanoTime();
+      
+      if(container_ != null && container_.getLifecycleState() != FugueLifecycleState.Quiescent)
+      {
+        log_.warn("Container is in state " + container_.getLifecycleState() + ", discarding it");
+        discardContainer();
+      }
       
-      IFugueAssemblyBuilder<?, ?> builder = createBuilder();
+      if(container_ != null)
+      {
+        try
+        {
+          container_.resume();
+          
+          started(false, System.nanoTime() - startTime);
+        }
+        catch(RuntimeException e)
+        {
+          log_.warn("Failed to resume container, discarding it", e);
+          discardContainer();
+        }
+      }
       
-      builder
-          .withContainer(container)
-          .withBusyCounterFactory(new LambdaBusyCounterFactory(container,
-              builder.getConfiguration().getConfiguration("com/symphony/s2/legacy/message/forwarder/AwsForwarderComponent"))) // TODO: refactor this into Symphony code
-          .build();
-            
-      container.start();
+      if(container_ == null)
+      {
+        container_ = createContainer();
+        container_.start();
+        
+        started(true, System.nanoTime() - startTime);
+      }
       
       try
       {
@@ -57,20 +86,24 @@ public abstract class AwsAssemblyLambda implements RequestStreamHandler
         
         log_.info("context.getRemainingTimeInMillis()=" + context.getRemainingTimeInMillis() + ", timeout=" + timeout);
         
-        container.mainLoop(timeout);
+        container_.mainLoop(timeout);
       }
       finally
       {
+        // The container is kept for the next invocation so we quiesce rather than stop.
         log_.info("Quiescing...");
-        container.quiesce();
-        log_.info("Stopping...");
-        container.stop();
-        log_.info("Stopping...Done.");
+        container_.quiesce();
+        log_.info("Quiescing...Done.");
       }
       
       new AwsLambdaResponse(200, "OK").write(outputStream);
       
       
+    }
+    catch(RuntimeException e)
+    {
+      discardContainer();
+      throw e;
     }
     catch(IOException | InterruptedException e)
     {
@@ -86,6 +119,47 @@ public abstract class AwsAssemblyLambda implements RequestStreamHandler
     }
   }
   
+  /* package */ FugueComponentContainer createContainer()
+  {
+    FugueComponentContainer container = new FugueComponentContainer();
+    
+    IFugueAssemblyBuilder<?, ?> builder = createBuilder();
+    
+    builder
+        .withContainer(container)
+        .withBusyCounterFactory(new LambdaBusyCounterFactory(container,
+            builder.getConfiguration().getConfiguration("com/symphony/s2/legacy/message/forwarder/AwsForwarderComponent"))) // TODO: refactor this into Symphony code
+        .build();
+    
+    return container;
+  }
+  
+  /* package */ void started(boolean cold, long nanos)
+  {
+    log_.info((cold ? "Cold" : "Warm") + " start took " + TimeUnit.NANOSECONDS.toMillis(nanos) + "ms");
+  }
+  
+  private void discardContainer()
+  {
+    if(container_ == null)
+      return;
+    
+    try
+    {
+      log_.info("Stopping...");
+      container_.stop();
+      log_.info("Stopping...Done.");
+    }
+    catch(RuntimeException e)
+    {
+      log_.error("Failed to stop container", e);
+    }
+    finally
+    {
+      container_ = null;
+    }
+  }
+  
   class LambdaBusyCounterFactory implements ITopicBusyCounterFactory
   {
     private final FugueComponentContainer container_;
@@ -0,0 +1,69 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.aws.lambda;
+
+import org.symphonyoss.s2.fugue.lambda.JsonLambdaResponse;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+/**
+ * The response to a DynamoDB stream batch, listing the records which failed.
+ * 
+ * Lambda only acts on this response if the event source mapping has ReportBatchItemFailures enabled, in
+ * which case processing of the shard resumes from the earliest failed record.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+public class AwsDbStreamBatchResponse extends JsonLambdaResponse
+{
+  private static final String BATCH_ITEM_FAILURES = "batchItemFailures";
+  private static final String ITEM_IDENTIFIER     = "itemIdentifier";
+  
+  private final ArrayNode failures_ = putArray(BATCH_ITEM_FAILURES);
+  private int             failureCount_;
+  
+  /**
+   * Report the given record as failed.
+   * 
+   * @param record A record which was not processed successfully.
+   * 
+   * @return this (fluent method)
+   */
+  public AwsDbStreamBatchResponse withFailure(KvStreamRecord record)
+  {
+    failures_.addObject().put(ITEM_IDENTIFIER, record.getSequenceNumber());
+    failureCount_++;
+    
+    return this;
+  }
+
+  /**
+   * @return The number of failed records.
+   */
+  public int getFailureCount()
+  {
+    return failureCount_;
+  }
+}
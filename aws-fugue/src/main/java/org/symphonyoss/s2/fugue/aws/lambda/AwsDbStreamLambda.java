@@ -0,0 +1,304 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.aws.lambda;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.symphonyoss.s2.common.concurrent.NamedThreadFactory;
+import org.symphonyoss.s2.fugue.core.trace.ITraceContext;
+import org.symphonyoss.s2.fugue.core.trace.ITraceContextTransaction;
+import org.symphonyoss.s2.fugue.core.trace.ITraceContextTransactionFactory;
+import org.symphonyoss.s2.fugue.pipeline.FatalConsumerException;
+import org.symphonyoss.s2.fugue.pipeline.IBatchItem;
+import org.symphonyoss.s2.fugue.pipeline.IThreadSafeBatchConsumer;
+import org.symphonyoss.s2.fugue.pipeline.RetryableConsumerException;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * A lambda function implementation which consumes batches of DynamoDB stream records from a KV table.
+ * 
+ * The records in each invocation are grouped by partition key. Each group is passed, in stream order, as a
+ * single batch to the consumer and groups are processed in parallel. If a record fails then it and all later
+ * records with the same partition key are reported as failed, so that retries preserve the per key order.
+ * 
+ * Records which fail with a FatalConsumerException are passed to abortRecord() and are not retried.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+public abstract class AwsDbStreamLambda implements RequestStreamHandler
+{
+  private static final Logger                   log_   = LoggerFactory.getLogger(AwsDbStreamLambda.class);
+  private static final ObjectMapper             MAPPER = new ObjectMapper();
+
+  private final ITraceContextTransactionFactory traceFactory_;
+  private final boolean                         reportBatchItemFailures_;
+  private final ExecutorService                 executor_;
+
+  /**
+   * Constructor.
+   * 
+   * @param traceFactory            A trace context factory.
+   * @param parallelism             The maximum number of partition keys to be processed in parallel.
+   * @param reportBatchItemFailures If true then failed records are listed in the response, which requires the
+   *                                event source mapping to have ReportBatchItemFailures enabled. If false then
+   *                                any failure causes the invocation to fail and the whole batch to be retried.
+   */
+  protected AwsDbStreamLambda(ITraceContextTransactionFactory traceFactory, int parallelism, boolean reportBatchItemFailures)
+  {
+    int threads = Math.max(1, parallelism);
+    
+    traceFactory_ = traceFactory;
+    reportBatchItemFailures_ = reportBatchItemFailures;
+    
+    // The handler instance is kept for the life of the execution environment, so the threads are reused.
+    executor_ = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), new NamedThreadFactory("DbStream", true));
+  }
+
+  /**
+   * @return The consumer for stream records, which must be thread safe.
+   */
+  protected abstract IThreadSafeBatchConsumer<KvStreamRecord> getConsumer();
+
+  /**
+   * Called for a record which failed with a FatalConsumerException, the record is not retried.
+   * 
+   * @param record  The record which could not be processed.
+   * @param trace   A trace context.
+   * @param cause   The reason for the failure.
+   */
+  protected void abortRecord(KvStreamRecord record, ITraceContext trace, FatalConsumerException cause)
+  {
+    log_.error("Unprocessable stream record " + record + ", aborted", cause);
+  }
+
+  @Override
+  public void handleRequest(InputStream inputStream, OutputStream outputStream, Context context) throws IOException
+  {
+    List<KvStreamRecord>              records    = parseRecords(inputStream);
+    Map<String, List<KvStreamRecord>> partitions = new LinkedHashMap<>();
+    
+    for(KvStreamRecord record : records)
+      partitions.computeIfAbsent(record.getPartitionKey().asString(), k -> new ArrayList<>()).add(record);
+    
+    List<Future<List<KvStreamRecord>>> futures = new ArrayList<>(partitions.size());
+    
+    for(List<KvStreamRecord> partition : partitions.values())
+      futures.add(executor_.submit(() -> processPartition(partition)));
+    
+    AwsDbStreamBatchResponse response = new AwsDbStreamBatchResponse();
+    
+    for(Future<List<KvStreamRecord>> future : futures)
+    {
+      try
+      {
+        for(KvStreamRecord record : future.get())
+          response.withFailure(record);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        
+        throw new IllegalStateException("Interrupted waiting for stream batch", e);
+      }
+      catch (ExecutionException e)
+      {
+        throw new IllegalStateException("Failed to process stream batch", e.getCause());
+      }
+    }
+    
+    log_.info("Processed " + records.size() + " stream records for " + partitions.size() + " partitions, " +
+        response.getFailureCount() + " failed.");
+    
+    if(response.getFailureCount() > 0 && !reportBatchItemFailures_)
+      throw new IllegalStateException(response.getFailureCount() + " of " + records.size() + " stream records failed");
+    
+    response.write(outputStream);
+  }
+
+  private List<KvStreamRecord> parseRecords(InputStream inputStream) throws IOException
+  {
+    JsonNode event   = MAPPER.readTree(inputStream);
+    JsonNode records = event == null ? null : event.get("Records");
+    
+    if(records == null || !records.isArray())
+      throw new IllegalArgumentException("\"Records\": JSON array expected");
+    
+    List<KvStreamRecord> result = new ArrayList<>(records.size());
+    
+    for(JsonNode record : records)
+      result.add(KvStreamRecord.parse(record));
+    
+    return result;
+  }
+
+  /**
+   * Process the records for a single partition key.
+   * 
+   * @param partition The records, in stream order.
+   * 
+   * @return The records which must be retried.
+   */
+  private List<KvStreamRecord> processPartition(List<KvStreamRecord> partition)
+  {
+    List<StreamBatchItem>                items = new ArrayList<>(partition.size());
+    List<IBatchItem<KvStreamRecord>>     batch = new ArrayList<>(partition.size());
+    
+    try(ITraceContextTransaction traceTransaction = traceFactory_.createTransaction("DbStreamRecord",
+        partition.get(0).getSequenceNumber()))
+    {
+      ITraceContext trace = traceTransaction.open();
+      
+      for(KvStreamRecord record : partition)
+      {
+        StreamBatchItem item = new StreamBatchItem(record, trace);
+        
+        items.add(item);
+        batch.add(item);
+      }
+      
+      try
+      {
+        getConsumer().consume(batch);
+      }
+      catch(RuntimeException e)
+      {
+        log_.error("Failed to process stream records for partition " + partition.get(0).getPartitionKey(), e);
+        
+        for(StreamBatchItem item : items)
+          item.failIfUnmarked();
+      }
+      
+      traceTransaction.finished();
+    }
+    
+    List<KvStreamRecord> failed  = new ArrayList<>();
+    boolean              failing = false;
+    
+    // Later records for the same key are retried too, so that they are not processed before the failed one.
+    for(StreamBatchItem item : items)
+    {
+      if(item.isFailed())
+        failing = true;
+      
+      if(failing)
+        failed.add(item.getPayload());
+    }
+    
+    return failed;
+  }
+  
+  private class StreamBatchItem implements IBatchItem<KvStreamRecord>
+  {
+    private final KvStreamRecord record_;
+    private final ITraceContext  trace_;
+    private boolean              marked_;
+    private boolean              failed_;
+
+    StreamBatchItem(KvStreamRecord record, ITraceContext trace)
+    {
+      record_ = record;
+      trace_ = trace;
+    }
+
+    @Override
+    public KvStreamRecord getPayload()
+    {
+      return record_;
+    }
+
+    @Override
+    public ITraceContext getTrace()
+    {
+      return trace_;
+    }
+
+    @Override
+    public synchronized void retry(RetryableConsumerException cause)
+    {
+      log_.warn("Stream record " + record_ + " failed, will retry", cause);
+      
+      marked_ = true;
+      failed_ = true;
+    }
+
+    @Override
+    public void fail(FatalConsumerException cause)
+    {
+      synchronized(this)
+      {
+        marked_ = true;
+      }
+      
+      trace_.trace("MESSAGE_IS_UNPROCESSABLE");
+      
+      try
+      {
+        abortRecord(record_, trace_, cause);
+      }
+      catch(RuntimeException e)
+      {
+        log_.error("Failed to abort stream record " + record_ + ", will retry", e);
+        
+        synchronized(this)
+        {
+          failed_ = true;
+        }
+      }
+    }
+    
+    synchronized void failIfUnmarked()
+    {
+      if(!marked_)
+      {
+        marked_ = true;
+        failed_ = true;
+      }
+    }
+    
+    synchronized boolean isFailed()
+    {
+      return failed_;
+    }
+  }
+}
@@ -24,15 +24,22 @@
 package org.symphonyoss.s2.fugue.aws.lambda;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.UUID;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Base64InputStream;
 import org.symphonyoss.s2.common.immutable.ImmutableByteArray;
 import org.symphonyoss.s2.fugue.lambda.JsonLambdaRequest;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /*
 {
@@ -90,28 +97,50 @@ import com.fasterxml.jackson.databind.JsonNode;
 */
 
 
+/**
+ * An API Gateway proxy request.
+ * 
+ * The event is parsed with the Jackson streaming API, the body is kept as the text from the event and is
+ * only decoded when one of the body accessors is called. The body, headers, parameters and stage variables
+ * are extracted from the event as it is parsed, they are only added back to the JSON tree if getJson() or
+ * getString() is called.
+ * 
+ * @author Bruce Skingle
+ *
+ */
 public class AwsLambdaRequest extends JsonLambdaRequest
 {
   private final Map<String, String> queryParams_;
   private final Map<String, String> pathParams_;
   private final Map<String, String> requestHeaders_;
-  private final ImmutableByteArray  body_;
-  private final Map<String, String>       stageVariables_;
+  private final String              bodyText_;
+  private final boolean             base64Encoded_;
+  private final Map<String, String> stageVariables_;
   private String                    awsRequestId_ = "UNKNOWN-" + UUID.randomUUID().toString();
   private long                      awsRequestEpoch_;
-  private final String                    httpMethod_;
-  private final String                    path_;
+  private final String              httpMethod_;
+  private final String              path_;
+  private ImmutableByteArray        body_;
+  private ByteBuffer                bodyBuffer_;
+  private final ApiGatewayProxyEventParser parser_;
   
   public AwsLambdaRequest(InputStream inputStream)
   {
-    super(inputStream);
+    this(new ApiGatewayProxyEventParser(inputStream));
+  }
+  
+  private AwsLambdaRequest(ApiGatewayProxyEventParser parser)
+  {
+    super(parser.getJson());
     
-    queryParams_ = mapAdaptor(getJson().get("queryStringParameters"));
-    pathParams_ = mapAdaptor(getJson().get("pathParameters"));
-    requestHeaders_ = mapAdaptor(getJson().get("headers"));
-    stageVariables_ = mapAdaptor(getJson().get("stageVariables"));
+    // getJson() would add the extracted fields back to the tree, so we use the partial tree here.
+    parser_ = parser;
+    queryParams_ = parser.getQueryParams();
+    pathParams_ = parser.getPathParams();
+    requestHeaders_ = parser.getRequestHeaders();
+    stageVariables_ = parser.getStageVariables();
     
-    JsonNode context = getJson().get("requestContext");
+    JsonNode context = parser.getJson().get("requestContext");
     
     if(context != null)
     {
@@ -126,27 +155,13 @@ public class AwsLambdaRequest extends JsonLambdaRequest
         awsRequestId_ = requestId.asText();
     }
     
-    String body = getString("body");
+    bodyText_ = parser.getBody();
     
-    if(body == null)
-    {
-      body_ = ImmutableByteArray.EMPTY;
-    }
-    else
-    {
-      JsonNode isEncoded = getJson().get("isBase64Encoded");
-      
-      if(isEncoded != null && isEncoded.asBoolean())
-      {
-        body_ = ImmutableByteArray.newInstance(Base64.decodeBase64(body));
-      }
-      else
-      { 
-        body_ = ImmutableByteArray.newInstance(body);
-      }
-    }
+    JsonNode isEncoded = parser.getJson().get("isBase64Encoded");
+    
+    base64Encoded_ = isEncoded != null && isEncoded.asBoolean();
     
-    httpMethod_ = getString("httpMethod");
+    httpMethod_ = getString(parser.getJson(), "httpMethod");
     
 //    JsonNode pathParameters = getJson().get("pathParameters");
 //    
@@ -161,10 +176,29 @@ public class AwsLambdaRequest extends JsonLambdaRequest
 //    }
 //    else
     {
-      path_ = getString("path");
+      path_ = getString(parser.getJson(), "path");
     }
   }
 
+  /**
+   * Return the whole event as a JSON object.
+   * 
+   * The body, headers, parameters and stage variables are added back to the tree on the first call.
+   * 
+   * @return The whole event.
+   */
+  @Override
+  public ObjectNode getJson()
+  {
+    return parser_.getFullJson();
+  }
+
+  @Override
+  public String getString(String name)
+  {
+    return getString(getJson(), name);
+  }
+
   public String getAwsRequestId()
   {
     return awsRequestId_;
@@ -200,10 +234,56 @@ public class AwsLambdaRequest extends JsonLambdaRequest
   }
 
   @Override
-  public ImmutableByteArray getBody()
+  public synchronized ImmutableByteArray getBody()
   {
+    if(body_ == null)
+    {
+      if(bodyText_ == null)
+        body_ = ImmutableByteArray.EMPTY;
+      else if(base64Encoded_)
+        body_ = ImmutableByteArray.newInstance(Base64.decodeBase64(bodyText_));
+      else
+        body_ = ImmutableByteArray.newInstance(bodyText_);
+    }
+    
     return body_;
   }
+  
+  /**
+   * Return the decoded body as a read only ByteBuffer, which is decoded on the first call.
+   * 
+   * @return The decoded body.
+   */
+  public synchronized ByteBuffer getBodyBuffer()
+  {
+    if(bodyBuffer_ == null)
+    {
+      if(bodyText_ == null)
+        bodyBuffer_ = ByteBuffer.allocate(0);
+      else if(base64Encoded_)
+        bodyBuffer_ = ByteBuffer.wrap(Base64.decodeBase64(bodyText_));
+      else
+        bodyBuffer_ = StandardCharsets.UTF_8.encode(bodyText_);
+    }
+    
+    return bodyBuffer_.asReadOnlyBuffer();
+  }
+  
+  /**
+   * Return a stream of the body, base64 encoded bodies are decoded as the stream is read.
+   * 
+   * @return A stream of the decoded body.
+   */
+  public InputStream getBodyStream()
+  {
+    if(bodyText_ == null)
+      return new ByteArrayInputStream(new byte[0]);
+    
+    if(base64Encoded_)
+      return new Base64InputStream(new AsciiInputStream(bodyText_));
+    
+    return new ByteBufferInputStream(getBodyBuffer());
+  }
 
   public String getHttpMethod()
   {
@@ -212,11 +292,101 @@ public class AwsLambdaRequest extends JsonLambdaRequest
 
   public BufferedReader getReader()
   {
-    return new BufferedReader(body_.getReader());
+    if(bodyText_ == null)
+      return new BufferedReader(new StringReader(""));
+    
+    if(base64Encoded_)
+      return new BufferedReader(new InputStreamReader(getBodyStream(), StandardCharsets.UTF_8));
+    
+    return new BufferedReader(new StringReader(bodyText_));
   }
 
   public String getPath()
   {
     return path_;
   }
+  
+  /**
+   * An InputStream over a String which contains only ASCII characters, such as base64 encoded data.
+   */
+  private static class AsciiInputStream extends InputStream
+  {
+    private final String text_;
+    private int          pos_;
+
+    AsciiInputStream(String text)
+    {
+      text_ = text;
+    }
+
+    @Override
+    public int read()
+    {
+      if(pos_ >= text_.length())
+        return -1;
+      
+      return text_.charAt(pos_++) & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+    {
+      if(len == 0)
+        return 0;
+      
+      if(pos_ >= text_.length())
+        return -1;
+      
+      int cnt = Math.min(len, text_.length() - pos_);
+      
+      for(int i=0 ; i<cnt ; i++)
+        b[off + i] = (byte) text_.charAt(pos_++);
+      
+      return cnt;
+    }
+
+    @Override
+    public int available()
+    {
+      return text_.length() - pos_;
+    }
+  }
+  
+  private static class ByteBufferInputStream extends InputStream
+  {
+    private final ByteBuffer buffer_;
+
+    ByteBufferInputStream(ByteBuffer buffer)
+    {
+      buffer_ = buffer;
+    }
+
+    @Override
+    public int read()
+    {
+      return buffer_.hasRemaining() ? buffer_.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+    {
+      if(len == 0)
+        return 0;
+      
+      if(!buffer_.hasRemaining())
+        return -1;
+      
+      int cnt = Math.min(len, buffer_.remaining());
+      
+      buffer_.get(b, off, cnt);
+      
+      return cnt;
+    }
+
+    @Override
+    public int available()
+    {
+      return buffer_.remaining();
+    }
+  }
 }
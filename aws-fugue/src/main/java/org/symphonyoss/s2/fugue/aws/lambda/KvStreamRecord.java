@@ -0,0 +1,281 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.aws.lambda;
+
+import java.time.Instant;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.codec.binary.Base64;
+import org.symphonyoss.s2.common.hash.Hash;
+import org.symphonyoss.s2.fugue.aws.kv.table.AbstractDynamoDbKvTable;
+import org.symphonyoss.s2.fugue.aws.kv.table.PayloadCompression;
+import org.symphonyoss.s2.fugue.kv.KvPartitionSortKeyProvider;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * A change to a KV table item, parsed from a DynamoDB stream record.
+ * 
+ * The partition and sort keys are those stored in the table, which include the service ID prefix.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+public class KvStreamRecord extends KvPartitionSortKeyProvider
+{
+  /**
+   * The type of change.
+   */
+  public enum ChangeType
+  {
+    /** A new item was stored. */
+    Insert,
+    
+    /** An existing item was overwritten. */
+    Modify,
+    
+    /** An item was deleted. */
+    Remove
+  }
+  
+  private final String               eventId_;
+  private final ChangeType           changeType_;
+  private final String               sequenceNumber_;
+  private final @Nullable Instant    approximateCreationTime_;
+  private final @Nullable String     payloadType_;
+  private final @Nullable Integer    podId_;
+  private final @Nullable Hash       absoluteHash_;
+  private final @Nullable String     document_;
+
+  private KvStreamRecord(String eventId, ChangeType changeType, String sequenceNumber,
+      @Nullable Instant approximateCreationTime, String partitionKey, String sortKey,
+      @Nullable String payloadType, @Nullable Integer podId, @Nullable Hash absoluteHash, @Nullable String document)
+  {
+    super(partitionKey, sortKey);
+    
+    eventId_ = eventId;
+    changeType_ = changeType;
+    sequenceNumber_ = sequenceNumber;
+    approximateCreationTime_ = approximateCreationTime;
+    payloadType_ = payloadType;
+    podId_ = podId;
+    absoluteHash_ = absoluteHash;
+    document_ = document;
+  }
+  
+  /**
+   * Parse a single element of the Records array of a DynamoDB stream event.
+   * 
+   * @param record  A stream record.
+   * 
+   * @return The change which the record describes.
+   * 
+   * @throws IllegalArgumentException If the record is not a valid DynamoDB stream record.
+   */
+  public static KvStreamRecord parse(JsonNode record)
+  {
+    JsonNode dynamodb = record.get("dynamodb");
+    
+    if(dynamodb == null || !dynamodb.isObject())
+      throw new IllegalArgumentException("\"dynamodb\": JSON object expected");
+    
+    String sequenceNumber = getText(dynamodb, "SequenceNumber");
+    
+    if(sequenceNumber == null)
+      throw new IllegalArgumentException("Stream record has no SequenceNumber");
+    
+    ChangeType changeType = parseChangeType(getText(record, "eventName"));
+    
+    JsonNode keys  = dynamodb.get("Keys");
+    JsonNode image = dynamodb.get("NewImage");
+    
+    if(image == null)
+      image = dynamodb.get("OldImage");
+    
+    String partitionKey = getString(keys, AbstractDynamoDbKvTable.ColumnNamePartitionKey);
+    String sortKey      = getString(keys, AbstractDynamoDbKvTable.ColumnNameSortKey);
+    
+    if(partitionKey == null || sortKey == null)
+      throw new IllegalArgumentException("Stream record " + sequenceNumber + " has no partition and sort key");
+    
+    JsonNode creationTime = dynamodb.get("ApproximateCreationDateTime");
+    String   hash         = getString(image, AbstractDynamoDbKvTable.ColumnNameAbsoluteHash);
+    String   podId        = getNumber(image, AbstractDynamoDbKvTable.ColumnNamePodId);
+    String   document     = null;
+    
+    // A removed item has no current document, even if the stream includes the old image.
+    if(changeType != ChangeType.Remove)
+    {
+      document = getString(image, AbstractDynamoDbKvTable.ColumnNameDocument);
+      
+      if(document == null)
+      {
+        String compressed = getBinary(image, AbstractDynamoDbKvTable.ColumnNameCompressedDocument);
+        
+        if(compressed != null)
+          document = PayloadCompression.decompress(Base64.decodeBase64(compressed));
+      }
+    }
+    
+    return new KvStreamRecord(
+        getText(record, "eventID"),
+        changeType,
+        sequenceNumber,
+        creationTime == null || !creationTime.isNumber() ? null : Instant.ofEpochSecond(creationTime.asLong()),
+        partitionKey,
+        sortKey,
+        getString(image, AbstractDynamoDbKvTable.ColumnNamePayloadType),
+        podId == null ? null : Integer.valueOf(podId),
+        hash == null ? null : Hash.ofBase64String(hash),
+        document
+        );
+  }
+
+  private static ChangeType parseChangeType(@Nullable String eventName)
+  {
+    if(eventName != null)
+    {
+      switch(eventName)
+      {
+        case "INSERT":
+          return ChangeType.Insert;
+          
+        case "MODIFY":
+          return ChangeType.Modify;
+          
+        case "REMOVE":
+          return ChangeType.Remove;
+      }
+    }
+    
+    throw new IllegalArgumentException("Unknown stream eventName \"" + eventName + "\"");
+  }
+
+  private static @Nullable String getText(JsonNode json, String name)
+  {
+    JsonNode node = json.get(name);
+    
+    return node == null || node.isNull() ? null : node.asText();
+  }
+  
+  private static @Nullable String getAttribute(@Nullable JsonNode image, String name, String type)
+  {
+    if(image == null)
+      return null;
+    
+    JsonNode attribute = image.get(name);
+    
+    if(attribute == null)
+      return null;
+    
+    return getText(attribute, type);
+  }
+  
+  private static @Nullable String getString(@Nullable JsonNode image, String name)
+  {
+    return getAttribute(image, name, "S");
+  }
+  
+  private static @Nullable String getNumber(@Nullable JsonNode image, String name)
+  {
+    return getAttribute(image, name, "N");
+  }
+  
+  private static @Nullable String getBinary(@Nullable JsonNode image, String name)
+  {
+    return getAttribute(image, name, "B");
+  }
+
+  /**
+   * @return The ID of the stream event.
+   */
+  public String getEventId()
+  {
+    return eventId_;
+  }
+
+  /**
+   * @return The type of change.
+   */
+  public ChangeType getChangeType()
+  {
+    return changeType_;
+  }
+
+  /**
+   * @return The sequence number of the record in its shard, which identifies the record in partial batch failures.
+   */
+  public String getSequenceNumber()
+  {
+    return sequenceNumber_;
+  }
+
+  /**
+   * @return The approximate time at which the change was made, if known.
+   */
+  public @Nullable Instant getApproximateCreationTime()
+  {
+    return approximateCreationTime_;
+  }
+
+  /**
+   * @return The type id of the payload, if any.
+   */
+  public @Nullable String getPayloadType()
+  {
+    return payloadType_;
+  }
+
+  /**
+   * @return The pod which owns the item, if any.
+   */
+  public @Nullable Integer getPodId()
+  {
+    return podId_;
+  }
+
+  /**
+   * @return The absolute hash of the item, if the stream includes the item image.
+   */
+  public @Nullable Hash getAbsoluteHash()
+  {
+    return absoluteHash_;
+  }
+
+  /**
+   * @return The serialized item, or null if it was removed, is held in secondary storage or the stream does
+   * not include the item image.
+   */
+  public @Nullable String getDocument()
+  {
+    return document_;
+  }
+  
+  @Override
+  public String toString()
+  {
+    return changeType_ + " " + getPartitionKey() + " " + getSortKey() + " @" + sequenceNumber_;
+  }
+}
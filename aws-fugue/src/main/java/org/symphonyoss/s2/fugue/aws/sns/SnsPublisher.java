@@ -23,40 +23,84 @@
 
 package org.symphonyoss.s2.fugue.aws.sns;
 
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.symphonyoss.s2.fugue.concurrent.AsyncOperationLimiter;
 import org.symphonyoss.s2.fugue.core.trace.ITraceContext;
 import org.symphonyoss.s2.fugue.naming.TopicName;
 import org.symphonyoss.s2.fugue.pubsub.IPubSubMessage;
 import org.symphonyoss.s2.fugue.pubsub.IPublisher;
+import org.symphonyoss.s2.fugue.pubsub.PublisherMetrics;
 
 
 class SnsPublisher implements IPublisher
 {
-  private final String              topicName_;
-  private final String              topicArn_;
-  private final SnsPublisherBase<?> manager_;
+  private static final Logger         log_                  = LoggerFactory.getLogger(SnsPublisher.class);
+  private static final long           CLOSE_TIMEOUT_MILLIS  = 30000;
+  
+  private final String                topicName_;
+  private final String                topicArn_;
+  private final SnsPublisherBase<?>   manager_;
+  private final AsyncOperationLimiter limiter_;
+  private final PublisherMetrics      metrics_;
 
-  SnsPublisher(TopicName topicName, String topicArn, SnsPublisherBase<?> manager)
+  SnsPublisher(TopicName topicName, String topicArn, SnsPublisherBase<?> manager, int maxInFlight)
   {
     topicName_ = topicName.toString();
     topicArn_ = topicArn;
     manager_ = manager;
+    limiter_ = new AsyncOperationLimiter(maxInFlight);
+    metrics_ = new PublisherMetrics(limiter_);
   }
 
   @Override
   public void consume(IPubSubMessage item, ITraceContext trace)
   {
-    manager_.send(topicName_, topicArn_, item, trace);
+    send(item, trace);
   }
 
   @Override
   public void consume(IPubSubMessage item)
   {
-    manager_.send(topicName_, topicArn_, item, item.getTraceContext());
+    send(item, item.getTraceContext());
+  }
+  
+  private void send(IPubSubMessage item, ITraceContext trace)
+  {
+    long start = System.nanoTime();
+    
+    try
+    {
+      manager_.send(topicName_, topicArn_, item, trace);
+      metrics_.getPublishLatency().record(start, true);
+    }
+    catch(RuntimeException e)
+    {
+      metrics_.getPublishLatency().record(start, false);
+      throw e;
+    }
+  }
+
+  @Override
+  public CompletableFuture<Void> publishAsync(IPubSubMessage item)
+  {
+    return limiter_.submit(metrics_.getPublishLatency(),
+        () -> manager_.sendAsync(topicName_, topicArn_, item, item.getTraceContext()));
+  }
+
+  @Override
+  public PublisherMetrics getPublishMetrics()
+  {
+    return metrics_;
   }
 
   @Override
   public void close()
   {
+    if(!limiter_.awaitIdle(CLOSE_TIMEOUT_MILLIS))
+      log_.warn(limiter_.getInFlight() + " publishes to " + topicName_ + " still in flight after " + CLOSE_TIMEOUT_MILLIS + "ms");
   }
 
   @Override
@@ -30,9 +30,16 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.symphonyoss.s2.common.concurrent.NamedThreadFactory;
 import org.symphonyoss.s2.common.fault.FaultAccumulator;
 import org.symphonyoss.s2.common.fault.TransactionFault;
 import org.symphonyoss.s2.common.type.provider.IIntegerProvider;
@@ -44,11 +51,15 @@ import org.symphonyoss.s2.fugue.pubsub.IPubSubMessage;
 import org.symphonyoss.s2.fugue.pubsub.IPublisher;
 
 import com.amazonaws.ClientConfiguration;
+import com.amazonaws.handlers.AsyncHandler;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.services.sns.AmazonSNS;
+import com.amazonaws.services.sns.AmazonSNSAsync;
+import com.amazonaws.services.sns.AmazonSNSAsyncClientBuilder;
 import com.amazonaws.services.sns.AmazonSNSClientBuilder;
 import com.amazonaws.services.sns.model.MessageAttributeValue;
 import com.amazonaws.services.sns.model.PublishRequest;
+import com.amazonaws.services.sns.model.PublishResult;
 import com.google.common.collect.ImmutableList;
 
 /**
@@ -65,6 +76,8 @@ public abstract class SnsPublisherBase<T extends SnsPublisherBase<T>> extends Ab
 
   protected static final int                   MAX_MESSAGE_SIZE  = 256 * 1024; // 256K
   protected static final int                   BILLABLE_MESSAGE_SIZE  = 64 * 1024;
+  protected static final int                   DEFAULT_MAX_PUBLISHES_IN_FLIGHT  = 100;
+  protected static final int                   DEFAULT_PUBLISH_THREADS  = 10;
 
   protected final Map<TopicName, SnsPublisher> publisherNameMap_ = new HashMap<>();
   protected final List<SnsPublisher>           publishers_       = new ArrayList<>();
@@ -73,6 +86,17 @@ public abstract class SnsPublisherBase<T extends SnsPublisherBase<T>> extends Ab
   protected final String                       accountId_;
   protected final AmazonSNS                    snsClient_;
 
+  /*
+   * The async client and its thread pool are only needed by IPublisher.publishAsync(), so they are created on
+   * first use, guarded by asyncLock_.
+   */
+  private final Object                         asyncLock_ = new Object();
+  private final AmazonSNSAsyncClientBuilder    snsAsyncBuilder_;
+  private final int                            publishThreads_;
+  private final int                            publishBufferCapacity_;
+  private volatile AmazonSNSAsync              snsAsyncClient_;
+  private boolean                              stopped_;
+
   protected final ImmutableList<String>       subscriberAccountIds_;
 
   
@@ -83,6 +107,9 @@ public abstract class SnsPublisherBase<T extends SnsPublisherBase<T>> extends Ab
     region_    = builder.region_;
     accountId_ = builder.accountId_;
     snsClient_ = builder.snsBuilder_.build();
+    snsAsyncBuilder_ = builder.snsAsyncBuilder_;
+    publishThreads_ = builder.publishThreads_;
+    publishBufferCapacity_ = builder.publishBufferCapacity_;
     
     subscriberAccountIds_ =  ImmutableList.copyOf(
         builder.config_.getConfiguration("amazon").getListOfString("subscriberAccountIds", new ArrayList<>()));
@@ -102,7 +129,8 @@ public abstract class SnsPublisherBase<T extends SnsPublisherBase<T>> extends Ab
     
     for(TopicName topicName : builder.topicNames_)
     {
-      publisherNameMap_.put(topicName, new SnsPublisher(topicName, getTopicARN(topicName), this));
+      publisherNameMap_.put(topicName, new SnsPublisher(topicName, getTopicARN(topicName), this,
+          builder.maxPublishesInFlight_));
     }
   }
 
@@ -118,17 +146,22 @@ public abstract class SnsPublisherBase<T extends SnsPublisherBase<T>> extends Ab
   extends AbstractPublisherManager.Builder<T,B>
   {
     protected final AmazonSNSClientBuilder snsBuilder_;
+    protected final AmazonSNSAsyncClientBuilder snsAsyncBuilder_;
     protected final Set<TopicName>         topicNames_ = new HashSet<>();
 
     protected IConfiguration               config_;
     protected String                       region_;
     protected String                       accountId_;
+    protected int                          maxPublishesInFlight_ = DEFAULT_MAX_PUBLISHES_IN_FLIGHT;
+    protected int                          publishThreads_       = DEFAULT_PUBLISH_THREADS;
+    protected int                          publishBufferCapacity_;
     
     protected Builder(Class<T> type)
     {
       super(type);
       
       snsBuilder_ = AmazonSNSClientBuilder.standard();
+      snsAsyncBuilder_ = AmazonSNSAsyncClientBuilder.standard();
     }
     
     /**
@@ -157,6 +190,7 @@ public abstract class SnsPublisherBase<T extends SnsPublisherBase<T>> extends Ab
       region_ = region;
       
       snsBuilder_.withRegion(region_);
+      snsAsyncBuilder_.withRegion(region_);
       
       return self();
     }
@@ -185,6 +219,57 @@ public abstract class SnsPublisherBase<T extends SnsPublisherBase<T>> extends Ab
     public T withCredentials(AWSCredentialsProvider credentialsProvider)
     {
       snsBuilder_.withCredentials(credentialsProvider);
+      snsAsyncBuilder_.withCredentials(credentialsProvider);
+      
+      return self();
+    }
+    
+    /**
+     * Set the maximum number of IPublisher.publishAsync() calls which each publisher may have in flight,
+     * callers block when this limit is reached.
+     * 
+     * @param maxPublishesInFlight The maximum number of asynchronous publishes in flight per topic.
+     * 
+     * @return this (fluent method)
+     */
+    public T withMaxPublishesInFlight(int maxPublishesInFlight)
+    {
+      maxPublishesInFlight_ = Math.max(1, maxPublishesInFlight);
+      
+      return self();
+    }
+    
+    /**
+     * Set the number of messages passed to IPublisher.publishAsync() which may be queued for the shared publish
+     * thread pool. When the queue is full the calling thread publishes the message itself.
+     * 
+     * SNS has no batch publish API in this SDK so each message is still published individually, but the producer
+     * does not wait for it.
+     * 
+     * @param publishBufferCapacity The maximum number of queued messages, zero means the queue is only bounded by
+     *                              the number of publishes in flight for each topic.
+     * 
+     * @return this (fluent method)
+     */
+    public T withPublishBufferCapacity(int publishBufferCapacity)
+    {
+      publishBufferCapacity_ = Math.max(0, publishBufferCapacity);
+      
+      return self();
+    }
+    
+    /**
+     * Set the number of threads used to publish messages passed to IPublisher.publishAsync().
+     * 
+     * The thread pool is created when the first asynchronous publish is made.
+     * 
+     * @param publishThreads The number of threads used to publish messages.
+     * 
+     * @return this (fluent method)
+     */
+    public T withPublishThreads(int publishThreads)
+    {
+      publishThreads_ = Math.max(1, publishThreads);
       
       return self();
     }
@@ -219,6 +304,10 @@ public abstract class SnsPublisherBase<T extends SnsPublisherBase<T>> extends Ab
       snsBuilder_
           .withClientConfiguration(clientConfig)
           ;
+      
+      snsAsyncBuilder_
+          .withClientConfiguration(clientConfig)
+          ;
     }
   }
 
@@ -301,6 +390,48 @@ public abstract class SnsPublisherBase<T extends SnsPublisherBase<T>> extends Ab
   {
   }
 
+  /**
+   * Create the asynchronous SNS client, this is called at most once, on the first call to publishAsync().
+   * 
+   * @return A new asynchronous SNS client.
+   */
+  protected AmazonSNSAsync createAmazonSNSAsync()
+  {
+    BlockingQueue<Runnable> queue = publishBufferCapacity_ > 0
+        ? new ArrayBlockingQueue<>(publishBufferCapacity_)
+        : new LinkedBlockingQueue<>();
+    
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(publishThreads_, publishThreads_,
+        60L, TimeUnit.SECONDS, queue, new NamedThreadFactory("SNS-publish", true), new ThreadPoolExecutor.CallerRunsPolicy());
+    
+    executor.allowCoreThreadTimeOut(true);
+    
+    return snsAsyncBuilder_
+        .withExecutorFactory(() -> executor)
+        .build();
+  }
+  
+  protected AmazonSNSAsync getAmazonSNSAsync()
+  {
+    AmazonSNSAsync client = snsAsyncClient_;
+    
+    if(client == null)
+    {
+      synchronized(asyncLock_)
+      {
+        if(stopped_)
+          throw new IllegalStateException("Publisher manager has been stopped");
+        
+        if(snsAsyncClient_ == null)
+          snsAsyncClient_ = createAmazonSNSAsync();
+        
+        client = snsAsyncClient_;
+      }
+    }
+    
+    return client;
+  }
+
   /**
    * Validate the given topic name.
    * 
@@ -313,11 +444,20 @@ public abstract class SnsPublisherBase<T extends SnsPublisherBase<T>> extends Ab
   @Override
   public void stop()
   {
+    // Publishers may have buffered messages, which must be sent before the client is shut down.
+    for(SnsPublisher publisher : publisherNameMap_.values())
+    {
+      publisher.close();
+    }
+    
     snsClient_.shutdown();
     
-    for(SnsPublisher publisher : publishers_)
+    synchronized(asyncLock_)
     {
-      publisher.close();
+      stopped_ = true;
+      
+      if(snsAsyncClient_ != null)
+        snsAsyncClient_.shutdown();
     }
   }
 
@@ -339,21 +479,7 @@ public abstract class SnsPublisherBase<T extends SnsPublisherBase<T>> extends Ab
     trace.trace("ABOUT-TO-PUBLISH", "SNS_TOPIC", topicName);
     try
     {
-      PublishRequest publishRequest = new PublishRequest(topicArn, pubSubMessage.getPayload());
-      
-      if(!pubSubMessage.getAttributes().isEmpty())
-      {
-        Map<String, MessageAttributeValue> messageAttributes = new HashMap<>();
-        
-        for(Entry<String, Object> entry : pubSubMessage.getAttributes().entrySet())
-        {
-          messageAttributes.put(entry.getKey(), getAttribute(entry.getValue()));
-        }
-        
-        publishRequest.withMessageAttributes(messageAttributes);
-      }
-      
-      snsClient_.publish(publishRequest);
+      snsClient_.publish(createPublishRequest(topicArn, pubSubMessage));
       trace.trace("PUBLISHED", "SNS_TOPIC", topicName);
     }
     catch (RuntimeException e)
@@ -361,6 +487,50 @@ public abstract class SnsPublisherBase<T extends SnsPublisherBase<T>> extends Ab
       throw new TransactionFault(e);
     }
   }
+  
+  protected CompletableFuture<Void> sendAsync(String topicName, String topicArn, IPubSubMessage pubSubMessage, ITraceContext trace)
+  {
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    
+    trace.trace("ABOUT-TO-PUBLISH", "SNS_TOPIC", topicName);
+    
+    getAmazonSNSAsync().publishAsync(createPublishRequest(topicArn, pubSubMessage), new AsyncHandler<PublishRequest, PublishResult>()
+    {
+      @Override
+      public void onError(Exception exception)
+      {
+        future.completeExceptionally(new TransactionFault(exception));
+      }
+
+      @Override
+      public void onSuccess(PublishRequest request, PublishResult result)
+      {
+        trace.trace("PUBLISHED", "SNS_TOPIC", topicName);
+        future.complete(null);
+      }
+    });
+    
+    return future;
+  }
+  
+  private static PublishRequest createPublishRequest(String topicArn, IPubSubMessage pubSubMessage)
+  {
+    PublishRequest publishRequest = new PublishRequest(topicArn, pubSubMessage.getPayload());
+    
+    if(!pubSubMessage.getAttributes().isEmpty())
+    {
+      Map<String, MessageAttributeValue> messageAttributes = new HashMap<>();
+      
+      for(Entry<String, Object> entry : pubSubMessage.getAttributes().entrySet())
+      {
+        messageAttributes.put(entry.getKey(), getAttribute(entry.getValue()));
+      }
+      
+      publishRequest.withMessageAttributes(messageAttributes);
+    }
+    
+    return publishRequest;
+  }
 
   private static MessageAttributeValue getAttribute(Object value)
   {
@@ -0,0 +1,142 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.aws.sqs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.symphonyoss.s2.fugue.pubsub.AbstractAckBatcher;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+
+/**
+ * Coalesces message deletes and visibility changes for a single queue into batch requests.
+ * 
+ * Requests are sent when 10 are pending or after a short linger time. Entries which fail with a server error
+ * are retried in a later batch, entries which fail with a sender error (such as an expired receipt handle) are
+ * logged and dropped, in which case the message will be redelivered when its visibility timeout expires.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+/* package */ class SqsAckAccumulator extends AbstractAckBatcher
+{
+  private static final Logger log_           = LoggerFactory.getLogger(SqsAckAccumulator.class);
+  
+  private static final int    MAX_BATCH_SIZE = 10;
+  
+  private final AmazonSQS     sqsClient_;
+  private final String        queueUrl_;
+  
+  /* package */ SqsAckAccumulator(AmazonSQS sqsClient, String queueUrl, long lingerMillis)
+  {
+    super("SQS-ack", MAX_BATCH_SIZE, Integer.MAX_VALUE, lingerMillis);
+    
+    sqsClient_    = sqsClient;
+    queueUrl_     = queueUrl;
+  }
+  
+  @Override
+  protected void sendAcks(Map<String, Integer> deletes, Map<String, Integer> retries)
+  {
+    List<String>                          receiptHandles  = new ArrayList<>(deletes.keySet());
+    List<DeleteMessageBatchRequestEntry>  entries         = new ArrayList<>(receiptHandles.size());
+    
+    for(int i=0 ; i<receiptHandles.size() ; i++)
+      entries.add(new DeleteMessageBatchRequestEntry(String.valueOf(i), receiptHandles.get(i)));
+    
+    try
+    {
+      for(BatchResultErrorEntry error : sqsClient_.deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl_, entries)).getFailed())
+      {
+        String receiptHandle = receiptHandles.get(Integer.parseInt(error.getId()));
+        
+        retryDelete(receiptHandle, deletes.get(receiptHandle), error.isSenderFault(), error.getCode() + " " + error.getMessage(), retries);
+      }
+    }
+    catch(RuntimeException e)
+    {
+      log_.warn("DeleteMessageBatch failed", e);
+      
+      for(String receiptHandle : receiptHandles)
+        retryDelete(receiptHandle, deletes.get(receiptHandle), false, e.toString(), retries);
+    }
+  }
+  
+  private void retryDelete(String receiptHandle, int attempts, boolean senderFault, String reason, Map<String, Integer> retries)
+  {
+    if(senderFault || attempts + 1 >= MAX_ATTEMPTS)
+      log_.error("Failed to delete message, it will be redelivered: " + reason);
+    else
+      retries.put(receiptHandle, attempts + 1);
+  }
+  
+  @Override
+  protected void sendDeadlineChanges(Map<String, DeadlineChange> changes, Map<String, DeadlineChange> retries)
+  {
+    List<String>                                    receiptHandles  = new ArrayList<>(changes.keySet());
+    List<ChangeMessageVisibilityBatchRequestEntry>  entries         = new ArrayList<>(receiptHandles.size());
+    
+    for(int i=0 ; i<receiptHandles.size() ; i++)
+    {
+      entries.add(new ChangeMessageVisibilityBatchRequestEntry(String.valueOf(i), receiptHandles.get(i))
+          .withVisibilityTimeout(changes.get(receiptHandles.get(i)).getDeadlineSeconds()));
+    }
+    
+    try
+    {
+      for(BatchResultErrorEntry error : sqsClient_.changeMessageVisibilityBatch(new ChangeMessageVisibilityBatchRequest(queueUrl_, entries)).getFailed())
+      {
+        String receiptHandle = receiptHandles.get(Integer.parseInt(error.getId()));
+        
+        retryChange(receiptHandle, changes.get(receiptHandle), error.isSenderFault(), error.getCode() + " " + error.getMessage(), retries);
+      }
+    }
+    catch(RuntimeException e)
+    {
+      log_.warn("ChangeMessageVisibilityBatch failed", e);
+      
+      for(String receiptHandle : receiptHandles)
+        retryChange(receiptHandle, changes.get(receiptHandle), false, e.toString(), retries);
+    }
+  }
+  
+  private void retryChange(String receiptHandle, DeadlineChange change, boolean senderFault, String reason, Map<String, DeadlineChange> retries)
+  {
+    DeadlineChange retry = senderFault ? null : change.nextAttempt();
+    
+    if(retry == null)
+      log_.warn("Failed to change message visibility: " + reason);
+    else
+      retries.put(receiptHandle, retry);
+  }
+}
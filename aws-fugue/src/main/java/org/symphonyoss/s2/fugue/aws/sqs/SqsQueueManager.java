@@ -23,9 +23,15 @@
 
 package org.symphonyoss.s2.fugue.aws.sqs;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,6 +46,8 @@ import org.symphonyoss.s2.fugue.pubsub.IQueueSender;
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.amazonaws.services.sqs.AmazonSQSAsyncClientBuilder;
 import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
 import com.amazonaws.services.sqs.model.CreateQueueRequest;
 import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
@@ -47,6 +55,8 @@ import com.amazonaws.services.sqs.model.TagQueueRequest;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 
@@ -60,36 +70,51 @@ import com.google.common.util.concurrent.UncheckedExecutionException;
 public class SqsQueueManager implements IQueueManager
 {
   protected static final int                   MAX_MESSAGE_SIZE  = 256 * 1024; // 256K
+  private static final int                     DEFAULT_MAX_SENDS_IN_FLIGHT = 1000;
   
   private static final Logger                log_ = LoggerFactory.getLogger(SqsQueueManager.class);
 
   private final String                       region_;
   private final String                       accountId_;
   private final ImmutableMap<String, String> tags_;
+  private final long                         sendLingerMillis_;
+  private final int                          maxSendsInFlight_;
+  private final boolean                      receivePrefetch_;
 
   private final AmazonSQS                    sqsClient_;
+  private final AmazonSQSAsync               sqsAsyncClient_;
   //private Map<String, SqsQueueSender>          senderMap_ = new HashMap<>();
   
+  /*
+   * Callers may hold on to senders and receivers after they are evicted from the caches, so evicted ones are not
+   * closed, their threads exit when they are idle. They are remembered until they are garbage collected so that
+   * stop() can send anything they have buffered.
+   */
+  private final Set<SqsQueueSender>            evictedSenders_   = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+  private final Set<SqsQueueReceiver>          evictedReceivers_ = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+  
   private final LoadingCache<String, SqsQueueSender>          senderCache_ = CacheBuilder.newBuilder()
       .maximumSize(250)
+      .removalListener((RemovalListener<String, SqsQueueSender>) notification -> removed(notification, evictedSenders_, SqsQueueSender::close))
       .build(
           new CacheLoader<String, SqsQueueSender>()
           {
             @Override
             public SqsQueueSender load(String queueName)
             {
-              return new SqsQueueSender(sqsClient_, queueName);
+              return new SqsQueueSender(sqsClient_, sqsAsyncClient_, queueName, sendLingerMillis_, maxSendsInFlight_);
             }
           });
   private final LoadingCache<String, SqsQueueReceiver>          receiverCache_ = CacheBuilder.newBuilder()
       .maximumSize(250)
+      .removalListener((RemovalListener<String, SqsQueueReceiver>) notification -> removed(notification, evictedReceivers_, SqsQueueReceiver::close))
       .build(
           new CacheLoader<String, SqsQueueReceiver>()
           {
             @Override
             public SqsQueueReceiver load(String queueName)
             {
-              return new SqsQueueReceiver(sqsClient_, queueName);
+              return new SqsQueueReceiver(sqsClient_, sqsAsyncClient_, queueName, receivePrefetch_);
             }
           });
 
@@ -98,8 +123,12 @@ public class SqsQueueManager implements IQueueManager
     region_     = builder.region_;
     accountId_  = builder.accountId_;
     tags_       = ImmutableMap.copyOf(builder.tags_);
+    sendLingerMillis_   = builder.sendLingerMillis_;
+    maxSendsInFlight_   = builder.maxSendsInFlight_;
+    receivePrefetch_    = builder.receivePrefetch_;
     
     sqsClient_ = builder.sqsBuilder_.withRegion(region_).build();
+    sqsAsyncClient_ = builder.sqsAsyncBuilder_.withRegion(region_).build();
   }
   
   @Override
@@ -144,6 +173,48 @@ public class SqsQueueManager implements IQueueManager
     return MAX_MESSAGE_SIZE;
   }
   
+  @Override
+  public void start()
+  {
+  }
+  
+  /**
+   * Send any messages buffered or in flight, any pending deletes and visibility changes, and close all senders and receivers.
+   */
+  @Override
+  public void stop()
+  {
+    senderCache_.invalidateAll();
+    receiverCache_.invalidateAll();
+    
+    closeAll(evictedSenders_, SqsQueueSender::close);
+    closeAll(evictedReceivers_, SqsQueueReceiver::close);
+    
+    sqsAsyncClient_.shutdown();
+  }
+  
+  private static <V> void removed(RemovalNotification<String, V> notification, Set<V> evicted, Consumer<V> close)
+  {
+    if(notification.wasEvicted())
+      evicted.add(notification.getValue());
+    else
+      close.accept(notification.getValue());
+  }
+  
+  private static <V> void closeAll(Set<V> evicted, Consumer<V> close)
+  {
+    List<V> values;
+    
+    synchronized(evicted)
+    {
+      values = new ArrayList<>(evicted);
+      evicted.clear();
+    }
+    
+    for(V value : values)
+      close.accept(value);
+  }
+  
   private String getQueueARN(String queueName)
   {
     return "arn:aws:sqs:" + region_ + ":" + accountId_ + ":" + queueName;
@@ -158,9 +229,13 @@ public class SqsQueueManager implements IQueueManager
   public static class Builder extends BaseAbstractBuilder<Builder, SqsQueueManager>
   {
     private AmazonSQSClientBuilder sqsBuilder_;
+    private AmazonSQSAsyncClientBuilder sqsAsyncBuilder_;
     private String                 region_;
     private String                 accountId_;
     private Map<String, String>    tags_ = new HashMap<>();
+    private long                   sendLingerMillis_   = -1;
+    private int                    maxSendsInFlight_   = DEFAULT_MAX_SENDS_IN_FLIGHT;
+    private boolean                receivePrefetch_;
     //  private String configPath_ = "org/symphonyoss/s2/fugue/aws/sqs";
 
     /**
@@ -175,6 +250,12 @@ public class SqsQueueManager implements IQueueManager
           .withClientConfiguration(new ClientConfiguration()
               .withMaxConnections(200)
               );
+      
+      sqsAsyncBuilder_ = AmazonSQSAsyncClientBuilder
+          .standard()
+          .withClientConfiguration(new ClientConfiguration()
+              .withMaxConnections(200)
+              );
     }
     
 //    @Override
@@ -209,6 +290,7 @@ public class SqsQueueManager implements IQueueManager
       region_ = region;
       
       sqsBuilder_.withRegion(region_);
+      sqsAsyncBuilder_.withRegion(region_);
       
       return self();
     }
@@ -237,6 +319,7 @@ public class SqsQueueManager implements IQueueManager
     public Builder withCredentials(AWSCredentialsProvider credentialsProvider)
     {
       sqsBuilder_.withCredentials(credentialsProvider);
+      sqsAsyncBuilder_.withCredentials(credentialsProvider);
       
       return self();
     }
@@ -256,6 +339,57 @@ public class SqsQueueManager implements IQueueManager
       return self();
     }
 
+    /**
+     * Send messages in batches of up to 10 using SendMessageBatch.
+     * 
+     * Messages are held for at most the given time waiting for a batch to fill. Senders returned by
+     * getSender() then buffer messages passed to sendMessageAsync(), stop() sends any which remain.
+     * Without batching sendMessageAsync() sends each message with the asynchronous client.
+     * 
+     * @param sendLingerMillis The maximum time for which a message is held, a negative value disables batching.
+     * 
+     * @return this (fluent method)
+     */
+    public Builder withSendLingerMillis(long sendLingerMillis)
+    {
+      sendLingerMillis_ = sendLingerMillis;
+      
+      return self();
+    }
+    
+    /**
+     * Set the maximum number of sendMessageAsync() calls which each sender may have buffered or in flight,
+     * callers block when this limit is reached.
+     * 
+     * @param maxSendsInFlight The maximum number of asynchronous sends in flight per queue.
+     * 
+     * @return this (fluent method)
+     */
+    public Builder withMaxSendsInFlight(int maxSendsInFlight)
+    {
+      maxSendsInFlight_ = Math.max(1, maxSendsInFlight);
+      
+      return self();
+    }
+    
+    /**
+     * Keep one receive outstanding on each receiver returned by getReceiver() while the caller processes the
+     * previous batch of messages.
+     * 
+     * Prefetched messages are invisible to other receivers from the time they are received, so the visibility
+     * timeout of the queue must allow for the time taken to process a batch.
+     * 
+     * @param receivePrefetch If true then receivers prefetch the next batch of messages.
+     * 
+     * @return this (fluent method)
+     */
+    public Builder withReceivePrefetch(boolean receivePrefetch)
+    {
+      receivePrefetch_ = receivePrefetch;
+      
+      return self();
+    }
+
     @Override
     public void validate(FaultAccumulator faultAccumulator)
     {
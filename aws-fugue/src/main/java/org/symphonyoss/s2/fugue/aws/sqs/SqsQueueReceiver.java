@@ -27,6 +27,10 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.annotation.Nonnull;
 
@@ -38,39 +42,70 @@ import org.symphonyoss.s2.fugue.pubsub.IQueueMessageDelete;
 import org.symphonyoss.s2.fugue.pubsub.IQueueMessageExtend;
 import org.symphonyoss.s2.fugue.pubsub.IQueueReceiver;
 
+import com.amazonaws.handlers.AsyncHandler;
 import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.model.AmazonSQSException;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
 import com.amazonaws.services.sqs.model.Message;
 import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
 import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
 
 /**
  * AWS SQS implementation of QueueReceiver.
  * 
+ * Deletes and visibility changes passed to receiveMessages() are sent in batches by an SqsAckAccumulator
+ * while the receive is in progress, rather than one at a time before it.
+ * 
+ * In prefetch mode the next receive is started asynchronously as soon as a batch of messages is returned,
+ * so that it is in progress while the caller processes the previous batch. Prefetched messages are
+ * invisible to other receivers from the time they are received, so the visibility timeout of the queue
+ * must allow for the time taken to process a batch as well as the time to process each message.
+ * 
+ * Receivers are shared by all callers for the same queue, so only the prefetch state is guarded, callers
+ * make their receives concurrently. A caller never waits for a prefetch for longer than the wait time it
+ * asked for, a prefetch which is still in progress is left for the next caller.
+ * 
+ * A prefetch which is no longer wanted, because another caller has already restored one or because the
+ * receiver is closed, is abandoned. Any messages it receives are made visible again immediately rather than
+ * when their visibility timeout expires.
  * 
  * @author Bruce Skingle
  *
  */
 public class SqsQueueReceiver implements IQueueReceiver
 {
-  private static final Logger log_ = LoggerFactory.getLogger(SqsQueueReceiver.class);
+  private static final Logger     log_ = LoggerFactory.getLogger(SqsQueueReceiver.class);
+  
+  private static final long       ACK_LINGER_MILLIS = 5;
 
-  private final AmazonSQS     sqsClient_;
-  private final String        queueUrl_;
+  private final AmazonSQS         sqsClient_;
+  private final AmazonSQSAsync    sqsAsyncClient_;
+  private final String            queueUrl_;
+  private final boolean           prefetch_;
+  private final SqsAckAccumulator ackAccumulator_;
+  
+  /* The following are guarded by this */
+  private Prefetch                     outstanding_;
+  private boolean                      closed_;
 
   /**
    * Constructor.
    * 
-   * @param sqsClient An SQS client.
-   * @param queueName The name of a queue
+   * @param sqsClient       An SQS client.
+   * @param sqsAsyncClient  An asynchronous SQS client, used for prefetching.
+   * @param queueName       The name of a queue
+   * @param prefetch        If true then keep one receive outstanding while the caller processes the previous batch.
    * 
    * @throws QueueDoesNotExistException if the queue does not exist.
    */
-  SqsQueueReceiver(AmazonSQS sqsClient, String queueName)
+  SqsQueueReceiver(AmazonSQS sqsClient, AmazonSQSAsync sqsAsyncClient, String queueName, boolean prefetch)
   {
-    sqsClient_     = sqsClient;
+    sqsClient_      = sqsClient;
+    sqsAsyncClient_ = sqsAsyncClient;
+    prefetch_       = prefetch;
     
     queueUrl_ = sqsClient_.getQueueUrl(queueName).getQueueUrl();
+    ackAccumulator_ = new SqsAckAccumulator(sqsClient_, queueUrl_, ACK_LINGER_MILLIS);
 
     log_.info("Queue " + queueName + " exists as " + queueUrl_);
   }
@@ -82,33 +117,19 @@ public class SqsQueueReceiver implements IQueueReceiver
     {
       List<IQueueMessage> messages = new ArrayList<>(maxMessages);
       
+      // These are sent in batches by the accumulator thread, concurrently with the receive below.
       for(IQueueMessageDelete delete : deleteMessages)
       {
-        try
-        {
-          sqsClient_.deleteMessage(queueUrl_, delete.getReceiptHandle());
-          log_.debug("Deleteed message " + delete.getReceiptHandle());
-        }
-        catch(AmazonSQSException e)
-        {
-          log_.warn("Failed to delete message", e);
-        }
+        ackAccumulator_.acknowledge(delete.getReceiptHandle());
+        log_.debug("Deleting message " + delete.getReceiptHandle());
       }
-      
 
       for(IQueueMessageExtend extend : extendMessages)
       {
         if(extend.getVisibilityTimeout() != null) 
         {
-          try
-          {
-            sqsClient_.changeMessageVisibility(queueUrl_, extend.getReceiptHandle(), extend.getVisibilityTimeout());
-            log_.debug("Extended message " + extend.getReceiptHandle() + " with delay " +  extend.getVisibilityTimeout());
-          }
-          catch(AmazonSQSException e)
-          {
-            log_.warn("Failed to extend message", e);
-          }
+          ackAccumulator_.modifyDeadline(extend.getReceiptHandle(), extend.getVisibilityTimeout());
+          log_.debug("Extending message " + extend.getReceiptHandle() + " with delay " +  extend.getVisibilityTimeout());
         }
         else
         {
@@ -118,27 +139,231 @@ public class SqsQueueReceiver implements IQueueReceiver
       
       if(maxMessages > 0)
       {
+        ReceiveMessageRequest request = new ReceiveMessageRequest(queueUrl_)
+            .withMaxNumberOfMessages(maxMessages)
+            .withWaitTimeSeconds(waitTimeSeconds);
+        
         log_.debug("About to receive messages...");
-        for(Message receivedMessage : sqsClient_.receiveMessage(
-            new ReceiveMessageRequest(queueUrl_)
-              .withMaxNumberOfMessages(maxMessages)
-              .withWaitTimeSeconds(waitTimeSeconds)
-              )
-            .getMessages())
+        for(Message receivedMessage : receive(request))
         {
-          messages.add(new SqsQueueMessage(receivedMessage));
+          if(messages.size() < maxMessages)
+          {
+            messages.add(new SqsQueueMessage(receivedMessage));
+          }
+          else
+          {
+            // A prefetch made with a larger batch size returned more than we were asked for, make the rest visible again.
+            ackAccumulator_.modifyDeadline(receivedMessage.getReceiptHandle(), 0);
+          }
         }
+        
+        if(prefetch_)
+          startPrefetch(request);
       }
       
       log_.debug("Returning " + messages.size() + " messages");
       return messages;
     }
+    catch (TransactionFault e)
+    {
+      throw e;
+    }
     catch (RuntimeException e)
     {
       throw new TransactionFault(e);
     }
   }
   
+  private List<Message> receive(ReceiveMessageRequest request)
+  {
+    Prefetch prefetch;
+    
+    synchronized(this)
+    {
+      prefetch     = outstanding_;
+      outstanding_ = null;
+    }
+    
+    if(prefetch == null)
+      return sqsClient_.receiveMessage(request).getMessages();
+    
+    Future<ReceiveMessageResult> prefetchResult  = prefetch.result_;
+    ReceiveMessageRequest        prefetchRequest = prefetch.request_;
+    
+    long start = System.currentTimeMillis();
+    
+    try
+    {
+      List<Message> messages;
+      
+      if(request.getWaitTimeSeconds() > 0)
+      {
+        messages = prefetchResult.get(request.getWaitTimeSeconds(), TimeUnit.SECONDS).getMessages();
+      }
+      else if(prefetchResult.isDone())
+      {
+        messages = prefetchResult.get().getMessages();
+      }
+      else
+      {
+        // The caller will not wait, leave the prefetch for the next receive.
+        restorePrefetch(prefetch);
+        
+        return sqsClient_.receiveMessage(request).getMessages();
+      }
+      
+      // If the prefetch found nothing and this request would wait longer, wait for the rest of its wait time.
+      int remainingSeconds = request.getWaitTimeSeconds() - (int)((System.currentTimeMillis() - start) / 1000);
+      
+      if(messages.isEmpty() && request.getWaitTimeSeconds() > prefetchRequest.getWaitTimeSeconds() && remainingSeconds > 0)
+        return sqsClient_.receiveMessage(request.clone().withWaitTimeSeconds(remainingSeconds)).getMessages();
+      
+      return messages;
+    }
+    catch (TimeoutException e)
+    {
+      // Nothing arrived within the wait time of this request.
+      restorePrefetch(prefetch);
+      
+      return new ArrayList<>();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      
+      restorePrefetch(prefetch);
+      
+      throw new TransactionFault("Interrupted waiting for prefetched messages", e);
+    }
+    catch (ExecutionException e)
+    {
+      throw new TransactionFault("Prefetch receive failed", e.getCause());
+    }
+  }
+  
+  private synchronized void startPrefetch(ReceiveMessageRequest request)
+  {
+    // Another caller may have started a prefetch, or restored one, while we were receiving.
+    if(outstanding_ == null && !closed_)
+      outstanding_ = new Prefetch(request);
+  }
+  
+  private void restorePrefetch(Prefetch prefetch)
+  {
+    synchronized(this)
+    {
+      if(outstanding_ == null && !closed_)
+      {
+        outstanding_ = prefetch;
+        return;
+      }
+    }
+    
+    prefetch.abandon();
+  }
+  
+  /*
+   * Make messages which were received by an abandoned prefetch visible again. Once we are closed the ack
+   * accumulator no longer sends anything, so the visibility changes are sent directly.
+   */
+  private void release(List<Message> messages)
+  {
+    boolean closed;
+    
+    synchronized(this)
+    {
+      closed = closed_;
+    }
+    
+    for(Message message : messages)
+    {
+      if(closed)
+        sqsClient_.changeMessageVisibility(queueUrl_, message.getReceiptHandle(), 0);
+      else
+        ackAccumulator_.modifyDeadline(message.getReceiptHandle(), 0);
+    }
+  }
+  
+  /**
+   * Send any pending deletes and visibility changes and stop prefetching.
+   * 
+   * Messages received by an outstanding prefetch are made visible again.
+   */
+  public void close()
+  {
+    Prefetch prefetch;
+    
+    synchronized(this)
+    {
+      prefetch     = outstanding_;
+      outstanding_ = null;
+    }
+    
+    // Abandon while we are still open, so that messages which have already arrived are released by the final flush.
+    if(prefetch != null)
+      prefetch.abandon();
+    
+    synchronized(this)
+    {
+      closed_ = true;
+    }
+    
+    ackAccumulator_.close();
+  }
+  
+  /*
+   * An asynchronous receive. If it is abandoned the messages it received, or receives later, are released.
+   */
+  private class Prefetch implements AsyncHandler<ReceiveMessageRequest, ReceiveMessageResult>
+  {
+    private final ReceiveMessageRequest        request_;
+    private final Future<ReceiveMessageResult> result_;
+    
+    /* The following are guarded by this */
+    private ReceiveMessageResult               received_;
+    private boolean                            abandoned_;
+    
+    Prefetch(ReceiveMessageRequest request)
+    {
+      request_ = request;
+      result_  = sqsAsyncClient_.receiveMessageAsync(request, this);
+    }
+    
+    void abandon()
+    {
+      ReceiveMessageResult received;
+      
+      synchronized(this)
+      {
+        abandoned_ = true;
+        received   = received_;
+      }
+      
+      if(received != null)
+        release(received.getMessages());
+    }
+
+    @Override
+    public void onSuccess(ReceiveMessageRequest request, ReceiveMessageResult result)
+    {
+      synchronized(this)
+      {
+        received_ = result;
+        
+        if(!abandoned_)
+          return;
+      }
+      
+      release(result.getMessages());
+    }
+
+    @Override
+    public void onError(Exception exception)
+    {
+      // The caller which takes this prefetch gets the exception from the future.
+    }
+  }
+  
   private class SqsQueueMessage implements IQueueMessage
   {
     private final Message receivedMessage_;
@@ -23,20 +23,36 @@
 
 package org.symphonyoss.s2.fugue.aws.sqs;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.symphonyoss.s2.common.fault.TransactionFault;
+import org.symphonyoss.s2.common.fault.TransientTransactionFault;
+import org.symphonyoss.s2.fugue.concurrent.AsyncOperationLimiter;
+import org.symphonyoss.s2.fugue.pubsub.AbstractMessageBatcher;
 import org.symphonyoss.s2.fugue.pubsub.IPubSubMessage;
 import org.symphonyoss.s2.fugue.pubsub.IQueueSender;
+import org.symphonyoss.s2.fugue.pubsub.PublisherMetrics;
 
+import com.amazonaws.handlers.AsyncHandler;
 import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
 import com.amazonaws.services.sqs.model.MessageAttributeValue;
 import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
 import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
 
 /**
  * AWS SQS implementation of QueueManager.
@@ -48,58 +64,161 @@ import com.amazonaws.services.sqs.model.SendMessageRequest;
 public class SqsQueueSender implements IQueueSender
 {
   private static final Logger log_ = LoggerFactory.getLogger(SqsQueueSender.class);
+  
+  private static final int    MAX_BATCH_SIZE        = 10;
+  private static final int    BATCH_THREADS         = 4;
+  private static final long   CLOSE_TIMEOUT_MILLIS  = 30000;
 
-  private final AmazonSQS     sqsClient_;
-  private final String        queueUrl_;
+  private final AmazonSQS             sqsClient_;
+  private final AmazonSQSAsync        sqsAsyncClient_;
+  private final String                queueUrl_;
+  private final Batcher               batcher_;
+  private final AsyncOperationLimiter limiter_;
+  private final PublisherMetrics      metrics_;
 
   /**
    * Constructor.
    * 
-   * @param sqsClient An SQS client.
-   * @param queueName The name of a queue
+   * @param sqsClient       An SQS client.
+   * @param sqsAsyncClient  An asynchronous SQS client.
+   * @param queueName       The name of a queue
+   * @param lingerMillis    If non-negative messages are sent in batches, held for at most this time waiting for a batch to fill.
+   * @param maxInFlight     The maximum number of asynchronous sends which may be buffered or in flight.
    * 
    * @throws QueueDoesNotExistException if the queue does not exist.
    */
-  SqsQueueSender(AmazonSQS sqsClient, String queueName)
+  SqsQueueSender(AmazonSQS sqsClient, AmazonSQSAsync sqsAsyncClient, String queueName, long lingerMillis, int maxInFlight)
   {
-    sqsClient_     = sqsClient;
+    sqsClient_      = sqsClient;
+    sqsAsyncClient_ = sqsAsyncClient;
     
     queueUrl_ = sqsClient_.getQueueUrl(queueName).getQueueUrl();
 
     log_.info("Queue " + queueName + " exists as " + queueUrl_);
+    
+    batcher_ = lingerMillis < 0 ? null : new Batcher(queueName, lingerMillis, maxInFlight);
+    limiter_ = new AsyncOperationLimiter(maxInFlight);
+    metrics_ = new PublisherMetrics(limiter_);
   }
   
   @Override
   public void sendMessage(IPubSubMessage pubSubMessage)
   {
-    pubSubMessage.getTraceContext().trace("ABOUT-TO-SEND", "SQS_QUEUE", queueUrl_);
-    try
+    if(batcher_ != null)
     {
-      SendMessageRequest sendRequest = new SendMessageRequest()
-          .withQueueUrl(queueUrl_)
-          .withMessageBody(pubSubMessage.getPayload())
-          ;
-      
-      if(!pubSubMessage.getAttributes().isEmpty())
+      // Concurrent callers still share batches.
+      try
       {
-        Map<String, MessageAttributeValue> messageAttributes = new HashMap<>();
-        
-        for(Entry<String, Object> entry : pubSubMessage.getAttributes().entrySet())
-        {
-          messageAttributes.put(entry.getKey(), getAttribute(entry.getValue()));
-        }
+        sendMessageAsync(pubSubMessage).join();
+      }
+      catch(CompletionException e)
+      {
+        if(e.getCause() instanceof RuntimeException)
+          throw (RuntimeException)e.getCause();
         
-        sendRequest.withMessageAttributes(messageAttributes);
+        throw new TransactionFault(e.getCause());
       }
-      
-      sqsClient_.sendMessage(sendRequest);
+      return;
+    }
+    
+    long start = System.nanoTime();
+    
+    pubSubMessage.getTraceContext().trace("ABOUT-TO-SEND", "SQS_QUEUE", queueUrl_);
+    try
+    {
+      sqsClient_.sendMessage(createSendRequest(pubSubMessage));
       pubSubMessage.getTraceContext().trace("SENT", "SQS_QUEUE", queueUrl_);
+      metrics_.getPublishLatency().record(start, true);
     }
     catch (RuntimeException e)
     {
+      metrics_.getPublishLatency().record(start, false);
       throw new TransactionFault(e);
     }
   }
+  
+  @Override
+  public CompletableFuture<Void> sendMessageAsync(IPubSubMessage pubSubMessage)
+  {
+    return limiter_.submit(metrics_.getPublishLatency(), () ->
+    {
+      pubSubMessage.getTraceContext().trace("ABOUT-TO-SEND", "SQS_QUEUE", queueUrl_);
+      
+      if(batcher_ != null)
+        return batcher_.submit(pubSubMessage);
+      
+      return sendAsync(pubSubMessage);
+    });
+  }
+  
+  /**
+   * 
+   * @return Metrics for this sender.
+   */
+  public PublisherMetrics getSendMetrics()
+  {
+    return metrics_;
+  }
+  
+  /**
+   * Send any buffered messages and wait for them to be sent.
+   */
+  void close()
+  {
+    if(batcher_ != null)
+      batcher_.close();
+    
+    if(!limiter_.awaitIdle(CLOSE_TIMEOUT_MILLIS))
+      log_.warn(limiter_.getInFlight() + " sends to " + queueUrl_ + " still in flight after " + CLOSE_TIMEOUT_MILLIS + "ms");
+  }
+  
+  private CompletableFuture<Void> sendAsync(IPubSubMessage pubSubMessage)
+  {
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    
+    sqsAsyncClient_.sendMessageAsync(createSendRequest(pubSubMessage), new AsyncHandler<SendMessageRequest, SendMessageResult>()
+    {
+      @Override
+      public void onError(Exception exception)
+      {
+        future.completeExceptionally(new TransactionFault(exception));
+      }
+
+      @Override
+      public void onSuccess(SendMessageRequest request, SendMessageResult result)
+      {
+        pubSubMessage.getTraceContext().trace("SENT", "SQS_QUEUE", queueUrl_);
+        future.complete(null);
+      }
+    });
+    
+    return future;
+  }
+  
+  private SendMessageRequest createSendRequest(IPubSubMessage pubSubMessage)
+  {
+    SendMessageRequest sendRequest = new SendMessageRequest()
+        .withQueueUrl(queueUrl_)
+        .withMessageBody(pubSubMessage.getPayload())
+        ;
+    
+    if(!pubSubMessage.getAttributes().isEmpty())
+      sendRequest.withMessageAttributes(getAttributes(pubSubMessage));
+    
+    return sendRequest;
+  }
+  
+  private static Map<String, MessageAttributeValue> getAttributes(IPubSubMessage pubSubMessage)
+  {
+    Map<String, MessageAttributeValue> messageAttributes = new HashMap<>();
+    
+    for(Entry<String, Object> entry : pubSubMessage.getAttributes().entrySet())
+    {
+      messageAttributes.put(entry.getKey(), getAttribute(entry.getValue()));
+    }
+    
+    return messageAttributes;
+  }
 
   private static MessageAttributeValue getAttribute(Object value)
   {
@@ -115,4 +234,49 @@ public class SqsQueueSender implements IQueueSender
         .withStringValue(value.toString());
     
   }
+  
+  private class Batcher extends AbstractMessageBatcher
+  {
+    Batcher(String queueName, long lingerMillis, int capacity)
+    {
+      super("SQS-send-" + queueName, MAX_BATCH_SIZE, SqsQueueManager.MAX_MESSAGE_SIZE, SqsQueueManager.MAX_MESSAGE_SIZE,
+          lingerMillis, capacity, BATCH_THREADS);
+    }
+
+    @Override
+    protected void sendBatch(List<BatchEntry> batch)
+    {
+      List<SendMessageBatchRequestEntry> entries = new ArrayList<>(batch.size());
+      
+      for(int i=0 ; i<batch.size() ; i++)
+      {
+        IPubSubMessage                pubSubMessage = batch.get(i).getMessage();
+        SendMessageBatchRequestEntry  entry         = new SendMessageBatchRequestEntry(String.valueOf(i), pubSubMessage.getPayload());
+        
+        if(!pubSubMessage.getAttributes().isEmpty())
+          entry.withMessageAttributes(getAttributes(pubSubMessage));
+        
+        entries.add(entry);
+      }
+      
+      SendMessageBatchResult result = sqsClient_.sendMessageBatch(new SendMessageBatchRequest(queueUrl_, entries));
+      
+      for(SendMessageBatchResultEntry success : result.getSuccessful())
+      {
+        BatchEntry entry = batch.get(Integer.parseInt(success.getId()));
+        
+        entry.getMessage().getTraceContext().trace("SENT", "SQS_QUEUE", queueUrl_);
+        entry.complete();
+      }
+      
+      for(BatchResultErrorEntry error : result.getFailed())
+      {
+        String reason = "Failed to send message to " + queueUrl_ + ": " + error.getCode() + " " + error.getMessage();
+        
+        batch.get(Integer.parseInt(error.getId())).fail(error.isSenderFault()
+            ? new TransactionFault(reason)
+            : new TransientTransactionFault(reason, null));
+      }
+    }
+  }
 }
@@ -56,6 +56,7 @@ import com.amazonaws.services.sqs.model.ReceiveMessageResult;
 {
   private static final int EXTENSION_TIMEOUT_SECONDS = 30;
   private static final int EXTENSION_FREQUENCY_MILLIS = 15000;
+  private static final int ACK_LINGER_MILLIS = 20;
   
   private static final Logger                        log_              = LoggerFactory.getLogger(SqsSubscriber.class);
 
@@ -67,6 +68,7 @@ import com.amazonaws.services.sqs.model.ReceiveMessageResult;
   private final NonIdleSubscriber                                nonIdleSubscriber_;
   private final String                               tenantId_;
   private int                                        messageBatchSize_ = 10;
+  private final SqsAckAccumulator                    ackAccumulator_;
 
   private final ReceiveMessageRequest                blockingPullRequest_;
   private final ReceiveMessageRequest                nonBlockingPullRequest_;
@@ -90,6 +92,7 @@ import com.amazonaws.services.sqs.model.ReceiveMessageResult;
     consumer_ = consumer;
     nonIdleSubscriber_ = new NonIdleSubscriber();
     tenantId_ = tenantId;
+    ackAccumulator_ = new SqsAckAccumulator(sqsClient_, queueUrl_, ACK_LINGER_MILLIS);
 
     blockingPullRequest_ = new ReceiveMessageRequest(queueUrl_)
         .withMaxNumberOfMessages(messageBatchSize_ )
@@ -119,6 +122,22 @@ import com.amazonaws.services.sqs.model.ReceiveMessageResult;
     return queueUrl_;
   }
   
+  /**
+   * Send any pending deletes and visibility changes, called once all handlers have completed.
+   */
+  /* package */ void flushAcks()
+  {
+    ackAccumulator_.flushPending();
+  }
+  
+  /**
+   * Send any pending deletes and visibility changes and release the resources used to send them, called when the manager is stopped.
+   */
+  /* package */ void closeAcks()
+  {
+    ackAccumulator_.close();
+  }
+  
   @Override
   protected IPullSubscriberContext getContext()
   {
@@ -184,6 +203,12 @@ import com.amazonaws.services.sqs.model.ReceiveMessageResult;
       return message_.getMessageId();
     }
 
+    @Override
+    public int getPayloadSize()
+    {
+      return message_.getBody().length();
+    }
+
     @Override
     public void run()
     {
@@ -201,7 +226,7 @@ import com.amazonaws.services.sqs.model.ReceiveMessageResult;
           if(retryTime < 0)
           {
             trace.trace("ABOUT_TO_ACK");
-            sqsClient_.deleteMessage(queueUrl_, message_.getReceiptHandle());
+            ackAccumulator_.acknowledge(message_.getReceiptHandle());
             traceTransaction.finished();
           }
           else
@@ -210,7 +235,7 @@ import com.amazonaws.services.sqs.model.ReceiveMessageResult;
             
             int visibilityTimout = (int) (retryTime / 1000);
             
-            sqsClient_.changeMessageVisibility(queueUrl_, message_.getReceiptHandle(), visibilityTimout);
+            ackAccumulator_.modifyDeadline(message_.getReceiptHandle(), visibilityTimout);
             traceTransaction.aborted();
           }
         }
@@ -226,14 +251,7 @@ import com.amazonaws.services.sqs.model.ReceiveMessageResult;
     {
       if(running_)
       {
-        try
-        {
-          sqsClient_.changeMessageVisibility(queueUrl_, message_.getReceiptHandle(), EXTENSION_TIMEOUT_SECONDS);
-        }
-        catch(RuntimeException e)
-        {
-          log_.error("Failed to extend message " + getMessageId(), e);
-        }
+        ackAccumulator_.extendDeadline(message_.getReceiptHandle(), EXTENSION_TIMEOUT_SECONDS);
       }
     }
   }
@@ -197,6 +197,7 @@ public class SqsSubscriberManager extends AbstractPullSubscriberManager<String,
     for(SqsSubscriber subscriber : subscribers_)
     {
       log_.info("Starting subscription to " + subscriber.getQueueUrl() + "...");
+      subscriber.start();
       submit(subscriber, true);
     }
   }
@@ -208,5 +209,20 @@ public class SqsSubscriberManager extends AbstractPullSubscriberManager<String,
         subscriber.stop();
       
      super.stopSubscriptions();
+     
+     for(SqsSubscriber subscriber : subscribers_)
+     {
+       subscriber.cancelUnhandled();
+       subscriber.flushAcks();
+     }
+  }
+
+  @Override
+  public synchronized void stop()
+  {
+    super.stop();
+    
+    for(SqsSubscriber subscriber : subscribers_)
+      subscriber.closeAcks();
   }
 }
@@ -0,0 +1,126 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.aws.kv.table;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.CancellationReason;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsResult;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+
+/**
+ * An in memory stand in for the asynchronous DynamoDB client, which applies the puts and deletes of each transaction
+ * without evaluating conditions, unless a cancellation has been queued by the test.
+ */
+@SuppressWarnings("javadoc")
+class FakeAmazonDynamoDBAsync extends AbstractAmazonDynamoDBAsync
+{
+  final Map<String, Map<String, AttributeValue>>  items_         = new ConcurrentHashMap<>();
+  final List<TransactWriteItemsRequest>           writes_        = Collections.synchronizedList(new ArrayList<>());
+  final Queue<String>                             cancellations_ = new ConcurrentLinkedQueue<>();
+  volatile boolean                                shutdown_;
+  
+  static String key(Map<String, AttributeValue> item)
+  {
+    return item.get(AbstractDynamoDbKvTable.ColumnNamePartitionKey).getS() + "/" + item.get(AbstractDynamoDbKvTable.ColumnNameSortKey).getS();
+  }
+  
+  /**
+   * Cancel the next transaction with the given reason code.
+   * 
+   * @param code A cancellation reason code such as TransactionConflict.
+   */
+  void cancelNext(String code)
+  {
+    cancellations_.add(code);
+  }
+  
+  @Override
+  public Future<TransactWriteItemsResult> transactWriteItemsAsync(TransactWriteItemsRequest request,
+      AsyncHandler<TransactWriteItemsRequest, TransactWriteItemsResult> asyncHandler)
+  {
+    writes_.add(request);
+    
+    String code = cancellations_.poll();
+    
+    if(code != null)
+    {
+      TransactionCanceledException exception = new TransactionCanceledException("Transaction cancelled");
+      
+      exception.setCancellationReasons(Collections.singletonList(new CancellationReason().withCode(code)));
+      asyncHandler.onError(exception);
+      
+      CompletableFuture<TransactWriteItemsResult> future = new CompletableFuture<>();
+      
+      future.completeExceptionally(exception);
+      
+      return future;
+    }
+    
+    for(TransactWriteItem action : request.getTransactItems())
+    {
+      if(action.getPut() != null)
+        items_.put(key(action.getPut().getItem()), action.getPut().getItem());
+      else if(action.getDelete() != null)
+        items_.remove(key(action.getDelete().getKey()));
+    }
+    
+    TransactWriteItemsResult result = new TransactWriteItemsResult();
+    
+    asyncHandler.onSuccess(request, result);
+    
+    return CompletableFuture.completedFuture(result);
+  }
+
+  @Override
+  public Future<GetItemResult> getItemAsync(GetItemRequest request, AsyncHandler<GetItemRequest, GetItemResult> asyncHandler)
+  {
+    GetItemResult result = new GetItemResult().withItem(items_.get(key(request.getKey())));
+    
+    asyncHandler.onSuccess(request, result);
+    
+    return CompletableFuture.completedFuture(result);
+  }
+
+  @Override
+  public void shutdown()
+  {
+    shutdown_ = true;
+  }
+}
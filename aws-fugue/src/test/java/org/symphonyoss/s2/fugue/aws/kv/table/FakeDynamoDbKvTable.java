@@ -0,0 +1,92 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.aws.kv.table;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.symphonyoss.s2.fugue.config.EmptyConfiguration;
+import org.symphonyoss.s2.fugue.core.trace.ITraceContext;
+import org.symphonyoss.s2.fugue.kv.IKvItem;
+import org.symphonyoss.s2.fugue.naming.NameFactory;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+
+/**
+ * A DynamoDbKvTable whose asynchronous client is a FakeAmazonDynamoDBAsync.
+ */
+@SuppressWarnings("javadoc")
+class FakeDynamoDbKvTable extends DynamoDbKvTable
+{
+  final FakeAmazonDynamoDBAsync amazonDynamoDBAsync_;
+  final AtomicInteger           asyncClientsCreated_ = new AtomicInteger();
+  final List<IKvItem>           storedAfterWrite_    = new CopyOnWriteArrayList<>();
+  
+  private FakeDynamoDbKvTable(Builder builder)
+  {
+    super(builder);
+    
+    amazonDynamoDBAsync_ = builder.amazonDynamoDBAsync_;
+  }
+
+  @Override
+  protected AmazonDynamoDBAsync createAmazonDynamoDBAsync()
+  {
+    asyncClientsCreated_.incrementAndGet();
+    
+    return amazonDynamoDBAsync_;
+  }
+
+  @Override
+  protected void storeToSecondaryStorageAfterWrite(IKvItem kvItem, ITraceContext trace)
+  {
+    storedAfterWrite_.add(kvItem);
+  }
+  
+  static class Builder extends AbstractDynamoDbKvTable.AbstractBuilder<Builder, DynamoDbKvTable>
+  {
+    private final FakeAmazonDynamoDBAsync amazonDynamoDBAsync_ = new FakeAmazonDynamoDBAsync();
+    
+    Builder()
+    {
+      super(Builder.class);
+      
+      // The synchronous client is real but is never used by these tests, so no requests are made.
+      amazonDynamoDBClientBuilder_.withRegion("us-east-1");
+      
+      withConfig(new EmptyConfiguration());
+      withNameFactory(new NameFactory("test", "dev", "test", "us-east-1", null, null, "test"));
+      withServiceId("test");
+      withRegion("us-east-1");
+      withValidate(false);
+    }
+
+    @Override
+    protected FakeDynamoDbKvTable construct()
+    {
+      return new FakeDynamoDbKvTable(this);
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.aws.kv.table;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Map;
+
+import org.symphonyoss.s2.common.hash.Hash;
+import org.symphonyoss.s2.common.hash.HashProvider;
+import org.symphonyoss.s2.fugue.kv.IKvItem;
+import org.symphonyoss.s2.fugue.kv.IKvPartitionKey;
+import org.symphonyoss.s2.fugue.kv.IKvSortKey;
+import org.symphonyoss.s2.fugue.kv.KvPartitionKey;
+import org.symphonyoss.s2.fugue.kv.KvSortKey;
+import org.symphonyoss.s2.fugue.store.IFuguePodId;
+
+@SuppressWarnings("javadoc")
+class KvItem implements IKvItem
+{
+  private static final IFuguePodId POD_ID = new IFuguePodId()
+      {
+        @Override
+        public Integer getValue()
+        {
+          return 167;
+        }
+      };
+  
+  private final String              partitionKey_;
+  private final String              sortKey_;
+  private final String              value_;
+  private final boolean             saveToSecondaryStorage_;
+  private final Map<String, Object> additionalAttributes_;
+  
+  KvItem(String partitionKey, String sortKey, String value)
+  {
+    this(partitionKey, sortKey, value, false, null);
+  }
+  
+  KvItem(String partitionKey, String sortKey, String value, boolean saveToSecondaryStorage, Map<String, Object> additionalAttributes)
+  {
+    partitionKey_           = partitionKey;
+    sortKey_                = sortKey;
+    value_                  = value;
+    saveToSecondaryStorage_ = saveToSecondaryStorage;
+    additionalAttributes_   = additionalAttributes;
+  }
+
+  @Override
+  public IKvSortKey getSortKey()
+  {
+    return new KvSortKey(sortKey_);
+  }
+
+  @Override
+  public IKvPartitionKey getPartitionKey()
+  {
+    return new KvPartitionKey(partitionKey_);
+  }
+
+  @Override
+  public IFuguePodId getPodId()
+  {
+    return POD_ID;
+  }
+
+  @Override
+  public String getJson()
+  {
+    return value_;
+  }
+
+  @Override
+  public String getType()
+  {
+    return "TestItem";
+  }
+
+  @Override
+  public Instant getPurgeDate()
+  {
+    return null;
+  }
+
+  @Override
+  public boolean isSaveToSecondaryStorage()
+  {
+    return saveToSecondaryStorage_;
+  }
+
+  @Override
+  public Hash getAbsoluteHash()
+  {
+    return HashProvider.getHashOf(value_.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public Map<String, Object> getAdditionalAttributes()
+  {
+    return additionalAttributes_;
+  }
+
+  @Override
+  public String getTraceSubjectType()
+  {
+    return "OBJECT-TEST";
+  }
+
+  @Override
+  public String getTraceSubjectId()
+  {
+    return getAbsoluteHash().toStringBase64();
+  }
+}
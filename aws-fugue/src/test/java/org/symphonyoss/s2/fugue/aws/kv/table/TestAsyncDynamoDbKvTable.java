@@ -0,0 +1,173 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.aws.kv.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Test;
+import org.symphonyoss.s2.common.exception.NoSuchObjectException;
+import org.symphonyoss.s2.common.fault.TransientTransactionFault;
+import org.symphonyoss.s2.fugue.core.trace.ITraceContext;
+import org.symphonyoss.s2.fugue.core.trace.NoOpTraceContext;
+import org.symphonyoss.s2.fugue.kv.IKvItem;
+
+@SuppressWarnings("javadoc")
+public class TestAsyncDynamoDbKvTable
+{
+  private static final IKvItem ITEM     = new KvItem("PART1", "1", "One");
+  private static final IKvItem ARCHIVED = new KvItem("PART1", "2", "Two", true, Collections.emptyMap());
+  
+  private final ITraceContext       trace = NoOpTraceContext.INSTANCE;
+  private final FakeDynamoDbKvTable table = (FakeDynamoDbKvTable) new FakeDynamoDbKvTable.Builder().build();
+  
+  @After
+  public void stop()
+  {
+    table.stop();
+  }
+  
+  @Test
+  public void testAsyncClientCreatedOnFirstUse() throws InterruptedException, ExecutionException, TimeoutException
+  {
+    assertEquals(0, table.asyncClientsCreated_.get());
+    
+    table.storeAsync(Collections.singletonList(ITEM), trace).get(10, TimeUnit.SECONDS);
+    
+    assertEquals("One", table.fetchAsync(ITEM, trace).get(10, TimeUnit.SECONDS));
+    
+    assertEquals(1, table.asyncClientsCreated_.get());
+    
+    table.stop();
+    
+    assertTrue(table.amazonDynamoDBAsync_.shutdown_);
+  }
+  
+  @Test
+  public void testStopWithoutAsyncUse()
+  {
+    table.stop();
+    
+    assertEquals(0, table.asyncClientsCreated_.get());
+  }
+  
+  @Test
+  public void testConflictRetried() throws InterruptedException, ExecutionException, TimeoutException
+  {
+    for(int i=0 ; i<3 ; i++)
+      table.amazonDynamoDBAsync_.cancelNext("TransactionConflict");
+    
+    table.storeAsync(Collections.singletonList(ITEM), trace).get(10, TimeUnit.SECONDS);
+    
+    assertEquals(4, table.amazonDynamoDBAsync_.writes_.size());
+    assertEquals(1, table.amazonDynamoDBAsync_.items_.size());
+  }
+  
+  @Test
+  public void testConflictRetriesExhausted() throws InterruptedException, TimeoutException
+  {
+    for(int i=0 ; i<11 ; i++)
+      table.amazonDynamoDBAsync_.cancelNext("TransactionConflict");
+    
+    try
+    {
+      table.storeAsync(Collections.singletonList(ITEM), trace).get(10, TimeUnit.SECONDS);
+      fail("Store should fail");
+    }
+    catch(ExecutionException e)
+    {
+      assertTrue(e.getCause() instanceof TransientTransactionFault);
+    }
+    
+    assertEquals(11, table.amazonDynamoDBAsync_.writes_.size());
+    assertTrue(table.amazonDynamoDBAsync_.items_.isEmpty());
+  }
+  
+  @Test
+  public void testConditionFailure() throws InterruptedException, TimeoutException
+  {
+    table.amazonDynamoDBAsync_.cancelNext("ConditionalCheckFailed");
+    
+    try
+    {
+      table.updateAsync(ITEM, ITEM.getAbsoluteHash(), Collections.singleton(new KvItem("PART1", "1", "Updated One")), trace)
+        .get(10, TimeUnit.SECONDS);
+      fail("Update should fail");
+    }
+    catch(ExecutionException e)
+    {
+      assertTrue(e.getCause() instanceof NoSuchObjectException);
+    }
+    
+    assertEquals(1, table.amazonDynamoDBAsync_.writes_.size());
+  }
+  
+  @Test
+  public void testFetchMissing() throws InterruptedException, TimeoutException
+  {
+    try
+    {
+      table.fetchAsync(ITEM, trace).get(10, TimeUnit.SECONDS);
+      fail("Fetch should fail");
+    }
+    catch(ExecutionException e)
+    {
+      assertTrue(e.getCause() instanceof NoSuchObjectException);
+    }
+  }
+  
+  @Test
+  public void testSecondaryStorageAfterWrite() throws InterruptedException, ExecutionException, TimeoutException
+  {
+    table.storeAsync(Arrays.asList(ITEM, ARCHIVED), trace).get(10, TimeUnit.SECONDS);
+    
+    assertEquals(Collections.singletonList(ARCHIVED), table.storedAfterWrite_);
+  }
+  
+  @Test
+  public void testNoSecondaryStorageAfterFailedWrite() throws InterruptedException, TimeoutException
+  {
+    table.amazonDynamoDBAsync_.cancelNext("ConditionalCheckFailed");
+    
+    try
+    {
+      table.updateAsync(ITEM, ITEM.getAbsoluteHash(), Collections.singleton(ARCHIVED), trace).get(10, TimeUnit.SECONDS);
+      fail("Update should fail");
+    }
+    catch(ExecutionException e)
+    {
+      assertTrue(e.getCause() instanceof NoSuchObjectException);
+    }
+    
+    assertTrue(table.storedAfterWrite_.isEmpty());
+  }
+}
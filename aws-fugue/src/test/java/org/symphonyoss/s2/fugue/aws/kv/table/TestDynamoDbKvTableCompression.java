@@ -0,0 +1,124 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.aws.kv.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Test;
+import org.symphonyoss.s2.fugue.core.trace.ITraceContext;
+import org.symphonyoss.s2.fugue.core.trace.NoOpTraceContext;
+import org.symphonyoss.s2.fugue.kv.IKvItem;
+
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+@SuppressWarnings("javadoc")
+public class TestDynamoDbKvTableCompression
+{
+  private static final String  LARGE_JSON;
+  
+  static
+  {
+    StringBuilder s = new StringBuilder("{\"items\":[");
+    
+    for(int i=0 ; i<200 ; i++)
+      s.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"name\":\"Item number ").append(i).append("\"}");
+    
+    LARGE_JSON = s.append("]}").toString();
+  }
+  
+  private static final IKvItem LARGE = new KvItem("PART1", "1", LARGE_JSON);
+  private static final IKvItem SMALL = new KvItem("PART1", "2", "{\"id\":2}");
+  private static final IKvItem PLAIN = new KvItem("PART1", "3", "{\"id\":3}");
+  
+  private final ITraceContext       trace      = NoOpTraceContext.INSTANCE;
+  private final FakeDynamoDbKvTable compressed = (FakeDynamoDbKvTable) new FakeDynamoDbKvTable.Builder()
+      .withPayloadCompression(PayloadCompression.GZIP)
+      .build();
+  private final FakeDynamoDbKvTable plain      = (FakeDynamoDbKvTable) new FakeDynamoDbKvTable.Builder().build();
+  
+  @After
+  public void stop()
+  {
+    compressed.stop();
+    plain.stop();
+  }
+  
+  @Test
+  public void testRoundTrip() throws InterruptedException, ExecutionException, TimeoutException
+  {
+    List<IKvItem> items = Arrays.asList(LARGE, SMALL);
+    
+    compressed.storeAsync(items, trace).get(10, TimeUnit.SECONDS);
+    plain.storeAsync(Arrays.asList(PLAIN), trace).get(10, TimeUnit.SECONDS);
+    
+    Map<String, Map<String, AttributeValue>> rows = new HashMap<>(compressed.amazonDynamoDBAsync_.items_);
+    
+    for(Map<String, AttributeValue> row : rows.values())
+    {
+      assertNull(row.get(AbstractDynamoDbKvTable.ColumnNameDocument));
+      assertNotNull(row.get(AbstractDynamoDbKvTable.ColumnNameCompressedDocument));
+    }
+    
+    Map<String, AttributeValue> plainRow = plain.amazonDynamoDBAsync_.items_.values().iterator().next();
+    
+    assertNotNull(plainRow.get(AbstractDynamoDbKvTable.ColumnNameDocument));
+    assertNull(plainRow.get(AbstractDynamoDbKvTable.ColumnNameCompressedDocument));
+    
+    // Mix the plain row into the compressed table, rows are readable whatever compression was used to write them.
+    compressed.amazonDynamoDBAsync_.items_.put(FakeAmazonDynamoDBAsync.key(plainRow), plainRow);
+    rows.put(FakeAmazonDynamoDBAsync.key(plainRow), plainRow);
+    
+    for(IKvItem item : Arrays.asList(LARGE, SMALL, PLAIN))
+      assertEquals(item.getJson(), compressed.fetchAsync(item, trace).get(10, TimeUnit.SECONDS));
+    
+    Map<String, String> expected = new HashMap<>();
+    
+    for(IKvItem item : Arrays.asList(LARGE, SMALL, PLAIN))
+      expected.put(item.getSortKey().asString(), item.getJson());
+    
+    assertEquals(3, rows.size());
+    
+    // The synchronous paths read through the document API.
+    for(Map<String, AttributeValue> row : rows.values())
+    {
+      String json = expected.get(row.get(AbstractDynamoDbKvTable.ColumnNameSortKey).getS());
+      
+      assertEquals(json, compressed.getDocument(ItemUtils.toItem(row)));
+      assertEquals(json, plain.getDocument(ItemUtils.toItem(row)));
+      assertEquals(json, plain.getDocument(row));
+    }
+  }
+}
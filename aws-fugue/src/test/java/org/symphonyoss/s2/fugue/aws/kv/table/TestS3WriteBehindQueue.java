@@ -0,0 +1,278 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.aws.kv.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.symphonyoss.s2.common.hash.Hash;
+import org.symphonyoss.s2.common.hash.HashProvider;
+
+@SuppressWarnings("javadoc")
+public class TestS3WriteBehindQueue
+{
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+  
+  private final Map<Hash, String> uploaded_ = new ConcurrentHashMap<>();
+  
+  private static Hash hash(String payload)
+  {
+    return HashProvider.getHashOf(payload.getBytes(StandardCharsets.UTF_8));
+  }
+  
+  private static void await(BooleanSupplier condition) throws InterruptedException
+  {
+    long deadline = System.currentTimeMillis() + 10000;
+    
+    while(!condition.getAsBoolean())
+    {
+      assertTrue("Timed out", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+  
+  /* Delete the object the way the table does, cancelling pending writes before deleting from the store. */
+  private void delete(S3WriteBehindQueue queue, Hash absoluteHash)
+  {
+    queue.cancel(absoluteHash);
+    uploaded_.remove(absoluteHash);
+  }
+  
+  private static void await(CountDownLatch latch)
+  {
+    try
+    {
+      latch.await();
+    }
+    catch (InterruptedException e)
+    {
+      throw new IllegalStateException(e);
+    }
+  }
+  
+  private int spoolFileCount(File dir)
+  {
+    File[] files = dir.listFiles((d, name) -> name.endsWith(".spool"));
+    
+    return files == null ? 0 : files.length;
+  }
+  
+  @Test
+  public void testRetry() throws InterruptedException
+  {
+    AtomicInteger       attempts  = new AtomicInteger();
+    S3WriteBehindQueue  queue     = new S3WriteBehindQueue((absoluteHash, payload) ->
+    {
+      if(attempts.incrementAndGet() < 3)
+        throw new IllegalStateException("Simulated failure");
+      
+      uploaded_.put(absoluteHash, payload);
+    }, uploaded_::remove, 10, 1, null, 10000);
+    
+    queue.enqueue(hash("One"), "One");
+    
+    await(() -> uploaded_.size() == 1);
+    queue.stop();
+    
+    assertEquals(3, attempts.get());
+    assertEquals("One", uploaded_.get(hash("One")));
+    assertEquals(0, queue.getFailedCount());
+  }
+  
+  @Test
+  public void testDrainOnStop() throws InterruptedException, IOException
+  {
+    File                spoolDir  = folder.newFolder();
+    S3WriteBehindQueue  queue = new S3WriteBehindQueue((absoluteHash, payload) ->
+    {
+      try
+      {
+        Thread.sleep(20);
+      }
+      catch (InterruptedException e)
+      {
+        throw new IllegalStateException(e);
+      }
+      uploaded_.put(absoluteHash, payload);
+    }, uploaded_::remove, 100, 2, spoolDir, 10000);
+    
+    for(int i=0 ; i<20 ; i++)
+      queue.enqueue(hash("Item " + i), "Item " + i);
+    
+    queue.stop();
+    
+    assertEquals(20, uploaded_.size());
+    assertEquals(0, queue.getQueueDepth());
+    assertEquals(0, spoolFileCount(spoolDir));
+  }
+  
+  @Test(expected=IllegalStateException.class)
+  public void testEnqueueAfterStop()
+  {
+    S3WriteBehindQueue queue = new S3WriteBehindQueue((absoluteHash, payload) -> uploaded_.put(absoluteHash, payload), uploaded_::remove, 10, 1, null, 10000);
+    
+    queue.stop();
+    queue.enqueue(hash("One"), "One");
+  }
+  
+  @Test
+  public void testSpoolAndReload() throws InterruptedException, IOException
+  {
+    File                spoolDir  = folder.newFolder();
+    S3WriteBehindQueue  failing   = new S3WriteBehindQueue((absoluteHash, payload) ->
+    {
+      throw new IllegalStateException("Simulated failure");
+    }, uploaded_::remove, 10, 1, spoolDir, 100);
+    
+    for(int i=0 ; i<3 ; i++)
+      failing.enqueue(hash("Item " + i), "Item " + i + "\nwith a second line");
+    
+    failing.stop();
+    
+    assertEquals(3, spoolFileCount(spoolDir));
+    
+    S3WriteBehindQueue queue = new S3WriteBehindQueue((absoluteHash, payload) -> uploaded_.put(absoluteHash, payload), uploaded_::remove, 10, 1, spoolDir, 10000);
+    
+    await(() -> uploaded_.size() == 3 && spoolFileCount(spoolDir) == 0);
+    queue.stop();
+    
+    for(int i=0 ; i<3 ; i++)
+      assertEquals("Item " + i + "\nwith a second line", uploaded_.get(hash("Item " + i)));
+  }
+  
+  @Test
+  public void testDeleteQueued() throws InterruptedException
+  {
+    CountDownLatch      release = new CountDownLatch(1);
+    S3WriteBehindQueue  queue   = new S3WriteBehindQueue((absoluteHash, payload) ->
+    {
+      await(release);
+      uploaded_.put(absoluteHash, payload);
+    }, uploaded_::remove, 10, 1, null, 10000);
+    
+    queue.enqueue(hash("One"), "One");
+    queue.enqueue(hash("Two"), "Two");
+    
+    delete(queue, hash("Two"));
+    release.countDown();
+    queue.stop();
+    
+    assertEquals("One", uploaded_.get(hash("One")));
+    assertFalse(uploaded_.containsKey(hash("Two")));
+  }
+  
+  @Test
+  public void testDeleteInProgress() throws InterruptedException
+  {
+    CountDownLatch      started = new CountDownLatch(1);
+    CountDownLatch      release = new CountDownLatch(1);
+    S3WriteBehindQueue  queue   = new S3WriteBehindQueue((absoluteHash, payload) ->
+    {
+      started.countDown();
+      await(release);
+      uploaded_.put(absoluteHash, payload);
+    }, uploaded_::remove, 10, 1, null, 10000);
+    
+    queue.enqueue(hash("One"), "One");
+    started.await();
+    
+    // The delete happens before the write lands, so the write must be undone.
+    delete(queue, hash("One"));
+    release.countDown();
+    queue.stop();
+    
+    assertFalse(uploaded_.containsKey(hash("One")));
+  }
+  
+  @Test
+  public void testDeleteDuringRetry() throws InterruptedException
+  {
+    AtomicInteger       attempts  = new AtomicInteger();
+    S3WriteBehindQueue  queue     = new S3WriteBehindQueue((absoluteHash, payload) ->
+    {
+      if(attempts.incrementAndGet() < 2)
+        throw new IllegalStateException("Simulated failure");
+      
+      uploaded_.put(absoluteHash, payload);
+    }, uploaded_::remove, 10, 1, null, 10000);
+    
+    queue.enqueue(hash("One"), "One");
+    
+    await(() -> attempts.get() == 1);
+    delete(queue, hash("One"));
+    queue.stop();
+    
+    assertEquals(1, attempts.get());
+    assertFalse(uploaded_.containsKey(hash("One")));
+    assertEquals(0, queue.getFailedCount());
+  }
+  
+  @Test
+  public void testDeleteSpooled() throws InterruptedException, IOException
+  {
+    File                spoolDir  = folder.newFolder();
+    S3WriteBehindQueue  failing   = new S3WriteBehindQueue((absoluteHash, payload) ->
+    {
+      throw new IllegalStateException("Simulated failure");
+    }, uploaded_::remove, 10, 1, spoolDir, 100);
+    
+    for(int i=0 ; i<3 ; i++)
+      failing.enqueue(hash("Item " + i), "Item " + i);
+    
+    failing.stop();
+    
+    assertEquals(3, spoolFileCount(spoolDir));
+    
+    CountDownLatch      release = new CountDownLatch(1);
+    S3WriteBehindQueue  queue   = new S3WriteBehindQueue((absoluteHash, payload) ->
+    {
+      await(release);
+      uploaded_.put(absoluteHash, payload);
+    }, uploaded_::remove, 10, 1, spoolDir, 10000);
+    
+    delete(queue, hash("Item 1"));
+    release.countDown();
+    
+    await(() -> uploaded_.size() == 2 && spoolFileCount(spoolDir) == 0);
+    queue.stop();
+    
+    assertTrue(uploaded_.containsKey(hash("Item 0")));
+    assertFalse(uploaded_.containsKey(hash("Item 1")));
+    assertTrue(uploaded_.containsKey(hash("Item 2")));
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.aws.lambda;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.symphonyoss.s2.fugue.FugueComponentContainer;
+import org.symphonyoss.s2.fugue.IFugueAssemblyBuilder;
+import org.symphonyoss.s2.fugue.config.GlobalConfiguration;
+import org.symphonyoss.s2.fugue.core.trace.ITraceContext;
+import org.symphonyoss.s2.fugue.core.trace.NoOpContextFactory;
+import org.symphonyoss.s2.fugue.counter.ITopicBusyCounterFactory;
+import org.symphonyoss.s2.fugue.inmemory.InMemoryConfiguration;
+import org.symphonyoss.s2.fugue.inmemory.assembly.InMemoryFugueAssembly;
+import org.symphonyoss.s2.fugue.inmemory.kv.table.InMemoryKvTable;
+import org.symphonyoss.s2.fugue.inmemory.pubsub.InMemoryPublisherManager;
+import org.symphonyoss.s2.fugue.inmemory.pubsub.InMemorySubscriberManager;
+import org.symphonyoss.s2.fugue.naming.NameFactory;
+import org.symphonyoss.s2.fugue.pipeline.IThreadSafeErrorConsumer;
+import org.symphonyoss.s2.fugue.pipeline.IThreadSafeRetryableConsumer;
+import org.symphonyoss.s2.fugue.pubsub.TopicSubscription;
+
+/**
+ * Compares cold and warm starts of an AwsAssemblyLambda whose assembly is built from the in memory
+ * implementations: a publisher manager, a subscriber manager with one subscription and a KV table.
+ * 
+ * A cold start builds and starts the assembly, a warm start resumes the container kept from the previous
+ * invocation. Each lambda instance is invoked several times, so it makes one cold start and then warm starts.
+ * The first cold start in the JVM also pays for class loading, as the first invocation in a new Lambda
+ * execution environment does, so it is reported separately.
+ * 
+ * Run with: java -cp ... org.symphonyoss.s2.fugue.aws.lambda.AssemblyLambdaStartupBenchmark [instances [invocations]]
+ * 
+ * @author Bruce Skingle
+ * 
+ */
+public class AssemblyLambdaStartupBenchmark
+{
+  private static final String TOPIC = "StartupBenchmark";
+
+  /* The main loop runs until one minute before the deadline, so this leaves it 1ms. */
+  private static final int    REMAINING_TIME_MILLIS = 60001;
+
+  /**
+   * Main.
+   * 
+   * @param args Optional number of lambda instances and invocations of each.
+   */
+  public static void main(String[] args)
+  {
+    int         instances   = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    int         invocations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    List<Long>  cold        = new ArrayList<>();
+    List<Long>  warm        = new ArrayList<>();
+    
+    for(int i=0 ; i<instances ; i++)
+    {
+      Lambda lambda = new Lambda(cold, warm);
+      
+      for(int j=0 ; j<invocations ; j++)
+        lambda.invoke();
+      
+      lambda.close();
+    }
+    
+    System.out.format("First cold start %8.2f ms%n", cold.get(0) / 1e6);
+    report("Cold start", cold.subList(1, cold.size()));
+    report("Warm start", warm);
+  }
+
+  private static void report(String name, List<Long> nanos)
+  {
+    Collections.sort(nanos);
+    
+    System.out.format("%-16s %8.2f ms median, %8.2f ms p90 over %,d starts%n", name,
+        nanos.get(nanos.size() / 2) / 1e6, nanos.get(nanos.size() * 9 / 10) / 1e6, nanos.size());
+  }
+
+  private static class Lambda extends AwsAssemblyLambda
+  {
+    private final List<Long>        cold_;
+    private final List<Long>        warm_;
+    private FugueComponentContainer container_;
+    
+    Lambda(List<Long> cold, List<Long> warm)
+    {
+      cold_ = cold;
+      warm_ = warm;
+    }
+    
+    @Override
+    protected IFugueAssemblyBuilder<?, ?> createBuilder()
+    {
+      return new Assembly.Builder();
+    }
+    
+    @Override
+    FugueComponentContainer createContainer()
+    {
+      container_ = super.createContainer();
+      
+      return container_;
+    }
+    
+    @Override
+    void started(boolean cold, long nanos)
+    {
+      (cold ? cold_ : warm_).add(nanos);
+    }
+    
+    void invoke()
+    {
+      handleRequest(new ByteArrayInputStream("{}".getBytes()), new ByteArrayOutputStream(),
+          new TestAwsAssemblyLambda.TestContext(REMAINING_TIME_MILLIS));
+    }
+    
+    void close()
+    {
+      // A Lambda execution environment is never stopped, but the benchmark runs many in one JVM.
+      container_.stop();
+    }
+  }
+
+  private static class Assembly extends InMemoryFugueAssembly
+  {
+    private Assembly(Builder builder)
+    {
+      super(builder);
+      
+      register(new InMemoryPublisherManager.Builder()
+          .withNameFactory(nameFactory_)
+          .withTopic(TOPIC)
+          .build());
+      
+      register(new InMemorySubscriberManager.Builder()
+          .withNameFactory(nameFactory_)
+          .withConfig(config_)
+          .withTraceContextTransactionFactory(new NoOpContextFactory())
+          .withBusyCounterFactory(builder.busyCounterFactory_)
+          .withUnprocessableMessageConsumer(new IThreadSafeErrorConsumer<String>()
+          {
+            @Override
+            public void consume(String item, ITraceContext trace, String message, Throwable cause)
+            {
+            }
+            
+            @Override
+            public void close()
+            {
+            }
+          })
+          .withSubscription(new TopicSubscription.Builder()
+              .withNameFactory(nameFactory_)
+              .withTopicIds(TOPIC)
+              .withConsumer(new IThreadSafeRetryableConsumer<String>()
+              {
+                @Override
+                public void consume(String item, ITraceContext trace)
+                {
+                }
+                
+                @Override
+                public void close()
+                {
+                }
+              })
+              .build())
+          .build());
+      
+      register(new InMemoryKvTable.Builder()
+          .withServiceId("benchmark")
+          .build());
+    }
+    
+    private static class Builder extends InMemoryFugueAssembly.AbstractBuilder<Builder, Assembly>
+      implements IFugueAssemblyBuilder<Builder, Assembly>
+    {
+      private ITopicBusyCounterFactory busyCounterFactory_;
+      
+      Builder()
+      {
+        super(Builder.class);
+        
+        withConfiguration(new GlobalConfiguration(InMemoryConfiguration.FACTORY.newInstance()));
+        
+        nameFactory_ = new NameFactory("sym-s2-", "test", "s2test1", "us-east-1", "testTenant", 101, "testService");
+      }
+      
+      @Override
+      public Builder withBusyCounterFactory(ITopicBusyCounterFactory busyCounterFactory)
+      {
+        busyCounterFactory_ = busyCounterFactory;
+        
+        return self();
+      }
+      
+      @Override
+      protected Assembly construct()
+      {
+        return new Assembly(this);
+      }
+    }
+  }
+}
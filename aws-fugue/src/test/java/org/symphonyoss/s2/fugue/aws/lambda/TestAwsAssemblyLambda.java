@@ -0,0 +1,229 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.aws.lambda;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.symphonyoss.s2.fugue.FugueComponentContainer;
+import org.symphonyoss.s2.fugue.IFugueAssemblyBuilder;
+import org.symphonyoss.s2.fugue.IFugueComponent;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+
+@SuppressWarnings("javadoc")
+public class TestAwsAssemblyLambda
+{
+  private static class Component implements IFugueComponent
+  {
+    private final boolean resumable_;
+    private int           starts_;
+    private int           resumes_;
+    private int           stops_;
+    
+    Component(boolean resumable)
+    {
+      resumable_ = resumable;
+    }
+
+    @Override
+    public void start()
+    {
+      starts_++;
+    }
+
+    @Override
+    public void stop()
+    {
+      stops_++;
+    }
+
+    @Override
+    public void resume()
+    {
+      if(!resumable_)
+        throw new IllegalStateException("Component cannot be resumed after quiesce");
+      
+      resumes_++;
+    }
+  }
+  
+  private static class Lambda extends AwsAssemblyLambda
+  {
+    private final boolean         resumable_;
+    private final List<Component> components_ = new ArrayList<>();
+    
+    Lambda(boolean resumable)
+    {
+      resumable_ = resumable;
+    }
+
+    @Override
+    protected IFugueAssemblyBuilder<?, ?> createBuilder()
+    {
+      throw new IllegalStateException("Not used");
+    }
+
+    @Override
+    FugueComponentContainer createContainer()
+    {
+      Component component = new Component(resumable_);
+      
+      components_.add(component);
+      
+      return new FugueComponentContainer().withComponents(component);
+    }
+    
+    String invoke() throws Exception
+    {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      
+      handleRequest(new ByteArrayInputStream("{}".getBytes()), out, new TestContext());
+      
+      return out.toString("UTF-8");
+    }
+  }
+  
+  @Test
+  public void testWarmStart() throws Exception
+  {
+    Lambda lambda = new Lambda(true);
+    
+    assertTrue(lambda.invoke().contains("200"));
+    assertTrue(lambda.invoke().contains("200"));
+    
+    assertEquals(1, lambda.components_.size());
+    assertEquals(1, lambda.components_.get(0).starts_);
+    assertEquals(1, lambda.components_.get(0).resumes_);
+    assertEquals(0, lambda.components_.get(0).stops_);
+  }
+  
+  @Test
+  public void testResumeRefused() throws Exception
+  {
+    Lambda lambda = new Lambda(false);
+    
+    assertTrue(lambda.invoke().contains("200"));
+    
+    // The second invocation cannot resume the first container, so it discards it and makes a cold start.
+    assertTrue(lambda.invoke().contains("200"));
+    
+    assertEquals(2, lambda.components_.size());
+    assertEquals(1, lambda.components_.get(0).starts_);
+    assertEquals(1, lambda.components_.get(0).stops_);
+    assertEquals(1, lambda.components_.get(1).starts_);
+    assertEquals(0, lambda.components_.get(1).stops_);
+  }
+  
+  static class TestContext implements Context
+  {
+    private final int remainingTimeMillis_;
+    
+    TestContext()
+    {
+      // The lambda runs its main loop until one minute before the deadline.
+      this(60100);
+    }
+    
+    TestContext(int remainingTimeMillis)
+    {
+      remainingTimeMillis_ = remainingTimeMillis;
+    }
+
+    @Override
+    public int getRemainingTimeInMillis()
+    {
+      return remainingTimeMillis_;
+    }
+
+    @Override
+    public String getAwsRequestId()
+    {
+      return "test";
+    }
+
+    @Override
+    public String getLogGroupName()
+    {
+      return null;
+    }
+
+    @Override
+    public String getLogStreamName()
+    {
+      return null;
+    }
+
+    @Override
+    public String getFunctionName()
+    {
+      return "test";
+    }
+
+    @Override
+    public String getFunctionVersion()
+    {
+      return null;
+    }
+
+    @Override
+    public String getInvokedFunctionArn()
+    {
+      return null;
+    }
+
+    @Override
+    public CognitoIdentity getIdentity()
+    {
+      return null;
+    }
+
+    @Override
+    public ClientContext getClientContext()
+    {
+      return null;
+    }
+
+    @Override
+    public int getMemoryLimitInMB()
+    {
+      return 0;
+    }
+
+    @Override
+    public LambdaLogger getLogger()
+    {
+      return null;
+    }
+  }
+}
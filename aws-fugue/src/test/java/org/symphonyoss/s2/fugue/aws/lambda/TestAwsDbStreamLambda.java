@@ -0,0 +1,248 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.aws.lambda;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+import org.symphonyoss.s2.fugue.core.trace.ITraceContext;
+import org.symphonyoss.s2.fugue.core.trace.NoOpContextFactory;
+import org.symphonyoss.s2.fugue.pipeline.FatalConsumerException;
+import org.symphonyoss.s2.fugue.pipeline.IBatchItem;
+import org.symphonyoss.s2.fugue.pipeline.IThreadSafeBatchConsumer;
+import org.symphonyoss.s2.fugue.pipeline.RetryableConsumerException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+@SuppressWarnings("javadoc")
+public class TestAwsDbStreamLambda
+{
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  
+  /**
+   * A lambda whose consumer acts on the sort key of each record: "retry" and "fatal" records are marked as such,
+   * "throw" causes the consumer to throw and every other record succeeds.
+   */
+  private static class Lambda extends AwsDbStreamLambda
+  {
+    private final Map<String, List<String>> consumed_     = new ConcurrentHashMap<>();
+    private final List<String>              aborted_      = new CopyOnWriteArrayList<>();
+    private final boolean                   failAbort_;
+    
+    Lambda(boolean reportBatchItemFailures, boolean failAbort)
+    {
+      super(new NoOpContextFactory(), 4, reportBatchItemFailures);
+      
+      failAbort_ = failAbort;
+    }
+
+    @Override
+    protected IThreadSafeBatchConsumer<KvStreamRecord> getConsumer()
+    {
+      return new IThreadSafeBatchConsumer<KvStreamRecord>()
+      {
+        @Override
+        public void consume(List<IBatchItem<KvStreamRecord>> batch)
+        {
+          for(IBatchItem<KvStreamRecord> item : batch)
+          {
+            KvStreamRecord record = item.getPayload();
+            String         action = record.getSortKey().asString();
+            
+            consumed_.computeIfAbsent(record.getPartitionKey().asString(), k -> new CopyOnWriteArrayList<>())
+              .add(record.getSequenceNumber());
+            
+            switch(action)
+            {
+              case "retry":
+                item.retry(new RetryableConsumerException("Test retry"));
+                break;
+                
+              case "fatal":
+                item.fail(new FatalConsumerException("Test fatal"));
+                break;
+                
+              case "throw":
+                throw new IllegalStateException("Test failure");
+            }
+          }
+        }
+
+        @Override
+        public void close()
+        {
+        }
+      };
+    }
+
+    @Override
+    protected void abortRecord(KvStreamRecord record, ITraceContext trace, FatalConsumerException cause)
+    {
+      aborted_.add(record.getSequenceNumber());
+      
+      if(failAbort_)
+        throw new IllegalStateException("Test abort failure");
+    }
+    
+    List<String> invoke(ObjectNode ...records) throws IOException
+    {
+      ObjectNode event = MAPPER.createObjectNode();
+      
+      event.putArray("Records").addAll(Arrays.asList(records));
+      
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      
+      handleRequest(new ByteArrayInputStream(MAPPER.writeValueAsBytes(event)), out, null);
+      
+      List<String> failures = new ArrayList<>();
+      
+      for(JsonNode failure : MAPPER.readTree(out.toByteArray()).get("batchItemFailures"))
+        failures.add(failure.get("itemIdentifier").asText());
+      
+      return failures;
+    }
+  }
+  
+  @Test
+  public void testSuccess() throws IOException
+  {
+    Lambda lambda = new Lambda(true, false);
+    
+    assertEquals(Collections.emptyList(), lambda.invoke(
+        record("1", "A", "ok"),
+        record("2", "B", "ok"),
+        record("3", "A", "ok")
+        ));
+    
+    // Each partition key is consumed as one batch, in stream order.
+    assertEquals(Arrays.asList("1", "3"), lambda.consumed_.get("A"));
+    assertEquals(Arrays.asList("2"), lambda.consumed_.get("B"));
+  }
+  
+  @Test
+  public void testRetryFailsLaterRecordsWithSameKey() throws IOException
+  {
+    Lambda lambda = new Lambda(true, false);
+    
+    List<String> failures = lambda.invoke(
+        record("1", "A", "ok"),
+        record("2", "B", "ok"),
+        record("3", "A", "retry"),
+        record("4", "B", "ok"),
+        record("5", "A", "ok"),
+        record("6", "A", "ok")
+        );
+    
+    // Records after the failed one are retried even though they succeeded, other keys are unaffected.
+    assertEquals(Arrays.asList("3", "5", "6"), failures);
+  }
+  
+  @Test
+  public void testFatalIsNotRetried() throws IOException
+  {
+    Lambda lambda = new Lambda(true, false);
+    
+    List<String> failures = lambda.invoke(
+        record("1", "A", "fatal"),
+        record("2", "A", "ok")
+        );
+    
+    assertEquals(Collections.emptyList(), failures);
+    assertEquals(Arrays.asList("1"), lambda.aborted_);
+  }
+  
+  @Test
+  public void testFailedAbortIsRetried() throws IOException
+  {
+    Lambda lambda = new Lambda(true, true);
+    
+    List<String> failures = lambda.invoke(
+        record("1", "A", "ok"),
+        record("2", "A", "fatal"),
+        record("3", "A", "ok")
+        );
+    
+    assertEquals(Arrays.asList("2", "3"), failures);
+    assertEquals(Arrays.asList("2"), lambda.aborted_);
+  }
+  
+  @Test
+  public void testConsumerThrows() throws IOException
+  {
+    Lambda lambda = new Lambda(true, false);
+    
+    List<String> failures = lambda.invoke(
+        record("1", "A", "fatal"),
+        record("2", "A", "throw"),
+        record("3", "A", "ok"),
+        record("4", "B", "ok")
+        );
+    
+    // Records which were already marked keep their outcome, the rest of the batch is retried.
+    assertEquals(Arrays.asList("2", "3"), failures);
+    assertEquals(Arrays.asList("1"), lambda.aborted_);
+    assertEquals(Arrays.asList("1", "2"), lambda.consumed_.get("A"));
+  }
+  
+  @Test
+  public void testFailureWithoutBatchItemFailures() throws IOException
+  {
+    Lambda lambda = new Lambda(false, false);
+    
+    try
+    {
+      lambda.invoke(
+          record("1", "A", "ok"),
+          record("2", "A", "retry")
+          );
+      fail("Invocation with a failed record succeeded");
+    }
+    catch(IllegalStateException e)
+    {
+      // expected, the whole batch is retried
+    }
+    
+    // Fatal records are not failures.
+    assertEquals(Collections.emptyList(), lambda.invoke(record("3", "A", "fatal")));
+  }
+  
+  private static ObjectNode record(String sequenceNumber, String partitionKey, String action)
+  {
+    return TestKvStreamRecord.createRecord("INSERT", sequenceNumber, partitionKey, action, null);
+  }
+}
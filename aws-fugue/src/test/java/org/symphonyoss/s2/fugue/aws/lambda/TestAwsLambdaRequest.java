@@ -0,0 +1,175 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.aws.lambda;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+@SuppressWarnings("javadoc")
+public class TestAwsLambdaRequest
+{
+  private static final String EVENT_TEMPLATE = "{\n" + 
+      "  \"resource\":\"/hello/{name}\",\n" + 
+      "  \"path\":\"/hello/world\",\n" + 
+      "  \"httpMethod\":\"POST\",\n" + 
+      "  \"headers\":{\n" + 
+      "    \"Content-Type\":\"application/json\",\n" + 
+      "    \"X-Trace\":\"abc\"\n" + 
+      "  },\n" + 
+      "  \"multiValueHeaders\":{\n" + 
+      "    \"Content-Type\":[\"application/json\"]\n" + 
+      "  },\n" + 
+      "  \"queryStringParameters\":{\n" + 
+      "    \"bruce\":\"skingle\",\n" + 
+      "    \"matt\":\"harper\"\n" + 
+      "  },\n" + 
+      "  \"pathParameters\":{\n" + 
+      "    \"name\":\"world\"\n" + 
+      "  },\n" + 
+      "  \"stageVariables\":null,\n" + 
+      "  \"requestContext\":{\n" + 
+      "    \"requestId\":\"bf5dc7b2-a184-11e9-a61c-e90ba41b088c\",\n" + 
+      "    \"requestTimeEpoch\":1562855845000,\n" + 
+      "    \"stage\":\"test-invoke-stage\"\n" + 
+      "  },\n" + 
+      "  \"body\":%s,\n" + 
+      "  \"isBase64Encoded\":%s\n" + 
+      "}";
+  
+  private static final String BODY = "{\"name\":\"value\"}";
+  
+  @Test
+  public void testPlainBody() throws IOException
+  {
+    AwsLambdaRequest request = parse("\"{\\\"name\\\":\\\"value\\\"}\"", false);
+    
+    checkFields(request);
+    checkBody(request, BODY);
+    
+    assertEquals(BODY, request.getString("body"));
+  }
+  
+  @Test
+  public void testBase64Body() throws IOException
+  {
+    String encoded = Base64.encodeBase64String(BODY.getBytes(StandardCharsets.UTF_8));
+    
+    AwsLambdaRequest request = parse("\"" + encoded + "\"", true);
+    
+    checkFields(request);
+    checkBody(request, BODY);
+    
+    // The JSON view has the body as it was in the event.
+    assertEquals(encoded, request.getString("body"));
+  }
+  
+  @Test
+  public void testNullBody() throws IOException
+  {
+    AwsLambdaRequest request = parse("null", false);
+    
+    checkFields(request);
+    checkBody(request, "");
+    
+    assertTrue(request.getJson().get("body").isNull());
+  }
+  
+  private AwsLambdaRequest parse(String body, boolean base64Encoded)
+  {
+    return new AwsLambdaRequest(new ByteArrayInputStream(
+        String.format(EVENT_TEMPLATE, body, base64Encoded).getBytes(StandardCharsets.UTF_8)));
+  }
+  
+  private void checkFields(AwsLambdaRequest request)
+  {
+    assertEquals("POST", request.getHttpMethod());
+    assertEquals("/hello/world", request.getPath());
+    assertEquals("bf5dc7b2-a184-11e9-a61c-e90ba41b088c", request.getAwsRequestId());
+    assertEquals(1562855845000L, request.getAwsRequestEpoch());
+    assertEquals("application/json", request.getHeader("Content-Type"));
+    assertEquals("skingle", request.getParameter("bruce"));
+    assertEquals("world", request.getPathParams().get("name"));
+    assertTrue(request.getStageVariables().isEmpty());
+    
+    // The fields extracted by the streaming parser are still available from the JSON tree.
+    ObjectNode json = request.getJson();
+    
+    assertEquals("abc", json.get("headers").get("X-Trace").asText());
+    assertEquals("harper", json.get("queryStringParameters").get("matt").asText());
+    assertEquals("world", json.get("pathParameters").get("name").asText());
+    assertTrue(json.get("stageVariables").isNull());
+    assertEquals("test-invoke-stage", json.get("requestContext").get("stage").asText());
+    assertEquals("/hello/{name}", request.getString("resource"));
+    
+    JsonNode headers = json.get("multiValueHeaders");
+    
+    assertEquals("application/json", headers.get("Content-Type").get(0).asText());
+    assertTrue(request.getString("headers").contains("\"X-Trace\":\"abc\""));
+  }
+  
+  private void checkBody(AwsLambdaRequest request, String expected) throws IOException
+  {
+    byte[] expectedBytes = expected.getBytes(StandardCharsets.UTF_8);
+    
+    assertEquals(expectedBytes.length, request.getBody().length());
+    
+    ByteBuffer buffer = request.getBodyBuffer();
+    byte[]     bytes  = new byte[buffer.remaining()];
+    
+    buffer.get(bytes);
+    
+    assertEquals(expected, new String(bytes, StandardCharsets.UTF_8));
+    assertEquals(expected, read(request.getBodyStream()));
+    
+    // The body is a single line.
+    String line = request.getReader().readLine();
+    
+    assertEquals(expected, line == null ? "" : line);
+  }
+  
+  private String read(InputStream in) throws IOException
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[]                buf = new byte[7];
+    int                   n;
+    
+    while((n = in.read(buf)) != -1)
+      out.write(buf, 0, n);
+    
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.aws.lambda;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+import org.symphonyoss.s2.common.hash.Hash;
+import org.symphonyoss.s2.common.hash.HashProvider;
+import org.symphonyoss.s2.fugue.aws.kv.table.AbstractDynamoDbKvTable;
+import org.symphonyoss.s2.fugue.aws.kv.table.PayloadCompression;
+import org.symphonyoss.s2.fugue.aws.lambda.KvStreamRecord.ChangeType;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+@SuppressWarnings("javadoc")
+public class TestKvStreamRecord
+{
+  private static final ObjectMapper MAPPER   = new ObjectMapper();
+  private static final String       DOCUMENT = "{\"_type\":\"com.symphony.s2.test.Item\",\"value\":\"Hello\"}";
+  private static final Hash         HASH     = HashProvider.getHashOf(DOCUMENT.getBytes(StandardCharsets.UTF_8));
+  
+  @Test
+  public void testInsert()
+  {
+    ObjectNode record = createRecord("INSERT", "111", "NewImage");
+    
+    image(record, "NewImage").putObject(AbstractDynamoDbKvTable.ColumnNameDocument).put("S", DOCUMENT);
+    
+    KvStreamRecord kvRecord = KvStreamRecord.parse(record);
+    
+    assertEquals(ChangeType.Insert, kvRecord.getChangeType());
+    assertEquals("event-111", kvRecord.getEventId());
+    assertEquals("111", kvRecord.getSequenceNumber());
+    assertEquals("PART1", kvRecord.getPartitionKey().asString());
+    assertEquals("SORT1", kvRecord.getSortKey().asString());
+    assertEquals(1562855845L, kvRecord.getApproximateCreationTime().getEpochSecond());
+    assertEquals("com.symphony.s2.test.Item", kvRecord.getPayloadType());
+    assertEquals(Integer.valueOf(101), kvRecord.getPodId());
+    assertEquals(HASH, kvRecord.getAbsoluteHash());
+    assertEquals(DOCUMENT, kvRecord.getDocument());
+  }
+  
+  @Test
+  public void testModifyCompressed()
+  {
+    ObjectNode record = createRecord("MODIFY", "222", "NewImage");
+    
+    image(record, "NewImage").putObject(AbstractDynamoDbKvTable.ColumnNameCompressedDocument)
+        .put("B", Base64.encodeBase64String(PayloadCompression.GZIP.compress(DOCUMENT)));
+    
+    KvStreamRecord kvRecord = KvStreamRecord.parse(record);
+    
+    assertEquals(ChangeType.Modify, kvRecord.getChangeType());
+    assertEquals(HASH, kvRecord.getAbsoluteHash());
+    assertEquals(DOCUMENT, kvRecord.getDocument());
+  }
+  
+  @Test
+  public void testRemove()
+  {
+    ObjectNode record = createRecord("REMOVE", "333", "OldImage");
+    
+    image(record, "OldImage").putObject(AbstractDynamoDbKvTable.ColumnNameDocument).put("S", DOCUMENT);
+    
+    KvStreamRecord kvRecord = KvStreamRecord.parse(record);
+    
+    // The old image gives the hash of the removed item, but there is no current document.
+    assertEquals(ChangeType.Remove, kvRecord.getChangeType());
+    assertEquals(HASH, kvRecord.getAbsoluteHash());
+    assertNull(kvRecord.getDocument());
+  }
+  
+  @Test
+  public void testKeysOnly()
+  {
+    ObjectNode record = createRecord("INSERT", "444", null);
+    
+    KvStreamRecord kvRecord = KvStreamRecord.parse(record);
+    
+    assertEquals("PART1", kvRecord.getPartitionKey().asString());
+    assertNull(kvRecord.getAbsoluteHash());
+    assertNull(kvRecord.getPayloadType());
+    assertNull(kvRecord.getDocument());
+  }
+  
+  @Test(expected=IllegalArgumentException.class)
+  public void testUnknownEventName()
+  {
+    KvStreamRecord.parse(createRecord("UPDATE", "555", null));
+  }
+  
+  @Test(expected=IllegalArgumentException.class)
+  public void testNoKeys()
+  {
+    ObjectNode record = createRecord("INSERT", "666", null);
+    
+    ((ObjectNode)record.get("dynamodb")).remove("Keys");
+    
+    KvStreamRecord.parse(record);
+  }
+  
+  /* package */ static ObjectNode createRecord(String eventName, String sequenceNumber, String imageName)
+  {
+    return createRecord(eventName, sequenceNumber, "PART1", "SORT1", imageName);
+  }
+  
+  /* package */ static ObjectNode createRecord(String eventName, String sequenceNumber, String partitionKey, String sortKey, String imageName)
+  {
+    ObjectNode record   = MAPPER.createObjectNode()
+        .put("eventID", "event-" + sequenceNumber)
+        .put("eventName", eventName)
+        .put("eventSource", "aws:dynamodb");
+    ObjectNode dynamodb = record.putObject("dynamodb")
+        .put("ApproximateCreationDateTime", 1562855845L)
+        .put("SequenceNumber", sequenceNumber)
+        .put("StreamViewType", "NEW_AND_OLD_IMAGES");
+    ObjectNode keys     = dynamodb.putObject("Keys");
+    
+    keys.putObject(AbstractDynamoDbKvTable.ColumnNamePartitionKey).put("S", partitionKey);
+    keys.putObject(AbstractDynamoDbKvTable.ColumnNameSortKey).put("S", sortKey);
+    
+    if(imageName != null)
+    {
+      ObjectNode image = dynamodb.putObject(imageName);
+      
+      image.setAll(keys);
+      image.putObject(AbstractDynamoDbKvTable.ColumnNamePayloadType).put("S", "com.symphony.s2.test.Item");
+      image.putObject(AbstractDynamoDbKvTable.ColumnNamePodId).put("N", "101");
+      image.putObject(AbstractDynamoDbKvTable.ColumnNameAbsoluteHash).put("S", HASH.toStringBase64());
+    }
+    
+    return record;
+  }
+  
+  private static ObjectNode image(ObjectNode record, String imageName)
+  {
+    return (ObjectNode)record.get("dynamodb").get(imageName);
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.aws.sqs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+import com.amazonaws.services.sqs.AbstractAmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+
+@SuppressWarnings("javadoc")
+public class TestSqsAckAccumulator
+{
+  private static final String QUEUE_URL = "https://sqs.us-east-1.amazonaws.com/123456789012/test";
+  
+  private final FakeAmazonSQS     sqs_          = new FakeAmazonSQS();
+  private final SqsAckAccumulator accumulator_  = new SqsAckAccumulator(sqs_, QUEUE_URL, 200);
+  
+  @Test
+  public void testBatching()
+  {
+    for(int i=0 ; i<25 ; i++)
+      accumulator_.acknowledge("handle" + i);
+    
+    accumulator_.flushPending();
+    
+    Set<String> deleted = new HashSet<>();
+    
+    for(DeleteMessageBatchRequest request : sqs_.deletes_)
+    {
+      assertTrue(request.getEntries().size() <= 10);
+      
+      for(DeleteMessageBatchRequestEntry entry : request.getEntries())
+        deleted.add(entry.getReceiptHandle());
+    }
+    
+    assertEquals(25, deleted.size());
+    assertTrue(sqs_.deletes_.size() >= 3);
+    
+    accumulator_.close();
+  }
+  
+  @Test
+  public void testDeleteSupersedesChange()
+  {
+    accumulator_.modifyDeadline("handle", 30);
+    accumulator_.acknowledge("handle");
+    accumulator_.close();
+    
+    assertEquals(1, sqs_.deletes_.size());
+    assertTrue(sqs_.changes_.isEmpty());
+  }
+  
+  @Test
+  public void testExtendDoesNotSupersedeNack()
+  {
+    accumulator_.modifyDeadline("handle", 30);
+    accumulator_.extendDeadline("handle", 300);
+    accumulator_.close();
+    
+    assertEquals(1, sqs_.changes_.size());
+    
+    ChangeMessageVisibilityBatchRequestEntry entry = sqs_.changes_.get(0).getEntries().get(0);
+    
+    assertEquals("handle", entry.getReceiptHandle());
+    assertEquals(Integer.valueOf(30), entry.getVisibilityTimeout());
+  }
+  
+  @Test
+  public void testRetryDuringClose()
+  {
+    sqs_.failNextDelete(false);
+    
+    accumulator_.acknowledge("handle");
+    accumulator_.close();
+    
+    assertEquals(2, sqs_.deletes_.size());
+    assertEquals("handle", sqs_.deletes_.get(1).getEntries().get(0).getReceiptHandle());
+  }
+  
+  @Test
+  public void testRetriesExhaustedDuringClose()
+  {
+    for(int i=0 ; i<5 ; i++)
+      sqs_.failNextDelete(false);
+    
+    accumulator_.acknowledge("handle");
+    accumulator_.close();
+    
+    assertEquals(3, sqs_.deletes_.size());
+  }
+  
+  @Test
+  public void testSenderFaultNotRetried()
+  {
+    sqs_.failNextDelete(true);
+    
+    accumulator_.acknowledge("handle");
+    accumulator_.close();
+    
+    assertEquals(1, sqs_.deletes_.size());
+  }
+  
+  private static class FakeAmazonSQS extends AbstractAmazonSQS
+  {
+    final List<DeleteMessageBatchRequest>           deletes_        = new CopyOnWriteArrayList<>();
+    final List<ChangeMessageVisibilityBatchRequest> changes_        = new CopyOnWriteArrayList<>();
+    final Queue<Boolean>                            deleteFailures_ = new ConcurrentLinkedQueue<>();
+    
+    void failNextDelete(boolean senderFault)
+    {
+      deleteFailures_.add(senderFault);
+    }
+    
+    @Override
+    public DeleteMessageBatchResult deleteMessageBatch(DeleteMessageBatchRequest request)
+    {
+      deletes_.add(request);
+      
+      Boolean                     senderFault = deleteFailures_.poll();
+      List<BatchResultErrorEntry> failed      = new ArrayList<>();
+      
+      if(senderFault != null)
+      {
+        for(DeleteMessageBatchRequestEntry entry : request.getEntries())
+          failed.add(new BatchResultErrorEntry().withId(entry.getId()).withSenderFault(senderFault).withCode("Simulated"));
+      }
+      
+      return new DeleteMessageBatchResult().withFailed(failed);
+    }
+    
+    @Override
+    public ChangeMessageVisibilityBatchResult changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest request)
+    {
+      changes_.add(request);
+      
+      return new ChangeMessageVisibilityBatchResult();
+    }
+  }
+}
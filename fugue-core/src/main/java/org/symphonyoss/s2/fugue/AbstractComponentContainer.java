@@ -30,6 +30,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -279,6 +280,41 @@ public class AbstractComponentContainer<T extends IFugeComponentContainer<T>> ex
     return self();
   }
 
+  @Override
+  public T resume()
+  {
+    if(getLifecycleState() != FugueLifecycleState.Quiescent)
+      throw new IllegalStateException("Cannot resume from state " + getLifecycleState());
+    
+    setLifeCycleState(FugueLifecycleState.Starting);
+    
+    log_.info("Resuming...");
+    
+    Iterator<IFugueComponent> it = stopStack_.descendingIterator();
+    
+    while(it.hasNext())
+    {
+      IFugueComponent component = it.next();
+      
+      try
+      {
+        log_.debug("Resume " + component);
+        component.resume();
+      }
+      catch(RuntimeException ex)
+      {
+        log_.error("Unable to resume component " + 
+            component, ex);
+        
+        setLifeCycleState(FugueLifecycleState.Failed);
+        throw ex;
+      }
+    }
+    setLifeCycleState(FugueLifecycleState.Running);
+    setRunning(true);
+    return self();
+  }
+
   @Override
   public T stop()
   {
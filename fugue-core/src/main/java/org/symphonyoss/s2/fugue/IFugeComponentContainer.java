@@ -121,6 +121,18 @@ public interface IFugeComponentContainer<T extends IFluent<T>> extends IFluent<T
    */
   T quiesce();
 
+  /**
+   * Resume the container after quiesce().
+   * 
+   * Calls resume() on all registered components which implement IFugueComponent, in the order in
+   * which they were started.
+   * 
+   * @throws IllegalStateException  If the container is not quiescent.
+   * 
+   * @return This (fluent method).
+   */
+  T resume();
+
   /**
    * Stop the container.
    * 
@@ -55,6 +55,16 @@ public interface IFugueComponent
   {
   }
   
+  /**
+   * Resume method called to restart normal operation after quiesce() without an intervening stop().
+   * 
+   * Components will be resumed in the order in which they were started. This allows a container to be
+   * reused, for example across invocations in a warm Lambda execution environment.
+   */
+  default void resume()
+  {
+  }
+  
   default FugueComponentState getComponentState()
   {
     return FugueComponentState.Warn;
@@ -0,0 +1,163 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.concurrent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.symphonyoss.s2.common.fault.TransientTransactionFault;
+import org.symphonyoss.s2.fugue.metrics.LatencyMetric;
+
+/**
+ * Limits the number of asynchronous operations in flight at any one time and records their latency.
+ * 
+ * Callers of submit() block while the limit is reached, which provides back pressure to producers
+ * which would otherwise queue unbounded work.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+public class AsyncOperationLimiter
+{
+  private final int       maxInFlight_;
+  private final Semaphore permits_;
+
+  /**
+   * Constructor.
+   * 
+   * @param maxInFlight The maximum number of operations which may be in flight at once.
+   */
+  public AsyncOperationLimiter(int maxInFlight)
+  {
+    maxInFlight_ = maxInFlight;
+    permits_ = new Semaphore(maxInFlight);
+  }
+  
+  /**
+   * Start an asynchronous operation, blocking until a permit is available.
+   * 
+   * @param <T>       The type of the operation result.
+   * @param metric    A metric to record the latency of the operation.
+   * @param operation A supplier which starts the operation and returns a future for its result.
+   * 
+   * @return A future which completes when the operation completes, after its permit has been released.
+   */
+  public <T> CompletableFuture<T> submit(LatencyMetric metric, Supplier<CompletableFuture<T>> operation)
+  {
+    try
+    {
+      permits_.acquire();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      
+      return failedFuture(new TransientTransactionFault("Interrupted waiting to start operation", e));
+    }
+    
+    long                  start = System.nanoTime();
+    CompletableFuture<T>  future;
+    
+    try
+    {
+      future = operation.get();
+    }
+    catch(RuntimeException e)
+    {
+      future = failedFuture(e);
+    }
+    
+    return future.whenComplete((result, cause) ->
+    {
+      permits_.release();
+      metric.record(start, cause == null);
+    });
+  }
+  
+  /**
+   * 
+   * @return The number of operations currently in flight.
+   */
+  public int getInFlight()
+  {
+    return maxInFlight_ - permits_.availablePermits();
+  }
+
+  /**
+   * Wait for all operations in flight to complete.
+   * 
+   * New operations may start as soon as this method returns.
+   * 
+   * @param timeoutMillis The maximum time to wait.
+   * 
+   * @return true if all operations completed, false if the timeout expired or the thread was interrupted.
+   */
+  public boolean awaitIdle(long timeoutMillis)
+  {
+    try
+    {
+      if(permits_.tryAcquire(maxInFlight_, timeoutMillis, TimeUnit.MILLISECONDS))
+      {
+        permits_.release(maxInFlight_);
+        return true;
+      }
+      
+      return false;
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      
+      return false;
+    }
+  }
+
+  /**
+   * 
+   * @return The maximum number of operations which may be in flight at once.
+   */
+  public int getMaxInFlight()
+  {
+    return maxInFlight_;
+  }
+  
+  /**
+   * Return a future which has already completed with the given exception.
+   * 
+   * @param <T>   The type of the future.
+   * @param cause The exception.
+   * 
+   * @return A future which has already completed with the given exception.
+   */
+  public static <T> CompletableFuture<T> failedFuture(Throwable cause)
+  {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    
+    future.completeExceptionally(cause);
+    
+    return future;
+  }
+}
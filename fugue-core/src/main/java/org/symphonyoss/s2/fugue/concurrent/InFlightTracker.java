@@ -0,0 +1,368 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.symphonyoss.s2.common.concurrent.NamedThreadFactory;
+import org.symphonyoss.s2.common.fault.TransactionFault;
+import org.symphonyoss.s2.common.fault.TransientTransactionFault;
+
+/**
+ * Tracks tasks which are in flight on an executor, calls an extender for each task which has been running
+ * for longer than the extension interval, and allows a submitting thread to wait for the tasks it submitted.
+ * 
+ * This is a reusable replacement for creating an ExecutorBatch per batch of tasks. Tasks are held in a
+ * concurrent set, so completion is O(1) and needs no lock, each submitting thread has a single reusable
+ * waiter, and extensions are driven by a shared timer which sweeps the in flight set rather than by the
+ * submitting threads copying their task lists.
+ * 
+ * As with ExecutorBatch, an exception from a task is propagated out of awaitSubmitted() to the thread which
+ * submitted it.
+ * 
+ * Optionally the number of tasks in flight can be limited, in which case submit() blocks while the limit is
+ * reached. This allows an unbounded executor, such as one with a thread per task, to be used.
+ * 
+ * A task is removed from the tracker when it completes, so if the executor is shut down with shutdownNow()
+ * the tasks which it discarded must be dropped with cancelPending(), otherwise they are extended for ever.
+ * 
+ * @param <T> The type of tasks.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+public class InFlightTracker<T extends Runnable>
+{
+  private static final Logger                       log_      = LoggerFactory.getLogger(InFlightTracker.class);
+  
+  /* Extensions are expected to be quick, non-blocking calls so a single timer thread is shared by all trackers. */
+  private static final ScheduledThreadPoolExecutor  timer_    = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("in-flight-extender", true));
+  
+  private static final int                          TICKS_PER_INTERVAL = 4;
+
+  private final String                              name_;
+  private final long                                extensionNanos_;
+  private final long                                tickMillis_;
+  private final Consumer<T>                         extender_;
+  private final Semaphore                           permits_;
+  private final Set<Slot>                           inFlight_ = ConcurrentHashMap.newKeySet();
+  private final ThreadLocal<Waiter>                 waiter_   = ThreadLocal.withInitial(Waiter::new);
+  
+  private volatile ScheduledFuture<?>               tick_;
+  private boolean                                   closed_;
+  
+  /**
+   * Constructor.
+   * 
+   * @param name                    A name for log messages.
+   * @param extensionIntervalMillis The interval at which each task which is still running is extended.
+   * @param extender                Called for each task which is still running at each interval.
+   */
+  public InFlightTracker(String name, long extensionIntervalMillis, Consumer<T> extender)
+  {
+    this(name, extensionIntervalMillis, extender, 0);
+  }
+  
+  /**
+   * Constructor.
+   * 
+   * @param name                    A name for log messages.
+   * @param extensionIntervalMillis The interval at which each task which is still running is extended.
+   * @param extender                Called for each task which is still running at each interval.
+   * @param maxInFlight             The maximum number of tasks in flight, zero for no limit.
+   */
+  public InFlightTracker(String name, long extensionIntervalMillis, Consumer<T> extender, int maxInFlight)
+  {
+    name_               = name;
+    extensionNanos_     = TimeUnit.MILLISECONDS.toNanos(extensionIntervalMillis);
+    tickMillis_         = Math.max(1, extensionIntervalMillis / TICKS_PER_INTERVAL);
+    extender_           = extender;
+    permits_            = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+  }
+  
+  /**
+   * Execute the given task on the given executor.
+   * 
+   * If a task previously submitted by the calling thread has failed, its exception is thrown. If the
+   * maximum number of tasks are in flight this method blocks until one completes.
+   * 
+   * @param executor  The executor to run the task.
+   * @param task      The task.
+   */
+  public void submit(Executor executor, T task)
+  {
+    Waiter waiter = waiter_.get();
+    
+    waiter.checkFailure();
+    
+    if(tick_ == null)
+      startTicking();
+    
+    if(permits_ != null)
+    {
+      try
+      {
+        permits_.acquire();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        
+        throw new IllegalStateException("Interrupted waiting to submit task", e);
+      }
+    }
+    
+    Slot slot = new Slot(task, waiter);
+    
+    waiter.outstanding_.incrementAndGet();
+    inFlight_.add(slot);
+    
+    try
+    {
+      executor.execute(slot);
+    }
+    catch(RejectedExecutionException e)
+    {
+      inFlight_.remove(slot);
+      waiter.outstanding_.decrementAndGet();
+      
+      if(permits_ != null)
+        permits_.release();
+      
+      throw e;
+    }
+  }
+  
+  /**
+   * Block until all tasks submitted by the calling thread have completed.
+   * 
+   * If any of those tasks failed, the first failure is thrown.
+   */
+  public void awaitSubmitted()
+  {
+    Waiter waiter = waiter_.get();
+    
+    while(waiter.outstanding_.get() > 0)
+    {
+      LockSupport.park(this);
+      
+      if(Thread.interrupted())
+      {
+        Thread.currentThread().interrupt();
+        
+        throw new IllegalStateException("Interrupted waiting for " + waiter.outstanding_.get() + " tasks");
+      }
+    }
+    
+    waiter.checkFailure();
+  }
+  
+  /**
+   * 
+   * @return The number of tasks in flight.
+   */
+  public int getInFlightCount()
+  {
+    return inFlight_.size();
+  }
+  
+  /**
+   * Drop every task which has been submitted but has not started to run, typically because the executor was
+   * shut down with shutdownNow().
+   * 
+   * The dropped tasks are no longer extended, their permits are released and they are treated as complete by
+   * awaitSubmitted(). If the executor runs one of them later it is ignored. Tasks which are already running
+   * are unaffected.
+   * 
+   * @return The tasks which were dropped.
+   */
+  public List<T> cancelPending()
+  {
+    List<T> cancelled = new ArrayList<>();
+    
+    for(Slot slot : inFlight_)
+    {
+      if(slot.started_.compareAndSet(false, true))
+      {
+        slot.complete();
+        cancelled.add(slot.task_);
+      }
+    }
+    
+    if(!cancelled.isEmpty())
+      log_.info(name_ + " dropped " + cancelled.size() + " tasks which did not run");
+    
+    return cancelled;
+  }
+  
+  /**
+   * Stop extending tasks.
+   */
+  public synchronized void close()
+  {
+    closed_ = true;
+    
+    if(tick_ != null)
+      tick_.cancel(false);
+  }
+  
+  private synchronized void startTicking()
+  {
+    if(tick_ == null && !closed_)
+      tick_ = timer_.scheduleWithFixedDelay(() -> tick(), tickMillis_, tickMillis_, TimeUnit.MILLISECONDS);
+  }
+  
+  private void tick()
+  {
+    long now = System.nanoTime();
+    
+    for(Slot slot : inFlight_)
+    {
+      if(now - slot.deadline_ >= 0)
+      {
+        slot.deadline_ = now + extensionNanos_;
+        
+        try
+        {
+          extender_.accept(slot.task_);
+        }
+        catch(RuntimeException e)
+        {
+          log_.error(name_ + " failed to extend " + slot.task_, e);
+        }
+      }
+    }
+  }
+  
+  private class Slot implements Runnable
+  {
+    private final T             task_;
+    private final Waiter        owner_;
+    private final AtomicBoolean started_ = new AtomicBoolean();
+    private volatile long       deadline_;
+    
+    Slot(T task, Waiter owner)
+    {
+      task_     = task;
+      owner_    = owner;
+      deadline_ = System.nanoTime() + extensionNanos_;
+    }
+
+    @Override
+    public void run()
+    {
+      // A task which was cancelled by cancelPending() may still be run by the executor.
+      if(!started_.compareAndSet(false, true))
+        return;
+      
+      try
+      {
+        task_.run();
+      }
+      catch(Throwable e)
+      {
+        owner_.fail(e);
+        
+        if(e instanceof Error)
+          throw (Error)e;
+      }
+      finally
+      {
+        complete();
+      }
+    }
+    
+    void complete()
+    {
+      inFlight_.remove(this);
+      
+      if(permits_ != null)
+        permits_.release();
+      
+      owner_.complete();
+    }
+  }
+  
+  private static class Waiter
+  {
+    private final Thread        owner_        = Thread.currentThread();
+    private final AtomicInteger outstanding_  = new AtomicInteger();
+    private volatile Throwable  failure_;
+    
+    void complete()
+    {
+      if(outstanding_.decrementAndGet() == 0)
+        LockSupport.unpark(owner_);
+    }
+    
+    synchronized void fail(Throwable cause)
+    {
+      if(failure_ == null)
+        failure_ = cause;
+    }
+    
+    void checkFailure()
+    {
+      Throwable cause;
+      
+      synchronized(this)
+      {
+        cause = failure_;
+        failure_ = null;
+      }
+      
+      if(cause == null)
+        return;
+      
+      if(cause instanceof Error)
+      {
+        // Something really bad happened, it's pointless attempting any error handling.
+        throw (Error)cause;
+      }
+      
+      if(cause instanceof TransientTransactionFault)
+        throw (TransientTransactionFault)cause;
+      
+      if(cause instanceof TransactionFault)
+        throw (TransactionFault)cause;
+      
+      throw new IllegalStateException("Task failed", cause);
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.concurrent;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.symphonyoss.s2.common.concurrent.NamedThreadFactory;
+
+/**
+ * Access to virtual threads where the runtime supports them.
+ * 
+ * This code is compiled for Java 8, so virtual threads (Java 21 and later) are obtained reflectively. On
+ * earlier runtimes a thread per task executor of daemon platform threads is used instead, which gives the
+ * same semantics but without the reduced cost per thread.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+public class VirtualThreads
+{
+  private static final Logger        log_ = LoggerFactory.getLogger(VirtualThreads.class);
+  
+  private static final Method        OF_VIRTUAL;
+  private static final Method        NAME;
+  private static final Method        FACTORY;
+  private static final Method        NEW_THREAD_PER_TASK_EXECUTOR;
+  
+  static
+  {
+    Method ofVirtual  = null;
+    Method name       = null;
+    Method factory    = null;
+    Method newThreadPerTaskExecutor = null;
+    
+    try
+    {
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      
+      ofVirtual                 = Thread.class.getMethod("ofVirtual");
+      name                      = builderClass.getMethod("name", String.class, long.class);
+      factory                   = builderClass.getMethod("factory");
+      newThreadPerTaskExecutor  = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+    }
+    catch (ClassNotFoundException | NoSuchMethodException e)
+    {
+      ofVirtual = null;
+    }
+    
+    OF_VIRTUAL                    = ofVirtual;
+    NAME                          = name;
+    FACTORY                       = factory;
+    NEW_THREAD_PER_TASK_EXECUTOR  = newThreadPerTaskExecutor;
+  }
+  
+  private VirtualThreads()
+  {
+  }
+  
+  /**
+   * 
+   * @return true if the runtime supports virtual threads.
+   */
+  public static boolean isAvailable()
+  {
+    return OF_VIRTUAL != null;
+  }
+  
+  /**
+   * Create an executor which runs each task on a new virtual thread, or on a new daemon platform thread if
+   * the runtime does not support virtual threads.
+   * 
+   * The executor is unbounded, callers must limit the number of tasks they submit.
+   * 
+   * @param name  The name prefix for threads.
+   * 
+   * @return A thread per task executor.
+   */
+  public static ExecutorService newThreadPerTaskExecutor(String name)
+  {
+    if(OF_VIRTUAL != null)
+    {
+      try
+      {
+        Object        builder = NAME.invoke(OF_VIRTUAL.invoke(null), name + "-", 0L);
+        ThreadFactory factory = (ThreadFactory) FACTORY.invoke(builder);
+        
+        return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+      }
+      catch (ReflectiveOperationException | RuntimeException e)
+      {
+        log_.warn("Unable to create virtual thread executor, using platform threads", e);
+      }
+    }
+    else
+    {
+      log_.warn("Virtual threads are not supported by this runtime, using a platform thread per task for " + name);
+    }
+    
+    return Executors.newCachedThreadPool(new NamedThreadFactory(name, true));
+  }
+}
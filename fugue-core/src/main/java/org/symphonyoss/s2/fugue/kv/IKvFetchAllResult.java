@@ -0,0 +1,48 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.kv;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * The result of a multi-key fetch.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+public interface IKvFetchAllResult
+{
+  /**
+   * 
+   * @return The objects which were found, keyed by the partition sort key provider passed to the fetch.
+   */
+  Map<IKvPartitionSortKeyProvider, String> getResults();
+
+  /**
+   * 
+   * @return The partition sort key providers passed to the fetch for which no object exists.
+   */
+  Collection<IKvPartitionSortKeyProvider> getMissing();
+}
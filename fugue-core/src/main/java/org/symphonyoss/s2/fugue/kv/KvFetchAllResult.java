@@ -0,0 +1,63 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.kv;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Implementation of IKvFetchAllResult
+ * 
+ * @author Bruce Skingle
+ *
+ */
+public class KvFetchAllResult implements IKvFetchAllResult
+{
+  private final Map<IKvPartitionSortKeyProvider, String>  results_;
+  private final Collection<IKvPartitionSortKeyProvider>   missing_;
+  
+  /**
+   * Constructor.
+   * 
+   * @param results The objects which were found.
+   * @param missing The keys for which no object was found.
+   */
+  public KvFetchAllResult(Map<IKvPartitionSortKeyProvider, String> results, Collection<IKvPartitionSortKeyProvider> missing)
+  {
+    results_ = results;
+    missing_ = missing;
+  }
+
+  @Override
+  public Map<IKvPartitionSortKeyProvider, String> getResults()
+  {
+    return results_;
+  }
+
+  @Override
+  public Collection<IKvPartitionSortKeyProvider> getMissing()
+  {
+    return missing_;
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.kv.table;
+
+import org.symphonyoss.s2.fugue.metrics.LatencyMetric;
+
+/**
+ * Per operation latency metrics for an IAsyncKvTable.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+public class AsyncKvTableMetrics
+{
+  private final LatencyMetric storeLatency_                  = new LatencyMetric();
+  private final LatencyMetric fetchLatency_                  = new LatencyMetric();
+  private final LatencyMetric fetchPartitionObjectsLatency_  = new LatencyMetric();
+  private final LatencyMetric updateLatency_                 = new LatencyMetric();
+  
+  /**
+   * 
+   * @return Latency of storeAsync operations.
+   */
+  public LatencyMetric getStoreLatency()
+  {
+    return storeLatency_;
+  }
+  
+  /**
+   * 
+   * @return Latency of fetchAsync operations.
+   */
+  public LatencyMetric getFetchLatency()
+  {
+    return fetchLatency_;
+  }
+  
+  /**
+   * 
+   * @return Latency of fetchPartitionObjectsAsync operations.
+   */
+  public LatencyMetric getFetchPartitionObjectsLatency()
+  {
+    return fetchPartitionObjectsLatency_;
+  }
+  
+  /**
+   * 
+   * @return Latency of updateAsync operations.
+   */
+  public LatencyMetric getUpdateLatency()
+  {
+    return updateLatency_;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "store(" + storeLatency_ + "), fetch(" + fetchLatency_ + "), fetchPartitionObjects(" + 
+        fetchPartitionObjectsLatency_ + "), update(" + updateLatency_ + ")";
+  }
+}
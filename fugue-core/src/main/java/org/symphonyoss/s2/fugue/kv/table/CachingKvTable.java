@@ -0,0 +1,765 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.kv.table;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import org.symphonyoss.s2.common.exception.NoSuchObjectException;
+import org.symphonyoss.s2.common.fault.FaultAccumulator;
+import org.symphonyoss.s2.common.fluent.BaseAbstractBuilder;
+import org.symphonyoss.s2.common.hash.Hash;
+import org.symphonyoss.s2.fugue.core.trace.ITraceContext;
+import org.symphonyoss.s2.fugue.kv.IKvFetchAllResult;
+import org.symphonyoss.s2.fugue.kv.IKvItem;
+import org.symphonyoss.s2.fugue.kv.IKvPagination;
+import org.symphonyoss.s2.fugue.kv.IKvPartitionKeyProvider;
+import org.symphonyoss.s2.fugue.kv.IKvPartitionSortKeyProvider;
+import org.symphonyoss.s2.fugue.kv.KvCondition;
+import org.symphonyoss.s2.fugue.kv.KvFetchAllResult;
+import org.symphonyoss.s2.fugue.store.ObjectExistsException;
+
+/**
+ * A read through cache in front of another IKvTable.
+ * 
+ * The results of fetch, fetchAll, fetchFirst and fetchLast are cached, subject to a maximum total size and a time to live.
+ * Entries are invalidated by writes made through this instance, but not by writes made through other instances, which is
+ * what the TTL is for. Objects whose keys match the immutable key filter, such as those addressed by absolute hash, never
+ * change and are cached until they are evicted for space or deleted.
+ * 
+ * A value fetched from the underlying table is not cached if its partition was invalidated while the fetch was in
+ * progress, because it may be stale. Invalidations are remembered only for as long as an older fetch is in flight,
+ * so writes to one partition do not prevent fetches from other partitions being cached.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+public class CachingKvTable implements IKvTable
+{
+  /** An estimate of the fixed heap cost of a cache entry in bytes. */
+  private static final int ENTRY_OVERHEAD = 96;
+  
+  private final IKvTable                                kvTable_;
+  private final long                                    maxSizeBytes_;
+  private final long                                    ttlMillis_;
+  private final Predicate<IKvPartitionSortKeyProvider>  immutableKeyFilter_;
+  
+  /* All of the following are guarded by cache_ */
+  private final LinkedHashMap<CacheKey, CacheEntry>     cache_            = new LinkedHashMap<>(16, 0.75f, true);
+  private long                                          sizeBytes_;
+  private long                                          generation_;
+  private long                                          allInvalidated_;
+  
+  /* The generation at which each partition or filter was last invalidated, and the generations of fetches in flight */
+  private final Map<String, Long>                       invalidatedPartitions_  = new HashMap<>();
+  private final List<Invalidation>                      invalidatedFilters_     = new ArrayList<>();
+  private final TreeMap<Long, Integer>                  fills_                  = new TreeMap<>();
+  
+  private final AtomicLong                              hitCount_         = new AtomicLong();
+  private final AtomicLong                              missCount_        = new AtomicLong();
+  private final AtomicLong                              evictionCount_    = new AtomicLong();
+  
+  protected CachingKvTable(AbstractBuilder<?,?> builder)
+  {
+    kvTable_            = builder.kvTable_;
+    maxSizeBytes_       = builder.maxSizeBytes_;
+    ttlMillis_          = builder.ttlMillis_;
+    immutableKeyFilter_ = builder.immutableKeyFilter_;
+  }
+  
+  /**
+   * 
+   * @return The number of fetches satisfied from the cache.
+   */
+  public long getHitCount()
+  {
+    return hitCount_.get();
+  }
+
+  /**
+   * 
+   * @return The number of fetches which were passed to the underlying table.
+   */
+  public long getMissCount()
+  {
+    return missCount_.get();
+  }
+
+  /**
+   * 
+   * @return The number of entries removed because the cache was full or their TTL had expired.
+   */
+  public long getEvictionCount()
+  {
+    return evictionCount_.get();
+  }
+
+  /**
+   * 
+   * @return The estimated size of the cache contents in bytes.
+   */
+  public long getSizeBytes()
+  {
+    synchronized (cache_)
+    {
+      return sizeBytes_;
+    }
+  }
+  
+  /**
+   * Remove all entries from the cache.
+   */
+  public void invalidateAll()
+  {
+    synchronized (cache_)
+    {
+      allInvalidated_ = ++generation_;
+      cache_.clear();
+      sizeBytes_ = 0;
+    }
+  }
+
+  @Override
+  public void start()
+  {
+    kvTable_.start();
+  }
+
+  @Override
+  public void stop()
+  {
+    kvTable_.stop();
+  }
+
+  @Override
+  public String fetch(IKvPartitionSortKeyProvider partitionSortKey, ITraceContext trace) throws NoSuchObjectException
+  {
+    CacheKey  key     = new CacheKey(partitionSortKey);
+    String    payload = get(key);
+    
+    if(payload != null)
+      return payload;
+    
+    long generation = beginFill();
+    
+    try
+    {
+      payload = kvTable_.fetch(partitionSortKey, trace);
+      
+      put(key, payload, immutableKeyFilter_.test(partitionSortKey), generation);
+      
+      return payload;
+    }
+    finally
+    {
+      endFill(generation);
+    }
+  }
+
+  @Override
+  public IKvFetchAllResult fetchAll(Collection<? extends IKvPartitionSortKeyProvider> partitionSortKeys, ITraceContext trace)
+  {
+    Map<IKvPartitionSortKeyProvider, String>  results   = new HashMap<>();
+    List<IKvPartitionSortKeyProvider>         misses    = new ArrayList<>();
+    
+    for(IKvPartitionSortKeyProvider partitionSortKey : partitionSortKeys)
+    {
+      String payload = get(new CacheKey(partitionSortKey));
+      
+      if(payload == null)
+        misses.add(partitionSortKey);
+      else
+        results.put(partitionSortKey, payload);
+    }
+    
+    if(misses.isEmpty())
+      return new KvFetchAllResult(results, new ArrayList<>());
+    
+    long generation = beginFill();
+    
+    try
+    {
+      IKvFetchAllResult fetched = kvTable_.fetchAll(misses, trace);
+      
+      for(Entry<IKvPartitionSortKeyProvider, String> entry : fetched.getResults().entrySet())
+      {
+        put(new CacheKey(entry.getKey()), entry.getValue(), immutableKeyFilter_.test(entry.getKey()), generation);
+        results.put(entry.getKey(), entry.getValue());
+      }
+      
+      return new KvFetchAllResult(results, fetched.getMissing());
+    }
+    finally
+    {
+      endFill(generation);
+    }
+  }
+
+  @Override
+  public String fetchFirst(IKvPartitionKeyProvider partitionKey, ITraceContext trace) throws NoSuchObjectException
+  {
+    CacheKey  key     = new CacheKey(KeyType.FIRST, partitionKey.getPartitionKey().asString(), null);
+    String    payload = get(key);
+    
+    if(payload != null)
+      return payload;
+    
+    long generation = beginFill();
+    
+    try
+    {
+      payload = kvTable_.fetchFirst(partitionKey, trace);
+      
+      put(key, payload, false, generation);
+      
+      return payload;
+    }
+    finally
+    {
+      endFill(generation);
+    }
+  }
+
+  @Override
+  public String fetchLast(IKvPartitionKeyProvider partitionKey, ITraceContext trace) throws NoSuchObjectException
+  {
+    CacheKey  key     = new CacheKey(KeyType.LAST, partitionKey.getPartitionKey().asString(), null);
+    String    payload = get(key);
+    
+    if(payload != null)
+      return payload;
+    
+    long generation = beginFill();
+    
+    try
+    {
+      payload = kvTable_.fetchLast(partitionKey, trace);
+      
+      put(key, payload, false, generation);
+      
+      return payload;
+    }
+    finally
+    {
+      endFill(generation);
+    }
+  }
+
+  @Override
+  public IKvPagination fetchPartitionObjects(IKvPartitionKeyProvider partitionKey, boolean scanForwards, Integer limit,
+      @Nullable String after, @Nullable String sortKeyPrefix, @Nullable Map<String, Object> filterAttributes,
+      Consumer<String> consumer, ITraceContext trace)
+  {
+    return kvTable_.fetchPartitionObjects(partitionKey, scanForwards, limit, after, sortKeyPrefix, filterAttributes, consumer, trace);
+  }
+
+  @Override
+  public Iterator<String> scanPartition(IKvPartitionKeyProvider partitionKey, boolean scanForwards,
+      @Nullable String sortKeyPrefix, @Nullable Map<String, Object> filterAttributes, ITraceContext trace)
+  {
+    return kvTable_.scanPartition(partitionKey, scanForwards, sortKeyPrefix, filterAttributes, trace);
+  }
+
+  @Override
+  public void scanAll(int totalSegments, Consumer<String> consumer, ITraceContext trace)
+  {
+    kvTable_.scanAll(totalSegments, consumer, trace);
+  }
+
+  @Override
+  public void store(Collection<IKvItem> kvItems, ITraceContext trace)
+  {
+    try
+    {
+      kvTable_.store(kvItems, trace);
+    }
+    finally
+    {
+      invalidate(kvItems);
+    }
+  }
+
+  @Override
+  public void store(Collection<IKvItem> kvItems, boolean transactional, ITraceContext trace)
+  {
+    try
+    {
+      kvTable_.store(kvItems, transactional, trace);
+    }
+    finally
+    {
+      invalidate(kvItems);
+    }
+  }
+
+  @Override
+  public void store(IKvItem kvItem, KvCondition kvCondition, ITraceContext trace)
+  {
+    try
+    {
+      kvTable_.store(kvItem, kvCondition, trace);
+    }
+    finally
+    {
+      invalidate(kvItem);
+    }
+  }
+
+  @Override
+  public void store(IKvPartitionSortKeyProvider partitionSortKeyProvider, Collection<IKvItem> kvItems,
+      ITraceContext trace) throws ObjectExistsException
+  {
+    try
+    {
+      kvTable_.store(partitionSortKeyProvider, kvItems, trace);
+    }
+    finally
+    {
+      invalidate(kvItems);
+    }
+  }
+
+  @Override
+  public void update(IKvPartitionSortKeyProvider partitionSortKeyProvider, Hash absoluteHash, Set<IKvItem> kvItems,
+      ITraceContext trace) throws NoSuchObjectException
+  {
+    try
+    {
+      kvTable_.update(partitionSortKeyProvider, absoluteHash, kvItems, trace);
+    }
+    finally
+    {
+      invalidate(partitionSortKeyProvider);
+      invalidate(kvItems);
+    }
+  }
+
+  @Override
+  public void delete(IKvPartitionSortKeyProvider partitionSortKeyProvider, Hash absoluteHash,
+      IKvPartitionKeyProvider versionPartitionKey, IKvPartitionSortKeyProvider absoluteHashPrefix, ITraceContext trace)
+      throws NoSuchObjectException
+  {
+    try
+    {
+      kvTable_.delete(partitionSortKeyProvider, absoluteHash, versionPartitionKey, absoluteHashPrefix, trace);
+    }
+    finally
+    {
+      invalidate(partitionSortKeyProvider);
+      
+      // The absolute records of every version are deleted, their partition keys are the prefix followed by the hash.
+      String versionPartition   = versionPartitionKey.getPartitionKey().asString();
+      String absolutePartition  = absoluteHashPrefix.getPartitionKey().asString();
+      String absoluteSortKey    = absoluteHashPrefix.getSortKey().asString();
+      
+      invalidate((key) -> key.partitionKey_.equals(versionPartition) ||
+          (key.partitionKey_.startsWith(absolutePartition) && absoluteSortKey.equals(key.sortKey_)));
+    }
+  }
+
+  @Override
+  public void deleteRow(IKvPartitionSortKeyProvider partitionSortKeyProvider, ITraceContext trace)
+  {
+    try
+    {
+      kvTable_.deleteRow(partitionSortKeyProvider, trace);
+    }
+    finally
+    {
+      invalidate(partitionSortKeyProvider);
+    }
+  }
+
+  @Override
+  public void createTable(boolean dryRun)
+  {
+    kvTable_.createTable(dryRun);
+  }
+
+  @Override
+  public void deleteTable(boolean dryRun)
+  {
+    kvTable_.deleteTable(dryRun);
+    
+    if(!dryRun)
+      invalidateAll();
+  }
+  
+  /*
+   * Record the start of a fetch from the underlying table, the result may be cached if nothing which it could
+   * contain is invalidated before it is put.
+   */
+  private long beginFill()
+  {
+    synchronized (cache_)
+    {
+      fills_.merge(generation_, 1, Integer::sum);
+      
+      return generation_;
+    }
+  }
+  
+  private void endFill(long generation)
+  {
+    synchronized (cache_)
+    {
+      boolean oldest = generation == fills_.firstKey();
+      
+      if(fills_.merge(generation, -1, Integer::sum) == 0)
+        fills_.remove(generation);
+      else
+        oldest = false;
+      
+      if(!oldest)
+        return;
+      
+      // Invalidations are only needed while a fetch which started before them is in flight.
+      if(fills_.isEmpty())
+      {
+        invalidatedPartitions_.clear();
+        invalidatedFilters_.clear();
+      }
+      else
+      {
+        long first = fills_.firstKey();
+        
+        invalidatedPartitions_.values().removeIf((invalidated) -> invalidated <= first);
+        invalidatedFilters_.removeIf((invalidation) -> invalidation.generation_ <= first);
+      }
+    }
+  }
+  
+  /* Caller must hold the lock on cache_ */
+  private boolean isInvalidatedSince(CacheKey key, long generation)
+  {
+    if(allInvalidated_ > generation)
+      return true;
+    
+    Long invalidated = invalidatedPartitions_.get(key.partitionKey_);
+    
+    if(invalidated != null && invalidated > generation)
+      return true;
+    
+    for(Invalidation invalidation : invalidatedFilters_)
+    {
+      if(invalidation.generation_ > generation && invalidation.filter_.test(key))
+        return true;
+    }
+    
+    return false;
+  }
+  
+  private @Nullable String get(CacheKey key)
+  {
+    synchronized (cache_)
+    {
+      CacheEntry entry = cache_.get(key);
+      
+      if(entry != null)
+      {
+        if(entry.expiryTime_ > System.currentTimeMillis())
+        {
+          hitCount_.incrementAndGet();
+          
+          return entry.payload_;
+        }
+        
+        remove(key);
+        evictionCount_.incrementAndGet();
+      }
+    }
+    
+    missCount_.incrementAndGet();
+    
+    return null;
+  }
+  
+  private void put(CacheKey key, String payload, boolean immutable, long generation)
+  {
+    int size = key.getSize() + 2 * payload.length() + ENTRY_OVERHEAD;
+    
+    if(size > maxSizeBytes_)
+      return;
+    
+    long expiryTime = immutable ? Long.MAX_VALUE : System.currentTimeMillis() + ttlMillis_;
+    
+    synchronized (cache_)
+    {
+      // If this key was invalidated while the value was being fetched then it may be stale.
+      if(isInvalidatedSince(key, generation))
+        return;
+      
+      remove(key);
+      
+      cache_.put(key, new CacheEntry(payload, size, expiryTime));
+      sizeBytes_ += size;
+      
+      Iterator<CacheEntry> it = cache_.values().iterator();
+      
+      while(sizeBytes_ > maxSizeBytes_ && it.hasNext())
+      {
+        sizeBytes_ -= it.next().size_;
+        it.remove();
+        evictionCount_.incrementAndGet();
+      }
+    }
+  }
+  
+  /* Caller must hold the lock on cache_ */
+  private void remove(CacheKey key)
+  {
+    CacheEntry removed = cache_.remove(key);
+    
+    if(removed != null)
+      sizeBytes_ -= removed.size_;
+  }
+  
+  private void invalidate(Collection<IKvItem> kvItems)
+  {
+    for(IKvItem kvItem : kvItems)
+      invalidate(kvItem);
+  }
+
+  private void invalidate(IKvPartitionSortKeyProvider partitionSortKey)
+  {
+    String partitionKey = partitionSortKey.getPartitionKey().asString();
+    
+    synchronized (cache_)
+    {
+      if(!fills_.isEmpty())
+        invalidatedPartitions_.put(partitionKey, ++generation_);
+      
+      remove(new CacheKey(partitionSortKey));
+      remove(new CacheKey(KeyType.FIRST, partitionKey, null));
+      remove(new CacheKey(KeyType.LAST, partitionKey, null));
+    }
+  }
+  
+  private void invalidate(Predicate<CacheKey> filter)
+  {
+    synchronized (cache_)
+    {
+      if(!fills_.isEmpty())
+        invalidatedFilters_.add(new Invalidation(++generation_, filter));
+      
+      Iterator<Entry<CacheKey, CacheEntry>> it = cache_.entrySet().iterator();
+      
+      while(it.hasNext())
+      {
+        Entry<CacheKey, CacheEntry> entry = it.next();
+        
+        if(filter.test(entry.getKey()))
+        {
+          sizeBytes_ -= entry.getValue().size_;
+          it.remove();
+        }
+      }
+    }
+  }
+  
+  enum KeyType { OBJECT, FIRST, LAST }
+  
+  static class CacheKey
+  {
+    final KeyType type_;
+    final String  partitionKey_;
+    final String  sortKey_;
+    
+    CacheKey(IKvPartitionSortKeyProvider partitionSortKey)
+    {
+      this(KeyType.OBJECT, partitionSortKey.getPartitionKey().asString(), partitionSortKey.getSortKey().asString());
+    }
+    
+    CacheKey(KeyType type, String partitionKey, @Nullable String sortKey)
+    {
+      type_ = type;
+      partitionKey_ = partitionKey;
+      sortKey_ = sortKey;
+    }
+    
+    int getSize()
+    {
+      return 2 * (partitionKey_.length() + (sortKey_ == null ? 0 : sortKey_.length()));
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return Objects.hash(type_, partitionKey_, sortKey_);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if(!(obj instanceof CacheKey))
+        return false;
+      
+      CacheKey other = (CacheKey)obj;
+      
+      return type_ == other.type_ && partitionKey_.equals(other.partitionKey_) && Objects.equals(sortKey_, other.sortKey_);
+    }
+  }
+  
+  static class Invalidation
+  {
+    final long                  generation_;
+    final Predicate<CacheKey>   filter_;
+    
+    Invalidation(long generation, Predicate<CacheKey> filter)
+    {
+      generation_ = generation;
+      filter_ = filter;
+    }
+  }
+  
+  static class CacheEntry
+  {
+    final String  payload_;
+    final int     size_;
+    final long    expiryTime_;
+    
+    CacheEntry(String payload, int size, long expiryTime)
+    {
+      payload_ = payload;
+      size_ = size;
+      expiryTime_ = expiryTime;
+    }
+  }
+
+  /**
+   * Builder for CachingKvTable.
+   * 
+   * @author Bruce Skingle
+   *
+   */
+  public static class Builder extends AbstractBuilder<Builder, CachingKvTable>
+  {
+    /**
+     * Constructor.
+     */
+    public Builder()
+    {
+      super(Builder.class);
+    }
+
+    @Override
+    protected CachingKvTable construct()
+    {
+      return new CachingKvTable(this);
+    }
+  }
+
+  protected static abstract class AbstractBuilder<T extends AbstractBuilder<T,B>, B extends CachingKvTable> extends BaseAbstractBuilder<T,B>
+  {
+    protected IKvTable                                kvTable_;
+    protected long                                    maxSizeBytes_       = 64L * 1024 * 1024;
+    protected long                                    ttlMillis_          = 60000;
+    protected Predicate<IKvPartitionSortKeyProvider>  immutableKeyFilter_ = (key) -> false;
+    
+    protected AbstractBuilder(Class<T> type)
+    {
+      super(type);
+    }
+    
+    @Override
+    public void validate(FaultAccumulator faultAccumulator)
+    {
+      super.validate(faultAccumulator);
+      
+      faultAccumulator.checkNotNull(kvTable_,            "kvTable");
+      faultAccumulator.checkNotNull(immutableKeyFilter_, "immutableKeyFilter");
+    }
+
+    /**
+     * Set the table to be cached.
+     * 
+     * @param kvTable The underlying table.
+     * 
+     * @return This (fluent method).
+     */
+    public T withKvTable(IKvTable kvTable)
+    {
+      kvTable_ = kvTable;
+      
+      return self();
+    }
+
+    /**
+     * Set the maximum size of the cache, as an estimate of the heap used by cached keys and values.
+     * 
+     * @param maxSizeBytes The maximum size in bytes.
+     * 
+     * @return This (fluent method).
+     */
+    public T withMaxSizeBytes(long maxSizeBytes)
+    {
+      maxSizeBytes_ = maxSizeBytes;
+      
+      return self();
+    }
+
+    /**
+     * Set the time for which mutable objects are cached.
+     * 
+     * @param ttlMillis The time to live in milliseconds.
+     * 
+     * @return This (fluent method).
+     */
+    public T withTtlMillis(long ttlMillis)
+    {
+      ttlMillis_ = ttlMillis;
+      
+      return self();
+    }
+
+    /**
+     * Set a filter which identifies keys whose objects never change, such as objects addressed by their absolute hash.
+     * Such objects are cached without a TTL.
+     * 
+     * @param immutableKeyFilter A predicate which returns true for the keys of immutable objects.
+     * 
+     * @return This (fluent method).
+     */
+    public T withImmutableKeyFilter(Predicate<IKvPartitionSortKeyProvider> immutableKeyFilter)
+    {
+      immutableKeyFilter_ = immutableKeyFilter;
+      
+      return self();
+    }
+  }
+}
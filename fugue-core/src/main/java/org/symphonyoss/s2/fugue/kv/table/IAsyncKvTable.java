@@ -0,0 +1,115 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.kv.table;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+
+import org.symphonyoss.s2.common.hash.Hash;
+import org.symphonyoss.s2.fugue.core.trace.ITraceContext;
+import org.symphonyoss.s2.fugue.kv.IKvItem;
+import org.symphonyoss.s2.fugue.kv.IKvPagination;
+import org.symphonyoss.s2.fugue.kv.IKvPartitionKeyProvider;
+import org.symphonyoss.s2.fugue.kv.IKvPartitionSortKeyProvider;
+
+/**
+ * Non-blocking access to KV Items.
+ * 
+ * Each method starts the operation and returns a future which completes with the result, exceptions which would be
+ * thrown by the equivalent IKvTable method, including checked exceptions such as NoSuchObjectException, complete
+ * the future exceptionally.
+ * 
+ * Implementations limit the number of operations in flight, callers may block when that limit is reached.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+public interface IAsyncKvTable
+{
+  /**
+   * Store the given collection of items, overwriting any existing object with the same partition and sort keys.
+   * 
+   * @param kvItems Items to be stored.
+   * @param trace   Trace context.
+   * 
+   * @return A future which completes when the items have been stored.
+   */
+  CompletableFuture<Void> storeAsync(Collection<IKvItem> kvItems, ITraceContext trace);
+
+  /**
+   * Fetch the object with the given partition key and sort key.
+   * 
+   * @param partitionSortKey  The key of the required object.
+   * @param trace             Trace context.
+   * 
+   * @return A future for the required object, which completes with NoSuchObjectException if it does not exist.
+   */
+  CompletableFuture<String> fetchAsync(IKvPartitionSortKeyProvider partitionSortKey, ITraceContext trace);
+
+  /**
+   * Return objects from the given partition.
+   * 
+   * The consumer may be called from a thread other than the caller's.
+   * 
+   * @param partitionKey      The ID of the partition.
+   * @param scanForwards      If true then scan objects in the order of their sort keys, else in reverse order.
+   * @param limit             An optional limit to the number of objects retrieved.
+   * @param after             An optional page cursor to continue a previous query.
+   * @param sortKeyPrefix     An optional sort key prefix.
+   * @param filterAttributes  Optional attribute values to filter results.
+   * @param consumer          A consumer to receive the retrieved objects.
+   * @param trace             Trace context.
+   * 
+   * @return A future for pagination tokens to allow a continuation query to be made.
+   */
+  CompletableFuture<IKvPagination> fetchPartitionObjectsAsync(IKvPartitionKeyProvider partitionKey, boolean scanForwards, Integer limit, 
+      @Nullable String after,
+      @Nullable String sortKeyPrefix,
+      @Nullable Map<String, Object> filterAttributes,
+      Consumer<String> consumer, ITraceContext trace);
+
+  /**
+   * Update an existing object.
+   * 
+   * @param partitionSortKeyProvider  The partition and sort key of the existing item.
+   * @param absoluteHash    The absolute hash of the existing item.
+   * @param kvItems         A set of items to be put.
+   * @param trace           Trace context.
+   * 
+   * @return A future which completes when the update is done, or with NoSuchObjectException if the object has changed.
+   */
+  CompletableFuture<Void> updateAsync(IKvPartitionSortKeyProvider partitionSortKeyProvider, Hash absoluteHash, Set<IKvItem> kvItems,
+      ITraceContext trace);
+  
+  /**
+   * 
+   * @return Latency metrics for the asynchronous operations of this table.
+   */
+  AsyncKvTableMetrics getAsyncMetrics();
+}
@@ -24,6 +24,7 @@
 package org.symphonyoss.s2.fugue.kv.table;
 
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
@@ -34,6 +35,7 @@ import org.symphonyoss.s2.common.exception.NoSuchObjectException;
 import org.symphonyoss.s2.common.hash.Hash;
 import org.symphonyoss.s2.fugue.IFugueComponent;
 import org.symphonyoss.s2.fugue.core.trace.ITraceContext;
+import org.symphonyoss.s2.fugue.kv.IKvFetchAllResult;
 import org.symphonyoss.s2.fugue.kv.IKvItem;
 import org.symphonyoss.s2.fugue.kv.IKvPagination;
 import org.symphonyoss.s2.fugue.kv.IKvPartitionKeyProvider;
@@ -56,7 +58,19 @@ public interface IKvTable extends IFugueComponent
    * @param trace   Trace context.
    */
   void store(Collection<IKvItem> kvItems, ITraceContext trace);
-  
+
+  /**
+   * Store the given collection of items, overwriting any existing object with the same partition and sort keys.
+   *
+   * If transactional is false the implementation may write the items in a number of independent batches, which is
+   * cheaper and faster for large unconditional loads, but if the call fails some of the items may have been written.
+   *
+   * @param kvItems       Items to be stored.
+   * @param transactional If true then all items are written atomically, if false they may be written in bulk.
+   * @param trace         Trace context.
+   */
+  void store(Collection<IKvItem> kvItems, boolean transactional, ITraceContext trace);
+
   /**
    * Store the given item, provided the given condition is met.
    * 
@@ -117,6 +131,18 @@ public interface IKvTable extends IFugueComponent
    * @throws NoSuchObjectException  If there is no object with the given baseHash.
    */
   String fetch(IKvPartitionSortKeyProvider partitionSortKey, ITraceContext trace) throws NoSuchObjectException;
+
+  /**
+   * Fetch the objects with the given partition and sort keys.
+   * 
+   * Keys for which no object exists are reported in the result rather than causing an exception.
+   * 
+   * @param partitionSortKeys The keys of the required objects.
+   * @param trace             Trace context.
+   * 
+   * @return                  The objects which were found and the keys which were not.
+   */
+  IKvFetchAllResult fetchAll(Collection<? extends IKvPartitionSortKeyProvider> partitionSortKeys, ITraceContext trace);
   
   /**
    * Fetch the first object with the given partition key.
@@ -176,6 +202,36 @@ public interface IKvTable extends IFugueComponent
       @Nullable Map<String, Object> filterAttributes,
       Consumer<String> consumer, ITraceContext trace);
 
+  /**
+   * Return an iterator over all objects in the given partition, which fetches further pages as required.
+   * 
+   * Implementations may fetch the next page in the background while the current page is being consumed.
+   * 
+   * @param partitionKey      The ID of the partition.
+   * @param scanForwards      If true then scan objects in the order of their sort keys, else in reverse order.
+   * @param sortKeyPrefix     An optional sort key prefix.
+   * @param filterAttributes  Optional attribute values to filter results.
+   * @param trace             Trace context.
+   * 
+   * @return An iterator over the objects in the partition.
+   */
+  Iterator<String> scanPartition(IKvPartitionKeyProvider partitionKey, boolean scanForwards,
+      @Nullable String sortKeyPrefix,
+      @Nullable Map<String, Object> filterAttributes,
+      ITraceContext trace);
+
+  /**
+   * Pass every object in the table to the given consumer, for batch jobs such as reindexing or migrations.
+   * 
+   * The table is divided into the given number of segments which may be scanned in parallel, so the consumer
+   * must be thread safe. Objects are delivered in no particular order.
+   * 
+   * @param totalSegments The number of segments into which the scan is divided.
+   * @param consumer      A consumer to receive the retrieved objects.
+   * @param trace         Trace context.
+   */
+  void scanAll(int totalSegments, Consumer<String> consumer, ITraceContext trace);
+
   /**
    * Delete the single row whose primary key is given.
    * 
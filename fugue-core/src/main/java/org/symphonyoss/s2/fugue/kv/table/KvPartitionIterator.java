@@ -0,0 +1,156 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.kv.table;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+import org.symphonyoss.s2.common.fault.TransactionFault;
+import org.symphonyoss.s2.fugue.kv.IKvPagination;
+
+/**
+ * An iterator over all objects in a partition, built on a paged fetch such as IKvTable.fetchPartitionObjects().
+ * 
+ * If an executor is provided then the next page is fetched in the background while the current one is consumed.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+public class KvPartitionIterator implements Iterator<String>
+{
+  /**
+   * A fetcher of a single page of a partition.
+   */
+  @FunctionalInterface
+  public interface IPageFetcher
+  {
+    /**
+     * Fetch one page.
+     * 
+     * @param after     The cursor returned with the previous page, or null for the first page.
+     * @param consumer  A consumer to receive the objects in the page.
+     * 
+     * @return The pagination tokens for the page.
+     */
+    IKvPagination fetch(@Nullable String after, Consumer<String> consumer);
+  }
+  
+  private final IPageFetcher            fetcher_;
+  private final @Nullable Executor      executor_;
+  private Iterator<String>              current_ = Collections.emptyIterator();
+  private Supplier<Page>                next_;
+  
+  /**
+   * Constructor.
+   * 
+   * @param fetcher   A fetcher for pages of the partition.
+   * @param executor  An executor on which to prefetch pages, if null pages are fetched when they are needed.
+   */
+  public KvPartitionIterator(IPageFetcher fetcher, @Nullable Executor executor)
+  {
+    fetcher_  = fetcher;
+    executor_ = executor;
+    next_     = () -> fetchPage(null);
+  }
+
+  @Override
+  public boolean hasNext()
+  {
+    while(!current_.hasNext())
+    {
+      if(next_ == null)
+        return false;
+      
+      Page page = next_.get();
+      
+      current_ = page.items_.iterator();
+      next_ = page.after_ == null ? null : prepareFetch(page.after_);
+    }
+    
+    return true;
+  }
+
+  @Override
+  public String next()
+  {
+    if(!hasNext())
+      throw new NoSuchElementException();
+    
+    return current_.next();
+  }
+  
+  private Supplier<Page> prepareFetch(String after)
+  {
+    if(executor_ == null)
+      return () -> fetchPage(after);
+    
+    CompletableFuture<Page> future = CompletableFuture.supplyAsync(() -> fetchPage(after), executor_);
+    
+    return () ->
+    {
+      try
+      {
+        return future.join();
+      }
+      catch(CompletionException e)
+      {
+        if(e.getCause() instanceof RuntimeException)
+          throw (RuntimeException)e.getCause();
+        
+        throw new TransactionFault(e.getCause());
+      }
+    };
+  }
+  
+  private Page fetchPage(@Nullable String after)
+  {
+    List<String>  items       = new ArrayList<>();
+    IKvPagination pagination  = fetcher_.fetch(after, items::add);
+    String        nextAfter   = pagination.getAfter();
+    
+    return new Page(items, nextAfter == null || nextAfter.isEmpty() ? null : nextAfter);
+  }
+  
+  private static class Page
+  {
+    final List<String>  items_;
+    final String        after_;
+    
+    Page(List<String> items, @Nullable String after)
+    {
+      items_ = items;
+      after_ = after;
+    }
+  }
+}
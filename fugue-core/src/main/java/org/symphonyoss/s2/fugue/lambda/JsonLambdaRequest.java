@@ -56,6 +56,16 @@ public abstract class JsonLambdaRequest extends LambdaRequest
     }
   }
 
+  /**
+   * Constructor for subclasses which parse the request themselves.
+   * 
+   * @param json The JSON object representing the request.
+   */
+  protected JsonLambdaRequest(ObjectNode json)
+  {
+    json_ = json;
+  }
+
   public ObjectNode getJson()
   {
     return json_;
@@ -27,6 +27,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 public abstract class JsonLambdaResponse extends LambdaResponse
@@ -54,6 +55,11 @@ public abstract class JsonLambdaResponse extends LambdaResponse
   {
     return json_.putObject(name);
   }
+  
+  protected ArrayNode putArray(String name)
+  {
+    return json_.putArray(name);
+  }
 
   @Override
   public void write(OutputStream outputStream) throws IOException
@@ -0,0 +1,116 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A simple, thread safe, accumulator of operation latencies.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+public class LatencyMetric
+{
+  private final AtomicLong count_        = new AtomicLong();
+  private final AtomicLong failureCount_ = new AtomicLong();
+  private final AtomicLong totalNanos_   = new AtomicLong();
+  private final AtomicLong maxNanos_     = new AtomicLong();
+  
+  /**
+   * Record the completion of an operation.
+   * 
+   * @param startNanos  The value of System.nanoTime() when the operation started.
+   * @param success     True if the operation succeeded.
+   */
+  public void record(long startNanos, boolean success)
+  {
+    long elapsed = System.nanoTime() - startNanos;
+    
+    count_.incrementAndGet();
+    totalNanos_.addAndGet(elapsed);
+    maxNanos_.accumulateAndGet(elapsed, Math::max);
+    
+    if(!success)
+      failureCount_.incrementAndGet();
+  }
+
+  /**
+   * 
+   * @return The number of operations recorded.
+   */
+  public long getCount()
+  {
+    return count_.get();
+  }
+
+  /**
+   * 
+   * @return The number of operations recorded which failed.
+   */
+  public long getFailureCount()
+  {
+    return failureCount_.get();
+  }
+
+  /**
+   * 
+   * @return The total elapsed time of all recorded operations in nanoseconds.
+   */
+  public long getTotalNanos()
+  {
+    return totalNanos_.get();
+  }
+
+  /**
+   * 
+   * @return The longest elapsed time of any recorded operation in nanoseconds.
+   */
+  public long getMaxNanos()
+  {
+    return maxNanos_.get();
+  }
+  
+  /**
+   * 
+   * @return The mean elapsed time of recorded operations in milliseconds.
+   */
+  public double getMeanMillis()
+  {
+    long count = count_.get();
+    
+    if(count == 0)
+      return 0;
+    
+    return (double)totalNanos_.get() / count / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  @Override
+  public String toString()
+  {
+    return "count=" + getCount() + ", failures=" + getFailureCount() + ", meanMillis=" + getMeanMillis() +
+        ", maxMillis=" + TimeUnit.NANOSECONDS.toMillis(getMaxNanos());
+  }
+}
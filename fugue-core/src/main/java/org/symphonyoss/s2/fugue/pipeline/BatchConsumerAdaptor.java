@@ -0,0 +1,238 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.symphonyoss.s2.fugue.core.trace.ITraceContext;
+
+/**
+ * Adapts an {@link IThreadSafeBatchConsumer} for use by classes requiring an {@link IThreadSafeRetryableConsumer},
+ * such as subscriber managers.
+ * 
+ * Items passed to concurrent calls to consume() are collected into batches of up to maxBatchSize items. The
+ * first caller to add an item to a batch waits for up to maxBatchMillis for the batch to fill, the caller
+ * which fills the batch or the first caller when the time expires passes the batch to the batch consumer.
+ * Each call to consume() returns, or throws, according to the outcome of its own item, so per message
+ * acknowledgement and retries work as they do with a normal consumer.
+ * 
+ * Callers block while their batch is collected and processed, so maxBatchSize should be no larger than the
+ * number of threads calling consume(), for a subscriber this is the number of handler threads.
+ * 
+ * @author Bruce Skingle
+ *
+ * @param <T> The type of payload consumed.
+ */
+public class BatchConsumerAdaptor<T> implements IThreadSafeRetryableConsumer<T>
+{
+  private final IThreadSafeBatchConsumer<T> consumer_;
+  private final int                         maxBatchSize_;
+  private final long                        maxBatchMillis_;
+  
+  /* guarded by this */
+  private List<IBatchItem<T>>               pending_ = new ArrayList<>();
+
+  /**
+   * Constructor.
+   * 
+   * @param consumer        A batch consumer which will be called with batches of the items we are called with.
+   * @param maxBatchSize    The maximum number of items in a batch.
+   * @param maxBatchMillis  The maximum time to wait for a batch to fill.
+   */
+  public BatchConsumerAdaptor(IThreadSafeBatchConsumer<T> consumer, int maxBatchSize, long maxBatchMillis)
+  {
+    consumer_       = consumer;
+    maxBatchSize_   = Math.max(1, maxBatchSize);
+    maxBatchMillis_ = Math.max(0, maxBatchMillis);
+  }
+
+  @Override
+  public void close()
+  {
+    consumer_.close();
+  }
+
+  @Override
+  public void consume(T item, ITraceContext trace) throws RetryableConsumerException, FatalConsumerException
+  {
+    BatchItem           entry = new BatchItem(item, trace);
+    List<IBatchItem<T>> batch = null;
+    boolean             interrupted = false;
+    
+    synchronized(this)
+    {
+      List<IBatchItem<T>> myBatch = pending_;
+      
+      myBatch.add(entry);
+      
+      if(myBatch.size() >= maxBatchSize_)
+      {
+        batch = takePending();
+      }
+      else if(myBatch.size() == 1)
+      {
+        // We are first, wait for the batch to fill or the time to expire.
+        long deadline = System.currentTimeMillis() + maxBatchMillis_;
+        long remaining;
+        
+        while(pending_ == myBatch && (remaining = deadline - System.currentTimeMillis()) > 0)
+        {
+          try
+          {
+            wait(remaining);
+          }
+          catch (InterruptedException e)
+          {
+            interrupted = true;
+            break;
+          }
+        }
+        
+        if(pending_ == myBatch)
+          batch = takePending();
+      }
+    }
+    
+    if(batch != null)
+      process(batch);
+    
+    entry.await(interrupted);
+  }
+  
+  private List<IBatchItem<T>> takePending()
+  {
+    List<IBatchItem<T>> batch = pending_;
+    
+    pending_ = new ArrayList<>();
+    notifyAll();
+    
+    return batch;
+  }
+
+  private void process(List<IBatchItem<T>> batch)
+  {
+    try
+    {
+      consumer_.consume(batch);
+    }
+    catch(RuntimeException | Error e)
+    {
+      // Each caller, including this one, throws the outcome of its own item.
+      for(IBatchItem<T> item : batch)
+        ((BatchItem)item).failUnmarked(e);
+    }
+    finally
+    {
+      for(IBatchItem<T> item : batch)
+        ((BatchItem)item).complete();
+    }
+  }
+  
+  private class BatchItem implements IBatchItem<T>
+  {
+    private final T               payload_;
+    private final ITraceContext   trace_;
+    private final CountDownLatch  done_ = new CountDownLatch(1);
+    private volatile Throwable    outcome_;
+    
+    BatchItem(T payload, ITraceContext trace)
+    {
+      payload_ = payload;
+      trace_   = trace;
+    }
+
+    @Override
+    public T getPayload()
+    {
+      return payload_;
+    }
+
+    @Override
+    public ITraceContext getTrace()
+    {
+      return trace_;
+    }
+
+    @Override
+    public void retry(RetryableConsumerException cause)
+    {
+      outcome_ = cause;
+    }
+
+    @Override
+    public void fail(FatalConsumerException cause)
+    {
+      outcome_ = cause;
+    }
+    
+    void failUnmarked(Throwable cause)
+    {
+      if(outcome_ == null)
+        outcome_ = cause;
+    }
+    
+    void complete()
+    {
+      done_.countDown();
+    }
+    
+    void await(boolean interrupted) throws RetryableConsumerException, FatalConsumerException
+    {
+      // Another thread may be processing our item so we must wait for it even if we are interrupted.
+      while(true)
+      {
+        try
+        {
+          done_.await();
+          break;
+        }
+        catch (InterruptedException e)
+        {
+          interrupted = true;
+        }
+      }
+      
+      if(interrupted)
+        Thread.currentThread().interrupt();
+      
+      Throwable outcome = outcome_;
+      
+      if(outcome == null)
+        return;
+      
+      if(outcome instanceof RetryableConsumerException)
+        throw (RetryableConsumerException)outcome;
+      
+      if(outcome instanceof FatalConsumerException)
+        throw (FatalConsumerException)outcome;
+      
+      if(outcome instanceof Error)
+        throw (Error)outcome;
+      
+      throw (RuntimeException)outcome;
+    }
+  }
+}
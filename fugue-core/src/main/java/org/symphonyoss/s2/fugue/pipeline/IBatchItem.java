@@ -0,0 +1,65 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.pipeline;
+
+import org.symphonyoss.s2.fugue.core.trace.ITraceContext;
+
+/**
+ * An item in a batch passed to an {@link IThreadSafeBatchConsumer}.
+ * 
+ * An item which is not marked for retry or as failed is considered to have been processed successfully
+ * when the consumer returns.
+ * 
+ * @author Bruce Skingle
+ *
+ * @param <T> The type of payload.
+ */
+public interface IBatchItem<T>
+{
+  /**
+   * 
+   * @return The payload.
+   */
+  T getPayload();
+  
+  /**
+   * 
+   * @return The trace context for this item.
+   */
+  ITraceContext getTrace();
+  
+  /**
+   * Indicate that this item could not be processed but that a retry might be successful.
+   * 
+   * @param cause The reason for the failure, which includes the suggested retry time.
+   */
+  void retry(RetryableConsumerException cause);
+  
+  /**
+   * Indicate that this item could not be processed and that a retry is unlikely to be successful.
+   * 
+   * @param cause The reason for the failure.
+   */
+  void fail(FatalConsumerException cause);
+}
@@ -0,0 +1,53 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.pipeline;
+
+import java.util.List;
+
+/**
+ * A thread safe consumer of batches of some payload, which reports the outcome of each item separately.
+ * 
+ * This allows consumers which write to a store to use bulk APIs. A subscriber can deliver to a batch
+ * consumer through a {@link BatchConsumerAdaptor}.
+ * 
+ * Implementations of this interface <b>MUST</b> be thread safe.
+ * 
+ * @author Bruce Skingle
+ *
+ * @param <T> The type of payload consumed.
+ */
+public interface IThreadSafeBatchConsumer<T> extends ICloseableConsumer
+{
+  /**
+   * Consume the given batch of items.
+   * 
+   * Each item which cannot be processed should be marked by calling {@link IBatchItem#retry(RetryableConsumerException)}
+   * or {@link IBatchItem#fail(FatalConsumerException)}, items which are not marked are considered to have been
+   * processed successfully. If this method throws an exception then every item which has not been marked is
+   * considered to have failed with that exception.
+   * 
+   * @param batch The items to be consumed.
+   */
+  void consume(List<IBatchItem<T>> batch);
+}
@@ -0,0 +1,145 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.concurrent;
+
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.symphonyoss.s2.fugue.deploy.ExecutorBatch;
+import org.symphonyoss.s2.fugue.deploy.IBatch;
+
+/**
+ * Compares handler dispatch through a new ExecutorBatch per pull with a reused InFlightTracker.
+ * 
+ * This mimics AbstractPullSubscriber: several subscriber threads each repeatedly "pull" a batch of 10
+ * messages, hand them to a shared handler pool and wait for them to complete. The handlers do a trivial
+ * amount of work so that the cost of the dispatch mechanism dominates.
+ * 
+ * Run with: java -cp ... org.symphonyoss.s2.fugue.concurrent.InFlightTrackerBenchmark [messages]
+ * 
+ * @author Bruce Skingle
+ *
+ */
+public class InFlightTrackerBenchmark
+{
+  private static final int  SUBSCRIBER_THREADS  = 8;
+  private static final int  HANDLER_THREADS     = 72;
+  private static final int  PULL_SIZE           = 10;
+  private static final long EXTENSION_MILLIS    = 5000;
+  
+  private final AtomicLong  handled_ = new AtomicLong();
+  
+  private final Runnable    handler_ = () -> handled_.incrementAndGet();
+  
+  /**
+   * Main.
+   * 
+   * @param args Optional number of messages per run.
+   * 
+   * @throws InterruptedException If interrupted.
+   */
+  public static void main(String[] args) throws InterruptedException
+  {
+    int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+    
+    InFlightTrackerBenchmark benchmark = new InFlightTrackerBenchmark();
+    
+    // Warm up both paths before measuring.
+    benchmark.run("ExecutorBatch (warm up)",   messages / 10, false);
+    benchmark.run("InFlightTracker (warm up)", messages / 10, true);
+    
+    for(int i=0 ; i<3 ; i++)
+    {
+      benchmark.run("ExecutorBatch",   messages, false);
+      benchmark.run("InFlightTracker", messages, true);
+    }
+  }
+  
+  private void run(String name, int messages, boolean useTracker) throws InterruptedException
+  {
+    ThreadPoolExecutor  handlerExecutor = new ThreadPoolExecutor(HANDLER_THREADS, HANDLER_THREADS,
+        10000L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+    ExecutorService     subscribers     = new ThreadPoolExecutor(SUBSCRIBER_THREADS, SUBSCRIBER_THREADS,
+        10000L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+    
+    InFlightTracker<Runnable> tracker = new InFlightTracker<>(name, EXTENSION_MILLIS, (task) -> {});
+    int                       pulls   = messages / PULL_SIZE / SUBSCRIBER_THREADS;
+    
+    handled_.set(0);
+    System.gc();
+    
+    long start = System.nanoTime();
+    
+    for(int t=0 ; t<SUBSCRIBER_THREADS ; t++)
+    {
+      subscribers.execute(() ->
+      {
+        for(int p=0 ; p<pulls ; p++)
+        {
+          if(useTracker)
+            pullWithTracker(tracker, handlerExecutor);
+          else
+            pullWithBatch(handlerExecutor);
+        }
+      });
+    }
+    
+    subscribers.shutdown();
+    subscribers.awaitTermination(10, TimeUnit.MINUTES);
+    
+    long elapsed = System.nanoTime() - start;
+    
+    tracker.close();
+    handlerExecutor.shutdown();
+    
+    System.out.format("%-26s %,12d messages in %,8d ms = %,12.0f messages/s%n", name, handled_.get(),
+        TimeUnit.NANOSECONDS.toMillis(elapsed), handled_.get() * 1e9 / elapsed);
+  }
+  
+  private void pullWithBatch(ExecutorService handlerExecutor)
+  {
+    IBatch<Runnable> batch = new ExecutorBatch<>(handlerExecutor);
+    
+    for(int i=0 ; i<PULL_SIZE ; i++)
+      batch.submit(handler_);
+    
+    Collection<Runnable> incompleteTasks;
+    do
+    {
+      incompleteTasks = batch.waitForAllTasks(EXTENSION_MILLIS);
+    } while(!incompleteTasks.isEmpty());
+  }
+  
+  private void pullWithTracker(InFlightTracker<Runnable> tracker, ExecutorService handlerExecutor)
+  {
+    for(int i=0 ; i<PULL_SIZE ; i++)
+      tracker.submit(handlerExecutor, handler_);
+    
+    tracker.awaitSubmitted();
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class InFlightTrackerTest
+{
+  private static final ExecutorService executor_ = Executors.newFixedThreadPool(20);
+  
+  private static Runnable sleep(long millis)
+  {
+    return () ->
+    {
+      try
+      {
+        Thread.sleep(millis);
+      }
+      catch (InterruptedException e)
+      {
+        throw new IllegalStateException(e);
+      }
+    };
+  }
+  
+  @Test
+  public void testNormal()
+  {
+    AtomicInteger             done    = new AtomicInteger();
+    InFlightTracker<Runnable> tracker = new InFlightTracker<>("test", 10000, (task) -> {});
+    
+    // The tracker is reused for several batches, as a pull subscriber does.
+    for(int batch=0 ; batch<3 ; batch++)
+    {
+      for(int i=0 ; i<25 ; i++)
+      {
+        tracker.submit(executor_, () ->
+        {
+          sleep(20).run();
+          done.incrementAndGet();
+        });
+      }
+      
+      tracker.awaitSubmitted();
+      
+      assertEquals((batch + 1) * 25, done.get());
+      assertEquals(0, tracker.getInFlightCount());
+    }
+    
+    tracker.close();
+  }
+
+  @Test
+  public void testExtend()
+  {
+    AtomicInteger             extensions  = new AtomicInteger();
+    InFlightTracker<Runnable> tracker     = new InFlightTracker<>("test", 100, (task) -> extensions.incrementAndGet());
+    
+    tracker.submit(executor_, sleep(20));
+    tracker.submit(executor_, sleep(550));
+    
+    tracker.awaitSubmitted();
+    tracker.close();
+    
+    // Only the long running task is extended, roughly every 100ms.
+    assertTrue("extensions=" + extensions.get(), extensions.get() >= 3 && extensions.get() <= 6);
+  }
+
+  @Test
+  public void testFailure()
+  {
+    InFlightTracker<Runnable> tracker = new InFlightTracker<>("test", 10000, (task) -> {});
+    
+    for(int i=0 ; i<5 ; i++)
+      tracker.submit(executor_, sleep(100));
+    
+    tracker.submit(executor_, () ->
+    {
+      throw new IllegalStateException("Barf!");
+    });
+    
+    try
+    {
+      tracker.awaitSubmitted();
+      
+      fail("awaitSubmitted should throw exception");
+    }
+    catch(IllegalStateException e)
+    {
+      // expected
+    }
+    
+    // The failure is reported once, the tracker remains usable.
+    tracker.submit(executor_, sleep(10));
+    tracker.awaitSubmitted();
+    tracker.close();
+  }
+  
+  @Test
+  public void testCancelPending() throws InterruptedException
+  {
+    ExecutorService           executor  = Executors.newSingleThreadExecutor();
+    CountDownLatch            started   = new CountDownLatch(1);
+    CountDownLatch            release   = new CountDownLatch(1);
+    AtomicInteger             ran       = new AtomicInteger();
+    InFlightTracker<Runnable> tracker   = new InFlightTracker<>("test", 10000, (task) -> {}, 4);
+    
+    tracker.submit(executor, () ->
+    {
+      started.countDown();
+      
+      try
+      {
+        release.await();
+      }
+      catch (InterruptedException e)
+      {
+        // shutdownNow() interrupts the running task
+      }
+      
+      ran.incrementAndGet();
+    });
+    
+    started.await();
+    
+    for(int i=0 ; i<3 ; i++)
+      tracker.submit(executor, () -> ran.incrementAndGet());
+    
+    // The queued tasks are discarded by the executor and must be dropped from the tracker.
+    List<Runnable> dropped = executor.shutdownNow();
+    
+    assertEquals(3, dropped.size());
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    
+    List<Runnable> cancelled = tracker.cancelPending();
+    
+    assertEquals(3, cancelled.size());
+    assertEquals(0, tracker.getInFlightCount());
+    tracker.awaitSubmitted();
+    assertEquals(1, ran.get());
+    
+    // The permits of the dropped tasks were released, and a dropped task is ignored if it is run later.
+    for(int i=0 ; i<4 ; i++)
+      tracker.submit(executor_, () -> ran.incrementAndGet());
+    
+    dropped.get(0).run();
+    tracker.awaitSubmitted();
+    
+    assertEquals(5, ran.get());
+    tracker.close();
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.concurrent;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares message handlers which block on I/O running on a fixed pool of platform threads, as pull
+ * subscribers do by default, with a thread per task executor limited by a semaphore, as they do when
+ * useVirtualThreads is set.
+ * 
+ * Each handler sleeps to simulate a remote call. On a runtime without virtual threads the second mode
+ * uses a platform thread per task, so the peak thread count shows the difference between the two.
+ * 
+ * Run with: java -cp ... org.symphonyoss.s2.fugue.concurrent.ThreadModeBenchmark [messages [ioMillis]]
+ * 
+ * @author Bruce Skingle
+ *
+ */
+public class ThreadModeBenchmark
+{
+  private static final int  HANDLER_THREADS         = 72;
+  private static final int  MAX_MESSAGES_IN_FLIGHT  = 1000;
+  private static final int  PULL_SIZE               = 10;
+  
+  private final AtomicLong  handled_ = new AtomicLong();
+  private final long        ioMillis_;
+  
+  private ThreadModeBenchmark(long ioMillis)
+  {
+    ioMillis_ = ioMillis;
+  }
+  
+  /**
+   * Main.
+   * 
+   * @param args Optional number of messages and simulated I/O time per message.
+   * 
+   * @throws InterruptedException If interrupted.
+   */
+  public static void main(String[] args) throws InterruptedException
+  {
+    int   messages  = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+    long  ioMillis  = args.length > 1 ? Long.parseLong(args[1]) : 20;
+    
+    System.out.println("Virtual threads available: " + VirtualThreads.isAvailable());
+    
+    ThreadModeBenchmark benchmark = new ThreadModeBenchmark(ioMillis);
+    
+    benchmark.run("Platform pool", messages, new ThreadPoolExecutor(HANDLER_THREADS, HANDLER_THREADS,
+        10000L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>()), 0);
+    
+    benchmark.run("Thread per task", messages, VirtualThreads.newThreadPerTaskExecutor("benchmark"),
+        MAX_MESSAGES_IN_FLIGHT);
+  }
+  
+  private void run(String name, int messages, ExecutorService executor, int maxInFlight)
+  {
+    ThreadMXBean              threads = ManagementFactory.getThreadMXBean();
+    InFlightTracker<Runnable> tracker = new InFlightTracker<>(name, 5000, (task) -> {}, maxInFlight);
+    Runnable                  handler = () ->
+    {
+      try
+      {
+        Thread.sleep(ioMillis_);
+      }
+      catch (InterruptedException e)
+      {
+        throw new IllegalStateException(e);
+      }
+      
+      handled_.incrementAndGet();
+    };
+    
+    handled_.set(0);
+    threads.resetPeakThreadCount();
+    
+    long start = System.nanoTime();
+    
+    // A single receiver which does not wait for each pull to complete, as many concurrent receivers would.
+    for(int i=0 ; i<messages ; i += PULL_SIZE)
+    {
+      for(int j=0 ; j<PULL_SIZE ; j++)
+        tracker.submit(executor, handler);
+    }
+    
+    tracker.awaitSubmitted();
+    
+    long elapsed = System.nanoTime() - start;
+    
+    tracker.close();
+    executor.shutdown();
+    
+    System.out.format("%-16s %,8d messages in %,8d ms = %,10.0f messages/s, peak threads %,d%n", name, handled_.get(),
+        TimeUnit.NANOSECONDS.toMillis(elapsed), handled_.get() * 1e9 / elapsed, threads.getPeakThreadCount());
+  }
+}
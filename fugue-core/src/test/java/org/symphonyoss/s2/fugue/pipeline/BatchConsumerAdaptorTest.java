@@ -0,0 +1,165 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.symphonyoss.s2.fugue.core.trace.NoOpTraceContext;
+
+@SuppressWarnings("javadoc")
+public class BatchConsumerAdaptorTest
+{
+  private static final ExecutorService executor_ = Executors.newFixedThreadPool(20);
+  
+  private static class TestBatchConsumer implements IThreadSafeBatchConsumer<Integer>
+  {
+    private final List<Integer> batchSizes_ = new ArrayList<>();
+    private final AtomicInteger consumed_   = new AtomicInteger();
+    
+    @Override
+    public void consume(List<IBatchItem<Integer>> batch)
+    {
+      synchronized(batchSizes_)
+      {
+        batchSizes_.add(batch.size());
+      }
+      
+      for(IBatchItem<Integer> item : batch)
+      {
+        if(item.getPayload() % 10 == 0)
+          item.retry(new RetryableConsumerException(TimeUnit.MILLISECONDS, 10L));
+        else if(item.getPayload() % 10 == 1)
+          item.fail(new FatalConsumerException("Bad item"));
+        else
+          consumed_.incrementAndGet();
+      }
+    }
+
+    @Override
+    public void close()
+    {
+    }
+  }
+  
+  private static Future<String> submit(BatchConsumerAdaptor<Integer> adaptor, int item)
+  {
+    return executor_.submit(() ->
+    {
+      try
+      {
+        adaptor.consume(item, NoOpTraceContext.INSTANCE);
+        return "ok";
+      }
+      catch(RetryableConsumerException e)
+      {
+        return "retry";
+      }
+      catch(FatalConsumerException e)
+      {
+        return "fatal";
+      }
+    });
+  }
+  
+  @Test
+  public void testOutcomes() throws Exception
+  {
+    TestBatchConsumer             consumer = new TestBatchConsumer();
+    BatchConsumerAdaptor<Integer> adaptor  = new BatchConsumerAdaptor<>(consumer, 5, 50);
+    List<Future<String>>          results  = new ArrayList<>();
+    
+    for(int i=0 ; i<20 ; i++)
+      results.add(submit(adaptor, i));
+    
+    for(int i=0 ; i<20 ; i++)
+    {
+      String expected = i % 10 == 0 ? "retry" : i % 10 == 1 ? "fatal" : "ok";
+      
+      assertEquals(expected, results.get(i).get(10, TimeUnit.SECONDS));
+    }
+    
+    assertEquals(16, consumer.consumed_.get());
+    
+    int total = 0;
+    
+    for(int size : consumer.batchSizes_)
+    {
+      assertTrue(size <= 5);
+      total += size;
+    }
+    
+    assertEquals(20, total);
+    assertTrue(consumer.batchSizes_.size() < 20);
+  }
+  
+  @Test
+  public void testLinger() throws Exception
+  {
+    TestBatchConsumer             consumer = new TestBatchConsumer();
+    BatchConsumerAdaptor<Integer> adaptor  = new BatchConsumerAdaptor<>(consumer, 100, 20);
+    
+    // A single item must be delivered once the linger time expires.
+    assertEquals("ok", submit(adaptor, 2).get(10, TimeUnit.SECONDS));
+    assertEquals(1, consumer.consumed_.get());
+  }
+  
+  @Test
+  public void testConsumerFailure() throws Exception
+  {
+    BatchConsumerAdaptor<Integer> adaptor  = new BatchConsumerAdaptor<>(new IThreadSafeBatchConsumer<Integer>()
+        {
+          @Override
+          public void consume(List<IBatchItem<Integer>> batch)
+          {
+            throw new IllegalStateException("Store unavailable");
+          }
+
+          @Override
+          public void close()
+          {
+          }
+        }, 10, 20);
+    
+    try
+    {
+      adaptor.consume(1, NoOpTraceContext.INSTANCE);
+      fail("Expected exception");
+    }
+    catch(IllegalStateException e)
+    {
+      assertEquals("Store unavailable", e.getMessage());
+    }
+  }
+}
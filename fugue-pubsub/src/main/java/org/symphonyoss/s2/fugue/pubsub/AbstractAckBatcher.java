@@ -0,0 +1,359 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.pubsub;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.symphonyoss.s2.common.concurrent.NamedThreadFactory;
+
+/**
+ * Coalesces acknowledgements and ack deadline changes for a single subscription or queue into batch requests.
+ * 
+ * Requests are sent when maxBatchSize IDs or maxBatchBytes of IDs are pending, or after a short linger time.
+ * Implementations report entries which failed with a retryable error, which are retried in a later batch up to
+ * MAX_ATTEMPTS times, other failures are dropped, in which case the message will be redelivered when its
+ * ack deadline expires.
+ * 
+ * An acknowledgement supersedes any pending deadline change for the same message, a deadline change supersedes
+ * any earlier pending change but an extension never supersedes a pending change, so that an extension which
+ * races with the completion of a message cannot replace the nack.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+public abstract class AbstractAckBatcher
+{
+  /** The maximum number of times an entry is sent. */
+  protected static final int                  MAX_ATTEMPTS = 3;
+  
+  private static final Logger                 log_ = LoggerFactory.getLogger(AbstractAckBatcher.class);
+  private static final long                   IDLE_THREAD_MILLIS = 60000;
+  
+  private final int                           maxBatchSize_;
+  private final int                           maxBatchBytes_;
+  private final long                          lingerMillis_;
+  private final ScheduledThreadPoolExecutor   scheduler_;
+  
+  /* The following are guarded by this */
+  private final Map<String, Integer>          pendingAcks_      = new LinkedHashMap<>();
+  private final Map<String, DeadlineChange>   pendingChanges_   = new LinkedHashMap<>();
+  private int                                 pendingAckBytes_;
+  private int                                 pendingChangeBytes_;
+  private boolean                             flushScheduled_;
+  
+  /**
+   * Constructor.
+   * 
+   * @param name          The name of the batcher, used to name its thread.
+   * @param maxBatchSize  The maximum number of IDs in a single request.
+   * @param maxBatchBytes The maximum total length of the IDs in a single request.
+   * @param lingerMillis  The maximum time for which a request is held waiting for more IDs.
+   */
+  protected AbstractAckBatcher(String name, int maxBatchSize, int maxBatchBytes, long lingerMillis)
+  {
+    maxBatchSize_   = maxBatchSize;
+    maxBatchBytes_  = maxBatchBytes;
+    lingerMillis_   = lingerMillis;
+    scheduler_      = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory(name, true));
+    
+    // A batcher which is no longer used holds no threads, the keep alive time must exceed the linger time.
+    scheduler_.setKeepAliveTime(Math.max(IDLE_THREAD_MILLIS, 2 * lingerMillis), TimeUnit.MILLISECONDS);
+    scheduler_.allowCoreThreadTimeOut(true);
+  }
+  
+  /**
+   * Send the given acknowledgements.
+   * 
+   * @param acks    A batch of ack IDs and the number of times each has already been attempted.
+   * @param retries Entries which should be retried are added to this map with their incremented attempt count.
+   */
+  protected abstract void sendAcks(Map<String, Integer> acks, Map<String, Integer> retries);
+  
+  /**
+   * Send the given deadline changes.
+   * 
+   * @param changes A batch of ack IDs and their deadline changes.
+   * @param retries Entries which should be retried are added to this map, see DeadlineChange.nextAttempt().
+   */
+  protected abstract void sendDeadlineChanges(Map<String, DeadlineChange> changes, Map<String, DeadlineChange> retries);
+  
+  /**
+   * Queue the acknowledgement of a message, superseding any pending deadline change for it.
+   * 
+   * @param ackId The ack ID or receipt handle of the message.
+   */
+  public synchronized void acknowledge(String ackId)
+  {
+    if(pendingChanges_.remove(ackId) != null)
+      pendingChangeBytes_ -= ackId.length();
+    
+    if(pendingAcks_.putIfAbsent(ackId, 0) == null)
+      pendingAckBytes_ += ackId.length();
+    
+    scheduleFlush(pendingAcks_.size(), pendingAckBytes_);
+  }
+  
+  /**
+   * Queue a change of the ack deadline of a message, superseding any pending change for it.
+   * 
+   * @param ackId           The ack ID or receipt handle of the message.
+   * @param deadlineSeconds The new ack deadline, zero makes the message available for redelivery immediately.
+   */
+  public synchronized void modifyDeadline(String ackId, int deadlineSeconds)
+  {
+    if(pendingAcks_.containsKey(ackId))
+      return;
+    
+    if(pendingChanges_.put(ackId, new DeadlineChange(deadlineSeconds, 0)) == null)
+      pendingChangeBytes_ += ackId.length();
+    
+    scheduleFlush(pendingChanges_.size(), pendingChangeBytes_);
+  }
+  
+  /**
+   * Queue an extension of the ack deadline of a message which is still being processed.
+   * 
+   * Unlike modifyDeadline() this does nothing if any change is already pending for the message.
+   * 
+   * @param ackId           The ack ID or receipt handle of the message.
+   * @param deadlineSeconds The new ack deadline.
+   */
+  public synchronized void extendDeadline(String ackId, int deadlineSeconds)
+  {
+    if(pendingAcks_.containsKey(ackId) || pendingChanges_.containsKey(ackId))
+      return;
+    
+    pendingChanges_.put(ackId, new DeadlineChange(deadlineSeconds, 0));
+    pendingChangeBytes_ += ackId.length();
+    
+    scheduleFlush(pendingChanges_.size(), pendingChangeBytes_);
+  }
+  
+  /**
+   * Send everything which is pending and wait for it to complete, leaving the flush thread running so that
+   * the batcher can continue to be used.
+   */
+  public void flushPending()
+  {
+    try
+    {
+      scheduler_.submit(() -> flush()).get();
+    }
+    catch(RejectedExecutionException e)
+    {
+      // We have been closed, close() does a final flush.
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+    catch (ExecutionException e)
+    {
+      log_.error("Failed to flush pending acknowledgements", e.getCause());
+    }
+  }
+  
+  /**
+   * Send everything which is pending and stop the flush thread.
+   * 
+   * Entries which fail during the final flush are retried by the calling thread, up to MAX_ATTEMPTS times.
+   */
+  public void close()
+  {
+    scheduler_.shutdown();
+    
+    try
+    {
+      scheduler_.awaitTermination(lingerMillis_ + 10000, TimeUnit.MILLISECONDS);
+      
+      for(int attempt = 0 ; attempt < MAX_ATTEMPTS && flush() ; attempt++)
+        Thread.sleep(lingerMillis_);
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      flush();
+    }
+  }
+  
+  /* Caller must hold the lock on this */
+  private void scheduleFlush(int pendingCount, int pendingBytes)
+  {
+    try
+    {
+      if(pendingCount >= maxBatchSize_ || pendingBytes >= maxBatchBytes_)
+      {
+        scheduler_.execute(() -> flush());
+      }
+      else if(!flushScheduled_)
+      {
+        flushScheduled_ = true;
+        scheduler_.schedule(() -> flush(), lingerMillis_, TimeUnit.MILLISECONDS);
+      }
+    }
+    catch(RejectedExecutionException e)
+    {
+      // We have been closed, close() does a final flush.
+    }
+  }
+  
+  /* Returns true if there are failed entries waiting to be retried. */
+  private boolean flush()
+  {
+    Map<String, Integer>        retryAcks     = new LinkedHashMap<>();
+    Map<String, DeadlineChange> retryChanges  = new LinkedHashMap<>();
+    Map<String, Integer>        acks;
+    Map<String, DeadlineChange> changes;
+    
+    // Flushes only run on the scheduler thread, or after it has terminated, so batches are sent in order.
+    do
+    {
+      synchronized(this)
+      {
+        flushScheduled_ = false;
+        acks = take(pendingAcks_);
+        pendingAckBytes_ -= bytes(acks);
+        changes = take(pendingChanges_);
+        pendingChangeBytes_ -= bytes(changes);
+      }
+      
+      if(!acks.isEmpty())
+        sendAcks(acks, retryAcks);
+      
+      if(!changes.isEmpty())
+        sendDeadlineChanges(changes, retryChanges);
+      
+    } while(!acks.isEmpty() || !changes.isEmpty());
+    
+    if(retryAcks.isEmpty() && retryChanges.isEmpty())
+      return false;
+    
+    // Failed entries are retried after the linger time rather than immediately.
+    synchronized(this)
+    {
+      for(Map.Entry<String, Integer> entry : retryAcks.entrySet())
+      {
+        if(pendingChanges_.remove(entry.getKey()) != null)
+          pendingChangeBytes_ -= entry.getKey().length();
+        
+        if(pendingAcks_.putIfAbsent(entry.getKey(), entry.getValue()) == null)
+          pendingAckBytes_ += entry.getKey().length();
+      }
+      
+      // A later change or an ack for the same message takes precedence.
+      for(Map.Entry<String, DeadlineChange> entry : retryChanges.entrySet())
+      {
+        if(!pendingAcks_.containsKey(entry.getKey()) && pendingChanges_.putIfAbsent(entry.getKey(), entry.getValue()) == null)
+          pendingChangeBytes_ += entry.getKey().length();
+      }
+      
+      scheduleFlush(0, 0);
+    }
+    
+    return true;
+  }
+  
+  private <V> Map<String, V> take(Map<String, V> pending)
+  {
+    Map<String, V>                  batch = new LinkedHashMap<>();
+    Iterator<Map.Entry<String, V>>  it    = pending.entrySet().iterator();
+    int                             bytes = 0;
+    
+    while(batch.size() < maxBatchSize_ && it.hasNext())
+    {
+      Map.Entry<String, V> entry = it.next();
+      
+      if(!batch.isEmpty() && bytes + entry.getKey().length() > maxBatchBytes_)
+        break;
+      
+      bytes += entry.getKey().length();
+      batch.put(entry.getKey(), entry.getValue());
+      it.remove();
+    }
+    
+    return batch;
+  }
+  
+  private static int bytes(Map<String, ?> batch)
+  {
+    int bytes = 0;
+    
+    for(String ackId : batch.keySet())
+      bytes += ackId.length();
+    
+    return bytes;
+  }
+  
+  /**
+   * A pending change to the ack deadline of a message.
+   */
+  protected static class DeadlineChange
+  {
+    private final int deadlineSeconds_;
+    private final int attempts_;
+    
+    DeadlineChange(int deadlineSeconds, int attempts)
+    {
+      deadlineSeconds_ = deadlineSeconds;
+      attempts_ = attempts;
+    }
+
+    /**
+     * 
+     * @return The new ack deadline in seconds.
+     */
+    public int getDeadlineSeconds()
+    {
+      return deadlineSeconds_;
+    }
+
+    /**
+     * 
+     * @return The number of times this change has already been attempted.
+     */
+    public int getAttempts()
+    {
+      return attempts_;
+    }
+    
+    /**
+     * 
+     * @return A copy of this change to be retried, or null if it has already been attempted MAX_ATTEMPTS times.
+     */
+    public @Nullable DeadlineChange nextAttempt()
+    {
+      return attempts_ + 1 < MAX_ATTEMPTS ? new DeadlineChange(deadlineSeconds_, attempts_ + 1) : null;
+    }
+  }
+}
@@ -0,0 +1,362 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.pubsub;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.symphonyoss.s2.common.concurrent.NamedThreadFactory;
+import org.symphonyoss.s2.common.fault.TransactionFault;
+import org.symphonyoss.s2.common.fault.TransientTransactionFault;
+import org.symphonyoss.s2.fugue.concurrent.AsyncOperationLimiter;
+
+/**
+ * Buffers messages for a single topic or queue and sends them in batches.
+ * 
+ * A batch is sent when it holds maxBatchSize messages or maxBatchBytes of message data, or when the first
+ * message in it has waited for the linger time. At most capacity messages may be buffered or in flight,
+ * submit() blocks while that limit is reached, which provides back pressure to producers.
+ * 
+ * Each message has its own future so that callers can still observe the failure of an individual message.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+public abstract class AbstractMessageBatcher
+{
+  private static final Logger               log_                  = LoggerFactory.getLogger(AbstractMessageBatcher.class);
+  private static final long                 CLOSE_TIMEOUT_MILLIS  = 30000;
+  private static final long                 IDLE_THREAD_MILLIS    = 60000;
+
+  private final String                      name_;
+  private final int                         maxBatchSize_;
+  private final int                         maxBatchBytes_;
+  private final int                         maxMessageSize_;
+  private final long                        lingerMillis_;
+  private final int                         capacity_;
+  private final Semaphore                   permits_;
+  private final ScheduledThreadPoolExecutor executor_;
+
+  /* The following are guarded by this */
+  private final Deque<BatchEntry>           pending_              = new ArrayDeque<>();
+  private int                               pendingBytes_;
+  private boolean                           flushScheduled_;
+  private boolean                           closed_;
+
+  /**
+   * Constructor.
+   * 
+   * @param name            The name of the batcher, used to name its threads.
+   * @param maxBatchSize    The maximum number of messages in a single batch.
+   * @param maxBatchBytes   The maximum total size of the messages in a single batch.
+   * @param maxMessageSize  The maximum size of a single message.
+   * @param lingerMillis    The maximum time for which a message is held waiting for more messages to fill its batch.
+   * @param capacity        The maximum number of messages which may be buffered or in flight.
+   * @param threads         The number of threads sending batches.
+   */
+  protected AbstractMessageBatcher(String name, int maxBatchSize, int maxBatchBytes, int maxMessageSize,
+      long lingerMillis, int capacity, int threads)
+  {
+    name_           = name;
+    maxBatchSize_   = maxBatchSize;
+    maxBatchBytes_  = maxBatchBytes;
+    maxMessageSize_ = maxMessageSize;
+    lingerMillis_   = lingerMillis;
+    capacity_       = capacity;
+    permits_        = new Semaphore(capacity);
+    executor_       = new ScheduledThreadPoolExecutor(threads, new NamedThreadFactory(name, true));
+    
+    // A batcher which is no longer used holds no threads, the keep alive time must exceed the linger time.
+    executor_.setKeepAliveTime(Math.max(IDLE_THREAD_MILLIS, 2 * lingerMillis), TimeUnit.MILLISECONDS);
+    executor_.allowCoreThreadTimeOut(true);
+  }
+  
+  /**
+   * Send the given batch.
+   * 
+   * Implementations must call complete() or fail() on each entry, any entry which is neither completed nor
+   * failed when this method returns is failed. If this method throws an exception then all entries which
+   * have not been completed are failed with that exception.
+   * 
+   * @param batch A batch of between 1 and maxBatchSize messages.
+   */
+  protected abstract void sendBatch(List<BatchEntry> batch);
+
+  /**
+   * Queue the given message for sending, blocking while the buffer is full.
+   * 
+   * @param message A message to be sent.
+   * 
+   * @return A future which completes when the message has been sent.
+   */
+  public CompletableFuture<Void> submit(IPubSubMessage message)
+  {
+    int size = getSize(message);
+    
+    if(size > maxMessageSize_)
+      return AsyncOperationLimiter.failedFuture(new TransactionFault("Message of " + size
+          + " bytes exceeds the maximum size of " + maxMessageSize_));
+    
+    try
+    {
+      permits_.acquire();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      
+      return AsyncOperationLimiter.failedFuture(new TransientTransactionFault("Interrupted waiting for buffer space", e));
+    }
+    
+    BatchEntry entry = new BatchEntry(message, size);
+    
+    synchronized(this)
+    {
+      if(closed_)
+      {
+        permits_.release();
+        
+        return AsyncOperationLimiter.failedFuture(new IllegalStateException(name_ + " is closed"));
+      }
+      
+      pending_.add(entry);
+      pendingBytes_ += size;
+      
+      while(pending_.size() >= maxBatchSize_ || pendingBytes_ >= maxBatchBytes_)
+        dispatch(takeBatch());
+      
+      if(!pending_.isEmpty() && !flushScheduled_)
+      {
+        flushScheduled_ = true;
+        executor_.schedule(() -> lingerExpired(), lingerMillis_, TimeUnit.MILLISECONDS);
+      }
+    }
+    
+    return entry.future_;
+  }
+  
+  /**
+   * Send the given message and wait for the result.
+   * 
+   * This is a convenience for synchronous callers, concurrent callers still share batches.
+   * 
+   * @param message A message to be sent.
+   */
+  public void submitAndWait(IPubSubMessage message)
+  {
+    try
+    {
+      submit(message).join();
+    }
+    catch(CompletionException e)
+    {
+      if(e.getCause() instanceof RuntimeException)
+        throw (RuntimeException)e.getCause();
+      
+      throw new TransactionFault(e.getCause());
+    }
+  }
+  
+  /**
+   * Send all buffered messages without waiting for the linger time.
+   */
+  public synchronized void flush()
+  {
+    while(!pending_.isEmpty())
+      dispatch(takeBatch());
+  }
+  
+  /**
+   * Send all buffered messages and wait for the sends to complete.
+   * 
+   * Messages submitted after this call fail.
+   */
+  public void close()
+  {
+    synchronized(this)
+    {
+      closed_ = true;
+      flush();
+    }
+    
+    executor_.shutdown();
+    
+    try
+    {
+      if(!executor_.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+        log_.warn(name_ + " did not finish sending within " + CLOSE_TIMEOUT_MILLIS + "ms");
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+  
+  /**
+   * 
+   * @return The number of messages which are buffered or in flight.
+   */
+  public int getPendingCount()
+  {
+    return capacity_ - permits_.availablePermits();
+  }
+  
+  private synchronized void lingerExpired()
+  {
+    flushScheduled_ = false;
+    flush();
+  }
+  
+  /* Caller must hold the lock on this */
+  private List<BatchEntry> takeBatch()
+  {
+    List<BatchEntry>  batch = new ArrayList<>(Math.min(maxBatchSize_, pending_.size()));
+    int               bytes = 0;
+    
+    while(batch.size() < maxBatchSize_ && !pending_.isEmpty())
+    {
+      BatchEntry entry = pending_.peek();
+      
+      if(!batch.isEmpty() && bytes + entry.size_ > maxBatchBytes_)
+        break;
+      
+      pending_.remove();
+      bytes += entry.size_;
+      batch.add(entry);
+    }
+    
+    pendingBytes_ -= bytes;
+    
+    return batch;
+  }
+  
+  /* Caller must hold the lock on this */
+  private void dispatch(List<BatchEntry> batch)
+  {
+    try
+    {
+      executor_.execute(() -> send(batch));
+    }
+    catch(RejectedExecutionException e)
+    {
+      for(BatchEntry entry : batch)
+        entry.fail(new IllegalStateException(name_ + " is closed"));
+    }
+  }
+  
+  private void send(List<BatchEntry> batch)
+  {
+    try
+    {
+      sendBatch(batch);
+    }
+    catch(RuntimeException e)
+    {
+      log_.warn(name_ + " failed to send batch of " + batch.size() + " messages", e);
+      
+      for(BatchEntry entry : batch)
+        entry.fail(e);
+    }
+    
+    for(BatchEntry entry : batch)
+      entry.fail(new TransactionFault(name_ + " returned no result for message"));
+  }
+  
+  /**
+   * Return the size of the given message, the length of its payload and attributes.
+   * 
+   * @param message A message.
+   * 
+   * @return The size of the given message in bytes.
+   */
+  public static int getSize(IPubSubMessage message)
+  {
+    int size = message.getPayload().getBytes(StandardCharsets.UTF_8).length;
+    
+    for(Entry<String, Object> attribute : message.getAttributes().entrySet())
+      size += attribute.getKey().length() + String.valueOf(attribute.getValue()).length();
+    
+    return size;
+  }
+  
+  /**
+   * A message waiting to be sent.
+   * 
+   * @author Bruce Skingle
+   *
+   */
+  protected final class BatchEntry
+  {
+    private final IPubSubMessage          message_;
+    private final int                     size_;
+    private final CompletableFuture<Void> future_ = new CompletableFuture<>();
+    
+    private BatchEntry(IPubSubMessage message, int size)
+    {
+      message_  = message;
+      size_     = size;
+    }
+
+    /**
+     * 
+     * @return The message to be sent.
+     */
+    public IPubSubMessage getMessage()
+    {
+      return message_;
+    }
+    
+    /**
+     * Report that the message has been sent.
+     */
+    public void complete()
+    {
+      if(future_.complete(null))
+        permits_.release();
+    }
+    
+    /**
+     * Report that the message could not be sent, this has no effect if the entry has already completed.
+     * 
+     * @param cause The reason for the failure.
+     */
+    public void fail(Throwable cause)
+    {
+      if(future_.completeExceptionally(cause))
+        permits_.release();
+    }
+  }
+}
@@ -25,15 +25,16 @@ package org.symphonyoss.s2.fugue.pubsub;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.symphonyoss.s2.fugue.Fugue;
+import org.symphonyoss.s2.fugue.concurrent.InFlightTracker;
 import org.symphonyoss.s2.fugue.counter.IBusyCounter;
 import org.symphonyoss.s2.fugue.counter.ICounter;
 import org.symphonyoss.s2.fugue.counter.ScaleAction;
-import org.symphonyoss.s2.fugue.deploy.ExecutorBatch;
-import org.symphonyoss.s2.fugue.deploy.IBatch;
 import org.symphonyoss.s2.fugue.pipeline.ICloseableConsumer;
 
 public abstract class AbstractPullSubscriber implements Runnable
@@ -44,8 +45,10 @@ public abstract class AbstractPullSubscriber implements Runnable
   private final String                              subscriptionName_;
   private final ICounter                            counter_;
   private final IBusyCounter                        busyCounter_;
-  private final long                                extensionFrequency_;
   private final ICloseableConsumer                  consumer_;
+  private final InFlightTracker<IPullSubscriberMessage> inFlight_;
+  private final ReceiveConcurrencyController        concurrency_;
+  private final SubscriptionFlowController          flow_;
   private boolean                                   running_ = true;
 
   
@@ -59,14 +62,67 @@ public abstract class AbstractPullSubscriber implements Runnable
     subscriptionName_ = subscriptionName;
     counter_ = counter;
     busyCounter_ = busyCounter;
-    extensionFrequency_ = extensionFrequency;
     consumer_ = consumer;
+    inFlight_ = new InFlightTracker<>(subscriptionName, extensionFrequency, IPullSubscriberMessage::extend,
+        manager.getMaxMessagesInFlight());
+    concurrency_ = new ReceiveConcurrencyController(manager.getMinReceiveConcurrency(), manager.getMaxReceiveConcurrency());
+    flow_ = new SubscriptionFlowController(manager.getMaxOutstandingMessages(), manager.getMaxOutstandingBytes());
   }
 
   public void close()
   {
+    inFlight_.close();
     consumer_.close();
   }
+  
+  /**
+   * Drop messages which were passed to the handler executor but were discarded when it was shut down.
+   * 
+   * This is called once the handler executor has terminated, the dropped messages are no longer extended so
+   * they are redelivered when their visibility timeout expires. Their share of the flow control budget is
+   * released here because the handler wrapper which would have released it never runs.
+   */
+  public void cancelUnhandled()
+  {
+    for(IPullSubscriberMessage message : inFlight_.cancelPending())
+      flow_.release(1, message.getPayloadSize());
+  }
+  
+  /**
+   * 
+   * @return The number of messages currently being handled.
+   */
+  public int getInFlightCount()
+  {
+    return inFlight_.getInFlightCount();
+  }
+  
+  /**
+   * 
+   * @return The number of receive loops currently running for this subscription.
+   */
+  public int getReceiveConcurrency()
+  {
+    return concurrency_.getActive();
+  }
+  
+  /**
+   * 
+   * @return The number of messages received from this subscription which have not yet been handled.
+   */
+  public int getOutstandingMessages()
+  {
+    return flow_.getOutstandingMessages();
+  }
+  
+  /**
+   * 
+   * @return The total payload size of messages received from this subscription which have not yet been handled.
+   */
+  public long getOutstandingBytes()
+  {
+    return flow_.getOutstandingBytes();
+  }
 
   protected abstract IPullSubscriberContext getContext() throws IOException;
   
@@ -74,12 +130,25 @@ public abstract class AbstractPullSubscriber implements Runnable
   
   protected void getSomeMessages()
   {
+    getSomeMessages(true);
+  }
+  
+  private void getSomeMessages(boolean blockIfIdle)
+  {
+    // Don't pull more messages while the handlers have this subscription's budget.
+    if(!flow_.awaitCapacity())
+    {
+      log_.debug("Flow control budget exhausted for " + subscriptionName_);
+      concurrency_.onReceive(true, -1, true);
+      return;
+    }
+    
     // receive messages from the queue
         
     log_.info("About to read for " + subscriptionName_ + "...");
     try (IPullSubscriberContext context = getContext())
     {
-      getSomeMessages(context);
+      getSomeMessages(context, blockIfIdle);
     }
     catch (IOException e)
     {
@@ -88,6 +157,18 @@ public abstract class AbstractPullSubscriber implements Runnable
   }
   
   protected void getSomeMessages(IPullSubscriberContext context)
+  {
+    getSomeMessages(context, true);
+  }
+  
+  /**
+   * Receive and handle one batch of messages.
+   * 
+   * @param context     The pull context.
+   * @param blockIfIdle If true then make a blocking pull when there are no messages waiting, otherwise return.
+   *                    Additional receive loops do not block, the main loop waits for new messages.
+   */
+  private void getSomeMessages(IPullSubscriberContext context, boolean blockIfIdle)
   {
     // receive messages from the queue
         
@@ -95,10 +176,13 @@ public abstract class AbstractPullSubscriber implements Runnable
     try
     {
       Collection<IPullSubscriberMessage> messages = context.nonBlockingPull();
+      boolean                            messagesWaiting = !messages.isEmpty();
       
      
       if(messages.isEmpty())
       {
+        concurrency_.onReceive(false, -1, false);
+        
         if(busyCounter_ != null)
         {
           if(busyCounter_.busy(0) == ScaleAction.ScaleDown)
@@ -108,6 +192,9 @@ public abstract class AbstractPullSubscriber implements Runnable
           }
         }
         
+        if(!blockIfIdle)
+          return;
+        
         log_.info("Blocking read for " + subscriptionName_ + "...");
         
         messages = context.blockingPull();
@@ -118,44 +205,53 @@ public abstract class AbstractPullSubscriber implements Runnable
         {
           return;
         }
-        
-        scheduleExtra(1);
       }
       else
       {
         if(busyCounter_ != null)
           busyCounter_.busy(messages.size());
         
-        scheduleExtra(1);
-        
         log_.info("Non-Blocking read for " + subscriptionName_ + " returned " + messages.size());
       }
       
       
       
-      IBatch<IPullSubscriberMessage>  batch = new ExecutorBatch<>(manager_.getHandlerExecutor());
-      
       if(counter_ != null)
         counter_.increment(messages.size());
       
+      scheduleExtra();
+      
+      long bytes = 0;
+      
       for(IPullSubscriberMessage message : messages)
-      {
-        log_.debug("handle message " + message.getMessageId());
-//        log_.debug("handle message " + message);
-        batch.submit(message);
-      }
+        bytes += message.getPayloadSize();
       
-      Collection<IPullSubscriberMessage> incompleteTasks;
-      do
+      flow_.acquire(messages.size(), bytes);
+      
+      /*
+       * We do not wait for the batch to be handled, each message releases its share of the flow control budget
+       * as its handler completes and the next receive waits until the subscription is back within its budget.
+       * Messages which are still running are extended every extensionFrequency ms by the tracker.
+       */
+      Batch batch     = new Batch(messages.size(), messagesWaiting);
+      int   submitted = 0;
+      
+      try
       {
-        incompleteTasks = batch.waitForAllTasks(extensionFrequency_);
-        
-        for(IPullSubscriberMessage message : incompleteTasks)
+        for(IPullSubscriberMessage message : messages)
         {
-          log_.debug("extend message " + message.getMessageId());
-          message.extend();
+          log_.debug("handle message " + message.getMessageId());
+//          log_.debug("handle message " + message);
+          inFlight_.submit(batch.executor(manager_.getHandlerExecutor(), message.getPayloadSize()), message);
+          submitted++;
+          bytes -= message.getPayloadSize();
         }
-      } while(!incompleteTasks.isEmpty());
+      }
+      finally
+      {
+        if(submitted < messages.size())
+          flow_.release(messages.size() - submitted, bytes);
+      }
     }
     catch(RuntimeException e)
     {
@@ -188,15 +284,68 @@ public abstract class AbstractPullSubscriber implements Runnable
     }
   }
 
-  private void scheduleExtra(int count)
+  /*
+   * The messages from one receive, the last message to be handled records the time taken to handle the batch.
+   */
+  private class Batch
   {
+    private final long          start_     = System.currentTimeMillis();
+    private final AtomicInteger remaining_;
+    private final boolean       messagesWaiting_;
+    
+    Batch(int count, boolean messagesWaiting)
+    {
+      remaining_       = new AtomicInteger(count);
+      messagesWaiting_ = messagesWaiting;
+    }
+    
+    Executor executor(Executor handlerExecutor, long bytes)
+    {
+      return (task) -> handlerExecutor.execute(() ->
+      {
+        try
+        {
+          task.run();
+        }
+        finally
+        {
+          flow_.release(1, bytes);
+          
+          // A non-empty blocking pull means that the subscription was idle, which has already been recorded.
+          if(remaining_.decrementAndGet() == 0 && messagesWaiting_)
+            concurrency_.onReceive(true, System.currentTimeMillis() - start_, isBacklogged());
+        }
+      });
+    }
+  }
+
+  private boolean isBacklogged()
+  {
+    int maxInFlight = manager_.getMaxMessagesInFlight();
+    
+    return manager_.isHandlerBacklogged() || flow_.isExhausted() ||
+        (maxInFlight > 0 && inFlight_.getInFlightCount() >= maxInFlight);
+  }
 
+  private void scheduleExtra()
+  {
     if(isRunning() && !Fugue.isDebugSingleThread())
     {
-      for(int i=0 ; i<count ; i++)
-        manager_.submit(getNonIdleSubscriber(), false);
+      int count = 0;
+      
+      while(concurrency_.tryAddReceiver())
+      {
+        if(!manager_.submit(getNonIdleSubscriber(), false))
+        {
+          // The manager is at its limit for all subscriptions.
+          concurrency_.receiverStopped();
+          break;
+        }
+        count++;
+      }
 
-      log_.debug("Extra schedule " + count + " for " + subscriptionName_);
+      if(count > 0)
+        log_.debug("Extra schedule " + count + " for " + subscriptionName_);
     }
   }
 
@@ -208,9 +357,9 @@ public abstract class AbstractPullSubscriber implements Runnable
 
   protected void run(boolean runIfIdle)
   {
-    if(isRunning())
+    if(runIfIdle)
     {
-      if(runIfIdle)
+      if(isRunning())
       {
         try
         {
@@ -221,7 +370,7 @@ public abstract class AbstractPullSubscriber implements Runnable
         }
         finally
         {
-          if(runIfIdle && isRunning())
+          if(isRunning())
           {
             // This "can't happen"
             log_.error("Main subscriber thread returned, rescheduling...");
@@ -230,23 +379,47 @@ public abstract class AbstractPullSubscriber implements Runnable
           }
         }
       }
-      else
+    }
+    else
+    {
+      // An additional receive loop, which runs until the controller reduces the concurrency.
+      boolean holdingSlot = true;
+      
+      try
       {
-        if(isRunning())
+        while(isRunning())
         {
-          getSomeMessages();
+          getSomeMessages(false);
+          
+          if(!(holdingSlot = concurrency_.keepReceiving()))
+            break;
         }
       }
+      finally
+      {
+        if(holdingSlot)
+          concurrency_.receiverStopped();
+      }
     }
   }
   
-
-
   public synchronized boolean isRunning()
   {
     return running_;
   }
   
+  /**
+   * Allow the subscriber to run again after stop(), this is called before the receive loop is submitted
+   * when subscriptions are resumed after quiesce.
+   */
+  public synchronized void start()
+  {
+    running_ = true;
+    
+    // Additional receive loops which were queued when the subscriber executor was shut down never ran.
+    concurrency_.reset();
+  }
+  
   public synchronized void stop()
   {
     running_ = false;
@@ -23,15 +23,18 @@
 
 package org.symphonyoss.s2.fugue.pubsub;
 
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.symphonyoss.s2.common.concurrent.NamedThreadFactory;
 import org.symphonyoss.s2.common.fault.ProgramFault;
 import org.symphonyoss.s2.fugue.Fugue;
+import org.symphonyoss.s2.fugue.concurrent.VirtualThreads;
 import org.symphonyoss.s2.fugue.config.IConfiguration;
 import org.symphonyoss.s2.fugue.counter.IBusyCounter;
 import org.symphonyoss.s2.fugue.counter.ITopicBusyCounterFactory;
@@ -41,6 +44,22 @@ import org.symphonyoss.s2.fugue.naming.SubscriptionName;
 /**
  * Base class for synchronous pull type implementations.
  * 
+ * By default receives and message handlers run on two fixed size pools of platform threads. If the
+ * configuration sets useVirtualThreads then each receive and each handler runs on its own virtual thread
+ * (where the runtime supports them), the number of concurrent receives is limited to maxReceivers and
+ * the number of messages in flight for each subscription to maxMessagesInFlight.
+ * 
+ * The number of concurrent receive loops for each subscription is adjusted by a {@link ReceiveConcurrencyController}
+ * between minReceiveConcurrency and maxReceiveConcurrency (by default the number of subscriber threads, or
+ * maxReceivers when using virtual threads).
+ * 
+ * All subscriptions share the handler threads, so each subscription has a flow control budget of
+ * maxOutstandingMessages messages and maxOutstandingBytes of payload which have been received but not yet
+ * handled. Each message releases its share of the budget as its handler completes. When a subscription's
+ * budget is exhausted its receive loops pause instead of pulling more, so a slow consumer on one subscription
+ * cannot fill the handler queue and starve the others. By default maxOutstandingMessages is twice each
+ * subscription's share of the handler threads, or maxMessagesInFlight when using virtual threads.
+ * 
  * @author Bruce Skingle
  *
  * @param <T> Type of concrete manager, needed for fluent methods.
@@ -54,10 +73,18 @@ public abstract class AbstractPullSubscriberManager<P, T extends AbstractPullSub
 
   private int                                 subscriberThreadPoolSize_;
   private int                                 handlerThreadPoolSize_;
+  private final boolean                       useVirtualThreads_;
+  private final int                           maxReceivers_;
+  private final int                           maxMessagesInFlight_;
+  private final int                           minReceiveConcurrency_;
+  private final int                           maxReceiveConcurrency_;
+  private final int                           maxOutstandingMessages_;
+  private final long                          maxOutstandingBytes_;
   private final LinkedBlockingQueue<Runnable> executorQueue_ = new LinkedBlockingQueue<Runnable>();
   private final LinkedBlockingQueue<Runnable> handlerQueue_  = new LinkedBlockingQueue<Runnable>();
-  private ThreadPoolExecutor                  subscriberExecutor_;
-  private ThreadPoolExecutor                  handlerExecutor_;
+  private final AtomicInteger                 receiverCnt_   = new AtomicInteger();
+  private ExecutorService                     subscriberExecutor_;
+  private ExecutorService                     handlerExecutor_;
 
   
   protected AbstractPullSubscriberManager(Class<T> type, Builder<?,P,T> builder)
@@ -70,6 +97,13 @@ public abstract class AbstractPullSubscriberManager<P, T extends AbstractPullSub
     
     subscriberThreadPoolSize_ = subscriberConfig.getInt("subscriberThreadPoolSize", 4);
     handlerThreadPoolSize_ = subscriberConfig.getInt("handlerThreadPoolSize", 9 * subscriberThreadPoolSize_);
+    useVirtualThreads_ = subscriberConfig.getBoolean("useVirtualThreads", false) && !Fugue.isDebugSingleThread();
+    maxReceivers_ = subscriberConfig.getInt("maxReceivers", 2 * subscriberThreadPoolSize_);
+    maxMessagesInFlight_ = subscriberConfig.getInt("maxMessagesInFlight", 1000);
+    minReceiveConcurrency_ = subscriberConfig.getInt("minReceiveConcurrency", 1);
+    maxReceiveConcurrency_ = subscriberConfig.getInt("maxReceiveConcurrency", 0);
+    maxOutstandingMessages_ = subscriberConfig.getInt("maxOutstandingMessages", -1);
+    maxOutstandingBytes_ = subscriberConfig.getLong("maxOutstandingBytes", 100L * 1024 * 1024);
 
 //    subscriberThreadPoolSize_ = 4; //8 * getTotalSubscriptionCnt();
   }
@@ -119,6 +153,18 @@ public abstract class AbstractPullSubscriberManager<P, T extends AbstractPullSub
       return;
     }
     
+    if(useVirtualThreads_)
+    {
+      log_.info("Starting AbstractPullSubscriberManager with virtual threads, " + maxReceivers_ +
+          " max receivers and " + maxMessagesInFlight_ + " max messages in flight per subscription for a total of " +
+          getTotalSubscriptionCnt() + " subscriptions...");
+      
+      createExecutors();
+      
+      super.start();
+      return;
+    }
+    
     if(Fugue.isDebugSingleThread())
     {
       subscriberThreadPoolSize_ = totalSubscriptionCnt_ == 0 ? 1 : totalSubscriptionCnt_;
@@ -152,6 +198,20 @@ public abstract class AbstractPullSubscriberManager<P, T extends AbstractPullSub
         " subscriber threads and " + handlerThreadPoolSize_ + " handler threads for a total of " +
         getTotalSubscriptionCnt() + " subscriptions...");
 
+    createExecutors();
+      
+    super.start();
+  }
+  
+  private void createExecutors()
+  {
+    if(useVirtualThreads_)
+    {
+      subscriberExecutor_ = VirtualThreads.newThreadPerTaskExecutor("PubSub-subscriber");
+      handlerExecutor_ = VirtualThreads.newThreadPerTaskExecutor("PubSub-handler");
+      return;
+    }
+    
     subscriberExecutor_ = new ThreadPoolExecutor(subscriberThreadPoolSize_, subscriberThreadPoolSize_,
         10000L, TimeUnit.MILLISECONDS,
         executorQueue_, new NamedThreadFactory("PubSub-subscriber"));
@@ -159,8 +219,18 @@ public abstract class AbstractPullSubscriberManager<P, T extends AbstractPullSub
     handlerExecutor_ = new ThreadPoolExecutor(handlerThreadPoolSize_, handlerThreadPoolSize_,
         10000L, TimeUnit.MILLISECONDS,
         handlerQueue_, new NamedThreadFactory("PubSub-handler", true));
-      
-    super.start();
+  }
+  
+  @Override
+  protected void resumeSubscriptions()
+  {
+    if(totalSubscriptionCnt_ == 0)
+      return;
+    
+    // quiesce shut down the executors, which cannot be restarted
+    createExecutors();
+    
+    startSubscriptions();
   }
   
   @Override
@@ -179,7 +249,7 @@ public abstract class AbstractPullSubscriberManager<P, T extends AbstractPullSub
       stop(handlerExecutor_, 10);
   }
 
-  private void stop(ThreadPoolExecutor executor, int delay)
+  private void stop(ExecutorService executor, int delay)
   {
     try {
       // Wait a while for existing tasks to terminate
@@ -197,10 +267,45 @@ public abstract class AbstractPullSubscriberManager<P, T extends AbstractPullSub
     }
   }
 
-  protected void submit(Runnable subscriber, boolean force)
+  /**
+   * Submit a receive loop for execution.
+   * 
+   * @param subscriber  The receive loop.
+   * @param force       If true then submit even if the subscriber executor is busy.
+   * 
+   * @return true if the receive loop was submitted.
+   */
+  protected boolean submit(Runnable subscriber, boolean force)
   {
-    if(force || executorQueue_.size() < subscriberThreadPoolSize_)
+    if(useVirtualThreads_)
+    {
+      // There is no queue, so limit the number of receives which are running.
+      if(receiverCnt_.incrementAndGet() > maxReceivers_ && !force)
+      {
+        receiverCnt_.decrementAndGet();
+        return false;
+      }
+      
+      subscriberExecutor_.submit(() ->
+      {
+        try
+        {
+          subscriber.run();
+        }
+        finally
+        {
+          receiverCnt_.decrementAndGet();
+        }
+      });
+      return true;
+    }
+    else if(force || executorQueue_.size() < subscriberThreadPoolSize_)
+    {
       subscriberExecutor_.submit(subscriber);
+      return true;
+    }
+    
+    return false;
   }
 
   protected void printQueueSize()
@@ -213,11 +318,75 @@ public abstract class AbstractPullSubscriberManager<P, T extends AbstractPullSub
 //    return new ExecutorBatch(handlerExecutor_);
 //  }
 
-  ThreadPoolExecutor getHandlerExecutor()
+  ExecutorService getHandlerExecutor()
   {
     return handlerExecutor_;
   }
   
+  /**
+   * 
+   * @return The maximum number of messages in flight for each subscription, zero if the handler pool size is the limit.
+   */
+  int getMaxMessagesInFlight()
+  {
+    return useVirtualThreads_ ? maxMessagesInFlight_ : 0;
+  }
+  
+  /**
+   * 
+   * @return The minimum number of concurrent receive loops for each subscription.
+   */
+  int getMinReceiveConcurrency()
+  {
+    return minReceiveConcurrency_;
+  }
+  
+  /**
+   * 
+   * @return The maximum number of concurrent receive loops for each subscription, by default the number of receivers.
+   */
+  int getMaxReceiveConcurrency()
+  {
+    if(maxReceiveConcurrency_ > 0)
+      return maxReceiveConcurrency_;
+    
+    return useVirtualThreads_ ? maxReceivers_ : subscriberThreadPoolSize_;
+  }
+  
+  /**
+   * 
+   * @return The maximum number of messages which each subscription may have outstanding, zero for no limit.
+   */
+  int getMaxOutstandingMessages()
+  {
+    if(maxOutstandingMessages_ >= 0)
+      return maxOutstandingMessages_;
+    
+    if(useVirtualThreads_)
+      return maxMessagesInFlight_;
+    
+    // The handler pool size is only final once start() has been called.
+    return Math.max(1, 2 * handlerThreadPoolSize_ / Math.max(1, getTotalSubscriptionCnt()));
+  }
+  
+  /**
+   * 
+   * @return The maximum total payload size which each subscription may have outstanding, zero for no limit.
+   */
+  long getMaxOutstandingBytes()
+  {
+    return maxOutstandingBytes_;
+  }
+  
+  /**
+   * 
+   * @return true if the handler pool has more work queued than it has threads.
+   */
+  boolean isHandlerBacklogged()
+  {
+    return !useVirtualThreads_ && handlerQueue_.size() > handlerThreadPoolSize_;
+  }
+  
   protected IBusyCounter createBusyCounter(Name subscriptionName)
   {
     if(getBusyCounterFactory() == null)
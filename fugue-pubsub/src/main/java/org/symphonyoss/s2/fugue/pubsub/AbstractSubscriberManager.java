@@ -236,6 +236,16 @@ implements ISubscriberManager<T>
    */
   protected abstract void stopSubscriptions();
   
+  /**
+   * Restart all subscribers after stopSubscriptions() has been called by quiesce().
+   * 
+   * @throws IllegalStateException If this manager does not support being resumed.
+   */
+  protected void resumeSubscriptions()
+  {
+    throw new IllegalStateException(getClass().getSimpleName() + " cannot be resumed after quiesce");
+  }
+  
   protected ITraceContextTransactionFactory getTraceFactory()
   {
     return traceFactory_;
@@ -266,6 +276,16 @@ implements ISubscriberManager<T>
     setLifeCycleState(FugueLifecycleState.Quiescent);
   }
 
+  @Override
+  public synchronized void resume()
+  {
+    setLifeCycleState(FugueLifecycleState.Starting);
+    
+    resumeSubscriptions();
+    
+    setLifeCycleState(FugueLifecycleState.Running);
+  }
+
   @Override
   public synchronized void stop()
   {
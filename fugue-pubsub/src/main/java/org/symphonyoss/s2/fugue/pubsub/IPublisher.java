@@ -23,6 +23,9 @@
 
 package org.symphonyoss.s2.fugue.pubsub;
 
+import java.util.concurrent.CompletableFuture;
+
+import org.symphonyoss.s2.fugue.concurrent.AsyncOperationLimiter;
 import org.symphonyoss.s2.fugue.pipeline.IThreadSafeConsumer;
 
 /**
@@ -55,4 +58,35 @@ public interface IPublisher extends IThreadSafeConsumer<IPubSubMessage>
    * @param item The item to be consumed.
    */
   void consume(IPubSubMessage item);
+  
+  /**
+   * Publish the given item without waiting for the publish to complete.
+   * 
+   * Implementations limit the number of publishes in flight and block the caller while that limit is
+   * reached, so that a fast producer cannot exhaust memory. The default implementation publishes
+   * synchronously and returns a completed future.
+   * 
+   * @param item The item to be published.
+   * 
+   * @return A future which completes when the item has been published.
+   */
+  default CompletableFuture<Void> publishAsync(IPubSubMessage item)
+  {
+    try
+    {
+      consume(item);
+      
+      return CompletableFuture.completedFuture(null);
+    }
+    catch(RuntimeException e)
+    {
+      return AsyncOperationLimiter.failedFuture(e);
+    }
+  }
+  
+  /**
+   * 
+   * @return Metrics for this publisher.
+   */
+  PublisherMetrics getPublishMetrics();
 }
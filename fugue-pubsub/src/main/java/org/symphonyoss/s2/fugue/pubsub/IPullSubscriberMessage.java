@@ -35,5 +35,11 @@ public interface IPullSubscriberMessage extends Runnable
 {
   String  getMessageId();
   void extend();
+  
+  /**
+   * 
+   * @return The size of the message payload, used for flow control.
+   */
+  int     getPayloadSize();
 
 }
@@ -28,13 +28,16 @@ import java.util.Map;
 import javax.annotation.Nullable;
 
 import org.symphonyoss.s2.common.exception.NotFoundException;
+import org.symphonyoss.s2.fugue.IFugueComponent;
 
 /**
  * A queue manager.
  * 
+ * Senders and receivers may buffer messages and acknowledgements, stop() sends anything which is buffered.
+ * 
  * @author Bruce Skingle
  */
-public interface IQueueManager
+public interface IQueueManager extends IFugueComponent
 {
   /**
    * Delete the given queue.
@@ -23,6 +23,10 @@
 
 package org.symphonyoss.s2.fugue.pubsub;
 
+import java.util.concurrent.CompletableFuture;
+
+import org.symphonyoss.s2.fugue.concurrent.AsyncOperationLimiter;
+
 /**
  * A component capable of sending messages to a queue.
  * 
@@ -37,4 +41,28 @@ public interface IQueueSender
    * @param pubSubMessage A message to be sent.
    */
   void sendMessage(IPubSubMessage pubSubMessage);
+  
+  /**
+   * Send the given message to the queue without waiting for the send to complete.
+   * 
+   * Implementations may buffer the message and send it with others, the default implementation
+   * sends synchronously and returns a completed future.
+   * 
+   * @param pubSubMessage A message to be sent.
+   * 
+   * @return A future which completes when the message has been sent.
+   */
+  default CompletableFuture<Void> sendMessageAsync(IPubSubMessage pubSubMessage)
+  {
+    try
+    {
+      sendMessage(pubSubMessage);
+      
+      return CompletableFuture.completedFuture(null);
+    }
+    catch(RuntimeException e)
+    {
+      return AsyncOperationLimiter.failedFuture(e);
+    }
+  }
 }
@@ -0,0 +1,82 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.pubsub;
+
+import org.symphonyoss.s2.fugue.concurrent.AsyncOperationLimiter;
+import org.symphonyoss.s2.fugue.metrics.LatencyMetric;
+
+/**
+ * Metrics for a publisher or queue sender.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+public class PublisherMetrics
+{
+  private final LatencyMetric         publishLatency_ = new LatencyMetric();
+  private final AsyncOperationLimiter limiter_;
+
+  /**
+   * Constructor.
+   * 
+   * @param limiter The limiter which bounds the number of asynchronous publishes in flight.
+   */
+  public PublisherMetrics(AsyncOperationLimiter limiter)
+  {
+    limiter_ = limiter;
+  }
+
+  /**
+   * 
+   * @return Latency of publish operations.
+   */
+  public LatencyMetric getPublishLatency()
+  {
+    return publishLatency_;
+  }
+  
+  /**
+   * 
+   * @return The number of asynchronous publishes currently in flight.
+   */
+  public int getInFlight()
+  {
+    return limiter_.getInFlight();
+  }
+  
+  /**
+   * 
+   * @return The maximum number of asynchronous publishes which may be in flight at once.
+   */
+  public int getMaxInFlight()
+  {
+    return limiter_.getMaxInFlight();
+  }
+
+  @Override
+  public String toString()
+  {
+    return "publish(" + publishLatency_ + "), inFlight=" + getInFlight() + "/" + getMaxInFlight();
+  }
+}
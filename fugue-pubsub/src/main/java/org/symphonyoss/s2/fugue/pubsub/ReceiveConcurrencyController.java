@@ -0,0 +1,157 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.pubsub;
+
+/**
+ * Controls the number of concurrent receive loops for a single subscription.
+ * 
+ * The target concurrency follows an additive increase, multiplicative decrease rule. Each receive which
+ * finds messages waiting increases the target by 1/target, so the target grows by about one per round
+ * of receives while the subscription is busy. A receive which finds the subscription empty, a handler
+ * backlog, or a batch which takes much longer to handle than the recent average, halves the target so
+ * that we stop polling an idle subscription and stop pulling more work than the handlers can absorb.
+ * 
+ * The target is bounded by the configured minimum and maximum. The main receive loop of the subscription
+ * is always counted as one of the active receivers.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+/* package */ class ReceiveConcurrencyController
+{
+  private static final double DECREASE_FACTOR   = 0.5;
+  private static final double LATENCY_ALPHA     = 0.2;
+  private static final double LATENCY_THRESHOLD = 2.0;
+  
+  private final int           min_;
+  private final int           max_;
+  
+  /* The following are guarded by this */
+  private double              target_;
+  private int                 active_ = 1;
+  private double              meanBatchMillis_;
+  
+  /* package */ ReceiveConcurrencyController(int min, int max)
+  {
+    min_    = Math.max(1, min);
+    max_    = Math.max(min_, max);
+    target_ = min_;
+  }
+  
+  /**
+   * Record the outcome of a receive.
+   * 
+   * @param messagesWaiting True if messages were available without waiting.
+   * @param batchMillis     The time taken to handle the batch received, or -1 if nothing was received.
+   * @param backlogged      True if the handlers have a backlog of work.
+   */
+  /* package */ synchronized void onReceive(boolean messagesWaiting, long batchMillis, boolean backlogged)
+  {
+    boolean slow = false;
+    
+    if(batchMillis >= 0)
+    {
+      slow = meanBatchMillis_ > 0 && batchMillis > LATENCY_THRESHOLD * meanBatchMillis_;
+      meanBatchMillis_ = meanBatchMillis_ == 0 ? batchMillis : 
+        (1 - LATENCY_ALPHA) * meanBatchMillis_ + LATENCY_ALPHA * batchMillis;
+    }
+    
+    if(!messagesWaiting || backlogged || slow)
+      target_ = Math.max(min_, target_ * DECREASE_FACTOR);
+    else
+      target_ = Math.min(max_, target_ + 1.0 / target_);
+  }
+  
+  /**
+   * Claim a slot for an additional receive loop if the target concurrency allows one.
+   * 
+   * @return true if the caller should start another receive loop.
+   */
+  /* package */ synchronized boolean tryAddReceiver()
+  {
+    if(active_ < (int)target_)
+    {
+      active_++;
+      return true;
+    }
+    
+    return false;
+  }
+  
+  /**
+   * Called by an additional receive loop after each receive.
+   * 
+   * If this returns false the slot of the caller has been released and it must exit.
+   * 
+   * @return true if the caller should continue receiving.
+   */
+  /* package */ synchronized boolean keepReceiving()
+  {
+    if(active_ > (int)target_)
+    {
+      active_--;
+      return false;
+    }
+    
+    return true;
+  }
+  
+  /**
+   * Release the slot of an additional receive loop which is exiting for some other reason.
+   */
+  /* package */ synchronized void receiverStopped()
+  {
+    active_--;
+  }
+  
+  /**
+   * Forget all additional receive loops and return to the minimum concurrency.
+   * 
+   * Called when the subscription is restarted, after all of its receive loops have stopped.
+   */
+  /* package */ synchronized void reset()
+  {
+    active_          = 1;
+    target_          = min_;
+    meanBatchMillis_ = 0;
+  }
+  
+  /**
+   * 
+   * @return The number of active receive loops.
+   */
+  /* package */ synchronized int getActive()
+  {
+    return active_;
+  }
+  
+  /**
+   * 
+   * @return The current target number of receive loops.
+   */
+  /* package */ synchronized int getTarget()
+  {
+    return (int)target_;
+  }
+}
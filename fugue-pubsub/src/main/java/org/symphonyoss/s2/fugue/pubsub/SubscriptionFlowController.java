@@ -0,0 +1,143 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.pubsub;
+
+/**
+ * Limits the number of messages, and the total size of their payloads, which a single subscription
+ * may have outstanding with the handlers.
+ * 
+ * Receive loops call awaitCapacity() before each pull, so when the budget is exhausted a subscription
+ * stops pulling rather than adding more work to the handler queue it shares with other subscriptions.
+ * Receive loops do not wait for their batch to be handled, each message is released as its handler completes.
+ * A single batch may take a subscription over its budget, in which case no further pulls are made until
+ * enough messages have been handled to bring it back under.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+/* package */ class SubscriptionFlowController
+{
+  private static final long WAIT_MILLIS = 1000;
+  
+  private final int         maxMessages_;
+  private final long        maxBytes_;
+  
+  /* The following are guarded by this */
+  private int               messages_;
+  private long              bytes_;
+  
+  /**
+   * Constructor.
+   * 
+   * @param maxMessages The maximum number of outstanding messages, zero for no limit.
+   * @param maxBytes    The maximum total payload size of outstanding messages, zero for no limit.
+   */
+  /* package */ SubscriptionFlowController(int maxMessages, long maxBytes)
+  {
+    maxMessages_ = maxMessages;
+    maxBytes_    = maxBytes;
+  }
+  
+  /**
+   * 
+   * @return true if the budget of this subscription is exhausted.
+   */
+  /* package */ synchronized boolean isExhausted()
+  {
+    return (maxMessages_ > 0 && messages_ >= maxMessages_) || (maxBytes_ > 0 && bytes_ >= maxBytes_);
+  }
+  
+  /**
+   * Block until the subscription is within its budget.
+   * 
+   * This method waits for at most one second so that the caller can check whether it should still be running.
+   * 
+   * @return true if the subscription is within its budget.
+   */
+  /* package */ synchronized boolean awaitCapacity()
+  {
+    long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+    long remaining;
+    
+    while(isExhausted() && (remaining = deadline - System.currentTimeMillis()) > 0)
+    {
+      try
+      {
+        wait(remaining);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        
+        throw new IllegalStateException("Interrupted waiting for subscription capacity", e);
+      }
+    }
+    
+    return !isExhausted();
+  }
+  
+  /**
+   * Record messages which have been received.
+   * 
+   * @param count The number of messages.
+   * @param bytes The total size of their payloads.
+   */
+  /* package */ synchronized void acquire(int count, long bytes)
+  {
+    messages_ += count;
+    bytes_    += bytes;
+  }
+  
+  /**
+   * Record messages which have been handled.
+   * 
+   * @param count The number of messages.
+   * @param bytes The total size of their payloads.
+   */
+  /* package */ synchronized void release(int count, long bytes)
+  {
+    messages_ -= count;
+    bytes_    -= bytes;
+    
+    notifyAll();
+  }
+  
+  /**
+   * 
+   * @return The number of messages outstanding.
+   */
+  /* package */ synchronized int getOutstandingMessages()
+  {
+    return messages_;
+  }
+  
+  /**
+   * 
+   * @return The total payload size of messages outstanding.
+   */
+  /* package */ synchronized long getOutstandingBytes()
+  {
+    return bytes_;
+  }
+}
@@ -26,6 +26,8 @@ package org.symphonyoss.s2.fugue.pubsub;
 import javax.annotation.concurrent.Immutable;
 
 import org.symphonyoss.s2.common.fault.FaultAccumulator;
+import org.symphonyoss.s2.fugue.pipeline.BatchConsumerAdaptor;
+import org.symphonyoss.s2.fugue.pipeline.IThreadSafeBatchConsumer;
 import org.symphonyoss.s2.fugue.pipeline.IThreadSafeRetryableConsumer;
 
 /**
@@ -82,6 +84,25 @@ public class TopicSubscription extends TopicSubscriptionAdmin implements ISubscr
       
       return this;
     }
+
+    /**
+     * Set a batch consumer for received messages.
+     * 
+     * Messages handled concurrently are passed to the consumer in batches, so that it can use bulk APIs,
+     * each message is acknowledged or retried according to its own outcome.
+     * 
+     * @param consumer        The batch consumer.
+     * @param maxBatchSize    The maximum number of messages in a batch, which should be no larger than the number of handler threads.
+     * @param maxBatchMillis  The maximum time to wait for a batch to fill.
+     * 
+     * @return This (fluent method).
+     */
+    public Builder withBatchConsumer(IThreadSafeBatchConsumer<String> consumer, int maxBatchSize, long maxBatchMillis)
+    {
+      consumer_ = new BatchConsumerAdaptor<>(consumer, maxBatchSize, maxBatchMillis);
+      
+      return this;
+    }
     
     @Override
     protected void validate(FaultAccumulator faultAccumulator)
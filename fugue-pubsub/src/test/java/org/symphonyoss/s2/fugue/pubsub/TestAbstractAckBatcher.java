@@ -0,0 +1,172 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.pubsub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TestAbstractAckBatcher
+{
+  private static class RecordingAckBatcher extends AbstractAckBatcher
+  {
+    final List<Map<String, Integer>>        acks_         = new CopyOnWriteArrayList<>();
+    final List<Map<String, DeadlineChange>> changes_      = new CopyOnWriteArrayList<>();
+    final AtomicInteger                     ackFailures_  = new AtomicInteger();
+    
+    RecordingAckBatcher(int maxBatchSize, int maxBatchBytes)
+    {
+      super("test-ack", maxBatchSize, maxBatchBytes, 100);
+    }
+
+    @Override
+    protected void sendAcks(Map<String, Integer> acks, Map<String, Integer> retries)
+    {
+      acks_.add(new LinkedHashMap<>(acks));
+      
+      if(ackFailures_.getAndDecrement() > 0)
+      {
+        for(Map.Entry<String, Integer> entry : acks.entrySet())
+        {
+          if(entry.getValue() + 1 < MAX_ATTEMPTS)
+            retries.put(entry.getKey(), entry.getValue() + 1);
+        }
+      }
+    }
+
+    @Override
+    protected void sendDeadlineChanges(Map<String, DeadlineChange> changes, Map<String, DeadlineChange> retries)
+    {
+      changes_.add(new LinkedHashMap<>(changes));
+    }
+    
+    List<String> ackedIds()
+    {
+      List<String> ids = new ArrayList<>();
+      
+      for(Map<String, Integer> batch : acks_)
+        ids.addAll(batch.keySet());
+      
+      return ids;
+    }
+  }
+  
+  @Test
+  public void testBatchSize()
+  {
+    RecordingAckBatcher batcher = new RecordingAckBatcher(10, Integer.MAX_VALUE);
+    
+    for(int i=0 ; i<25 ; i++)
+      batcher.acknowledge("id" + i);
+    
+    batcher.flushPending();
+    
+    for(Map<String, Integer> batch : batcher.acks_)
+      assertTrue(batch.size() <= 10);
+    
+    assertEquals(25, batcher.ackedIds().size());
+    
+    batcher.close();
+  }
+  
+  @Test
+  public void testBatchBytes()
+  {
+    RecordingAckBatcher batcher = new RecordingAckBatcher(100, 10);
+    
+    for(int i=0 ; i<6 ; i++)
+      batcher.acknowledge("abcd" + i);
+    
+    batcher.close();
+    
+    for(Map<String, Integer> batch : batcher.acks_)
+      assertTrue(batch.size() <= 2);
+    
+    assertEquals(6, batcher.ackedIds().size());
+  }
+  
+  @Test
+  public void testAckSupersedesChange()
+  {
+    RecordingAckBatcher batcher = new RecordingAckBatcher(10, Integer.MAX_VALUE);
+    
+    batcher.modifyDeadline("id", 30);
+    batcher.acknowledge("id");
+    batcher.modifyDeadline("id", 60);
+    batcher.close();
+    
+    assertEquals(1, batcher.ackedIds().size());
+    assertTrue(batcher.changes_.isEmpty());
+  }
+  
+  @Test
+  public void testExtendDoesNotSupersedeNack()
+  {
+    RecordingAckBatcher batcher = new RecordingAckBatcher(10, Integer.MAX_VALUE);
+    
+    batcher.modifyDeadline("nacked", 0);
+    batcher.extendDeadline("nacked", 300);
+    batcher.extendDeadline("extended", 300);
+    batcher.modifyDeadline("extended", 5);
+    batcher.close();
+    
+    assertEquals(1, batcher.changes_.size());
+    assertEquals(0, batcher.changes_.get(0).get("nacked").getDeadlineSeconds());
+    assertEquals(5, batcher.changes_.get(0).get("extended").getDeadlineSeconds());
+  }
+  
+  @Test
+  public void testRetryDuringClose()
+  {
+    RecordingAckBatcher batcher = new RecordingAckBatcher(10, Integer.MAX_VALUE);
+    
+    batcher.ackFailures_.set(1);
+    batcher.acknowledge("id");
+    batcher.close();
+    
+    assertEquals(2, batcher.acks_.size());
+    assertEquals(Integer.valueOf(1), batcher.acks_.get(1).get("id"));
+  }
+  
+  @Test
+  public void testRetriesExhaustedDuringClose()
+  {
+    RecordingAckBatcher batcher = new RecordingAckBatcher(10, Integer.MAX_VALUE);
+    
+    batcher.ackFailures_.set(10);
+    batcher.acknowledge("id");
+    batcher.close();
+    
+    assertEquals(AbstractAckBatcher.MAX_ATTEMPTS, batcher.acks_.size());
+  }
+}
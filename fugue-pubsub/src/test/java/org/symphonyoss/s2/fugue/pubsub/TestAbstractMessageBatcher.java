@@ -0,0 +1,240 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.pubsub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+import org.symphonyoss.s2.common.fault.TransactionFault;
+import org.symphonyoss.s2.fugue.core.trace.NoOpTraceContext;
+
+@SuppressWarnings("javadoc")
+public class TestAbstractMessageBatcher
+{
+  private static class RecordingBatcher extends AbstractMessageBatcher
+  {
+    final List<List<String>> batches_ = new CopyOnWriteArrayList<>();
+    final CountDownLatch     release_;
+    
+    RecordingBatcher(int maxBatchSize, int maxBatchBytes, long lingerMillis, int capacity, boolean blocked)
+    {
+      super("test-send", maxBatchSize, maxBatchBytes, 100, lingerMillis, capacity, 1);
+      
+      release_ = new CountDownLatch(blocked ? 1 : 0);
+    }
+
+    @Override
+    protected void sendBatch(List<BatchEntry> batch)
+    {
+      try
+      {
+        release_.await();
+      }
+      catch (InterruptedException e)
+      {
+        throw new IllegalStateException(e);
+      }
+      
+      List<String> payloads = new ArrayList<>(batch.size());
+      
+      for(BatchEntry entry : batch)
+      {
+        String payload = entry.getMessage().getPayload();
+        
+        payloads.add(payload);
+        
+        if(payload.startsWith("bad"))
+          entry.fail(new TransactionFault("Rejected " + payload));
+        else if(!payload.startsWith("lost"))
+          entry.complete();
+      }
+      
+      batches_.add(payloads);
+    }
+  }
+  
+  private static IPubSubMessage message(String payload)
+  {
+    return new PubSubMessage(payload, NoOpTraceContext.INSTANCE, Collections.emptyMap());
+  }
+  
+  @Test
+  public void testBatchSize()
+  {
+    RecordingBatcher batcher = new RecordingBatcher(3, 1000, 60000, 100, false);
+    
+    for(int i=0 ; i<7 ; i++)
+      batcher.submit(message("m" + i));
+    
+    batcher.close();
+    
+    assertEquals(Arrays.asList(
+        Arrays.asList("m0", "m1", "m2"),
+        Arrays.asList("m3", "m4", "m5"),
+        Arrays.asList("m6")
+        ), batcher.batches_);
+  }
+  
+  @Test
+  public void testBatchBytes()
+  {
+    RecordingBatcher batcher = new RecordingBatcher(100, 10, 60000, 100, false);
+    
+    for(int i=0 ; i<6 ; i++)
+      batcher.submit(message("msg" + i));
+    
+    batcher.close();
+    
+    assertEquals(Arrays.asList(
+        Arrays.asList("msg0", "msg1"),
+        Arrays.asList("msg2", "msg3"),
+        Arrays.asList("msg4", "msg5")
+        ), batcher.batches_);
+  }
+  
+  @Test
+  public void testLinger() throws InterruptedException, ExecutionException, TimeoutException
+  {
+    RecordingBatcher batcher = new RecordingBatcher(10, 1000, 50, 100, false);
+    
+    batcher.submit(message("m0")).get(10, TimeUnit.SECONDS);
+    
+    assertEquals(Collections.singletonList(Collections.singletonList("m0")), batcher.batches_);
+    
+    batcher.close();
+  }
+  
+  @Test
+  public void testBackpressure() throws InterruptedException, ExecutionException, TimeoutException
+  {
+    RecordingBatcher          batcher   = new RecordingBatcher(1, 1000, 60000, 2, true);
+    CompletableFuture<Void>   submitted = new CompletableFuture<>();
+    
+    batcher.submit(message("m0"));
+    batcher.submit(message("m1"));
+    
+    assertEquals(2, batcher.getPendingCount());
+    
+    Thread producer = new Thread(() ->
+    {
+      batcher.submit(message("m2"));
+      submitted.complete(null);
+    });
+    
+    producer.start();
+    
+    try
+    {
+      submitted.get(200, TimeUnit.MILLISECONDS);
+      fail("Submit should block while the buffer is full");
+    }
+    catch(TimeoutException e)
+    {
+      // expected
+    }
+    
+    batcher.release_.countDown();
+    submitted.get(10, TimeUnit.SECONDS);
+    batcher.close();
+    
+    assertEquals(3, batcher.batches_.size());
+    assertEquals(0, batcher.getPendingCount());
+  }
+  
+  @Test
+  public void testPerEntryFailure() throws InterruptedException, TimeoutException
+  {
+    RecordingBatcher        batcher = new RecordingBatcher(3, 1000, 60000, 100, false);
+    CompletableFuture<Void> good    = batcher.submit(message("good"));
+    CompletableFuture<Void> bad     = batcher.submit(message("bad"));
+    CompletableFuture<Void> lost    = batcher.submit(message("lost"));
+    
+    batcher.close();
+    
+    try
+    {
+      good.get(10, TimeUnit.SECONDS);
+    }
+    catch(ExecutionException e)
+    {
+      fail("Good message failed");
+    }
+    
+    assertFailed(bad, "Rejected bad");
+    assertFailed(lost, "returned no result");
+    assertEquals(0, batcher.getPendingCount());
+  }
+  
+  @Test
+  public void testOversizeMessage() throws InterruptedException, TimeoutException
+  {
+    RecordingBatcher batcher = new RecordingBatcher(3, 1000, 60000, 100, false);
+    
+    assertFailed(batcher.submit(message(String.join("", Collections.nCopies(101, "x")))), "exceeds the maximum size");
+    
+    batcher.close();
+    
+    assertTrue(batcher.batches_.isEmpty());
+  }
+  
+  @Test
+  public void testSubmitAfterClose() throws InterruptedException, TimeoutException
+  {
+    RecordingBatcher batcher = new RecordingBatcher(3, 1000, 60000, 100, false);
+    
+    batcher.close();
+    
+    assertFailed(batcher.submit(message("m0")), "is closed");
+    assertEquals(0, batcher.getPendingCount());
+  }
+  
+  private static void assertFailed(CompletableFuture<Void> future, String message) throws InterruptedException, TimeoutException
+  {
+    try
+    {
+      future.get(10, TimeUnit.SECONDS);
+      fail("Message should have failed");
+    }
+    catch(ExecutionException e)
+    {
+      assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains(message));
+    }
+    
+    assertFalse(future.isCancelled());
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.pubsub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TestReceiveConcurrencyController
+{
+  @Test
+  public void testBounds()
+  {
+    ReceiveConcurrencyController concurrency = new ReceiveConcurrencyController(0, 0);
+    
+    // The minimum is at least one and the maximum at least the minimum.
+    assertEquals(1, concurrency.getTarget());
+    
+    for(int i=0 ; i<100 ; i++)
+      concurrency.onReceive(true, 10, false);
+    
+    assertEquals(1, concurrency.getTarget());
+  }
+  
+  @Test
+  public void testAdditiveIncrease()
+  {
+    ReceiveConcurrencyController concurrency = new ReceiveConcurrencyController(1, 4);
+    
+    concurrency.onReceive(true, 10, false);
+    
+    assertEquals(2, concurrency.getTarget());
+    
+    // Each receive adds 1/target, so three more busy receives are needed to reach 3.
+    concurrency.onReceive(true, 10, false);
+    concurrency.onReceive(true, 10, false);
+    
+    assertEquals(2, concurrency.getTarget());
+    
+    concurrency.onReceive(true, 10, false);
+    
+    assertEquals(3, concurrency.getTarget());
+    
+    for(int i=0 ; i<100 ; i++)
+      concurrency.onReceive(true, 10, false);
+    
+    assertEquals(4, concurrency.getTarget());
+  }
+  
+  @Test
+  public void testReset()
+  {
+    ReceiveConcurrencyController concurrency = grow(1, 8);
+    
+    // Loops which claimed a slot but were discarded by the executor never release it.
+    assertTrue(concurrency.tryAddReceiver());
+    assertTrue(concurrency.tryAddReceiver());
+    
+    concurrency.reset();
+    
+    assertEquals(1, concurrency.getActive());
+    assertEquals(1, concurrency.getTarget());
+  }
+  
+  @Test
+  public void testDecreaseWhenIdle()
+  {
+    ReceiveConcurrencyController concurrency = grow(1, 8);
+    
+    concurrency.onReceive(false, -1, false);
+    
+    assertEquals(4, concurrency.getTarget());
+    
+    concurrency.onReceive(false, -1, false);
+    concurrency.onReceive(false, -1, false);
+    concurrency.onReceive(false, -1, false);
+    
+    assertEquals(1, concurrency.getTarget());
+  }
+  
+  @Test
+  public void testDecreaseWhenBacklogged()
+  {
+    ReceiveConcurrencyController concurrency = grow(2, 8);
+    
+    concurrency.onReceive(true, 10, true);
+    
+    assertEquals(4, concurrency.getTarget());
+    
+    concurrency.onReceive(true, 10, true);
+    concurrency.onReceive(true, 10, true);
+    
+    assertEquals(2, concurrency.getTarget());
+  }
+  
+  @Test
+  public void testDecreaseWhenSlow()
+  {
+    ReceiveConcurrencyController concurrency = grow(1, 8);
+    
+    // grow() handled each batch in 10ms, a batch which takes much longer than the mean halves the target.
+    concurrency.onReceive(true, 100, false);
+    
+    assertEquals(4, concurrency.getTarget());
+  }
+  
+  @Test
+  public void testReceiverSlots()
+  {
+    ReceiveConcurrencyController concurrency = grow(1, 3);
+    
+    assertEquals(3, concurrency.getTarget());
+    
+    // The main receive loop is always active.
+    assertEquals(1, concurrency.getActive());
+    assertTrue(concurrency.tryAddReceiver());
+    assertTrue(concurrency.tryAddReceiver());
+    assertFalse(concurrency.tryAddReceiver());
+    assertEquals(3, concurrency.getActive());
+    
+    assertTrue(concurrency.keepReceiving());
+    
+    concurrency.onReceive(false, -1, false);
+    
+    // The target is now 1, so each additional loop is told to stop as it finishes a receive.
+    assertFalse(concurrency.keepReceiving());
+    assertFalse(concurrency.keepReceiving());
+    assertEquals(1, concurrency.getActive());
+    assertTrue(concurrency.keepReceiving());
+    
+    assertFalse(concurrency.tryAddReceiver());
+  }
+  
+  @Test
+  public void testReceiverStopped()
+  {
+    ReceiveConcurrencyController concurrency = grow(1, 2);
+    
+    assertTrue(concurrency.tryAddReceiver());
+    assertFalse(concurrency.tryAddReceiver());
+    
+    concurrency.receiverStopped();
+    
+    assertEquals(1, concurrency.getActive());
+    assertTrue(concurrency.tryAddReceiver());
+  }
+  
+  private ReceiveConcurrencyController grow(int min, int max)
+  {
+    ReceiveConcurrencyController concurrency = new ReceiveConcurrencyController(min, max);
+    
+    for(int i=0 ; i<100 ; i++)
+      concurrency.onReceive(true, 10, false);
+    
+    assertEquals(max, concurrency.getTarget());
+    
+    return concurrency;
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.pubsub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TestSubscriptionFlowController
+{
+  @Test
+  public void testMessageBudget()
+  {
+    SubscriptionFlowController flow = new SubscriptionFlowController(10, 0);
+    
+    flow.acquire(9, 900);
+    
+    assertFalse(flow.isExhausted());
+    assertTrue(flow.awaitCapacity());
+    
+    flow.acquire(1, 100);
+    
+    assertTrue(flow.isExhausted());
+    assertEquals(10, flow.getOutstandingMessages());
+    assertEquals(1000, flow.getOutstandingBytes());
+    
+    flow.release(1, 100);
+    
+    assertFalse(flow.isExhausted());
+  }
+  
+  @Test
+  public void testByteBudget()
+  {
+    SubscriptionFlowController flow = new SubscriptionFlowController(0, 1000);
+    
+    flow.acquire(1, 999);
+    
+    assertFalse(flow.isExhausted());
+    
+    flow.acquire(1, 1);
+    
+    assertTrue(flow.isExhausted());
+    
+    flow.release(1, 999);
+    
+    assertFalse(flow.isExhausted());
+    assertEquals(1, flow.getOutstandingMessages());
+  }
+  
+  @Test
+  public void testNoLimit()
+  {
+    SubscriptionFlowController flow = new SubscriptionFlowController(0, 0);
+    
+    flow.acquire(1000000, Long.MAX_VALUE / 2);
+    
+    assertFalse(flow.isExhausted());
+    assertTrue(flow.awaitCapacity());
+  }
+  
+  @Test
+  public void testBatchMayExceedBudget()
+  {
+    SubscriptionFlowController flow = new SubscriptionFlowController(5, 0);
+    
+    // A whole batch is acquired at once, so it may take the subscription over budget.
+    flow.acquire(10, 0);
+    
+    // The subscription is exhausted until it is back below its budget.
+    for(int i=0 ; i<6 ; i++)
+    {
+      assertTrue(flow.isExhausted());
+      flow.release(1, 0);
+    }
+    
+    assertFalse(flow.isExhausted());
+    assertEquals(4, flow.getOutstandingMessages());
+  }
+  
+  @Test
+  public void testAwaitCapacityTimesOut()
+  {
+    SubscriptionFlowController flow = new SubscriptionFlowController(1, 0);
+    
+    flow.acquire(1, 0);
+    
+    long start = System.currentTimeMillis();
+    
+    assertFalse(flow.awaitCapacity());
+    assertTrue(System.currentTimeMillis() - start >= 900);
+  }
+  
+  @Test
+  public void testReleaseWakesWaiter() throws InterruptedException
+  {
+    SubscriptionFlowController flow     = new SubscriptionFlowController(2, 0);
+    CountDownLatch             waiting  = new CountDownLatch(1);
+    AtomicBoolean              result   = new AtomicBoolean();
+    
+    flow.acquire(2, 0);
+    
+    Thread waiter = new Thread(() ->
+    {
+      waiting.countDown();
+      result.set(flow.awaitCapacity());
+    });
+    
+    waiter.start();
+    assertTrue(waiting.await(1, TimeUnit.SECONDS));
+    
+    // One message handled brings the subscription back within its budget.
+    flow.release(1, 0);
+    
+    waiter.join(2000);
+    
+    assertFalse(waiter.isAlive());
+    assertTrue(result.get());
+  }
+}
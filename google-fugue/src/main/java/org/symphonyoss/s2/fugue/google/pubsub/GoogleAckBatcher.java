@@ -0,0 +1,158 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.google.pubsub;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.symphonyoss.s2.fugue.pubsub.AbstractAckBatcher;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.cloud.pubsub.v1.stub.GrpcSubscriberStub;
+import com.google.pubsub.v1.AcknowledgeRequest;
+import com.google.pubsub.v1.ModifyAckDeadlineRequest;
+
+/**
+ * Coalesces acknowledgements and ack deadline modifications for a single subscription into batch requests.
+ * 
+ * Requests are sent when MAX_BATCH_SIZE ack IDs or MAX_BATCH_BYTES of ack IDs are pending, or after a short
+ * linger time. Modifications are grouped by deadline since a single request carries one deadline. Requests
+ * which fail with a retryable error are retried in a later batch, other failures are logged and dropped, in
+ * which case the message will be redelivered when its ack deadline expires.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+/* package */ class GoogleAckBatcher extends AbstractAckBatcher
+{
+  private static final Logger log_            = LoggerFactory.getLogger(GoogleAckBatcher.class);
+  
+  private static final int    MAX_BATCH_SIZE  = 2500;
+  private static final int    MAX_BATCH_BYTES = 400 * 1024;
+  
+  private final GrpcSubscriberStub            subscriber_;
+  private final String                        subscriptionName_;
+  
+  /**
+   * Constructor.
+   * 
+   * @param subscriber        A stub which remains open for the lifetime of this batcher, and is closed by close().
+   * @param subscriptionName  The subscription to which the ack IDs belong.
+   * @param lingerMillis      The maximum time for which a request is held waiting for more IDs.
+   */
+  /* package */ GoogleAckBatcher(GrpcSubscriberStub subscriber, String subscriptionName, long lingerMillis)
+  {
+    super("Google-ack", MAX_BATCH_SIZE, MAX_BATCH_BYTES, lingerMillis);
+    
+    subscriber_       = subscriber;
+    subscriptionName_ = subscriptionName;
+  }
+  
+  /**
+   * Send everything which is pending, stop the flush thread and close the stub.
+   */
+  @Override
+  public void close()
+  {
+    super.close();
+    subscriber_.close();
+  }
+  
+  @Override
+  protected void sendAcks(Map<String, Integer> acks, Map<String, Integer> retries)
+  {
+    try
+    {
+      subscriber_.acknowledgeCallable().call(AcknowledgeRequest
+          .newBuilder()
+          .setSubscription(subscriptionName_)
+          .addAllAckIds(acks.keySet())
+          .build());
+    }
+    catch(RuntimeException e)
+    {
+      boolean retryable = isRetryable(e);
+      int     dropped   = 0;
+      
+      for(Map.Entry<String, Integer> entry : acks.entrySet())
+      {
+        if(retryable && entry.getValue() + 1 < MAX_ATTEMPTS)
+          retries.put(entry.getKey(), entry.getValue() + 1);
+        else
+          dropped++;
+      }
+      
+      if(dropped > 0)
+        log_.error("Failed to acknowledge " + dropped + " messages, they will be redelivered", e);
+      else
+        log_.warn("Acknowledge failed, will retry", e);
+    }
+  }
+  
+  @Override
+  protected void sendDeadlineChanges(Map<String, DeadlineChange> changes, Map<String, DeadlineChange> retries)
+  {
+    Map<Integer, List<String>> byDeadline = new TreeMap<>();
+    
+    for(Map.Entry<String, DeadlineChange> entry : changes.entrySet())
+      byDeadline.computeIfAbsent(entry.getValue().getDeadlineSeconds(), k -> new ArrayList<>()).add(entry.getKey());
+    
+    for(Map.Entry<Integer, List<String>> entry : byDeadline.entrySet())
+    {
+      try
+      {
+        subscriber_.modifyAckDeadlineCallable().call(ModifyAckDeadlineRequest
+            .newBuilder()
+            .setSubscription(subscriptionName_)
+            .setAckDeadlineSeconds(entry.getKey())
+            .addAllAckIds(entry.getValue())
+            .build());
+      }
+      catch(RuntimeException e)
+      {
+        if(isRetryable(e))
+        {
+          for(String ackId : entry.getValue())
+          {
+            DeadlineChange retry = changes.get(ackId).nextAttempt();
+            
+            if(retry != null)
+              retries.put(ackId, retry);
+          }
+        }
+        
+        log_.warn("Failed to modify ack deadline of " + entry.getValue().size() + " messages", e);
+      }
+    }
+  }
+  
+  private static boolean isRetryable(RuntimeException e)
+  {
+    return !(e instanceof ApiException) || ((ApiException)e).isRetryable();
+  }
+}
@@ -47,8 +47,6 @@ import org.threeten.bp.Duration;
 import com.google.cloud.pubsub.v1.stub.GrpcSubscriberStub;
 import com.google.cloud.pubsub.v1.stub.SubscriberStubSettings;
 import com.google.protobuf.Timestamp;
-import com.google.pubsub.v1.AcknowledgeRequest;
-import com.google.pubsub.v1.ModifyAckDeadlineRequest;
 import com.google.pubsub.v1.PubsubMessage;
 import com.google.pubsub.v1.PullRequest;
 import com.google.pubsub.v1.ReceivedMessage;
@@ -63,6 +61,7 @@ public class GoogleSubscriber extends AbstractPullSubscriber
 {
   private static final int EXTENSION_TIMEOUT_SECONDS = 10;
   private static final int EXTENSION_FREQUENCY_MILLIS = 5000;
+  private static final int ACK_LINGER_MILLIS = 5;
   
   private static final Logger                                    log_     = LoggerFactory
       .getLogger(GoogleSubscriber.class);
@@ -75,6 +74,7 @@ public class GoogleSubscriber extends AbstractPullSubscriber
   private final String                                           tenantId_;
   private int                                                    batchSize_ = 10;
   private SubscriberStubSettings subscriberStubSettings_;
+  private final GoogleAckBatcher                                 ackBatcher_;
 
   private final PullRequest blockingPullRequest_;
   private final PullRequest nonBlockingPullRequest_;
@@ -104,6 +104,9 @@ public class GoogleSubscriber extends AbstractPullSubscriber
       SubscriberStubSettings.Builder settingsBuilder = SubscriberStubSettings.newBuilder();
       settingsBuilder.pullSettings().setSimpleTimeoutNoRetries(Duration.ofSeconds(60));
       subscriberStubSettings_ = settingsBuilder.build();
+      
+      // Acks are sent after the pull context which received the message may have been closed, so the batcher has its own stub.
+      ackBatcher_ = new GoogleAckBatcher(GrpcSubscriberStub.create(subscriberStubSettings_), subscriptionName_, ACK_LINGER_MILLIS);
     }
     catch (IOException e)
     {
@@ -125,6 +128,22 @@ public class GoogleSubscriber extends AbstractPullSubscriber
   {
     return subscriptionName_;
   }
+  
+  /**
+   * Send any pending acks and ack deadline modifications, called once all handlers have completed.
+   */
+  /* package */ void flushAcks()
+  {
+    ackBatcher_.flushPending();
+  }
+  
+  /**
+   * Send any pending acks and ack deadline modifications and release the resources used to send them, called when the manager is stopped.
+   */
+  /* package */ void closeAcks()
+  {
+    ackBatcher_.close();
+  }
 
   class NonIdleSubscriber implements Runnable
   {
@@ -174,7 +193,7 @@ public class GoogleSubscriber extends AbstractPullSubscriber
       
       for(ReceivedMessage receivedMessage : subscriber_.pullCallable().call(pullRequest).getReceivedMessagesList())
       {
-        result.add(new GooglePullSubscriberMessage(subscriber_, receivedMessage));
+        result.add(new GooglePullSubscriberMessage(receivedMessage));
       }
       
       return result;
@@ -189,13 +208,11 @@ public class GoogleSubscriber extends AbstractPullSubscriber
 
   private class GooglePullSubscriberMessage implements IPullSubscriberMessage
   {
-    private final GrpcSubscriberStub subscriber_;
     private final ReceivedMessage    receivedMessage_;
     private boolean                  running_ = true;
     
-    private GooglePullSubscriberMessage(GrpcSubscriberStub subscriber, ReceivedMessage receivedMessage)
+    private GooglePullSubscriberMessage(ReceivedMessage receivedMessage)
     {
-      subscriber_ = subscriber;
       receivedMessage_ = receivedMessage;
     }
 
@@ -205,6 +222,12 @@ public class GoogleSubscriber extends AbstractPullSubscriber
       return receivedMessage_.getMessage().getMessageId();
     }
 
+    @Override
+    public int getPayloadSize()
+    {
+      return receivedMessage_.getMessage().getData().size();
+    }
+
     @Override
     public String toString()
     {
@@ -236,13 +259,7 @@ public class GoogleSubscriber extends AbstractPullSubscriber
           {
             trace.trace("ABOUT_TO_ACK");
             
-            AcknowledgeRequest acknowledgeRequest = AcknowledgeRequest
-                .newBuilder()
-                .setSubscription(subscriptionName_)
-                .addAckIds(receivedMessage_.getAckId())
-                .build();
-            
-            subscriber_.acknowledgeCallable().call(acknowledgeRequest);
+            ackBatcher_.acknowledge(receivedMessage_.getAckId());
             traceTransaction.finished();
             log_.debug("ACK message " + getMessageId());
           }
@@ -252,14 +269,7 @@ public class GoogleSubscriber extends AbstractPullSubscriber
             
             int visibilityTimout = (int) (retryTime / 1000);
             
-            ModifyAckDeadlineRequest request = ModifyAckDeadlineRequest
-              .newBuilder()
-              .setSubscription(subscriptionName_)
-              .setAckDeadlineSeconds(visibilityTimout)
-              .addAckIds(receivedMessage_.getAckId())
-              .build();
-  
-            subscriber_.modifyAckDeadlineCallable().call(request);
+            ackBatcher_.modifyDeadline(receivedMessage_.getAckId(), visibilityTimout);
             
             traceTransaction.aborted();
             log_.debug("NAK message " + getMessageId());
@@ -279,14 +289,7 @@ public class GoogleSubscriber extends AbstractPullSubscriber
       {
         try
         {
-          ModifyAckDeadlineRequest request = ModifyAckDeadlineRequest
-            .newBuilder()
-            .setSubscription(subscriptionName_)
-            .setAckDeadlineSeconds(EXTENSION_TIMEOUT_SECONDS)
-            .addAckIds(receivedMessage_.getAckId())
-            .build();
-  
-          subscriber_.modifyAckDeadlineCallable().call(request);
+          ackBatcher_.extendDeadline(receivedMessage_.getAckId(), EXTENSION_TIMEOUT_SECONDS);
         }
         catch(RuntimeException e)
         {
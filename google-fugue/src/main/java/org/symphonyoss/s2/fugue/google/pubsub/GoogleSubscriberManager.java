@@ -172,6 +172,7 @@ public class GoogleSubscriberManager extends AbstractPullSubscriberManager<Strin
     for(GoogleSubscriber subscriber : subscribers_)
     {
       log_.info("Starting subscription to " + subscriber.getSubscriptionName() + "...");
+      subscriber.start();
       submit(subscriber, true);
     }
   }
@@ -183,6 +184,21 @@ public class GoogleSubscriberManager extends AbstractPullSubscriberManager<Strin
         subscriber.stop();
       
      super.stopSubscriptions();
+     
+     for(GoogleSubscriber subscriber : subscribers_)
+     {
+       subscriber.cancelUnhandled();
+       subscriber.flushAcks();
+     }
+  }
+
+  @Override
+  public synchronized void stop()
+  {
+    super.stop();
+    
+    for(GoogleSubscriber subscriber : subscribers_)
+      subscriber.closeAcks();
   }
 
 //  @Override
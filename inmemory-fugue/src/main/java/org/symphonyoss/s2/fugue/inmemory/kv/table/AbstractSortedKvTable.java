@@ -0,0 +1,473 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.inmemory.kv.table;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+
+import org.symphonyoss.s2.common.exception.NoSuchObjectException;
+import org.symphonyoss.s2.common.fault.FaultAccumulator;
+import org.symphonyoss.s2.common.fluent.BaseAbstractBuilder;
+import org.symphonyoss.s2.common.hash.Hash;
+import org.symphonyoss.s2.fugue.core.trace.ITraceContext;
+import org.symphonyoss.s2.fugue.kv.IKvFetchAllResult;
+import org.symphonyoss.s2.fugue.kv.IKvItem;
+import org.symphonyoss.s2.fugue.kv.IKvPagination;
+import org.symphonyoss.s2.fugue.kv.IKvPartitionKeyProvider;
+import org.symphonyoss.s2.fugue.kv.IKvPartitionSortKeyProvider;
+import org.symphonyoss.s2.fugue.kv.KvCondition;
+import org.symphonyoss.s2.fugue.kv.KvFetchAllResult;
+import org.symphonyoss.s2.fugue.kv.KvPagination;
+import org.symphonyoss.s2.fugue.kv.table.IKvTable;
+import org.symphonyoss.s2.fugue.kv.table.KvPartitionIterator;
+
+/**
+ * Base implementation of IKvTable over an in memory sorted index of partitions.
+ * 
+ * Subclasses decide what is held in the index and how a document is read from it, this class provides the
+ * striped partition locks, conditional store checks and pagination.
+ * 
+ * Reads are lock free. Writes lock the stripes of every partition they touch, in stripe order, so that
+ * conditional operations are atomic with respect to each other and to unconditional stores.
+ * 
+ * @author Bruce Skingle
+ * 
+ * @param <V> The type of the values held in the index.
+ */
+public abstract class AbstractSortedKvTable<V> implements IKvTable
+{
+  protected static final String  Separator = "#";
+
+  private static final int       SCAN_PAGE_SIZE = 100;
+  private static final int       LOCK_STRIPES   = 64;
+
+  /** The serviceId forms part of the partition key for all values in this table. */
+  protected final String         serviceId_;
+
+  private final ConcurrentNavigableMap<String, V>                       emptyPartition_ = new ConcurrentSkipListMap<>();
+  private final ConcurrentMap<String, ConcurrentNavigableMap<String, V>> partitionMap_  = new ConcurrentHashMap<>();
+  private final ReentrantLock[]                                         locks_          = new ReentrantLock[LOCK_STRIPES];
+
+  protected AbstractSortedKvTable(AbstractBuilder<?,?> builder)
+  {
+    serviceId_    = builder.serviceId_;
+    
+    for(int i=0 ; i<LOCK_STRIPES ; i++)
+      locks_[i] = new ReentrantLock();
+  }
+
+  /**
+   * Return the document for the given index value.
+   * 
+   * @param value A value from the index.
+   * 
+   * @return The document for the given value.
+   */
+  protected abstract String read(V value);
+
+  /**
+   * Return the absolute hash of the given index value.
+   * 
+   * @param value A value from the index.
+   * 
+   * @return The absolute hash of the given value.
+   */
+  protected abstract @Nullable Hash getAbsoluteHash(V value);
+
+  /**
+   * Return the additional attributes of the given index value.
+   * 
+   * @param value A value from the index.
+   * 
+   * @return The additional attributes of the given value.
+   */
+  protected abstract @Nullable Map<String, Object> getAdditionalAttributes(V value);
+
+  protected ConcurrentNavigableMap<String, V> getPartition(String partitionKey)
+  {
+    return partitionMap_.computeIfAbsent(partitionKey, (key) -> new ConcurrentSkipListMap<>());
+  }
+
+  /* Readers use this to avoid creating partitions which do not exist. */
+  protected ConcurrentNavigableMap<String, V> findPartition(String partitionKey)
+  {
+    ConcurrentNavigableMap<String, V> partition = partitionMap_.get(partitionKey);
+    
+    return partition == null ? emptyPartition_ : partition;
+  }
+
+  /* Caller must hold all locks. */
+  protected void clearPartitions()
+  {
+    partitionMap_.clear();
+  }
+
+  protected String getPartitionKey(IKvPartitionKeyProvider kvItem)
+  {
+    return serviceId_ + Separator + kvItem.getPartitionKey();
+  }
+
+  protected Set<String> getPartitionKeys(@Nullable String partitionKey, Collection<IKvItem> kvItems)
+  {
+    Set<String> partitionKeys = new HashSet<>();
+    
+    if(partitionKey != null)
+      partitionKeys.add(partitionKey);
+    
+    for(IKvItem kvItem : kvItems)
+      partitionKeys.add(getPartitionKey(kvItem));
+    
+    return partitionKeys;
+  }
+
+  protected List<ReentrantLock> lock(Collection<String> partitionKeys)
+  {
+    // Stripes are always locked in ascending order to avoid deadlocks.
+    TreeSet<Integer>    stripes = new TreeSet<>();
+    
+    for(String partitionKey : partitionKeys)
+      stripes.add((partitionKey.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES);
+    
+    List<ReentrantLock> locks   = new ArrayList<>(stripes.size());
+    
+    for(Integer stripe : stripes)
+    {
+      locks_[stripe].lock();
+      locks.add(locks_[stripe]);
+    }
+    
+    return locks;
+  }
+
+  protected List<ReentrantLock> lockAll()
+  {
+    List<ReentrantLock> locks = new ArrayList<>(LOCK_STRIPES);
+    
+    for(ReentrantLock lock : locks_)
+    {
+      lock.lock();
+      locks.add(lock);
+    }
+    
+    return locks;
+  }
+
+  protected void unlock(List<ReentrantLock> locks)
+  {
+    for(int i=locks.size() - 1 ; i>=0 ; i--)
+      locks.get(i).unlock();
+  }
+
+  /*
+   * Lock the object and version partitions and the absolute hash partition of every version. The versions are read
+   * before they are locked so if they change in the meantime we go round again, once the version partition is
+   * locked it cannot change.
+   */
+  protected List<ReentrantLock> lockForDelete(String partitionKey, String versionKey, String absoluteHashPrefixKey)
+  {
+    while(true)
+    {
+      Set<String> partitionKeys = getAbsoluteHashPartitionKeys(versionKey, absoluteHashPrefixKey);
+      
+      partitionKeys.add(partitionKey);
+      partitionKeys.add(versionKey);
+      
+      List<ReentrantLock> locks = lock(partitionKeys);
+      
+      if(partitionKeys.containsAll(getAbsoluteHashPartitionKeys(versionKey, absoluteHashPrefixKey)))
+        return locks;
+      
+      unlock(locks);
+    }
+  }
+
+  private Set<String> getAbsoluteHashPartitionKeys(String versionKey, String absoluteHashPrefixKey)
+  {
+    Set<String> partitionKeys = new HashSet<>();
+    
+    for(V value : findPartition(versionKey).values())
+      partitionKeys.add(absoluteHashPrefixKey + getAbsoluteHash(value));
+    
+    return partitionKeys;
+  }
+
+  /**
+   * Return true if a conditional store should replace the given existing value.
+   * 
+   * The store goes ahead if there is no existing value, or if the existing value has the condition attribute and
+   * the comparison holds.
+   * 
+   * @param existing    The existing value, if any, the caller must hold the lock for its partition.
+   * @param kvCondition The condition for the store.
+   * 
+   * @return true if the store should go ahead.
+   */
+  protected boolean isConditionSatisfied(@Nullable V existing, KvCondition kvCondition)
+  {
+    if(existing == null)
+      return true;
+    
+    Map<String, Object> attributes = getAdditionalAttributes(existing);
+    Object              value      = attributes == null ? null : attributes.get(kvCondition.getName());
+    
+    if(value == null)
+      return false;
+    
+    switch(kvCondition.getComparison())
+    {
+      case EQUALS:
+        return kvCondition.getValue().equals(value.toString());
+      
+      case GREATER_THAN:
+        return kvCondition.getValue().compareTo(value.toString()) < 0;
+      
+      case LESS_THAN:
+        return kvCondition.getValue().compareTo(value.toString()) > 0;
+    }
+    
+    return true;
+  }
+
+  @Override
+  public String fetch(IKvPartitionSortKeyProvider partitionSortKey, ITraceContext trace) throws NoSuchObjectException
+  {
+    String partitionKey = getPartitionKey(partitionSortKey);
+    String sortKey = partitionSortKey.getSortKey().asString();
+    
+    V value = findPartition(partitionKey).get(sortKey);
+    
+    if(value == null)
+      throw new NoSuchObjectException();
+    
+    return read(value);
+  }
+
+  @Override
+  public IKvFetchAllResult fetchAll(Collection<? extends IKvPartitionSortKeyProvider> partitionSortKeys, ITraceContext trace)
+  {
+    Map<IKvPartitionSortKeyProvider, String>  results = new HashMap<>();
+    List<IKvPartitionSortKeyProvider>         missing = new ArrayList<>();
+    
+    for(IKvPartitionSortKeyProvider partitionSortKey : partitionSortKeys)
+    {
+      try
+      {
+        results.put(partitionSortKey, fetch(partitionSortKey, trace));
+      }
+      catch(NoSuchObjectException e)
+      {
+        missing.add(partitionSortKey);
+      }
+    }
+    
+    return new KvFetchAllResult(results, missing);
+  }
+
+  @Override
+  public String fetchFirst(IKvPartitionKeyProvider partitionKeyProvider, ITraceContext trace) throws NoSuchObjectException
+  {
+    String partitionKey = getPartitionKey(partitionKeyProvider);
+    
+    Entry<String, V> entry = findPartition(partitionKey).firstEntry();
+    
+    if(entry == null)
+      throw new NoSuchObjectException();
+    
+    return read(entry.getValue());
+  }
+
+  @Override
+  public String fetchLast(IKvPartitionKeyProvider partitionKeyProvider, ITraceContext trace) throws NoSuchObjectException
+  {
+    String partitionKey = getPartitionKey(partitionKeyProvider);
+    
+    Entry<String, V> entry = findPartition(partitionKey).lastEntry();
+    
+    if(entry == null)
+      throw new NoSuchObjectException();
+    
+    return read(entry.getValue());
+  }
+
+  @Override
+  public IKvPagination fetchPartitionObjects(IKvPartitionKeyProvider partitionKeyProvider, boolean scanForwards, Integer limit,
+      String after, String sortKeyPrefix,
+      @Nullable Map<String, Object> filterAttributes, Consumer<String> consumer, ITraceContext trace)
+  {
+    String partitionKey = getPartitionKey(partitionKeyProvider);
+    
+    ConcurrentNavigableMap<String, V> partition = findPartition(partitionKey);
+    
+    NavigableMap<String, V> map;
+    String before = null;
+    
+    if(after == null)
+    {
+      if(scanForwards)
+        map = partition;
+      else
+        map = partition.descendingMap();
+    }
+    else if(scanForwards)
+    {
+      map   = partition.tailMap(after, false);
+      before = map.isEmpty() ||  map.firstKey().equals(partition.firstKey()) ? null : map.firstKey();
+    }
+    else
+    {
+      map   = partition.descendingMap().tailMap(after, false);
+      before = map.isEmpty() ||  map.firstKey().equals(partition.lastKey()) ? null : map.firstKey();
+    }
+    
+    if(limit == null)
+      limit = 100;
+    
+    // Skip directly to the prefix rather than filtering every row before it.
+    if(sortKeyPrefix != null && !map.isEmpty())
+    {
+      if(scanForwards && sortKeyPrefix.compareTo(map.firstKey()) > 0)
+        map = map.tailMap(sortKeyPrefix, true);
+    }
+    
+    Iterator<Entry<String, V>> it = map.entrySet().iterator();
+    
+    while(it.hasNext())
+    {
+      Entry<String, V> entry = it.next();
+      
+      boolean ok = (sortKeyPrefix == null || entry.getKey().startsWith(sortKeyPrefix));
+      
+      // Keys with the prefix are contiguous so once we are past them there is nothing more to find.
+      if(!ok && sortKeyPrefix != null && (scanForwards ? entry.getKey().compareTo(sortKeyPrefix) > 0
+          : entry.getKey().compareTo(sortKeyPrefix) < 0))
+        break;
+      
+      if(ok && filterAttributes != null)
+      {
+        Map<String, Object> attributes = getAdditionalAttributes(entry.getValue());
+        
+        for(Entry<String, Object> attr : filterAttributes.entrySet())
+        {
+          Object rowAttr = attributes == null ? null : attributes.get(attr.getKey());
+          
+          if(!attr.getValue().equals(rowAttr))
+          {
+            ok = false;
+            break;
+          }
+        }
+      }
+      
+      if(ok)
+      {
+        consumer.accept(read(entry.getValue()));
+        
+        if(--limit <= 0)
+          return new KvPagination(before, it.hasNext() ? entry.getKey() : null);
+      }
+    }
+    
+    return new KvPagination(before, null);
+  }
+
+  @Override
+  public Iterator<String> scanPartition(IKvPartitionKeyProvider partitionKey, boolean scanForwards,
+      @Nullable String sortKeyPrefix, @Nullable Map<String, Object> filterAttributes, ITraceContext trace)
+  {
+    // Pages are read from memory, which is cheap enough that there is no point prefetching.
+    return new KvPartitionIterator((after, consumer) -> fetchPartitionObjects(partitionKey, scanForwards, SCAN_PAGE_SIZE,
+        after, sortKeyPrefix, filterAttributes, consumer, trace), null);
+  }
+
+  @Override
+  public void scanAll(int totalSegments, Consumer<String> consumer, ITraceContext trace)
+  {
+    // Partitions take the place of segments, the common pool decides the parallelism.
+    new ArrayList<>(partitionMap_.values()).parallelStream().forEach((partition) ->
+    {
+      for(V value : partition.values())
+        consumer.accept(read(value));
+    });
+  }
+
+  @Override
+  public void store(Collection<IKvItem> kvItems, boolean transactional, ITraceContext trace)
+  {
+    store(kvItems, trace);
+  }
+
+  @Override
+  public void createTable(boolean dryRun)
+  {
+  }
+
+  protected static abstract class AbstractBuilder<T extends AbstractBuilder<T,B>, B extends AbstractSortedKvTable<?>> extends BaseAbstractBuilder<T,B>
+  {
+    protected String         serviceId_;
+    
+    protected AbstractBuilder(Class<T> type)
+    {
+      super(type);
+    }
+    
+    @Override
+    public void validate(FaultAccumulator faultAccumulator)
+    {
+      super.validate(faultAccumulator);
+      
+      faultAccumulator.checkNotNull(serviceId_,   "serviceId");
+    }
+    
+    /**
+     * The serviceId forms part of the partition key for all values in this table.
+     * 
+     * @param serviceId The serviceId for this table.
+     * 
+     * @return This (fluent method).
+     */
+    public T withServiceId(String serviceId)
+    {
+      serviceId_ = serviceId;
+      
+      return self();
+    }
+  }
+}
@@ -0,0 +1,458 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.inmemory.kv.table;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.symphonyoss.s2.common.exception.NoSuchObjectException;
+import org.symphonyoss.s2.common.fault.FaultAccumulator;
+import org.symphonyoss.s2.common.fault.TransactionFault;
+import org.symphonyoss.s2.common.hash.Hash;
+import org.symphonyoss.s2.fugue.core.trace.ITraceContext;
+import org.symphonyoss.s2.fugue.kv.IKvItem;
+import org.symphonyoss.s2.fugue.kv.IKvPartitionKeyProvider;
+import org.symphonyoss.s2.fugue.kv.IKvPartitionSortKeyProvider;
+import org.symphonyoss.s2.fugue.kv.KvCondition;
+import org.symphonyoss.s2.fugue.store.ObjectExistsException;
+
+/**
+ * A durable implementation of IKvTable which stores items in a local append only log.
+ * 
+ * The keys, absolute hash and additional attributes of every item are held in an in memory sorted index,
+ * documents are read from the memory mapped log. The index is rebuilt from the log when the table is opened.
+ * 
+ * Every write operation is a single log record so multi item operations are atomic after a crash. When
+ * syncWrites is set, which is the default, write operations return once their record has been forced to disk,
+ * concurrent writers share a single force. The log is never compacted so this is intended for tests and
+ * small single node deployments rather than long lived tables with a high rate of overwrites.
+ * 
+ * @author Bruce Skingle
+ */
+public class FileKvTable extends AbstractSortedKvTable<KvLogEntry>
+{
+  private static final Logger    log_ = LoggerFactory.getLogger(FileKvTable.class);
+  
+  private final File             directory_;
+  
+  /*
+   * Writes append a single record to the log and update the index before releasing their partition locks.
+   */
+  private final KvLog            kvLog_;
+  
+  protected FileKvTable(AbstractBuilder<?,?> builder)
+  {
+    super(builder);
+    
+    directory_    = builder.directory_;
+    
+    try
+    {
+      kvLog_ = new KvLog(directory_, builder.segmentSize_, builder.syncWrites_, (entry) -> apply(entry));
+    }
+    catch (IOException e)
+    {
+      throw new TransactionFault("Unable to open KV table in " + directory_.getAbsolutePath(), e);
+    }
+  }
+
+  @Override
+  protected String read(KvLogEntry value)
+  {
+    return kvLog_.read(value);
+  }
+
+  @Override
+  protected Hash getAbsoluteHash(KvLogEntry value)
+  {
+    return value.getAbsoluteHash();
+  }
+
+  @Override
+  protected Map<String, Object> getAdditionalAttributes(KvLogEntry value)
+  {
+    return value.getAdditionalAttributes();
+  }
+
+  @Override
+  public void start()
+  {
+  }
+
+  @Override
+  public void stop()
+  {
+    kvLog_.close();
+  }
+
+  /* Caller must hold the lock for the entry's partition, or be replaying the log. */
+  private void apply(KvLogEntry entry)
+  {
+    if(entry.isRemove())
+      findPartition(entry.getPartitionKey()).remove(entry.getSortKey());
+    else
+      getPartition(entry.getPartitionKey()).put(entry.getSortKey(), entry);
+  }
+  
+  /* Caller must hold the locks for all partitions affected by the given entries. */
+  private long write(List<KvLogEntry> entries)
+  {
+    long sequence = kvLog_.append(entries);
+    
+    for(KvLogEntry entry : entries)
+      apply(entry);
+    
+    return sequence;
+  }
+  
+  private KvLogEntry newPut(IKvItem kvItem)
+  {
+    return KvLogEntry.put(getPartitionKey(kvItem), kvItem.getSortKey().asString(), kvItem.getAbsoluteHash(),
+        kvItem.getAdditionalAttributes(), kvItem.getJson());
+  }
+
+  @Override
+  public void deleteRow(IKvPartitionSortKeyProvider partitionSortKeyProvider, ITraceContext trace)
+  {
+    String partitionKey = getPartitionKey(partitionSortKeyProvider);
+    String sortKey = partitionSortKeyProvider.getSortKey().asString();
+    long   sequence;
+    
+    List<ReentrantLock> locks = lock(Collections.singleton(partitionKey));
+    
+    try
+    {
+      if(!findPartition(partitionKey).containsKey(sortKey))
+        return;
+      
+      sequence = write(Collections.singletonList(KvLogEntry.remove(partitionKey, sortKey)));
+    }
+    finally
+    {
+      unlock(locks);
+    }
+    
+    kvLog_.awaitSync(sequence);
+  }
+
+  @Override
+  public void delete(IKvPartitionSortKeyProvider partitionSortKeyProvider, Hash absoluteHash,
+      IKvPartitionKeyProvider versionPartitionKey, IKvPartitionSortKeyProvider absoluteHashPrefix, ITraceContext trace)
+      throws NoSuchObjectException
+  {
+    String partitionKey = getPartitionKey(partitionSortKeyProvider);
+    String sortKey = partitionSortKeyProvider.getSortKey().asString();
+    String versionKey = getPartitionKey(versionPartitionKey);
+    String absoluteHashPrefixKey = getPartitionKey(absoluteHashPrefix);
+    long   sequence;
+    
+    List<ReentrantLock> locks = lockForDelete(partitionKey, versionKey, absoluteHashPrefixKey);
+    
+    try
+    {
+      KvLogEntry existing = findPartition(partitionKey).get(sortKey);
+      
+      if(existing == null)
+        throw new NoSuchObjectException("Object does not exist");
+      
+      if(!absoluteHash.equals(existing.getAbsoluteHash()))
+        throw new NoSuchObjectException("Object has changed");
+      
+      List<KvLogEntry> entries = new ArrayList<>();
+      
+      entries.add(KvLogEntry.remove(partitionKey, sortKey));
+      
+      for(KvLogEntry version : findPartition(versionKey).values())
+      {
+        Hash ah = version.getAbsoluteHash();
+        String pk = absoluteHashPrefixKey + ah;
+        String sk = absoluteHashPrefix.getSortKey().asString();
+        
+        entries.add(KvLogEntry.remove(pk, sk));
+        entries.add(KvLogEntry.remove(versionKey, version.getSortKey()));
+      }
+      
+      sequence = write(entries);
+    }
+    finally
+    {
+      unlock(locks);
+    }
+    
+    kvLog_.awaitSync(sequence);
+  }
+
+  @Override
+  public void update(IKvPartitionSortKeyProvider partitionSortKeyProvider, Hash absoluteHash, Set<IKvItem> kvItems,
+      ITraceContext trace) throws NoSuchObjectException
+  {
+    String partitionKey = getPartitionKey(partitionSortKeyProvider);
+    String sortKey = partitionSortKeyProvider.getSortKey().asString();
+    long   sequence;
+    
+    List<ReentrantLock> locks = lock(getPartitionKeys(partitionKey, kvItems));
+    
+    try
+    {
+      Map<String, KvLogEntry> partition = findPartition(partitionKey);
+      KvLogEntry existing = partition.get(sortKey);
+      
+      if(existing == null)
+        throw new NoSuchObjectException("Object does not exist");
+      
+      if(!absoluteHash.equals(existing.getAbsoluteHash()))
+        throw new NoSuchObjectException("Object has changed");
+      
+      List<KvLogEntry> entries = new ArrayList<>(kvItems.size() + 1);
+      
+      entries.add(KvLogEntry.remove(partitionKey, sortKey));
+      
+      for(IKvItem kvItem : kvItems)
+      {
+        if(partitionKey.equals(getPartitionKey(kvItem)) && !sortKey.equals(kvItem.getSortKey().asString()))
+        {
+          if(partition.containsKey(kvItem.getSortKey().asString()))
+            throw new NoSuchObjectException("An object with the new sort key already exists.");
+        }
+        
+        entries.add(newPut(kvItem));
+      }
+      
+      sequence = write(entries);
+    }
+    finally
+    {
+      unlock(locks);
+    }
+    
+    kvLog_.awaitSync(sequence);
+  }
+
+  @Override
+  public void store(IKvItem kvItem, KvCondition kvCondition, ITraceContext trace)
+  {
+    String partitionKey = getPartitionKey(kvItem);
+    String sortKey = kvItem.getSortKey().asString();
+    long   sequence;
+    
+    List<ReentrantLock> locks = lock(Collections.singleton(partitionKey));
+    
+    try
+    {
+      if(!isConditionSatisfied(findPartition(partitionKey).get(sortKey), kvCondition))
+        return;
+      
+      sequence = write(Collections.singletonList(newPut(kvItem)));
+    }
+    finally
+    {
+      unlock(locks);
+    }
+    
+    kvLog_.awaitSync(sequence);
+  }
+
+  @Override
+  public void store(Collection<IKvItem> kvItems, ITraceContext trace)
+  {
+    if(kvItems.isEmpty())
+      return;
+    
+    List<KvLogEntry> entries = new ArrayList<>(kvItems.size());
+    long             sequence;
+    
+    for(IKvItem item : kvItems)
+      entries.add(newPut(item));
+    
+    List<ReentrantLock> locks = lock(getPartitionKeys(null, kvItems));
+    
+    try
+    {
+      sequence = write(entries);
+    }
+    finally
+    {
+      unlock(locks);
+    }
+    
+    kvLog_.awaitSync(sequence);
+  }
+
+  @Override
+  public void store(IKvPartitionSortKeyProvider partitionSortKeyProvider, Collection<IKvItem> kvItems,
+      ITraceContext trace) throws ObjectExistsException
+  {
+    String partitionKey = partitionSortKeyProvider == null ? null : getPartitionKey(partitionSortKeyProvider);
+    long   sequence;
+    
+    List<ReentrantLock> locks = lock(getPartitionKeys(partitionKey, kvItems));
+    
+    try
+    {
+      if(partitionSortKeyProvider != null)
+      {
+        String sortKey = partitionSortKeyProvider.getSortKey().asString();
+        
+        if(findPartition(partitionKey).containsKey(sortKey))
+            throw new ObjectExistsException("Object with key " + partitionSortKeyProvider + " already exists.");
+      }
+      
+      List<KvLogEntry> entries = new ArrayList<>(kvItems.size());
+      
+      for(IKvItem item : kvItems)
+        entries.add(newPut(item));
+      
+      sequence = write(entries);
+    }
+    finally
+    {
+      unlock(locks);
+    }
+    
+    kvLog_.awaitSync(sequence);
+  }
+
+  @Override
+  public void deleteTable(boolean dryRun)
+  {
+    if(dryRun)
+    {
+      log_.info("Would delete KV table in " + directory_.getAbsolutePath());
+      return;
+    }
+    
+    List<ReentrantLock> locks = lockAll();
+    
+    try
+    {
+      kvLog_.delete();
+      clearPartitions();
+      
+      log_.info("Deleted KV table in " + directory_.getAbsolutePath());
+    }
+    catch (IOException e)
+    {
+      throw new TransactionFault("Unable to delete KV table in " + directory_.getAbsolutePath(), e);
+    }
+    finally
+    {
+      unlock(locks);
+    }
+  }
+
+  /**
+   * Builder.
+   * 
+   * @author Bruce Skingle
+   *
+   */
+  public static class Builder extends AbstractBuilder<Builder, FileKvTable>
+  {
+    /**
+     * Constructor.
+     */
+    public Builder()
+    {
+      super(Builder.class);
+    }
+
+    @Override
+    protected FileKvTable construct()
+    {
+      return new FileKvTable(this);
+    }
+  }
+
+  protected static abstract class AbstractBuilder<T extends AbstractBuilder<T,B>, B extends FileKvTable> extends AbstractSortedKvTable.AbstractBuilder<T,B>
+  {
+    protected File           directory_;
+    protected int            segmentSize_ = 64 * 1024 * 1024;
+    protected boolean        syncWrites_  = true;
+    
+    protected AbstractBuilder(Class<T> type)
+    {
+      super(type);
+    }
+    
+    @Override
+    public void validate(FaultAccumulator faultAccumulator)
+    {
+      super.validate(faultAccumulator);
+      
+      faultAccumulator.checkNotNull(directory_,   "directory");
+    }
+
+    /**
+     * The directory in which the log is stored, it is created if it does not exist.
+     * 
+     * @param directory The directory for this table.
+     * 
+     * @return This (fluent method).
+     */
+    public T withDirectory(File directory)
+    {
+      directory_ = directory;
+      
+      return self();
+    }
+
+    /**
+     * The size of each log segment file, records larger than this are written to a segment of their own.
+     * 
+     * @param segmentSize The segment size in bytes, default 64MB.
+     * 
+     * @return This (fluent method).
+     */
+    public T withSegmentSize(int segmentSize)
+    {
+      segmentSize_ = Math.max(1024, segmentSize);
+      
+      return self();
+    }
+
+    /**
+     * If true, which is the default, write operations wait for their changes to be forced to disk. If false
+     * then writes are durable across a process crash but may be lost if the host fails.
+     * 
+     * @param syncWrites Whether write operations wait for their changes to be forced to disk.
+     * 
+     * @return This (fluent method).
+     */
+    public T withSyncWrites(boolean syncWrites)
+    {
+      syncWrites_ = syncWrites;
+      
+      return self();
+    }
+  }
+}
@@ -24,19 +24,18 @@
 package org.symphonyoss.s2.fugue.inmemory.kv.table;
 
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.NavigableMap;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
 
 import org.symphonyoss.s2.common.exception.NoSuchObjectException;
-import org.symphonyoss.s2.common.fault.FaultAccumulator;
-import org.symphonyoss.s2.common.fluent.BaseAbstractBuilder;
 import org.symphonyoss.s2.common.hash.Hash;
 import org.symphonyoss.s2.fugue.core.trace.ITraceContext;
 import org.symphonyoss.s2.fugue.kv.IKvItem;
@@ -44,8 +43,9 @@ import org.symphonyoss.s2.fugue.kv.IKvPagination;
 import org.symphonyoss.s2.fugue.kv.IKvPartitionKeyProvider;
 import org.symphonyoss.s2.fugue.kv.IKvPartitionSortKeyProvider;
 import org.symphonyoss.s2.fugue.kv.KvCondition;
-import org.symphonyoss.s2.fugue.kv.KvPagination;
-import org.symphonyoss.s2.fugue.kv.table.IKvTable;
+import org.symphonyoss.s2.fugue.kv.table.AsyncKvTableMetrics;
+import org.symphonyoss.s2.fugue.kv.table.IAsyncKvTable;
+import org.symphonyoss.s2.fugue.metrics.LatencyMetric;
 import org.symphonyoss.s2.fugue.store.ObjectExistsException;
 
 /**
@@ -53,18 +53,31 @@ import org.symphonyoss.s2.fugue.store.ObjectExistsException;
  * 
  * @author Bruce Skingle
  */
-public class InMemoryKvTable implements IKvTable
+public class InMemoryKvTable extends AbstractSortedKvTable<IKvItem> implements IAsyncKvTable
 {
-  protected static final String  Separator = "#";
-  
-  /** The serviceId forms part of the partition key for all values in this table. */
-  protected final String         serviceId_;
-
-  private final Map<String, TreeMap<String, IKvItem>>  partitionMap_ = new HashMap<>();
+  private final AsyncKvTableMetrics asyncMetrics_ = new AsyncKvTableMetrics();
   
   protected InMemoryKvTable(AbstractBuilder<?,?> builder)
   {
-    serviceId_    = builder.serviceId_;
+    super(builder);
+  }
+
+  @Override
+  protected String read(IKvItem value)
+  {
+    return value.getJson();
+  }
+
+  @Override
+  protected Hash getAbsoluteHash(IKvItem value)
+  {
+    return value.getAbsoluteHash();
+  }
+
+  @Override
+  protected Map<String, Object> getAdditionalAttributes(IKvItem value)
+  {
+    return value.getAdditionalAttributes();
   }
 
   @Override
@@ -83,11 +96,15 @@ public class InMemoryKvTable implements IKvTable
     String partitionKey = getPartitionKey(partitionSortKeyProvider);
     String sortKey = partitionSortKeyProvider.getSortKey().asString();
     
-    Map<String, IKvItem> partition = getPartition(partitionKey);
+    List<ReentrantLock> locks = lock(Collections.singleton(partitionKey));
     
-    synchronized (partition)
+    try
     {
-      partition.remove(sortKey);
+      getPartition(partitionKey).remove(sortKey);
+    }
+    finally
+    {
+      unlock(locks);
     }
   }
 
@@ -98,11 +115,14 @@ public class InMemoryKvTable implements IKvTable
   {
     String partitionKey = getPartitionKey(partitionSortKeyProvider);
     String sortKey = partitionSortKeyProvider.getSortKey().asString();
+    String versionKey = getPartitionKey(versionPartitionKey);
+    String absoluteHashPrefixKey = getPartitionKey(absoluteHashPrefix);
     
-    Map<String, IKvItem> partition = getPartition(partitionKey);
+    List<ReentrantLock> locks = lockForDelete(partitionKey, versionKey, absoluteHashPrefixKey);
     
-    synchronized (partition)
+    try
     {
+      Map<String, IKvItem> partition = getPartition(partitionKey);
       IKvItem existing = partition.get(sortKey);
       
       if(existing == null)
@@ -112,24 +132,23 @@ public class InMemoryKvTable implements IKvTable
         throw new NoSuchObjectException("Object has changed");
       
       partition.remove(sortKey);
-    }
-    
-    partition = getPartition(getPartitionKey(versionPartitionKey));
-    
-    synchronized (partition)
-    {
-      for(IKvItem item : partition.values())
+      
+      Map<String, IKvItem> versions = getPartition(versionKey);
+      
+      for(IKvItem item : versions.values())
       {
         Hash ah = item.getAbsoluteHash();
-        String pk = getPartitionKey(absoluteHashPrefix) + ah;
+        String pk = absoluteHashPrefixKey + ah;
         String sk = absoluteHashPrefix.getSortKey().asString();
         
-        TreeMap<String, IKvItem> p2 = getPartition(pk);
-        
-        p2.remove(sk);
+        getPartition(pk).remove(sk);
       }
       
-      partition.clear();
+      versions.clear();
+    }
+    finally
+    {
+      unlock(locks);
     }
   }
 
@@ -140,10 +159,11 @@ public class InMemoryKvTable implements IKvTable
     String partitionKey = getPartitionKey(partitionSortKeyProvider);
     String sortKey = partitionSortKeyProvider.getSortKey().asString();
     
-    Map<String, IKvItem> partition = getPartition(partitionKey);
+    List<ReentrantLock> locks = lock(getPartitionKeys(partitionKey, kvItems));
     
-    synchronized (partition)
+    try
     {
+      Map<String, IKvItem> partition = getPartition(partitionKey);
       IKvItem existing = partition.get(sortKey);
       
       if(existing == null)
@@ -160,7 +180,7 @@ public class InMemoryKvTable implements IKvTable
         
         if(partition == updatePartition && !sortKey.equals(kvItem.getSortKey().asString()))
         {
-          if(updatePartition.containsKey(sortKey))
+          if(updatePartition.containsKey(kvItem.getSortKey().asString()))
             throw new NoSuchObjectException("An object with the new sort key already exists.");
         }
       }
@@ -168,229 +188,151 @@ public class InMemoryKvTable implements IKvTable
       partition.remove(sortKey);
       
       for(IKvItem kvItem : kvItems)
-      {
-        String updatePartitionKey = getPartitionKey(kvItem);
-        
-        Map<String, IKvItem> updatePartition = getPartition(updatePartitionKey);
-        
-        updatePartition.put(kvItem.getSortKey().asString(), kvItem);
-      }
+        store(kvItem);
+    }
+    finally
+    {
+      unlock(locks);
     }
   }
 
+  /* Caller must hold the lock for the item's partition. */
   private void store(IKvItem kvItem)
   { 
     String partitionKey = getPartitionKey(kvItem);
     String sortKey = kvItem.getSortKey().asString();
     
-    Map<String, IKvItem> partition = getPartition(partitionKey);
-    
-    partition.put(sortKey, kvItem);
+    getPartition(partitionKey).put(sortKey, kvItem);
   }
 
   @Override
-  public synchronized void store(IKvItem kvItem, KvCondition kvCondition, ITraceContext trace)
+  public void store(IKvItem kvItem, KvCondition kvCondition, ITraceContext trace)
   {
     String partitionKey = getPartitionKey(kvItem);
     String sortKey = kvItem.getSortKey().asString();
     
-    Map<String, IKvItem> partition = getPartition(partitionKey);
-    IKvItem existingItem = partition.get(sortKey);
+    List<ReentrantLock> locks = lock(Collections.singleton(partitionKey));
     
-    if(existingItem != null)
+    try
     {
-      Object value = existingItem.getAdditionalAttributes().get(kvCondition.getName());
-      
-      if(value == null)
-        return;
+      Map<String, IKvItem> partition = getPartition(partitionKey);
       
-      switch(kvCondition.getComparison())
-      {
-        case EQUALS:
-          if(!kvCondition.getValue().equals(value.toString()))
-            return;
-          break;
-          
-        case GREATER_THAN:
-          if(kvCondition.getValue().compareTo(value.toString()) >= 0)
-            return;
-          break;
-          
-        case LESS_THAN:
-          if(kvCondition.getValue().compareTo(value.toString()) <= 0)
-            return;
-          break;
-      }
+      if(isConditionSatisfied(partition.get(sortKey), kvCondition))
+        partition.put(sortKey, kvItem);
     }
-    
-    partition.put(sortKey, kvItem);
-  }
-
-  private synchronized TreeMap<String, IKvItem> getPartition(String partitionKey)
-  {
-    TreeMap<String, IKvItem> partition = partitionMap_.get(partitionKey);
-    
-    if(partition == null)
+    finally
     {
-      partition = new TreeMap<>();
-      partitionMap_.put(partitionKey, partition);
+      unlock(locks);
     }
-    
-    return partition;
-  }
-
-  private String getPartitionKey(IKvPartitionKeyProvider kvItem)
-  {
-    return serviceId_ + Separator + kvItem.getPartitionKey();
   }
 
   @Override
   public void store(Collection<IKvItem> kvItems, ITraceContext trace)
   {
-    for(IKvItem item : kvItems)
-      store(item);
+    List<ReentrantLock> locks = lock(getPartitionKeys(null, kvItems));
+    
+    try
+    {
+      for(IKvItem item : kvItems)
+        store(item);
+    }
+    finally
+    {
+      unlock(locks);
+    }
   }
 
   @Override
   public void store(IKvPartitionSortKeyProvider partitionSortKeyProvider, Collection<IKvItem> kvItems,
       ITraceContext trace) throws ObjectExistsException
   {
-    if(partitionSortKeyProvider != null)
+    String partitionKey = partitionSortKeyProvider == null ? null : getPartitionKey(partitionSortKeyProvider);
+    
+    List<ReentrantLock> locks = lock(getPartitionKeys(partitionKey, kvItems));
+    
+    try
     {
-      String partitionKey = getPartitionKey(partitionSortKeyProvider);
-      String sortKey = partitionSortKeyProvider.getSortKey().asString();
-      
-      Map<String, IKvItem> partition = getPartition(partitionKey);
+      if(partitionSortKeyProvider != null)
+      {
+        String sortKey = partitionSortKeyProvider.getSortKey().asString();
+        
+        if(getPartition(partitionKey).containsKey(sortKey))
+            throw new ObjectExistsException("Object with key " + partitionSortKeyProvider + " already exists.");
+      }
       
-      if(partition.containsKey(sortKey))
-          throw new ObjectExistsException("Object with key " + partitionSortKeyProvider + " already exists.");
+      for(IKvItem item : kvItems)
+        store(item);
+    }
+    finally
+    {
+      unlock(locks);
     }
-    
-    for(IKvItem item : kvItems)
-      store(item);
   }
 
   @Override
-  public String fetch(IKvPartitionSortKeyProvider partitionSortKey, ITraceContext trace) throws NoSuchObjectException
+  public void deleteTable(boolean dryRun)
   {
-    String partitionKey = getPartitionKey(partitionSortKey);
-    String sortKey = partitionSortKey.getSortKey().asString();
-    
-    TreeMap<String, IKvItem> partition = getPartition(partitionKey);
-    
-    IKvItem item = partition.get(sortKey);
-    
-    if(item == null)
-      throw new NoSuchObjectException();
-    
-    return item.getJson();
   }
 
   @Override
-  public String fetchFirst(IKvPartitionKeyProvider partitionKeyProvider, ITraceContext trace) throws NoSuchObjectException
+  public CompletableFuture<Void> storeAsync(Collection<IKvItem> kvItems, ITraceContext trace)
   {
-    String partitionKey = getPartitionKey(partitionKeyProvider);
-    
-    TreeMap<String, IKvItem> partition = getPartition(partitionKey);
-    
-    IKvItem item = partition.isEmpty() ? null : partition.firstEntry().getValue();
-    
-    if(item == null)
-      throw new NoSuchObjectException();
-    
-    return item.getJson();
+    return complete(asyncMetrics_.getStoreLatency(), () ->
+    {
+      store(kvItems, trace);
+      return null;
+    });
   }
 
   @Override
-  public String fetchLast(IKvPartitionKeyProvider partitionKeyProvider, ITraceContext trace) throws NoSuchObjectException
+  public CompletableFuture<String> fetchAsync(IKvPartitionSortKeyProvider partitionSortKey, ITraceContext trace)
   {
-    String partitionKey = getPartitionKey(partitionKeyProvider);
-    
-    TreeMap<String, IKvItem> partition = getPartition(partitionKey);
-    
-    IKvItem item = partition.isEmpty() ? null : partition.lastEntry().getValue();
-    
-    if(item == null)
-      throw new NoSuchObjectException();
-    
-    return item.getJson();
+    return complete(asyncMetrics_.getFetchLatency(), () -> fetch(partitionSortKey, trace));
   }
 
   @Override
-  public void createTable(boolean dryRun)
+  public CompletableFuture<IKvPagination> fetchPartitionObjectsAsync(IKvPartitionKeyProvider partitionKey,
+      boolean scanForwards, Integer limit, @Nullable String after, @Nullable String sortKeyPrefix,
+      @Nullable Map<String, Object> filterAttributes, Consumer<String> consumer, ITraceContext trace)
   {
+    return complete(asyncMetrics_.getFetchPartitionObjectsLatency(), () -> fetchPartitionObjects(partitionKey,
+        scanForwards, limit, after, sortKeyPrefix, filterAttributes, consumer, trace));
   }
 
   @Override
-  public void deleteTable(boolean dryRun)
+  public CompletableFuture<Void> updateAsync(IKvPartitionSortKeyProvider partitionSortKeyProvider, Hash absoluteHash,
+      Set<IKvItem> kvItems, ITraceContext trace)
   {
+    return complete(asyncMetrics_.getUpdateLatency(), () ->
+    {
+      update(partitionSortKeyProvider, absoluteHash, kvItems, trace);
+      return null;
+    });
   }
 
   @Override
-  public IKvPagination fetchPartitionObjects(IKvPartitionKeyProvider partitionKeyProvider, boolean scanForwards, Integer limit,
-      String after, String sortKeyPrefix,
-      @Nullable Map<String, Object> filterAttributes, Consumer<String> consumer, ITraceContext trace)
+  public AsyncKvTableMetrics getAsyncMetrics()
   {
-    String partitionKey = getPartitionKey(partitionKeyProvider);
-    
-    TreeMap<String, IKvItem> partition = getPartition(partitionKey);
-
-    NavigableMap<String, IKvItem> map; 
-    String before = null;
+    return asyncMetrics_;
+  }
+  
+  private <T> CompletableFuture<T> complete(LatencyMetric metric, Callable<T> operation)
+  {
+    long                  start   = System.nanoTime();
+    CompletableFuture<T>  future  = new CompletableFuture<>();
     
-    if(after == null)
-    {
-      if(scanForwards)
-        map = partition;
-      else
-        map = partition.descendingMap();
-    }
-    else if(scanForwards)
+    try
     {
-      map   = partition.tailMap(after, false);
-      before = map.isEmpty() ||  map.firstKey().equals(partition.firstKey()) ? null : map.firstKey();
+      future.complete(operation.call());
     }
-    else
+    catch(Exception e)
     {
-      map   = partition.descendingMap().tailMap(after, false);
-      before = map.isEmpty() ||  map.firstKey().equals(partition.firstKey()) ? null : map.firstKey();
+      future.completeExceptionally(e);
     }
     
-    if(limit == null)
-      limit = 100;
-    
-    int available = map.entrySet().size();
+    metric.record(start, !future.isCompletedExceptionally());
     
-    for(Entry<String, IKvItem> entry : map.entrySet())
-    {
-      boolean ok = (sortKeyPrefix == null || entry.getKey().startsWith(sortKeyPrefix));
-      
-      if(ok && filterAttributes != null)
-      {
-        for(Entry<String, Object> attr : filterAttributes.entrySet())
-        {
-          Object rowAttr = entry.getValue().getAdditionalAttributes().get(attr.getKey());
-          
-          if(!attr.getValue().equals(rowAttr))
-          {
-            ok = false;
-            break;
-          }
-        }
-      }
-      
-      available--;
-      
-      if(ok)
-      {
-        consumer.accept(entry.getValue().getJson());
-      
-        if(--limit <= 0)
-          return new KvPagination(before, available==0 ? null : entry.getKey());
-      }
-    }
-        
-    return new KvPagination(before, null);
+    return future;
   }
   
   /**
@@ -416,35 +358,11 @@ public class InMemoryKvTable implements IKvTable
     }
   }
 
-  protected static abstract class AbstractBuilder<T extends AbstractBuilder<T,B>, B extends InMemoryKvTable> extends BaseAbstractBuilder<T,B>
+  protected static abstract class AbstractBuilder<T extends AbstractBuilder<T,B>, B extends InMemoryKvTable> extends AbstractSortedKvTable.AbstractBuilder<T,B>
   {
-    protected String         serviceId_;
-    
     protected AbstractBuilder(Class<T> type)
     {
       super(type);
     }
-    
-    @Override
-    public void validate(FaultAccumulator faultAccumulator)
-    {
-      super.validate(faultAccumulator);
-      
-      faultAccumulator.checkNotNull(serviceId_,   "serviceId");
-    }
-
-    /**
-     * The serviceId forms part of the partition key for all values in this table.
-     * 
-     * @param serviceId The serviceId for this table.
-     * 
-     * @return This (fluent method).
-     */
-    public T withServiceId(String serviceId)
-    {
-      serviceId_ = serviceId;
-      
-      return self();
-    }
   }
 }
@@ -0,0 +1,616 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.inmemory.kv.table;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.symphonyoss.s2.common.fault.TransactionFault;
+import org.symphonyoss.s2.common.hash.Hash;
+
+/**
+ * An append only log of KV table mutations, held in a sequence of memory mapped segment files.
+ * 
+ * Each record holds a batch of mutations which are applied atomically on recovery. A record is a 4 byte
+ * payload length, a 4 byte CRC32 of the payload and the payload. Segments are zero filled when they are
+ * created, so recovery stops at the first zero length or the first record whose checksum does not match,
+ * which is where a crash left a partly written record.
+ * 
+ * Records are written directly into the mapped segments, which are also used for reads. When syncWrites is
+ * set, callers wait for their records to be forced to disk and concurrent writers share a single force.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+/* package */ class KvLog
+{
+  private static final Logger log_           = LoggerFactory.getLogger(KvLog.class);
+
+  private static final String SUFFIX         = ".kvlog";
+  private static final int    HEADER_SIZE    = 8;
+  private static final byte   OP_PUT         = 1;
+  private static final byte   OP_REMOVE      = 2;
+  
+  private static final byte   TYPE_STRING    = 'S';
+  private static final byte   TYPE_INTEGER   = 'I';
+  private static final byte   TYPE_LONG      = 'L';
+  private static final byte   TYPE_DOUBLE    = 'D';
+  private static final byte   TYPE_BOOLEAN   = 'B';
+
+  private final File          directory_;
+  private final int           segmentSize_;
+  private final boolean       syncWrites_;
+  
+  private final Object        syncLock_      = new Object();
+  private long                syncSequence_;              // guarded by syncLock_
+  private boolean             syncing_;                   // guarded by syncLock_
+  
+  private final List<Segment> segments_      = new ArrayList<>(); // guarded by this
+  private Set<Segment>        dirty_         = new HashSet<>();   // guarded by this
+  private long                appendSequence_;                    // guarded by this
+  private Segment             active_;                            // guarded by this
+
+  /**
+   * Open the log in the given directory, creating it if necessary.
+   * 
+   * @param directory   The directory holding the segment files.
+   * @param segmentSize The size of each segment file.
+   * @param syncWrites  If true then appended records are forced to disk before awaitSync() returns.
+   * @param replay      A consumer which is passed every mutation in the existing log, in order.
+   * 
+   * @throws IOException If the log cannot be read.
+   */
+  /* package */ KvLog(File directory, int segmentSize, boolean syncWrites, Consumer<KvLogEntry> replay) throws IOException
+  {
+    directory_ = directory;
+    segmentSize_ = segmentSize;
+    syncWrites_ = syncWrites;
+    
+    Files.createDirectories(directory_.toPath());
+    
+    open(replay);
+  }
+  
+  private synchronized void open(Consumer<KvLogEntry> replay) throws IOException
+  {
+    TreeMap<Integer, Path> files = new TreeMap<>();
+    
+    File[] list = directory_.listFiles((dir, name) -> name.endsWith(SUFFIX));
+    
+    if(list != null)
+    {
+      for(File file : list)
+      {
+        String name = file.getName();
+        
+        try
+        {
+          files.put(Integer.parseInt(name.substring(0, name.length() - SUFFIX.length())), file.toPath());
+        }
+        catch(NumberFormatException e)
+        {
+          log_.warn("Ignoring unexpected file " + file.getAbsolutePath());
+        }
+      }
+    }
+    
+    long records = 0;
+    
+    for(Map.Entry<Integer, Path> entry : files.entrySet())
+    {
+      Segment segment = new Segment(entry.getKey(), entry.getValue(), 0);
+      
+      segments_.add(segment);
+      records += segment.replay(replay);
+    }
+    
+    if(segments_.isEmpty())
+      roll(0);
+    else
+      active_ = segments_.get(segments_.size() - 1);
+    
+    log_.info("Opened KV log in " + directory_.getAbsolutePath() + " with " + segments_.size() + " segments and " +
+        records + " records.");
+  }
+
+  /**
+   * Append the given mutations as a single record, setting the location of the document of every put.
+   * 
+   * @param entries The mutations to be written.
+   * 
+   * @return        The sequence number of the record, to be passed to awaitSync().
+   */
+  /* package */ long append(List<KvLogEntry> entries)
+  {
+    int[]   jsonOffsets = new int[entries.size()];
+    int[]   jsonLengths = new int[entries.size()];
+    byte[]  payload     = encode(entries, jsonOffsets, jsonLengths);
+    CRC32   crc         = new CRC32();
+    int     recordSize  = HEADER_SIZE + payload.length;
+    
+    crc.update(payload, 0, payload.length);
+    
+    synchronized(this)
+    {
+      if(active_.buffer_.capacity() - active_.writePosition_ < recordSize)
+        roll(recordSize);
+      
+      int        position = active_.writePosition_;
+      ByteBuffer buffer   = active_.buffer_.duplicate();
+      
+      buffer.position(position);
+      buffer.putInt(payload.length);
+      buffer.putInt((int) crc.getValue());
+      buffer.put(payload);
+      
+      active_.writePosition_ += recordSize;
+      dirty_.add(active_);
+      
+      for(int i=0 ; i<entries.size() ; i++)
+      {
+        KvLogEntry entry = entries.get(i);
+        
+        if(!entry.isRemove())
+          entry.setLocation(active_, position + HEADER_SIZE + jsonOffsets[i], jsonLengths[i]);
+      }
+      
+      return ++appendSequence_;
+    }
+  }
+  
+  /**
+   * Wait until the record with the given sequence number has been forced to disk.
+   * 
+   * The first caller to find no force in progress forces every dirty segment on behalf of all records
+   * appended so far, other callers wait for it.
+   * 
+   * @param sequence  A sequence number returned by append().
+   */
+  /* package */ void awaitSync(long sequence)
+  {
+    if(!syncWrites_)
+      return;
+    
+    while(true)
+    {
+      synchronized(syncLock_)
+      {
+        while(syncing_ && syncSequence_ < sequence)
+        {
+          try
+          {
+            syncLock_.wait();
+          }
+          catch (InterruptedException e)
+          {
+            Thread.currentThread().interrupt();
+            
+            throw new TransactionFault("Interrupted waiting for KV log sync", e);
+          }
+        }
+        
+        if(syncSequence_ >= sequence)
+          return;
+        
+        syncing_ = true;
+      }
+      
+      long    target  = 0;
+      
+      try
+      {
+        Set<Segment> dirty;
+        
+        synchronized(this)
+        {
+          target = appendSequence_;
+          dirty  = dirty_;
+          dirty_ = new HashSet<>();
+        }
+        
+        for(Segment segment : dirty)
+          segment.buffer_.force();
+      }
+      finally
+      {
+        synchronized(syncLock_)
+        {
+          syncing_ = false;
+          syncSequence_ = Math.max(syncSequence_, target);
+          syncLock_.notifyAll();
+        }
+      }
+    }
+  }
+  
+  /**
+   * @return The sequence number of the last record known to have been forced to disk.
+   */
+  /* package */ long getSyncSequence()
+  {
+    synchronized(syncLock_)
+    {
+      return syncSequence_;
+    }
+  }
+  
+  /**
+   * Read the document of the given put entry.
+   * 
+   * @param entry An entry which has been written to the log.
+   * 
+   * @return The document.
+   */
+  /* package */ String read(KvLogEntry entry)
+  {
+    ByteBuffer buffer = entry.getSegment().buffer_.duplicate();
+    
+    buffer.position(entry.getOffset());
+    buffer.limit(entry.getOffset() + entry.getLength());
+    
+    return StandardCharsets.UTF_8.decode(buffer).toString();
+  }
+  
+  /**
+   * Force any unsynced records to disk and close the segment files.
+   * 
+   * The mappings remain valid until they are garbage collected, so entries which have already been read
+   * from the index can still be read.
+   */
+  /* package */ synchronized void close()
+  {
+    for(Segment segment : dirty_)
+      segment.buffer_.force();
+    
+    dirty_.clear();
+    
+    for(Segment segment : segments_)
+      segment.close();
+  }
+  
+  /**
+   * Delete every segment and start a new, empty, log.
+   * 
+   * @throws IOException If the segments cannot be deleted.
+   */
+  /* package */ synchronized void delete() throws IOException
+  {
+    dirty_.clear();
+    
+    for(Segment segment : segments_)
+    {
+      segment.close();
+      Files.deleteIfExists(segment.path_);
+    }
+    
+    segments_.clear();
+    roll(0);
+  }
+  
+  /* Caller must hold the lock on this */
+  private void roll(int recordSize)
+  {
+    int id = active_ == null ? 0 : active_.id_ + 1;
+    
+    try
+    {
+      active_ = new Segment(id, new File(directory_, String.format("%08d", id) + SUFFIX).toPath(),
+          Math.max(segmentSize_, recordSize));
+    }
+    catch (IOException e)
+    {
+      throw new TransactionFault("Unable to create KV log segment", e);
+    }
+    
+    segments_.add(active_);
+  }
+
+  private byte[] encode(List<KvLogEntry> entries, int[] jsonOffsets, int[] jsonLengths)
+  {
+    try
+    {
+      ByteArrayOutputStream bout = new ByteArrayOutputStream();
+      DataOutputStream      out  = new DataOutputStream(bout);
+      
+      out.writeInt(entries.size());
+      
+      for(int i=0 ; i<entries.size() ; i++)
+      {
+        KvLogEntry entry = entries.get(i);
+        
+        out.writeByte(entry.isRemove() ? OP_REMOVE : OP_PUT);
+        writeString(out, entry.getPartitionKey());
+        writeString(out, entry.getSortKey());
+        
+        if(!entry.isRemove())
+        {
+          writeString(out, entry.getAbsoluteHash() == null ? "" : entry.getAbsoluteHash().toStringBase64());
+          
+          out.writeInt(entry.getAdditionalAttributes().size());
+          
+          for(Map.Entry<String, Object> attribute : entry.getAdditionalAttributes().entrySet())
+          {
+            writeString(out, attribute.getKey());
+            writeValue(out, attribute.getValue());
+          }
+          
+          byte[] json = entry.getJson().getBytes(StandardCharsets.UTF_8);
+          
+          out.writeInt(json.length);
+          jsonOffsets[i] = out.size();
+          jsonLengths[i] = json.length;
+          out.write(json);
+        }
+      }
+      
+      out.flush();
+      
+      return bout.toByteArray();
+    }
+    catch (IOException e)
+    {
+      // Can't happen with a ByteArrayOutputStream
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void writeString(DataOutputStream out, String value) throws IOException
+  {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private void writeValue(DataOutputStream out, Object value) throws IOException
+  {
+    if(value instanceof Integer)
+    {
+      out.writeByte(TYPE_INTEGER);
+      out.writeInt((Integer) value);
+    }
+    else if(value instanceof Long)
+    {
+      out.writeByte(TYPE_LONG);
+      out.writeLong((Long) value);
+    }
+    else if(value instanceof Double)
+    {
+      out.writeByte(TYPE_DOUBLE);
+      out.writeDouble((Double) value);
+    }
+    else if(value instanceof Boolean)
+    {
+      out.writeByte(TYPE_BOOLEAN);
+      out.writeBoolean((Boolean) value);
+    }
+    else
+    {
+      out.writeByte(TYPE_STRING);
+      writeString(out, String.valueOf(value));
+    }
+  }
+
+  private static String readString(ByteBuffer buffer)
+  {
+    int    length = buffer.getInt();
+    byte[] bytes  = new byte[length];
+    
+    buffer.get(bytes);
+    
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static Object readValue(ByteBuffer buffer)
+  {
+    byte type = buffer.get();
+    
+    switch(type)
+    {
+      case TYPE_INTEGER:
+        return buffer.getInt();
+        
+      case TYPE_LONG:
+        return buffer.getLong();
+        
+      case TYPE_DOUBLE:
+        return buffer.getDouble();
+        
+      case TYPE_BOOLEAN:
+        return buffer.get() != 0;
+        
+      case TYPE_STRING:
+        return readString(buffer);
+        
+      default:
+        throw new IllegalStateException("Unknown attribute type " + type);
+    }
+  }
+  
+  /**
+   * A memory mapped segment file.
+   */
+  /* package */ class Segment
+  {
+    private final int              id_;
+    private final Path             path_;
+    private final FileChannel      channel_;
+    private final MappedByteBuffer buffer_;
+    private int                    writePosition_;
+
+    /**
+     * Open a segment, an existing segment is mapped at its current size, a new one is created at the given size.
+     */
+    private Segment(int id, Path path, int size) throws IOException
+    {
+      id_ = id;
+      path_ = path;
+      channel_ = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      
+      long mapSize = Math.max(size, channel_.size());
+      
+      if(mapSize > Integer.MAX_VALUE)
+        throw new IOException("Segment " + path + " is too large");
+      
+      buffer_ = channel_.map(MapMode.READ_WRITE, 0, mapSize);
+    }
+    
+    /**
+     * Pass every valid mutation to the given consumer and set the write position after the last valid record.
+     * 
+     * @return The number of records.
+     */
+    private long replay(Consumer<KvLogEntry> consumer)
+    {
+      ByteBuffer buffer   = buffer_.duplicate();
+      long       records  = 0;
+      
+      while(buffer.capacity() - writePosition_ >= HEADER_SIZE)
+      {
+        buffer.limit(buffer.capacity());
+        buffer.position(writePosition_);
+        
+        int length = buffer.getInt();
+        int crc    = buffer.getInt();
+        
+        if(length == 0)
+          return records;
+        
+        if(length < 0 || length > buffer.remaining() || !checksumMatches(buffer, length, crc))
+        {
+          log_.warn("Truncating KV log segment " + path_ + " at " + writePosition_ + " after a partly written record.");
+          
+          buffer.clear();
+          buffer.position(writePosition_);
+          
+          while(buffer.hasRemaining())
+            buffer.put((byte) 0);
+          
+          buffer_.force();
+          
+          return records;
+        }
+        
+        int start = buffer.position();
+        
+        buffer.limit(start + length);
+        
+        for(KvLogEntry entry : decode(buffer))
+          consumer.accept(entry);
+        
+        writePosition_ = start + length;
+        records++;
+      }
+      
+      return records;
+    }
+    
+    private boolean checksumMatches(ByteBuffer buffer, int length, int crc)
+    {
+      CRC32       check = new CRC32();
+      ByteBuffer  slice = buffer.duplicate();
+      
+      slice.limit(slice.position() + length);
+      
+      check.update(slice);
+      
+      return (int) check.getValue() == crc;
+    }
+
+    private List<KvLogEntry> decode(ByteBuffer buffer)
+    {
+      int               count   = buffer.getInt();
+      List<KvLogEntry>  entries = new ArrayList<>(count);
+      
+      for(int i=0 ; i<count ; i++)
+      {
+        byte    op            = buffer.get();
+        String  partitionKey  = readString(buffer);
+        String  sortKey       = readString(buffer);
+        
+        if(op == OP_REMOVE)
+        {
+          entries.add(KvLogEntry.remove(partitionKey, sortKey));
+        }
+        else
+        {
+          String              hash        = readString(buffer);
+          int                 attrCount   = buffer.getInt();
+          Map<String, Object> attributes  = new HashMap<>();
+          
+          for(int a=0 ; a<attrCount ; a++)
+          {
+            String name = readString(buffer);
+            
+            attributes.put(name, readValue(buffer));
+          }
+          
+          int         length  = buffer.getInt();
+          KvLogEntry  entry   = KvLogEntry.put(partitionKey, sortKey,
+              hash.isEmpty() ? null : Hash.ofBase64String(hash), attributes, null);
+          
+          entry.setLocation(this, buffer.position(), length);
+          buffer.position(buffer.position() + length);
+          
+          entries.add(entry);
+        }
+      }
+      
+      return entries;
+    }
+    
+    private void close()
+    {
+      try
+      {
+        channel_.close();
+      }
+      catch (IOException e)
+      {
+        log_.warn("Failed to close KV log segment " + path_, e);
+      }
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.inmemory.kv.table;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.symphonyoss.s2.common.hash.Hash;
+
+/**
+ * A mutation in a KvLog, and once a put has been written, the index entry for the stored item.
+ * 
+ * The document is held in memory only until the entry has been written, after that it is read from the log.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+/* package */ class KvLogEntry
+{
+  private final String              partitionKey_;
+  private final String              sortKey_;
+  private final boolean             remove_;
+  private final @Nullable Hash      absoluteHash_;
+  private final Map<String, Object> additionalAttributes_;
+  
+  private @Nullable String          json_;
+  private KvLog.Segment             segment_;
+  private int                       offset_;
+  private int                       length_;
+
+  private KvLogEntry(String partitionKey, String sortKey, boolean remove, @Nullable Hash absoluteHash,
+      @Nullable Map<String, Object> additionalAttributes, @Nullable String json)
+  {
+    partitionKey_ = partitionKey;
+    sortKey_ = sortKey;
+    remove_ = remove;
+    absoluteHash_ = absoluteHash;
+    additionalAttributes_ = additionalAttributes == null ? Collections.emptyMap() : additionalAttributes;
+    json_ = json;
+  }
+  
+  /**
+   * Create a put mutation.
+   * 
+   * @param partitionKey          The partition key including the service ID.
+   * @param sortKey               The sort key.
+   * @param absoluteHash          The absolute hash of the item.
+   * @param additionalAttributes  Additional attributes of the item, if any.
+   * @param json                  The serialized item.
+   * 
+   * @return A put mutation.
+   */
+  /* package */ static KvLogEntry put(String partitionKey, String sortKey, @Nullable Hash absoluteHash,
+      @Nullable Map<String, Object> additionalAttributes, String json)
+  {
+    return new KvLogEntry(partitionKey, sortKey, false, absoluteHash, additionalAttributes, json);
+  }
+  
+  /**
+   * Create a remove mutation.
+   * 
+   * @param partitionKey          The partition key including the service ID.
+   * @param sortKey               The sort key.
+   * 
+   * @return A remove mutation.
+   */
+  /* package */ static KvLogEntry remove(String partitionKey, String sortKey)
+  {
+    return new KvLogEntry(partitionKey, sortKey, true, null, null, null);
+  }
+  
+  /* package */ void setLocation(KvLog.Segment segment, int offset, int length)
+  {
+    segment_ = segment;
+    offset_ = offset;
+    length_ = length;
+    json_ = null;
+  }
+
+  /* package */ String getPartitionKey()
+  {
+    return partitionKey_;
+  }
+
+  /* package */ String getSortKey()
+  {
+    return sortKey_;
+  }
+
+  /* package */ boolean isRemove()
+  {
+    return remove_;
+  }
+
+  /* package */ @Nullable Hash getAbsoluteHash()
+  {
+    return absoluteHash_;
+  }
+
+  /* package */ Map<String, Object> getAdditionalAttributes()
+  {
+    return additionalAttributes_;
+  }
+
+  /* package */ @Nullable String getJson()
+  {
+    return json_;
+  }
+
+  /* package */ KvLog.Segment getSegment()
+  {
+    return segment_;
+  }
+
+  /* package */ int getOffset()
+  {
+    return offset_;
+  }
+
+  /* package */ int getLength()
+  {
+    return length_;
+  }
+}
@@ -21,56 +21,130 @@
 
 package org.symphonyoss.s2.fugue.inmemory.pubsub;
 
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import javax.annotation.Nullable;
+
+import org.symphonyoss.s2.common.fault.TransientTransactionFault;
+import org.symphonyoss.s2.fugue.naming.Name;
 import org.symphonyoss.s2.fugue.naming.TopicName;
 import org.symphonyoss.s2.fugue.pubsub.IPubSubMessage;
 
 /**
  * In memory implementation of pub sub.
  * 
+ * Each topic has a list of subscription queues, a message sent to the topic is added to every one of them.
+ * Both maps are concurrent and the subscription lists are copy on write, so sending takes no lock.
+ * 
+ * Space is reserved in every queue before the message is added to any of them, so a send which fails because
+ * a subscription is full has not been delivered to any subscription and can safely be retried.
+ * 
+ * Queues are reference counted by the subscriber managers which use them, and closed when the last one stops.
+ * 
  * @author Bruce Skingle
  *
  */
 class InMemoryPubSub
 {
-  static Map<TopicName, List<LinkedList<IPubSubMessage>>>  topicMap_ = new HashMap<>();
+  private static final Map<TopicName, CopyOnWriteArrayList<InMemorySubscriptionQueue>> topicMap_        = new ConcurrentHashMap<>();
+  private static final Map<Name, InMemorySubscriptionQueue>                           subscriptionMap_ = new ConcurrentHashMap<>();
   
-  synchronized static void send(TopicName topicName, IPubSubMessage item)
+  static void send(TopicName topicName, IPubSubMessage item)
   {
-    List<LinkedList<IPubSubMessage>> list = topicMap_.get(topicName);
+    List<InMemorySubscriptionQueue> list = topicMap_.get(topicName);
     
     if(list != null)
     {
-      for(LinkedList<IPubSubMessage> queue : list)
+      // The list is copy on write, so this snapshot does not change while we send.
+      InMemorySubscriptionQueue[] queues = list.toArray(new InMemorySubscriptionQueue[0]);
+      
+      for(int i=0 ; i<queues.length ; i++)
+      {
+        if(!queues[i].reserve())
+        {
+          while(--i >= 0)
+            queues[i].cancelReservation();
+          
+          throw new TransientTransactionFault("Subscription to " + topicName + " is full", null);
+        }
+      }
+      
+      for(InMemorySubscriptionQueue queue : queues)
       {
-        queue.add(item);
+        queue.sendReserved(item.getPayload());
       }
     }
   }
 
-  synchronized static void createTopic(TopicName topicName)
+  static void createTopic(TopicName topicName)
   {
-    List<LinkedList<IPubSubMessage>> list = topicMap_.get(topicName);
-    
-    if(list == null)
-    {
-      list = new LinkedList<>();
-    }
+    topicMap_.computeIfAbsent(topicName, k -> new CopyOnWriteArrayList<>());
   }
   
-  synchronized static List<LinkedList<IPubSubMessage>> getSubscriptions(TopicName topicName)
+  static List<InMemorySubscriptionQueue> getSubscriptions(TopicName topicName)
   {
     return topicMap_.get(topicName);
   }
 
-  synchronized static void deleteTopic(TopicName topicName)
+  static void deleteTopic(TopicName topicName)
   {
     topicMap_.remove(topicName);
   }
-}
-
   
+  /**
+   * Return the queue for the given subscription, creating it if necessary.
+   * 
+   * Each call must be matched by a call to unsubscribe().
+   * 
+   * @param subscriptionName        The name of the subscription.
+   * @param topicName               The topic to which the subscription is attached, if any.
+   * @param capacity                The maximum number of messages which a new queue can hold.
+   * @param visibilityTimeoutMillis The visibility timeout for a new queue.
+   * 
+   * @return The queue for the given subscription.
+   */
+  static InMemorySubscriptionQueue subscribe(Name subscriptionName, @Nullable TopicName topicName, int capacity,
+      long visibilityTimeoutMillis)
+  {
+    InMemorySubscriptionQueue queue = subscriptionMap_.compute(subscriptionName, (k, v) ->
+    {
+      InMemorySubscriptionQueue q = v == null ? new InMemorySubscriptionQueue(subscriptionName.toString(), capacity, visibilityTimeoutMillis) : v;
+      
+      q.retain();
+      
+      return q;
+    });
+    
+    if(topicName != null)
+    {
+      topicMap_.computeIfAbsent(topicName, k -> new CopyOnWriteArrayList<>()).addIfAbsent(queue);
+    }
+    
+    return queue;
+  }
+  
+  /**
+   * Release a queue returned by subscribe(), the queue is closed and removed from its topic when it has been
+   * released by every subscriber.
+   * 
+   * @param subscriptionName The name of the subscription.
+   */
+  static void unsubscribe(Name subscriptionName)
+  {
+    subscriptionMap_.computeIfPresent(subscriptionName, (k, queue) ->
+    {
+      if(queue.release() > 0)
+        return queue;
+      
+      for(List<InMemorySubscriptionQueue> list : topicMap_.values())
+        list.remove(queue);
+      
+      queue.close();
+      
+      return null;
+    });
+  }
+}
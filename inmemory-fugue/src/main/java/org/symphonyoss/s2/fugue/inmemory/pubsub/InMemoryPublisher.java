@@ -23,31 +23,64 @@
 
 package org.symphonyoss.s2.fugue.inmemory.pubsub;
 
+import java.util.concurrent.CompletableFuture;
+
+import org.symphonyoss.s2.fugue.concurrent.AsyncOperationLimiter;
 import org.symphonyoss.s2.fugue.core.trace.ITraceContext;
 import org.symphonyoss.s2.fugue.naming.TopicName;
 import org.symphonyoss.s2.fugue.pubsub.IPubSubMessage;
 import org.symphonyoss.s2.fugue.pubsub.IPublisher;
+import org.symphonyoss.s2.fugue.pubsub.PublisherMetrics;
 
 
 class InMemoryPublisher implements IPublisher
 {
   private final TopicName              topicName_;
+  private final AsyncOperationLimiter  limiter_;
+  private final PublisherMetrics       metrics_;
 
-  InMemoryPublisher(TopicName topicName)
+  InMemoryPublisher(TopicName topicName, int maxInFlight)
   {
     topicName_ = topicName;
+    limiter_ = new AsyncOperationLimiter(maxInFlight);
+    metrics_ = new PublisherMetrics(limiter_);
   }
 
   @Override
   public void consume(IPubSubMessage item, ITraceContext trace)
   {
-    InMemoryPubSub.send(topicName_, item);
+    send(item);
   }
 
   @Override
   public void consume(IPubSubMessage item)
   {
+    send(item);
+  }
+  
+  private void send(IPubSubMessage item)
+  {
+    long start = System.nanoTime();
+    
     InMemoryPubSub.send(topicName_, item);
+    metrics_.getPublishLatency().record(start, true);
+  }
+
+  @Override
+  public CompletableFuture<Void> publishAsync(IPubSubMessage item)
+  {
+    return limiter_.submit(metrics_.getPublishLatency(), () ->
+    {
+      InMemoryPubSub.send(topicName_, item);
+      
+      return CompletableFuture.completedFuture(null);
+    });
+  }
+
+  @Override
+  public PublisherMetrics getPublishMetrics()
+  {
+    return metrics_;
   }
 
   @Override
@@ -24,14 +24,12 @@
 package org.symphonyoss.s2.fugue.inmemory.pubsub;
 
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.symphonyoss.s2.fugue.naming.TopicName;
-import org.symphonyoss.s2.fugue.pubsub.IPubSubMessage;
 import org.symphonyoss.s2.fugue.pubsub.IPublisher;
 import org.symphonyoss.s2.fugue.pubsub.IPublisherAdmin;
 
@@ -133,7 +131,7 @@ public class InMemoryPublisherAdmin extends InMemoryPublisherBase<InMemoryPublis
     {
       if(topicName.isLocal())
       {
-        List<LinkedList<IPubSubMessage>> subscriptions = InMemoryPubSub.getSubscriptions(topicName);
+        List<InMemorySubscriptionQueue> subscriptions = InMemoryPubSub.getSubscriptions(topicName);
         
         if(subscriptions == null)
         {
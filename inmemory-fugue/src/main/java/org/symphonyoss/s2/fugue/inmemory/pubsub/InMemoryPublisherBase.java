@@ -46,6 +46,7 @@ public abstract class InMemoryPublisherBase<T extends InMemoryPublisherBase<T>>
 {
   protected static final int                   MAX_MESSAGE_SIZE  = 256 * 1024; // 256K
   protected static final int                   BILLABLE_MESSAGE_SIZE  = 64 * 1024;
+  protected static final int                   DEFAULT_MAX_PUBLISHES_IN_FLIGHT  = 100;
 
   protected final Map<TopicName, InMemoryPublisher> publisherNameMap_ = new HashMap<>();
   protected final List<InMemoryPublisher>           publishers_       = new ArrayList<>();
@@ -70,7 +71,7 @@ public abstract class InMemoryPublisherBase<T extends InMemoryPublisherBase<T>>
     
     for(TopicName topicName : builder.topicNames_)
     {
-      publisherNameMap_.put(topicName, new InMemoryPublisher(topicName));
+      publisherNameMap_.put(topicName, new InMemoryPublisher(topicName, builder.maxPublishesInFlight_));
     }
   }
 
@@ -86,12 +87,28 @@ public abstract class InMemoryPublisherBase<T extends InMemoryPublisherBase<T>>
   extends AbstractPublisherManager.Builder<T,B>
   {
     protected final Set<TopicName>         topicNames_ = new HashSet<>();
+    protected int                          maxPublishesInFlight_ = DEFAULT_MAX_PUBLISHES_IN_FLIGHT;
     
     protected Builder(Class<T> type)
     {
       super(type);
     }
     
+    /**
+     * Set the maximum number of IPublisher.publishAsync() calls which each publisher may have in flight,
+     * callers block when this limit is reached.
+     * 
+     * @param maxPublishesInFlight The maximum number of asynchronous publishes in flight per topic.
+     * 
+     * @return this (fluent method)
+     */
+    public T withMaxPublishesInFlight(int maxPublishesInFlight)
+    {
+      maxPublishesInFlight_ = Math.max(1, maxPublishesInFlight);
+      
+      return self();
+    }
+    
     @Override
     public T withTopic(TopicName name)
     {
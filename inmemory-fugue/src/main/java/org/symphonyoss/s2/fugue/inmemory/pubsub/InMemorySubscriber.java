@@ -0,0 +1,216 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.inmemory.pubsub;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.symphonyoss.s2.fugue.Fugue;
+import org.symphonyoss.s2.fugue.core.trace.ITraceContext;
+import org.symphonyoss.s2.fugue.core.trace.ITraceContextTransaction;
+import org.symphonyoss.s2.fugue.core.trace.ITraceContextTransactionFactory;
+import org.symphonyoss.s2.fugue.counter.IBusyCounter;
+import org.symphonyoss.s2.fugue.counter.ICounter;
+import org.symphonyoss.s2.fugue.inmemory.pubsub.InMemorySubscriptionQueue.Delivery;
+import org.symphonyoss.s2.fugue.pipeline.IThreadSafeRetryableConsumer;
+import org.symphonyoss.s2.fugue.pubsub.AbstractPullSubscriber;
+import org.symphonyoss.s2.fugue.pubsub.IPullSubscriberContext;
+import org.symphonyoss.s2.fugue.pubsub.IPullSubscriberMessage;
+
+/**
+ * An in memory subscriber.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+/* package */ class InMemorySubscriber extends AbstractPullSubscriber
+{
+  private static final int EXTENSION_FREQUENCY_MILLIS = 15000;
+  private static final int BLOCKING_PULL_MILLIS       = 1000;
+  
+  private static final Logger                        log_              = LoggerFactory.getLogger(InMemorySubscriber.class);
+
+  private final InMemorySubscriberManager            manager_;
+  private final InMemorySubscriptionQueue            queue_;
+  private final String                               subscriptionName_;
+  private final ITraceContextTransactionFactory      traceFactory_;
+  private final IThreadSafeRetryableConsumer<String> consumer_;
+  private final NonIdleSubscriber                    nonIdleSubscriber_;
+  private final String                               tenantId_;
+  private int                                        messageBatchSize_ = 10;
+
+  /* package */ InMemorySubscriber(InMemorySubscriberManager manager, InMemorySubscriptionQueue queue,
+      String subscriptionName, ITraceContextTransactionFactory traceFactory,
+      IThreadSafeRetryableConsumer<String> consumer, ICounter counter, IBusyCounter busyCounter, String tenantId)
+  {
+    super(manager, subscriptionName, counter, busyCounter, EXTENSION_FREQUENCY_MILLIS, consumer);
+    
+    if(Fugue.isDebugSingleThread())
+    {
+      messageBatchSize_ = 1;
+    }
+    
+    manager_ = manager;
+    queue_ = queue;
+    subscriptionName_ = subscriptionName;
+    traceFactory_ = traceFactory;
+    consumer_ = consumer;
+    nonIdleSubscriber_ = new NonIdleSubscriber();
+    tenantId_ = tenantId;
+  }
+  
+  class NonIdleSubscriber implements Runnable
+  {
+    @Override
+    public void run()
+    {
+      InMemorySubscriber.this.run(false);
+    }
+  }
+
+  @Override
+  protected NonIdleSubscriber getNonIdleSubscriber()
+  {
+    return nonIdleSubscriber_;
+  }
+
+  String getSubscriptionName()
+  {
+    return subscriptionName_;
+  }
+  
+  @Override
+  protected IPullSubscriberContext getContext()
+  {
+    return new InMemoryPullSubscriberContext();
+  }
+
+  private class InMemoryPullSubscriberContext implements IPullSubscriberContext
+  {
+    @Override
+    public Collection<IPullSubscriberMessage> nonBlockingPull()
+    {
+      return pull(0);
+    }
+
+    @Override
+    public Collection<IPullSubscriberMessage> blockingPull()
+    {
+      return pull(BLOCKING_PULL_MILLIS);
+    }
+
+    private Collection<IPullSubscriberMessage> pull(long waitMillis)
+    {
+      List<Delivery>               deliveries = queue_.receive(messageBatchSize_, waitMillis);
+      List<IPullSubscriberMessage> result     = new ArrayList<>(deliveries.size());
+      
+      for(Delivery delivery : deliveries)
+      {
+        result.add(new InMemoryPullSubscriberMessage(delivery));
+      }
+      
+      return result;
+    }
+
+    @Override
+    public void close()
+    {
+      // Nothing
+    }
+  }
+
+  private class InMemoryPullSubscriberMessage implements IPullSubscriberMessage
+  {
+    private final Delivery delivery_;
+    private boolean        running_ = true;
+    
+    private InMemoryPullSubscriberMessage(Delivery delivery)
+    {
+      delivery_ = delivery;
+    }
+
+    @Override
+    public String getMessageId()
+    {
+      return delivery_.getMessageId();
+    }
+
+    @Override
+    public int getPayloadSize()
+    {
+      return delivery_.getPayload().length();
+    }
+
+    @Override
+    public void run()
+    {
+      try(ITraceContextTransaction traceTransaction = traceFactory_.createTransaction("PubSub:InMemory", getMessageId(), tenantId_))
+      {
+        ITraceContext trace = traceTransaction.open();
+        
+        trace.trace("RECEIVED");
+        long retryTime = manager_.handleMessage(consumer_, delivery_.getPayload(), trace, getMessageId());
+        
+        synchronized(this)
+        {
+          // There is no point trying to extend the visibility timeout now
+          running_ = false;
+
+          if(retryTime < 0)
+          {
+            trace.trace("ABOUT_TO_ACK");
+            
+            if(!queue_.delete(delivery_))
+              log_.warn("Message " + getMessageId() + " was redelivered before it was acknowledged");
+            
+            traceTransaction.finished();
+          }
+          else
+          {
+            trace.trace("ABOUT_TO_NACK");
+            
+            queue_.retry(delivery_, retryTime);
+            traceTransaction.aborted();
+          }
+        }
+      }
+      catch(RuntimeException e)
+      {
+        log_.error("Failed to process message " + getMessageId(), e);
+      }
+    }
+
+    @Override
+    public synchronized void extend()
+    {
+      if(running_)
+      {
+        queue_.extend(delivery_);
+      }
+    }
+  }
+}
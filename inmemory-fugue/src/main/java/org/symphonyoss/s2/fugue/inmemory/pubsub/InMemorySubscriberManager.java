@@ -0,0 +1,200 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.inmemory.pubsub;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.symphonyoss.s2.fugue.naming.Name;
+import org.symphonyoss.s2.fugue.naming.SubscriptionName;
+import org.symphonyoss.s2.fugue.naming.TopicName;
+import org.symphonyoss.s2.fugue.pubsub.AbstractPullSubscriberManager;
+import org.symphonyoss.s2.fugue.pubsub.ISubscription;
+
+/**
+ * In memory implementation of SubscriberManager.
+ * 
+ * Subscriptions are in memory queues with visibility timeouts, messages published to a topic by an
+ * InMemoryPublisherManager in the same process are delivered to every subscription to that topic.
+ * Retries and dead letter handling are the same as for the cloud implementations so whole services can
+ * be run in process, for example for load tests.
+ * 
+ * The configuration supported by AbstractPullSubscriberManager is taken from org/symphonyoss/s2/fugue/inmemory/pubsub
+ * 
+ * @author Bruce Skingle
+ *
+ */
+public class InMemorySubscriberManager extends AbstractPullSubscriberManager<String, InMemorySubscriberManager>
+{
+  private static final Logger      log_         = LoggerFactory.getLogger(InMemorySubscriberManager.class);
+  
+  private static final int         DEFAULT_QUEUE_CAPACITY             = 100000;
+  private static final long        DEFAULT_VISIBILITY_TIMEOUT_MILLIS  = 30000;
+
+  private final int                queueCapacity_;
+  private final long               visibilityTimeoutMillis_;
+  private List<InMemorySubscriber> subscribers_ = new LinkedList<>();
+  private List<Name>               subscriptionNames_ = new LinkedList<>();
+
+  private InMemorySubscriberManager(Builder builder)
+  {
+    super(InMemorySubscriberManager.class, builder);
+    
+    queueCapacity_ = builder.queueCapacity_;
+    visibilityTimeoutMillis_ = builder.visibilityTimeoutMillis_;
+  }
+  
+  /**
+   * Concrete builder.
+   * 
+   * @author Bruce Skingle
+   *
+   */
+  public static class Builder extends AbstractPullSubscriberManager.Builder<Builder, String, InMemorySubscriberManager>
+  {
+    private String configPath_              = "org/symphonyoss/s2/fugue/inmemory/pubsub";
+    private int    queueCapacity_           = DEFAULT_QUEUE_CAPACITY;
+    private long   visibilityTimeoutMillis_ = DEFAULT_VISIBILITY_TIMEOUT_MILLIS;
+
+    /**
+     * Constructor.
+     */
+    public Builder()
+    {
+      super(Builder.class);
+    }
+    
+    @Override
+    protected String getConfigPath()
+    {
+      return configPath_;
+    }
+    
+    /**
+     * Set the config path.
+     * 
+     * @param configPath The path in the global configuration from which to take config.
+     * 
+     * @return this (fluent method)
+     */
+    public Builder withConfigPath(String configPath)
+    {
+      configPath_ = configPath;
+      
+      return self();
+    }
+    
+    /**
+     * Set the maximum number of messages which each subscription can hold, publishers get a
+     * TransientTransactionFault when a subscription is full.
+     * 
+     * @param queueCapacity The maximum number of messages per subscription.
+     * 
+     * @return this (fluent method)
+     */
+    public Builder withQueueCapacity(int queueCapacity)
+    {
+      queueCapacity_ = Math.max(1, queueCapacity);
+      
+      return self();
+    }
+    
+    /**
+     * Set the time for which a received message is invisible to other receivers before it is redelivered.
+     * 
+     * @param visibilityTimeoutMillis The visibility timeout in milliseconds.
+     * 
+     * @return this (fluent method)
+     */
+    public Builder withVisibilityTimeoutMillis(long visibilityTimeoutMillis)
+    {
+      visibilityTimeoutMillis_ = Math.max(1, visibilityTimeoutMillis);
+      
+      return self();
+    }
+
+    @Override
+    protected InMemorySubscriberManager construct()
+    {
+      return new InMemorySubscriberManager(this);
+    }
+  }
+
+  @Override
+  protected void initSubscription(ISubscription<String> subscription)
+  {
+    for(Name subscriptionName : subscription.getSubscriptionNames())
+    {
+      log_.info("Subscribing to " + subscriptionName + "..."); 
+      
+      TopicName topicName = subscriptionName instanceof SubscriptionName ? ((SubscriptionName)subscriptionName).getTopicName() : null;
+      
+      InMemorySubscriptionQueue queue = InMemoryPubSub.subscribe(subscriptionName, topicName, queueCapacity_, visibilityTimeoutMillis_);
+      
+      subscriptionNames_.add(subscriptionName);
+      
+      InMemorySubscriber subscriber = new InMemorySubscriber(this, queue, subscriptionName.toString(), getTraceFactory(),
+          subscription.getConsumer(), getCounter(), createBusyCounter(subscriptionName), nameFactory_.getPodName());
+
+      subscribers_.add(subscriber); 
+    }
+  }
+
+  @Override
+  protected void startSubscriptions()
+  {
+    for(InMemorySubscriber subscriber : subscribers_)
+    {
+      log_.info("Starting subscription to " + subscriber.getSubscriptionName() + "...");
+      subscriber.start();
+      submit(subscriber, true);
+    }
+  }
+
+  @Override
+  protected void stopSubscriptions()
+  {
+     for(InMemorySubscriber subscriber : subscribers_)
+        subscriber.stop();
+      
+     super.stopSubscriptions();
+     
+     for(InMemorySubscriber subscriber : subscribers_)
+       subscriber.cancelUnhandled();
+  }
+  
+  @Override
+  public synchronized void stop()
+  {
+    super.stop();
+    
+    // The queues are not closed by quiesce() because the subscriptions may be resumed.
+    for(Name subscriptionName : subscriptionNames_)
+      InMemoryPubSub.unsubscribe(subscriptionName);
+    
+    subscriptionNames_.clear();
+  }
+}
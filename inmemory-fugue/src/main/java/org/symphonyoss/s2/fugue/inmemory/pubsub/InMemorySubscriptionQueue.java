@@ -0,0 +1,312 @@
+/*
+ *
+ *
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * Licensed to The Symphony Software Foundation (SSF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.symphonyoss.s2.fugue.inmemory.pubsub;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.symphonyoss.s2.common.concurrent.NamedThreadFactory;
+import org.symphonyoss.s2.common.fault.TransientTransactionFault;
+
+/**
+ * An in memory subscription queue with SQS like semantics.
+ * 
+ * Received messages are invisible to other receivers until they are deleted or their visibility timeout
+ * expires, in which case they are delivered again. A message can be made visible again after a delay to
+ * implement retries.
+ * 
+ * Messages are held in a lock free queue, a semaphore counts the messages which are ready so that receivers
+ * can wait for them without a lock, and a second semaphore bounds the number of messages held, senders get
+ * a TransientTransactionFault if the queue is full.
+ * 
+ * @author Bruce Skingle
+ *
+ */
+class InMemorySubscriptionQueue
+{
+  private static final Logger                      log_   = LoggerFactory.getLogger(InMemorySubscriptionQueue.class);
+  
+  /* Redeliveries are quick, non-blocking calls so a single timer thread is shared by all queues. */
+  private static final ScheduledThreadPoolExecutor timer_ = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("InMemory-subscription", true));
+  
+  private static final long                        SWEEP_MILLIS = 1000;
+
+  private final String                             name_;
+  private final long                               visibilityTimeoutMillis_;
+  private final ConcurrentLinkedQueue<Message>     ready_     = new ConcurrentLinkedQueue<>();
+  private final Semaphore                          available_ = new Semaphore(0);
+  private final Semaphore                          capacity_;
+  private final Map<String, Delivery>              inFlight_  = new ConcurrentHashMap<>();
+  private final AtomicLong                         nextId_    = new AtomicLong();
+  private final ScheduledFuture<?>                 sweep_;
+  
+  /* The number of subscriber managers using this queue, guarded by the subscription map in InMemoryPubSub. */
+  private int                                      references_;
+
+  /**
+   * Constructor.
+   * 
+   * @param name                    The name of the subscription, for log messages.
+   * @param capacity                The maximum number of messages which the queue can hold.
+   * @param visibilityTimeoutMillis The time for which a received message is invisible to other receivers.
+   */
+  InMemorySubscriptionQueue(String name, int capacity, long visibilityTimeoutMillis)
+  {
+    name_                    = name;
+    capacity_                = new Semaphore(capacity);
+    visibilityTimeoutMillis_ = visibilityTimeoutMillis;
+    sweep_                   = timer_.scheduleWithFixedDelay(() -> sweep(), SWEEP_MILLIS, SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+  }
+  
+  /**
+   * Add a message to the queue.
+   * 
+   * @param payload The message payload.
+   * 
+   * @throws TransientTransactionFault If the queue is full.
+   */
+  void send(String payload)
+  {
+    if(!reserve())
+      throw new TransientTransactionFault("Subscription " + name_ + " is full", null);
+    
+    sendReserved(payload);
+  }
+  
+  /**
+   * Reserve space for one message, which must be followed by a call to sendReserved() or cancelReservation().
+   * 
+   * @return false if the queue is full.
+   */
+  boolean reserve()
+  {
+    return capacity_.tryAcquire();
+  }
+  
+  /**
+   * Release space reserved by reserve() which will not be used.
+   */
+  void cancelReservation()
+  {
+    capacity_.release();
+  }
+  
+  /**
+   * Add a message to the queue, using space previously reserved by reserve().
+   * 
+   * @param payload The message payload.
+   */
+  void sendReserved(String payload)
+  {
+    enqueue(new Message(name_ + "-" + nextId_.incrementAndGet(), payload));
+  }
+  
+  /**
+   * Receive messages from the queue.
+   * 
+   * @param maxMessages The maximum number of messages to return.
+   * @param waitMillis  The maximum time to wait for a message if none are available, zero to return immediately.
+   * 
+   * @return A list of deliveries, which is empty if no messages were available.
+   */
+  List<Delivery> receive(int maxMessages, long waitMillis)
+  {
+    List<Delivery> result = new ArrayList<>(maxMessages);
+    
+    try
+    {
+      if(waitMillis > 0 ? !available_.tryAcquire(waitMillis, TimeUnit.MILLISECONDS) : !available_.tryAcquire())
+        return result;
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      
+      return result;
+    }
+    
+    do
+    {
+      // Each permit guarantees that there is a message in the ready queue.
+      Message  message  = ready_.poll();
+      Delivery delivery = new Delivery(message);
+      
+      inFlight_.put(message.id_, delivery);
+      result.add(delivery);
+    } while(result.size() < maxMessages && available_.tryAcquire());
+    
+    return result;
+  }
+  
+  /**
+   * Delete a received message.
+   * 
+   * @param delivery The delivery of the message.
+   * 
+   * @return false if the visibility timeout of the delivery had expired and the message may have been delivered again.
+   */
+  boolean delete(Delivery delivery)
+  {
+    if(inFlight_.remove(delivery.message_.id_, delivery))
+    {
+      capacity_.release();
+      
+      return true;
+    }
+    
+    return false;
+  }
+  
+  /**
+   * Make a received message visible again after the given delay.
+   * 
+   * @param delivery    The delivery of the message.
+   * @param delayMillis The time after which the message should be delivered again.
+   */
+  void retry(Delivery delivery, long delayMillis)
+  {
+    if(inFlight_.remove(delivery.message_.id_, delivery))
+    {
+      if(delayMillis <= 0)
+        enqueue(delivery.message_);
+      else
+        timer_.schedule(() -> enqueue(delivery.message_), delayMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+  
+  /**
+   * Extend the visibility timeout of a received message.
+   * 
+   * @param delivery    The delivery of the message.
+   */
+  void extend(Delivery delivery)
+  {
+    if(inFlight_.get(delivery.message_.id_) == delivery)
+      delivery.deadline_ = System.currentTimeMillis() + visibilityTimeoutMillis_;
+  }
+  
+  /**
+   * 
+   * @return The number of messages which are ready to be received.
+   */
+  int getReadyCount()
+  {
+    return available_.availablePermits();
+  }
+  
+  /**
+   * 
+   * @return The number of messages which have been received and not yet deleted.
+   */
+  int getInFlightCount()
+  {
+    return inFlight_.size();
+  }
+  
+  /**
+   * Stop checking for expired visibility timeouts.
+   */
+  void close()
+  {
+    sweep_.cancel(false);
+  }
+  
+  int retain()
+  {
+    return ++references_;
+  }
+  
+  int release()
+  {
+    return --references_;
+  }
+  
+  private void enqueue(Message message)
+  {
+    ready_.add(message);
+    available_.release();
+  }
+  
+  private void sweep()
+  {
+    long now = System.currentTimeMillis();
+    
+    for(Delivery delivery : inFlight_.values())
+    {
+      if(now > delivery.deadline_ && inFlight_.remove(delivery.message_.id_, delivery))
+      {
+        log_.warn("Visibility timeout expired for message " + delivery.message_.id_ + " in " + name_ + ", redelivering");
+        
+        enqueue(delivery.message_);
+      }
+    }
+  }
+  
+  private static class Message
+  {
+    private final String id_;
+    private final String payload_;
+    
+    Message(String id, String payload)
+    {
+      id_      = id;
+      payload_ = payload;
+    }
+  }
+  
+  /**
+   * A single delivery of a message, a message which is redelivered has a new Delivery.
+   */
+  class Delivery
+  {
+    private final Message message_;
+    private volatile long deadline_;
+    
+    private Delivery(Message message)
+    {
+      message_  = message;
+      deadline_ = System.currentTimeMillis() + visibilityTimeoutMillis_;
+    }
+    
+    String getMessageId()
+    {
+      return message_.id_;
+    }
+    
+    String getPayload()
+    {
+      return message_.payload_;
+    }
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * All Rights Reserved
+ */
+
+package org.symphonyoss.s2.fugue.inmemory.kv.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.symphonyoss.s2.common.exception.NoSuchObjectException;
+import org.symphonyoss.s2.fugue.core.trace.ITraceContext;
+import org.symphonyoss.s2.fugue.core.trace.NoOpTraceContext;
+import org.symphonyoss.s2.fugue.inmemory.kv.table.TestInMemoryKvTable.KvItem;
+import org.symphonyoss.s2.fugue.kv.IKvFetchAllResult;
+import org.symphonyoss.s2.fugue.kv.IKvItem;
+import org.symphonyoss.s2.fugue.kv.KvPartitionKey;
+import org.symphonyoss.s2.fugue.kv.KvPartitionKeyProvider;
+import org.symphonyoss.s2.fugue.kv.KvPartitionSortKeyProvider;
+import org.symphonyoss.s2.fugue.kv.table.CachingKvTable;
+import org.symphonyoss.s2.fugue.kv.table.IKvTable;
+
+public class TestCachingKvTable
+{
+  private static final String         PART1          = "PART1";
+  private static final KvPartitionKey PARTITION_KEY1 = new KvPartitionKey(PART1);
+  private static final String         PART2          = "PART2";
+
+  /* Run by the underlying table after its next fetch, before the caching table puts the result. */
+  private Runnable      duringFetch_;
+
+  private ITraceContext trace = NoOpTraceContext.INSTANCE;
+  
+  @Test
+  public void testReadThrough() throws NoSuchObjectException
+  {
+    CachingKvTable table = createTable(1024 * 1024, 60000);
+    
+    store(table, new KvItem(PART1, "1", "One"));
+    
+    KvPartitionSortKeyProvider key = new KvPartitionSortKeyProvider(PARTITION_KEY1, "1");
+    
+    assertEquals("One", table.fetch(key, trace));
+    assertEquals("One", table.fetch(key, trace));
+    assertEquals(1, table.getMissCount());
+    assertEquals(1, table.getHitCount());
+    
+    store(table, new KvItem(PART1, "1", "Updated One"));
+    
+    assertEquals("Updated One", table.fetch(key, trace));
+    assertEquals(2, table.getMissCount());
+  }
+  
+  @Test
+  public void testFirstLastInvalidation() throws NoSuchObjectException
+  {
+    CachingKvTable          table         = createTable(1024 * 1024, 60000);
+    KvPartitionKeyProvider  partitionKey  = new KvPartitionKeyProvider(PARTITION_KEY1);
+    
+    store(table, new KvItem(PART1, "2", "Two"));
+    
+    assertEquals("Two", table.fetchFirst(partitionKey, trace));
+    assertEquals("Two", table.fetchLast(partitionKey, trace));
+    
+    store(table, new KvItem(PART1, "1", "One"));
+    store(table, new KvItem(PART1, "3", "Three"));
+    
+    assertEquals("One", table.fetchFirst(partitionKey, trace));
+    assertEquals("Three", table.fetchLast(partitionKey, trace));
+  }
+  
+  @Test
+  public void testFetchAll()
+  {
+    CachingKvTable table = createTable(1024 * 1024, 60000);
+    
+    store(table, new KvItem(PART1, "1", "One"));
+    store(table, new KvItem(PART1, "2", "Two"));
+    
+    List<KvPartitionSortKeyProvider> keys = new ArrayList<>();
+    
+    keys.add(new KvPartitionSortKeyProvider(PARTITION_KEY1, "1"));
+    keys.add(new KvPartitionSortKeyProvider(PARTITION_KEY1, "2"));
+    keys.add(new KvPartitionSortKeyProvider(PARTITION_KEY1, "Missing"));
+    
+    IKvFetchAllResult result = table.fetchAll(keys, trace);
+    
+    assertEquals(2, result.getResults().size());
+    assertEquals(1, result.getMissing().size());
+    
+    result = table.fetchAll(keys, trace);
+    
+    assertEquals("One", result.getResults().get(keys.get(0)));
+    assertEquals("Two", result.getResults().get(keys.get(1)));
+    assertEquals(1, result.getMissing().size());
+    assertEquals(2, table.getHitCount());
+  }
+  
+  @Test
+  public void testEviction() throws NoSuchObjectException
+  {
+    CachingKvTable table = createTable(400, 60000);
+    
+    for(int i=0 ; i<10 ; i++)
+    {
+      store(table, new KvItem(PART1, String.valueOf(i), "Value " + i));
+      table.fetch(new KvPartitionSortKeyProvider(PARTITION_KEY1, String.valueOf(i)), trace);
+    }
+    
+    assertTrue(table.getEvictionCount() > 0);
+    assertTrue(table.getSizeBytes() <= 400);
+  }
+  
+  @Test
+  public void testExpiry() throws NoSuchObjectException, InterruptedException
+  {
+    CachingKvTable              table = createTable(1024 * 1024, 1);
+    KvPartitionSortKeyProvider  key   = new KvPartitionSortKeyProvider(PARTITION_KEY1, "1");
+    
+    store(table, new KvItem(PART1, "1", "One"));
+    
+    table.fetch(key, trace);
+    Thread.sleep(10);
+    table.fetch(key, trace);
+    
+    assertEquals(0, table.getHitCount());
+    assertEquals(1, table.getEvictionCount());
+  }
+
+  @Test
+  public void testWriteDuringFetch() throws NoSuchObjectException
+  {
+    CachingKvTable              table = createHookedTable();
+    KvPartitionSortKeyProvider  key   = new KvPartitionSortKeyProvider(PARTITION_KEY1, "1");
+    
+    store(table, new KvItem(PART1, "1", "One"));
+    
+    // A write to another partition does not stop the fetch being cached.
+    duringFetch_ = () -> store(table, new KvItem(PART2, "1", "Other"));
+    
+    assertEquals("One", table.fetch(key, trace));
+    assertEquals("One", table.fetch(key, trace));
+    assertEquals(1, table.getHitCount());
+    
+    table.invalidateAll();
+    
+    // A write to the same partition may have made the fetched value stale, so it is not cached.
+    duringFetch_ = () -> store(table, new KvItem(PART1, "2", "Two"));
+    
+    assertEquals("One", table.fetch(key, trace));
+    assertEquals("One", table.fetch(key, trace));
+    assertEquals(1, table.getHitCount());
+    assertEquals("One", table.fetch(key, trace));
+    assertEquals(2, table.getHitCount());
+  }
+  
+  @Test
+  public void testDeleteDuringFetch() throws NoSuchObjectException
+  {
+    CachingKvTable              table   = createHookedTable();
+    KvPartitionSortKeyProvider  current = new KvPartitionSortKeyProvider(PARTITION_KEY1, "1");
+    KvItem                      version = new KvItem("VERSIONS", "V1", "One");
+    KvPartitionSortKeyProvider  ahKey   = new KvPartitionSortKeyProvider(new KvPartitionKey("AH" + version.getAbsoluteHash()), "ah");
+    
+    store(table, new KvItem(PART1, "1", "One"));
+    store(table, version);
+    store(table, new KvItem("AH" + version.getAbsoluteHash(), "ah", "One"));
+    
+    // The delete invalidates the absolute record, which was being fetched.
+    duringFetch_ = () ->
+    {
+      try
+      {
+        table.delete(current, new KvItem(PART1, "1", "One").getAbsoluteHash(), new KvPartitionKeyProvider("VERSIONS"),
+            new KvPartitionSortKeyProvider("AH", "ah"), trace);
+      }
+      catch (NoSuchObjectException e)
+      {
+        throw new IllegalStateException(e);
+      }
+    };
+    
+    assertEquals("One", table.fetch(ahKey, trace));
+    
+    try
+    {
+      table.fetch(ahKey, trace);
+      fail("Deleted object was cached");
+    }
+    catch(NoSuchObjectException e)
+    {
+      // expected
+    }
+  }
+  
+  private CachingKvTable createHookedTable()
+  {
+    IKvTable base   = new InMemoryKvTable.Builder().withServiceId("test").build();
+    IKvTable hooked = (IKvTable) Proxy.newProxyInstance(IKvTable.class.getClassLoader(), new Class<?>[] { IKvTable.class },
+        (proxy, method, args) ->
+        {
+          try
+          {
+            Object result = method.invoke(base, args);
+            
+            if(method.getName().equals("fetch") && duringFetch_ != null)
+            {
+              Runnable duringFetch = duringFetch_;
+              
+              duringFetch_ = null;
+              duringFetch.run();
+            }
+            
+            return result;
+          }
+          catch(InvocationTargetException e)
+          {
+            throw e.getCause();
+          }
+        });
+    
+    return new CachingKvTable.Builder()
+        .withKvTable(hooked)
+        .withMaxSizeBytes(1024 * 1024)
+        .withTtlMillis(60000)
+        .build();
+  }
+  
+  private void store(CachingKvTable table, IKvItem item)
+  {
+    List<IKvItem> items = new ArrayList<>();
+    
+    items.add(item);
+    
+    table.store(items, trace);
+  }
+
+  private CachingKvTable createTable(long maxSizeBytes, long ttlMillis)
+  {
+    return new CachingKvTable.Builder()
+        .withKvTable(new InMemoryKvTable.Builder().withServiceId("test").build())
+        .withMaxSizeBytes(maxSizeBytes)
+        .withTtlMillis(ttlMillis)
+        .build();
+  }
+}
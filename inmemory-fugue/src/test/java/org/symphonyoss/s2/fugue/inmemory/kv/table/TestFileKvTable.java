@@ -0,0 +1,286 @@
+/*
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * All Rights Reserved
+ */
+
+package org.symphonyoss.s2.fugue.inmemory.kv.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.symphonyoss.s2.common.exception.NoSuchObjectException;
+import org.symphonyoss.s2.fugue.core.trace.ITraceContext;
+import org.symphonyoss.s2.fugue.core.trace.NoOpTraceContext;
+import org.symphonyoss.s2.fugue.inmemory.kv.table.TestInMemoryKvTable.KvItem;
+import org.symphonyoss.s2.fugue.kv.IKvItem;
+import org.symphonyoss.s2.fugue.kv.IKvPagination;
+import org.symphonyoss.s2.fugue.kv.KvComparison;
+import org.symphonyoss.s2.fugue.kv.KvCondition;
+import org.symphonyoss.s2.fugue.kv.KvPartitionKey;
+import org.symphonyoss.s2.fugue.kv.KvPartitionKeyProvider;
+import org.symphonyoss.s2.fugue.kv.KvPartitionSortKeyProvider;
+
+public class TestFileKvTable
+{
+  private static final String PART1 = "PART1";
+  private static final KvPartitionKey PARTITION_KEY1 = new KvPartitionKey(PART1);
+
+  private static final IKvItem[] ITEMS = new IKvItem[]
+  {
+    new KvItem(PART1, "1", "One"),
+    new KvItem(PART1, "2", "Two"),
+    new KvItem(PART1, "3", "Three"),
+    new KvItem(PART1, "4", "Four"),
+    new KvItem(PART1, "5", "Five"),
+    new KvItem(PART1, "6", "Six")
+  };
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+  
+  private ITraceContext       trace  = NoOpTraceContext.INSTANCE;
+  private List<FileKvTable>   tables = new ArrayList<>();
+  
+  @After
+  public void stopTables()
+  {
+    for(FileKvTable table : tables)
+      table.stop();
+  }
+  
+  @Test
+  public void testGet() throws NoSuchObjectException, IOException
+  {
+    FileKvTable table = createTable(folder.newFolder());
+    
+    for(IKvItem item : ITEMS)
+    {
+      String it = table.fetch(
+          new KvPartitionSortKeyProvider(PARTITION_KEY1, item.getSortKey()), trace);
+      
+      assertEquals(item.getJson(), it);
+    }
+    
+    assertEquals(ITEMS[0].getJson(), table.fetchFirst(new KvPartitionKeyProvider(PARTITION_KEY1), trace));
+    assertEquals(ITEMS[5].getJson(), table.fetchLast(new KvPartitionKeyProvider(PARTITION_KEY1), trace));
+  }
+  
+  @Test
+  public void testReopen() throws NoSuchObjectException, IOException
+  {
+    File        directory = folder.newFolder();
+    FileKvTable table     = createTable(directory);
+    
+    table.deleteRow(ITEMS[0], trace);
+    table.update(ITEMS[1], ITEMS[1].getAbsoluteHash(), Collections.singleton(new KvItem(PART1, "2", "Updated Two")), trace);
+    table.store(Collections.singletonList(new KvItem(PART1, "7", "Seven", "foo", 7L)), trace);
+    table.stop();
+    
+    table = open(directory);
+    
+    assertEquals("Updated Two", table.fetchFirst(new KvPartitionKeyProvider(PARTITION_KEY1), trace));
+    assertEquals("Seven", table.fetchLast(new KvPartitionKeyProvider(PARTITION_KEY1), trace));
+    
+    // The absolute hash and attributes are restored from the log along with the document.
+    table.update(ITEMS[1], new KvItem(PART1, "2", "Updated Two").getAbsoluteHash(),
+        Collections.singleton(new KvItem(PART1, "2", "Two Again")), trace);
+    
+    assertEquals("Two Again", table.fetch(ITEMS[1], trace));
+    
+    table.store(new KvItem(PART1, "7", "Seven Again"), new KvCondition("foo", KvComparison.EQUALS, "7"), trace);
+    
+    assertEquals("Seven Again", table.fetch(new KvPartitionSortKeyProvider(PARTITION_KEY1, "7"), trace));
+  }
+  
+  @Test(expected = NoSuchObjectException.class)
+  public void testDeleteTable() throws NoSuchObjectException, IOException
+  {
+    File        directory = folder.newFolder();
+    FileKvTable table     = createTable(directory);
+    
+    table.deleteTable(false);
+    table.stop();
+    
+    open(directory).fetch(ITEMS[1], trace);
+  }
+  
+  @Test
+  public void testConditionalPut() throws NoSuchObjectException, IOException
+  {
+    FileKvTable table = open(folder.newFolder());
+    String sortKey = "1";
+    KvPartitionSortKeyProvider partitionSortKeyProvider = new KvPartitionSortKeyProvider(PARTITION_KEY1, sortKey);
+    
+    IKvItem item1 = new KvItem(PART1, sortKey, "One", "foo", "1");
+    
+    table.store(Collections.singletonList(item1), trace);
+    
+    assertEquals(item1.getJson(), table.fetch(partitionSortKeyProvider, trace));
+    
+    String attrName = "foo";
+    IKvItem item2 = new KvItem(PART1, sortKey, "Two", attrName, "1");
+    
+    table.store(item2, new KvCondition(attrName, KvComparison.LESS_THAN, "1"), trace);
+    
+    assertEquals(item1.getJson(), table.fetch(partitionSortKeyProvider, trace));
+    
+    table.store(item2, new KvCondition(attrName, KvComparison.GREATER_THAN, "1"), trace);
+    
+    assertEquals(item1.getJson(), table.fetch(partitionSortKeyProvider, trace));
+    
+    table.store(item2, new KvCondition(attrName, KvComparison.EQUALS, "1"), trace);
+    
+    assertEquals(item2.getJson(), table.fetch(partitionSortKeyProvider, trace));
+  }
+  
+  @Test
+  public void testGetThreeFour() throws IOException
+  {
+    FileKvTable   table  = createTable(folder.newFolder());
+    List<String>  values = new ArrayList<>();
+       
+    IKvPagination pagination = table.fetchPartitionObjects(new KvPartitionKeyProvider(PARTITION_KEY1), true, 2, ITEMS[1].getSortKey().asString(), null, null, values::add, trace);
+
+    assertEquals(ITEMS[2].getSortKey().asString(), pagination.getBefore());
+    assertEquals(ITEMS[3].getSortKey().asString(), pagination.getAfter());
+    assertEquals(2, values.size());
+    assertEquals(ITEMS[2].getJson(), values.get(0));
+    assertEquals(ITEMS[3].getJson(), values.get(1));
+  }
+  
+  @Test
+  public void testSortKeyPrefix() throws IOException
+  {
+    FileKvTable   table  = createTable(folder.newFolder());
+    List<String>  values = new ArrayList<>();
+    
+    table.store(Collections.singletonList(new KvItem(PART1, "3a", "Three A")), trace);
+    table.store(Collections.singletonList(new KvItem(PART1, "3b", "Three B")), trace);
+       
+    IKvPagination pagination = table.fetchPartitionObjects(new KvPartitionKeyProvider(PARTITION_KEY1), true, 2, null, "3", null, values::add, trace);
+
+    assertEquals("3a", pagination.getAfter());
+    assertEquals(2, values.size());
+    assertEquals(ITEMS[2].getJson(), values.get(0));
+    
+    values.clear();
+    pagination = table.fetchPartitionObjects(new KvPartitionKeyProvider(PARTITION_KEY1), true, 2, pagination.getAfter(), "3", null, values::add, trace);
+
+    assertEquals(null, pagination.getAfter());
+    assertEquals(1, values.size());
+    assertEquals("Three B", values.get(0));
+  }
+  
+  @Test(expected = NoSuchObjectException.class)
+  public void testUpdateConflict() throws NoSuchObjectException, IOException
+  {
+    FileKvTable table = createTable(folder.newFolder());
+    
+    Set<IKvItem> items = new HashSet<>();
+    
+    items.add(new KvItem(PART1, "2", "Updated Two"));
+    
+    table.update(ITEMS[1], ITEMS[1].getAbsoluteHash(), items, trace);
+    table.update(ITEMS[1], ITEMS[1].getAbsoluteHash(), items, trace);
+  }
+  
+  @Test
+  public void testScanAll() throws IOException
+  {
+    FileKvTable table = createTable(folder.newFolder());
+    Set<String> found = Collections.synchronizedSet(new HashSet<>());
+    
+    table.scanAll(4, found::add, trace);
+    
+    assertEquals(ITEMS.length, found.size());
+    
+    for(IKvItem item : ITEMS)
+      assertTrue(found.contains(item.getJson()));
+    
+    assertFalse(found.contains(null));
+  }
+  
+  @Test
+  public void testDelete() throws NoSuchObjectException, IOException
+  {
+    File          directory = folder.newFolder();
+    FileKvTable   table     = createTable(directory);
+    List<IKvItem> items     = new ArrayList<>();
+    
+    for(String version : new String[] {"V1", "V2", "V3"})
+    {
+      IKvItem versionItem = new KvItem("VERSIONS", version, version);
+      
+      items.add(versionItem);
+      items.add(new KvItem("AH" + versionItem.getAbsoluteHash(), "ah", version));
+    }
+    
+    table.store(items, trace);
+    
+    table.delete(ITEMS[1], ITEMS[1].getAbsoluteHash(), new KvPartitionKeyProvider("VERSIONS"),
+        new KvPartitionSortKeyProvider("AH", "ah"), trace);
+    table.stop();
+    
+    // The whole delete is a single record so it is replayed completely.
+    table = open(directory);
+    
+    assertFalse(table.scanPartition(new KvPartitionKeyProvider("VERSIONS"), true, null, null, trace).hasNext());
+    
+    items.add(ITEMS[1]);
+    
+    for(IKvItem item : items)
+    {
+      try
+      {
+        table.fetch(item, trace);
+        fail("Item " + item.getPartitionKey() + " " + item.getSortKey() + " was not deleted");
+      }
+      catch(NoSuchObjectException e)
+      {
+        // expected
+      }
+    }
+  }
+  
+  private FileKvTable open(File directory)
+  {
+    FileKvTable table = new FileKvTable.Builder()
+        .withServiceId("test")
+        .withDirectory(directory)
+        .withSegmentSize(4096)
+        .build();
+    
+    tables.add(table);
+    
+    return table;
+  }
+  
+  private FileKvTable createTable(File directory)
+  {
+    FileKvTable table = open(directory);
+    
+    List<IKvItem> items = new ArrayList<>(ITEMS.length);
+    
+    for(IKvItem item : ITEMS)
+      items.add(item);
+    
+    table.store(items, trace);
+    
+    return table;
+  }
+}
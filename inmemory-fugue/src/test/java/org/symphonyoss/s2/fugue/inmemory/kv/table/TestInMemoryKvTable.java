@@ -7,14 +7,24 @@
 package org.symphonyoss.s2.fugue.inmemory.kv.table;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 import org.junit.Test;
@@ -23,6 +33,7 @@ import org.symphonyoss.s2.common.hash.Hash;
 import org.symphonyoss.s2.common.hash.HashProvider;
 import org.symphonyoss.s2.fugue.core.trace.ITraceContext;
 import org.symphonyoss.s2.fugue.core.trace.NoOpTraceContext;
+import org.symphonyoss.s2.fugue.kv.IKvFetchAllResult;
 import org.symphonyoss.s2.fugue.kv.IKvItem;
 import org.symphonyoss.s2.fugue.kv.IKvPagination;
 import org.symphonyoss.s2.fugue.kv.IKvPartitionKey;
@@ -75,6 +86,138 @@ public class TestInMemoryKvTable
     }
   }
   
+  @Test
+  public void testFetchAll()
+  {
+    InMemoryKvTable table = createTable();
+    
+    List<KvPartitionSortKeyProvider> keys = new ArrayList<>();
+    
+    for(IKvItem item : ITEMS)
+      keys.add(new KvPartitionSortKeyProvider(PARTITION_KEY1, item.getSortKey()));
+    
+    KvPartitionSortKeyProvider missingKey = new KvPartitionSortKeyProvider(PARTITION_KEY1, "Missing");
+    
+    keys.add(missingKey);
+    
+    IKvFetchAllResult result = table.fetchAll(keys, trace);
+    
+    assertEquals(ITEMS.length, result.getResults().size());
+    
+    for(int i=0 ; i<ITEMS.length ; i++)
+      assertEquals(ITEMS[i].getJson(), result.getResults().get(keys.get(i)));
+    
+    assertEquals(1, result.getMissing().size());
+    assertEquals(missingKey, result.getMissing().iterator().next());
+  }
+  
+  @Test
+  public void testScanPartition()
+  {
+    InMemoryKvTable table = createTable();
+    
+    for(int i=0 ; i<250 ; i++)
+      table.store(Collections.singletonList(new KvItem("PART2", String.format("%03d", i), "Value " + i)), trace);
+    
+    Iterator<String> it = table.scanPartition(new KvPartitionKeyProvider("PART2"), true, null, null, trace);
+    
+    for(int i=0 ; i<250 ; i++)
+      assertEquals("Value " + i, it.next());
+    
+    assertFalse(it.hasNext());
+  }
+  
+  @Test
+  public void testScanAll()
+  {
+    InMemoryKvTable table = createTable();
+    Set<String>     found = Collections.synchronizedSet(new HashSet<>());
+    
+    table.scanAll(4, found::add, trace);
+    
+    assertEquals(ITEMS.length, found.size());
+    
+    for(IKvItem item : ITEMS)
+      assertTrue(found.contains(item.getJson()));
+  }
+  
+  @Test
+  public void testConcurrentUpdates() throws InterruptedException, ExecutionException, NoSuchObjectException
+  {
+    InMemoryKvTable             table      = createTable();
+    KvPartitionSortKeyProvider  counter    = new KvPartitionSortKeyProvider(new KvPartitionKey("COUNTER"), "1");
+    int                         threads    = 8;
+    int                         increments = 500;
+    ExecutorService             executor   = Executors.newFixedThreadPool(threads + 2);
+    AtomicBoolean               running    = new AtomicBoolean(true);
+    List<Future<?>>             futures    = new ArrayList<>();
+    
+    table.store(Collections.singletonList(new KvItem("COUNTER", "1", "0")), trace);
+    
+    // Optimistic read-modify-write cycles, any lost update would leave the final count short.
+    for(int t=0 ; t<threads ; t++)
+    {
+      futures.add(executor.submit(() ->
+      {
+        for(int i=0 ; i<increments ; )
+        {
+          try
+          {
+            String value = table.fetch(counter, trace);
+            
+            table.update(counter, HashProvider.getHashOf(value.getBytes()),
+                Collections.singleton(new KvItem("COUNTER", "1", String.valueOf(Integer.parseInt(value) + 1))), trace);
+            i++;
+          }
+          catch(NoSuchObjectException e)
+          {
+            // Another thread got there first, try again.
+          }
+        }
+        
+        return null;
+      }));
+    }
+    
+    // Concurrent readers and unconditional writers on other partitions.
+    Future<?> reader = executor.submit(() ->
+    {
+      while(running.get())
+      {
+        Iterator<String> it = table.scanPartition(PARTITION_KEY1, true, null, null, trace);
+        int count = 0;
+        
+        while(it.hasNext())
+        {
+          it.next();
+          count++;
+        }
+        
+        assertTrue(count >= ITEMS.length);
+      }
+      
+      return null;
+    });
+    
+    Future<?> writer = executor.submit(() ->
+    {
+      for(int i=0 ; running.get() ; i++)
+        table.store(Collections.singletonList(new KvItem(PART1, "X" + (i % 1000), "X" + i)), trace);
+      
+      return null;
+    });
+    
+    for(Future<?> future : futures)
+      future.get();
+    
+    running.set(false);
+    reader.get();
+    writer.get();
+    executor.shutdown();
+    
+    assertEquals(String.valueOf(threads * increments), table.fetch(counter, trace));
+  }
+  
   @Test
   public void testConditionalPut() throws NoSuchObjectException
   {
@@ -220,6 +363,42 @@ public class TestInMemoryKvTable
     assertEquals(ITEMS[1].getSortKey().asString(), pagination.getAfter());
     assertEquals(0, consumer.index_);
   }
+
+  @Test
+  public void testGetReverseFromEnd() throws NoSuchObjectException
+  {
+    InMemoryKvTable table = createTable();
+    
+    Checker consumer = new Checker(5, -1);
+    
+    IKvPagination pagination = table.fetchPartitionObjects(
+        new KvPartitionKeyProvider(PARTITION_KEY1), false, 2, "7", null, null, consumer, trace);
+    
+    // Nothing comes before the last item in a reverse scan.
+    assertEquals(null, pagination.getBefore());
+    assertEquals(ITEMS[4].getSortKey().asString(), pagination.getAfter());
+    assertEquals(3, consumer.index_);
+  }
+
+  @Test
+  public void testGetReversePrefix() throws NoSuchObjectException
+  {
+    InMemoryKvTable table = createTable();
+    
+    for(String sortKey : new String[] {"A1", "A2", "B1", "B2"})
+      table.store(Collections.singletonList(new KvItem("PART2", sortKey, sortKey)), trace);
+    
+    List<String> values = new ArrayList<>();
+    
+    IKvPagination pagination = table.fetchPartitionObjects(
+        new KvPartitionKeyProvider(new KvPartitionKey("PART2")), false, null, null, "A", null, (value) -> values.add(value), trace);
+    
+    assertEquals(null, pagination.getBefore());
+    assertEquals(null, pagination.getAfter());
+    assertEquals(2, values.size());
+    assertEquals("A2", values.get(0));
+    assertEquals("A1", values.get(1));
+  }
   
   @Test
   public void testUpdate() throws NoSuchObjectException
@@ -258,6 +437,43 @@ public class TestInMemoryKvTable
         items, trace);
   }
   
+  @Test
+  public void testDelete() throws NoSuchObjectException
+  {
+    InMemoryKvTable table = createTable();
+    List<IKvItem>   items = new ArrayList<>();
+    
+    for(String version : new String[] {"V1", "V2", "V3"})
+    {
+      IKvItem versionItem = new KvItem("VERSIONS", version, version);
+      
+      items.add(versionItem);
+      items.add(new KvItem("AH" + versionItem.getAbsoluteHash(), "ah", version));
+    }
+    
+    table.store(items, trace);
+    
+    table.delete(ITEMS[1], ITEMS[1].getAbsoluteHash(), new KvPartitionKeyProvider("VERSIONS"),
+        new KvPartitionSortKeyProvider("AH", "ah"), trace);
+    
+    assertFalse(table.scanPartition(new KvPartitionKeyProvider("VERSIONS"), true, null, null, trace).hasNext());
+    
+    items.add(ITEMS[1]);
+    
+    for(IKvItem item : items)
+    {
+      try
+      {
+        table.fetch(item, trace);
+        fail("Item " + item.getPartitionKey() + " " + item.getSortKey() + " was not deleted");
+      }
+      catch(NoSuchObjectException e)
+      {
+        // expected
+      }
+    }
+  }
+  
   private InMemoryKvTable createTable()
   {
     InMemoryKvTable table = new InMemoryKvTable.Builder().withServiceId("test").build();
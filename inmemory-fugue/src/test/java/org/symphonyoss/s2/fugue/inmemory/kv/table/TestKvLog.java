@@ -0,0 +1,196 @@
+/*
+ * Copyright 2020 Symphony Communication Services, LLC.
+ *
+ * All Rights Reserved
+ */
+
+package org.symphonyoss.s2.fugue.inmemory.kv.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestKvLog
+{
+  private static final int SEGMENT_SIZE = 4096;
+  
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+  
+  @Test
+  public void testTornTailTruncatedOnReplay() throws IOException
+  {
+    File  directory = folder.newFolder();
+    KvLog log       = new KvLog(directory, SEGMENT_SIZE, true, (entry) -> {});
+    
+    log.awaitSync(log.append(put("1", "One")));
+    log.awaitSync(log.append(put("2", "Two")));
+    log.close();
+    
+    File segment  = new File(directory, "00000000.kvlog");
+    int  position = getEndOfRecords(segment);
+    
+    // A record header with a payload which was only partly written when we crashed.
+    try(RandomAccessFile file = new RandomAccessFile(segment, "rw"))
+    {
+      file.seek(position);
+      file.writeInt(100);
+      file.writeInt(12345);
+      file.write(new byte[] {1, 2, 3, 4});
+    }
+    
+    List<String> values = new ArrayList<>();
+    
+    log = new KvLog(directory, SEGMENT_SIZE, true, (entry) -> values.add(entry.getSortKey()));
+    
+    assertEquals(2, values.size());
+    assertEquals(position, getEndOfRecords(segment));
+    
+    // New records are written over the torn one and survive the next replay.
+    log.awaitSync(log.append(put("3", "Three")));
+    log.close();
+    
+    List<KvLogEntry> entries = new ArrayList<>();
+    
+    log = new KvLog(directory, SEGMENT_SIZE, true, entries::add);
+    
+    assertEquals(3, entries.size());
+    assertEquals("3", entries.get(2).getSortKey());
+    assertEquals("Three", log.read(entries.get(2)));
+    log.close();
+  }
+  
+  @Test
+  public void testSegmentRoll() throws IOException
+  {
+    File          directory = folder.newFolder();
+    KvLog         log       = new KvLog(directory, SEGMENT_SIZE, true, (entry) -> {});
+    StringBuilder s         = new StringBuilder();
+    
+    while(s.length() < SEGMENT_SIZE / 3)
+      s.append("Some document text ");
+    
+    String document = s.toString();
+    
+    for(int i=0 ; i<10 ; i++)
+      log.awaitSync(log.append(put(String.valueOf(i), document + i)));
+    
+    // A record larger than the segment size gets a segment of its own.
+    String large = document + document + document + document;
+    
+    log.awaitSync(log.append(put("large", large)));
+    log.close();
+    
+    File[] segments = directory.listFiles((dir, name) -> name.endsWith(".kvlog"));
+    
+    assertTrue(segments.length > 3);
+    
+    List<KvLogEntry> entries = new ArrayList<>();
+    
+    log = new KvLog(directory, SEGMENT_SIZE, true, entries::add);
+    
+    assertEquals(11, entries.size());
+    
+    for(int i=0 ; i<10 ; i++)
+    {
+      assertEquals(String.valueOf(i), entries.get(i).getSortKey());
+      assertEquals(document + i, log.read(entries.get(i)));
+    }
+    
+    assertEquals(large, log.read(entries.get(10)));
+    log.close();
+  }
+  
+  @Test
+  public void testAwaitSyncConcurrentWriters() throws Exception
+  {
+    File            directory = folder.newFolder();
+    KvLog           log       = new KvLog(directory, SEGMENT_SIZE, true, (entry) -> {});
+    int             threads   = 8;
+    int             writes    = 50;
+    ExecutorService executor  = Executors.newFixedThreadPool(threads);
+    CountDownLatch  start     = new CountDownLatch(1);
+    List<Future<?>> futures   = new ArrayList<>();
+    
+    for(int t=0 ; t<threads ; t++)
+    {
+      String writer = String.valueOf(t);
+      
+      futures.add(executor.submit(() ->
+      {
+        start.await();
+        
+        for(int i=0 ; i<writes ; i++)
+        {
+          long sequence = log.append(put(writer + "-" + i, "Value " + i));
+          
+          log.awaitSync(sequence);
+          
+          // When awaitSync returns our record, and possibly those of other writers, has been forced.
+          assertTrue(log.getSyncSequence() >= sequence);
+        }
+        
+        return null;
+      }));
+    }
+    
+    start.countDown();
+    
+    for(Future<?> future : futures)
+      future.get(60, TimeUnit.SECONDS);
+    
+    executor.shutdown();
+    
+    assertEquals(threads * writes, log.getSyncSequence());
+    log.close();
+    
+    List<KvLogEntry> entries = new ArrayList<>();
+    
+    new KvLog(directory, SEGMENT_SIZE, true, entries::add).close();
+    
+    assertEquals(threads * writes, entries.size());
+  }
+  
+  private static List<KvLogEntry> put(String sortKey, String json)
+  {
+    return Collections.singletonList(KvLogEntry.put("test#PART1", sortKey, null, Collections.emptyMap(), json));
+  }
+  
+  /* Walk the record headers of the given segment to find the end of the valid records. */
+  private static int getEndOfRecords(File segment) throws IOException
+  {
+    try(RandomAccessFile file = new RandomAccessFile(segment, "r"))
+    {
+      int position = 0;
+      
+      while(position + 8 <= file.length())
+      {
+        file.seek(position);
+        
+        int length = file.readInt();
+        
+        if(length == 0)
+          break;
+        
+        position += 8 + length;
+      }
+      
+      return position;
+    }
+  }
+}
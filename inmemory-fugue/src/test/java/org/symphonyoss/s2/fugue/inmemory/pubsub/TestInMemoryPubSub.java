@@ -21,16 +21,33 @@
 
 package org.symphonyoss.s2.fugue.inmemory.pubsub;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
+import org.symphonyoss.s2.common.fault.TransientTransactionFault;
 import org.symphonyoss.s2.fugue.core.trace.ITraceContext;
+import org.symphonyoss.s2.fugue.core.trace.NoOpContextFactory;
 import org.symphonyoss.s2.fugue.core.trace.NoOpTraceContext;
+import org.symphonyoss.s2.fugue.inmemory.InMemoryConfiguration;
 import org.symphonyoss.s2.fugue.inmemory.pubsub.InMemoryPublisherManager;
+import org.symphonyoss.s2.fugue.inmemory.pubsub.InMemorySubscriberManager;
 import org.symphonyoss.s2.fugue.naming.INameFactory;
 import org.symphonyoss.s2.fugue.naming.NameFactory;
+import org.symphonyoss.s2.fugue.naming.SubscriptionName;
+import org.symphonyoss.s2.fugue.naming.TopicName;
 import org.symphonyoss.s2.fugue.pubsub.IPubSubMessage;
+import org.symphonyoss.s2.fugue.pipeline.IThreadSafeErrorConsumer;
+import org.symphonyoss.s2.fugue.pipeline.IThreadSafeRetryableConsumer;
+import org.symphonyoss.s2.fugue.pipeline.RetryableConsumerException;
 import org.symphonyoss.s2.fugue.pubsub.IPublisher;
+import org.symphonyoss.s2.fugue.pubsub.TopicSubscription;
 
 /**
  * Unit test for InMemoryPubSub
@@ -50,21 +67,151 @@ public class TestInMemoryPubSub
   @Test
   public void testPublish()
   {
-    InMemoryPublisherManager publisherManager = new InMemoryPublisherManager.Builder()
+    getPublisher(TEST_TOPIC).consume(createMessage("Payload"));
+  }
+  
+  /**
+   * Test that a published message is delivered to a subscriber, and delivered again after a retryable failure.
+   * 
+   * @throws InterruptedException If the test is interrupted.
+   */
+  @Test
+  public void testSubscribe() throws InterruptedException
+  {
+    String         topic     = TEST_TOPIC + "Subscribe";
+    CountDownLatch latch     = new CountDownLatch(1);
+    AtomicInteger  attempts  = new AtomicInteger();
+    
+    IPublisher publisher = getPublisher(topic);
+    
+    InMemorySubscriberManager subscriberManager = new InMemorySubscriberManager.Builder()
         .withNameFactory(nameFactory_)
-        .withTopic(TEST_TOPIC)
+        .withConfig(InMemoryConfiguration.FACTORY.newInstance())
+        .withTraceContextTransactionFactory(new NoOpContextFactory())
+        .withUnprocessableMessageConsumer(new IThreadSafeErrorConsumer<String>()
+        {
+          @Override
+          public void consume(String item, ITraceContext trace, String message, Throwable cause)
+          {
+          }
+
+          @Override
+          public void close()
+          {
+          }
+        })
+        .withSubscription(new TopicSubscription.Builder()
+            .withNameFactory(nameFactory_)
+            .withTopicIds(topic)
+            .withConsumer(new IThreadSafeRetryableConsumer<String>()
+            {
+              @Override
+              public void consume(String item, ITraceContext trace) throws RetryableConsumerException
+              {
+                assertEquals("Hello", item);
+                
+                if(attempts.incrementAndGet() == 1)
+                  throw new RetryableConsumerException(TimeUnit.MILLISECONDS, 10L);
+                
+                latch.countDown();
+              }
+
+              @Override
+              public void close()
+              {
+              }
+            })
+            .build())
         .build();
     
-    IPublisher publisher = publisherManager.getPublisherByName(TEST_TOPIC);
+    subscriberManager.start();
+    
+    try
+    {
+      publisher.consume(createMessage("Hello"));
+      
+      assertTrue(latch.await(10, TimeUnit.SECONDS));
+      assertEquals(2, attempts.get());
+    }
+    finally
+    {
+      subscriberManager.stop();
+    }
+  }
+  
+  /**
+   * Test that a message is not delivered to any subscription if one of them is full, so a retry does not
+   * deliver a duplicate, and that a queue is released when its last subscriber unsubscribes.
+   */
+  @Test
+  public void testSendToFullSubscription()
+  {
+    TopicName        topicName = nameFactory_.getTopicName(TEST_TOPIC + "Full");
+    SubscriptionName roomy     = nameFactory_.getSubscriptionName(topicName, "roomy");
+    SubscriptionName full      = nameFactory_.getSubscriptionName(topicName, "full");
+    
+    InMemorySubscriptionQueue roomyQueue = InMemoryPubSub.subscribe(roomy, topicName, 10, 30000);
+    InMemorySubscriptionQueue fullQueue  = InMemoryPubSub.subscribe(full, topicName, 1, 30000);
+    
+    try
+    {
+      InMemoryPubSub.send(topicName, createMessage("One"));
+      
+      try
+      {
+        InMemoryPubSub.send(topicName, createMessage("Two"));
+        fail("Send to a full subscription succeeded");
+      }
+      catch(TransientTransactionFault e)
+      {
+        // expected
+      }
+      
+      assertEquals(1, roomyQueue.getReadyCount());
+      assertEquals(1, fullQueue.getReadyCount());
+      
+      // Once the full subscription has room the retry is delivered once to each subscription.
+      assertTrue(fullQueue.delete(fullQueue.receive(1, 0).get(0)));
+      
+      InMemoryPubSub.send(topicName, createMessage("Two"));
+      
+      assertEquals(2, roomyQueue.getReadyCount());
+      assertEquals(1, fullQueue.getReadyCount());
+      
+      // A second subscriber to the same subscription shares its queue.
+      assertTrue(roomyQueue == InMemoryPubSub.subscribe(roomy, topicName, 10, 30000));
+      InMemoryPubSub.unsubscribe(roomy);
+      assertEquals(2, InMemoryPubSub.getSubscriptions(topicName).size());
+    }
+    finally
+    {
+      InMemoryPubSub.unsubscribe(roomy);
+      InMemoryPubSub.unsubscribe(full);
+    }
+    
+    assertEquals(0, InMemoryPubSub.getSubscriptions(topicName).size());
+  }
+  
+  private IPublisher getPublisher(String topic)
+  {
+    InMemoryPublisherManager publisherManager = new InMemoryPublisherManager.Builder()
+        .withNameFactory(nameFactory_)
+        .withTopic(topic)
+        .build();
     
+    return publisherManager.getPublisherByName(topic);
+  }
+  
+  private IPubSubMessage createMessage(String payload)
+  {
     ITraceContext trace = NoOpTraceContext.INSTANCE;
     
-    IPubSubMessage item = new IPubSubMessage()
+    return new IPubSubMessage()
     {
       @Override
       public String getPayload()
       {
-        return "Payload";
+        return payload;
       }
 
       @Override
@@ -79,8 +226,6 @@ public class TestInMemoryPubSub
         return trace;
       }
     };
-    
-    publisher.consume(item);
   }
 }
 